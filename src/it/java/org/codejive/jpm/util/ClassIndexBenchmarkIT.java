@@ -0,0 +1,93 @@
+package org.codejive.jpm.util;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Benchmark for the class index, using a deps directory with well over 100,000 classes. It measures
+ * building the index, updating it after adding a single jar, opening the index and looking up a
+ * class, which is what each "jpm which" does, and finding duplicate classes like "jpm conflicts".
+ * The timings are printed to standard out.
+ */
+class ClassIndexBenchmarkIT {
+
+    @TempDir Path tempDir;
+
+    private static final int JARS = 200;
+    private static final int CLASSES_PER_JAR = 600;
+    private static final int ROUNDS = 20;
+
+    @Test
+    void benchmarkIndex() throws Exception {
+        Path deps = Files.createDirectories(tempDir.resolve("deps"));
+        for (int i = 0; i < JARS; i++) {
+            createJar(deps.resolve("lib-" + i + "-1.0.jar"), i);
+        }
+        int parallelism = FileUtils.DEFAULT_SYNC_PARALLELISM;
+
+        long start = System.nanoTime();
+        ClassIndex.update(deps, parallelism);
+        long build = System.nanoTime() - start;
+
+        long noop = Long.MAX_VALUE;
+        for (int i = 0; i < ROUNDS; i++) {
+            start = System.nanoTime();
+            assertThat(ClassIndex.update(deps, parallelism)).isFalse();
+            noop = Math.min(noop, System.nanoTime() - start);
+        }
+
+        // A shaded copy of one of the others
+        createJar(deps.resolve("extra-1.0.jar"), 0);
+        start = System.nanoTime();
+        assertThat(ClassIndex.update(deps, parallelism)).isTrue();
+        long incremental = System.nanoTime() - start;
+
+        long lookup = Long.MAX_VALUE;
+        for (int i = 0; i < ROUNDS; i++) {
+            int n = i * 7 + 1;
+            String name = "org.example.p" + n + ".Class" + (i * 31);
+            start = System.nanoTime();
+            try (ClassIndex index = ClassIndex.open(deps)) {
+                assertThat(index.find(name)).containsExactly("lib-" + n + "-1.0.jar");
+            }
+            lookup = Math.min(lookup, System.nanoTime() - start);
+        }
+
+        long conflicts = Long.MAX_VALUE;
+        for (int i = 0; i < ROUNDS; i++) {
+            start = System.nanoTime();
+            try (ClassIndex index = ClassIndex.open(deps)) {
+                ClassConflicts result = ClassConflicts.find(index, index.jars());
+                assertThat(result.duplicateCount()).isEqualTo(CLASSES_PER_JAR);
+            }
+            conflicts = Math.min(conflicts, System.nanoTime() - start);
+        }
+
+        System.out.printf(
+                "Class index of %d classes: build %.2f ms, no-op update %.2f ms, incremental update %.2f ms, open and lookup %.3f ms, conflicts %.2f ms%n",
+                (JARS + 1) * CLASSES_PER_JAR,
+                build / 1_000_000.0,
+                noop / 1_000_000.0,
+                incremental / 1_000_000.0,
+                lookup / 1_000_000.0,
+                conflicts / 1_000_000.0);
+    }
+
+    private static void createJar(Path jar, int n) throws IOException {
+        try (OutputStream out = Files.newOutputStream(jar);
+                JarOutputStream jos = new JarOutputStream(out)) {
+            for (int i = 0; i < CLASSES_PER_JAR; i++) {
+                jos.putNextEntry(new JarEntry("org/example/p" + n + "/Class" + i + ".class"));
+                jos.closeEntry();
+            }
+        }
+    }
+}
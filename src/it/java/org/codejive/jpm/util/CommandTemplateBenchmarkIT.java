@@ -0,0 +1,155 @@
+package org.codejive.jpm.util;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Benchmark for processing action commands with very long classpaths. It compares the compiled
+ * {@link CommandTemplate} with the chain of string replacements and regular expressions that {@code
+ * ScriptUtils.processCommand} used before, which is kept here for reference, including the extra
+ * pass that was needed to determine the length of the command. The timings are printed to standard
+ * out.
+ */
+class CommandTemplateBenchmarkIT {
+
+    private static final int ARTIFACTS = 5000;
+    private static final int WARMUP = 200;
+    private static final int ROUNDS = 1000;
+
+    private static final String[] COMMANDS = {
+        "java -cp {{deps}}{:}{./target/classes} -Dapp.home={~}{/}app Main",
+        "javac -cp @[{{deps}}] -d {./target/classes} --source-path {./src/main/java} App.java {;} java @[-cp {{deps}}{:}{./target/classes}] Main",
+        "java {{cds}} -cp {{depsjar}}{:}{./target/classes} Main"
+    };
+
+    @Test
+    void benchmarkProcessCommand() {
+        List<Path> classpath = new ArrayList<>();
+        for (int i = 0; i < ARTIFACTS; i++) {
+            classpath.add(Paths.get("deps", "some-library-" + i + "-1.0.0.jar"));
+        }
+        Path depsJar = Paths.get("deps", ".jpm-classpath.jar");
+        String cds = "-XX:SharedArchiveFile=/cache/.jpm/cds/0123456789abcdef.jsa";
+        Function<String, Path> argsFiles = content -> Paths.get("/tmp/jpm-args.txt");
+
+        for (String command : COMMANDS) {
+            // Both produce exactly the same
+            assertThat(CommandTemplate.compile(command).render(classpath, depsJar, cds, argsFiles))
+                    .isEqualTo(legacyProcessCommand(command, classpath, depsJar, cds, argsFiles));
+
+            long legacy = Long.MAX_VALUE;
+            long compiled = Long.MAX_VALUE;
+            int length = 0;
+            for (int i = 0; i < WARMUP + ROUNDS; i++) {
+                long start = System.nanoTime();
+                // A pass to determine the length, then the real thing
+                length += legacyProcessCommand(command, classpath, depsJar, cds, null).length();
+                length +=
+                        legacyProcessCommand(command, classpath, depsJar, cds, argsFiles).length();
+                long t = System.nanoTime() - start;
+                if (i >= WARMUP) {
+                    legacy = Math.min(legacy, t);
+                }
+
+                start = System.nanoTime();
+                CommandTemplate.Bound template =
+                        CommandTemplate.compile(command).bind(classpath, depsJar, cds);
+                length += template.length();
+                length += template.render(argsFiles).length();
+                t = System.nanoTime() - start;
+                if (i >= WARMUP) {
+                    compiled = Math.min(compiled, t);
+                }
+            }
+            assertThat(length).isPositive();
+
+            System.out.printf(
+                    Locale.ROOT,
+                    "Processing command with %d artifacts: legacy %.3f ms, compiled %.3f ms (%s)%n",
+                    ARTIFACTS,
+                    legacy / 1_000_000.0,
+                    compiled / 1_000_000.0,
+                    command);
+        }
+    }
+
+    private static String legacyProcessCommand(
+            String command,
+            List<Path> classpath,
+            Path depsJar,
+            String cdsOption,
+            Function<String, Path> argsFileCreator) {
+        String result = command;
+        result = result.replace("{{depsjar}}", depsJar != null ? depsJar.toString() : "");
+        result = result.replace("{{cds}}", cdsOption != null ? cdsOption : "");
+        if (result.contains("{{deps}}")) {
+            String classpathStr =
+                    classpath.stream()
+                            .map(Path::toString)
+                            .collect(Collectors.joining(File.pathSeparator));
+            result = result.replace("{{deps}}", classpathStr);
+        }
+        result = legacySubstitutePaths(result);
+        result = result.replace("{/}", File.separator);
+        result = result.replace("{:}", File.pathSeparator);
+        result =
+                result.replace(
+                        "{~}",
+                        legacyIsWindows()
+                                ? Paths.get(System.getProperty("user.home")).toString()
+                                : "~");
+        result = result.replace("{;}", legacyIsWindows() ? "&" : ";");
+        return legacySubstituteArgsFiles(result, argsFileCreator);
+    }
+
+    private static String legacySubstitutePaths(String command) {
+        Pattern pattern = Pattern.compile("\\{([.~]/[^}]*)}");
+        Matcher matcher = pattern.matcher(command);
+        StringBuilder sb = new StringBuilder();
+        while (matcher.find()) {
+            String path = matcher.group(1);
+            String replacedPath = legacyIsWindows() ? ScriptUtils.osPaths(path) : path;
+            matcher.appendReplacement(sb, Matcher.quoteReplacement(replacedPath));
+        }
+        matcher.appendTail(sb);
+        return sb.toString();
+    }
+
+    private static String legacySubstituteArgsFiles(
+            String command, Function<String, Path> argsFileCreator) {
+        String tmpCommand = command.replace("{]}", "\u0007");
+        Pattern pattern = Pattern.compile("@\\[([^]]*)]");
+        Matcher matcher = pattern.matcher(tmpCommand);
+        StringBuilder sb = new StringBuilder();
+        while (matcher.find()) {
+            String argsContent = matcher.group(1).trim();
+            if (argsFileCreator != null) {
+                String path = argsFileCreator.apply(argsContent).toString();
+                matcher.appendReplacement(sb, Matcher.quoteReplacement("@" + path));
+            } else {
+                matcher.appendReplacement(sb, Matcher.quoteReplacement(argsContent));
+            }
+        }
+        matcher.appendTail(sb);
+        return sb.toString().replace("\u0007", "{]}");
+    }
+
+    private static boolean legacyIsWindows() {
+        String os =
+                System.getProperty("os.name")
+                        .toLowerCase(Locale.ENGLISH)
+                        .replaceAll("[^a-z0-9]+", "");
+        return os.startsWith("win");
+    }
+}
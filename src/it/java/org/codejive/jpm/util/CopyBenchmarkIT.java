@@ -0,0 +1,86 @@
+package org.codejive.jpm.util;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Benchmark comparing {@link Files#copy(Path, Path, java.nio.file.CopyOption...)}, which is what
+ * syncing with --no-links used to do, against {@link FileUtils#copyFile(Path, Path)} for a few
+ * hundred MB of artifacts. Both are run a couple of times so the source files are in the page
+ * cache. The timings are printed to standard out.
+ */
+class CopyBenchmarkIT {
+
+    @TempDir Path tempDir;
+
+    private static final int ARTIFACTS = 100;
+    private static final int JAR_SIZE = 3 * 1024 * 1024;
+    private static final int ROUNDS = 3;
+
+    @Test
+    void benchmarkCopy() throws Exception {
+        List<Path> artifacts = createArtifacts();
+
+        long filesCopy = Long.MAX_VALUE;
+        long transferCopy = Long.MAX_VALUE;
+        for (int i = 0; i < ROUNDS; i++) {
+            Path dir = Files.createDirectories(tempDir.resolve("files-copy-" + i));
+            long start = System.nanoTime();
+            for (Path artifact : artifacts) {
+                Files.copy(
+                        artifact,
+                        dir.resolve(artifact.getFileName()),
+                        StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.COPY_ATTRIBUTES);
+            }
+            filesCopy = Math.min(filesCopy, System.nanoTime() - start);
+
+            dir = Files.createDirectories(tempDir.resolve("transfer-copy-" + i));
+            start = System.nanoTime();
+            for (Path artifact : artifacts) {
+                FileUtils.copyFile(artifact, dir.resolve(artifact.getFileName()));
+            }
+            transferCopy = Math.min(transferCopy, System.nanoTime() - start);
+        }
+
+        long total = (long) ARTIFACTS * JAR_SIZE;
+        System.out.printf(
+                "Copied %d artifacts (%d MB): Files.copy %d ms (%.0f MB/s), FileUtils.copyFile %d ms (%.0f MB/s)%n",
+                ARTIFACTS,
+                total / (1024 * 1024),
+                filesCopy / 1_000_000,
+                mbPerSecond(total, filesCopy),
+                transferCopy / 1_000_000,
+                mbPerSecond(total, transferCopy));
+
+        Path copy = tempDir.resolve("transfer-copy-0").resolve(artifacts.get(0).getFileName());
+        assertThat(Files.readAllBytes(copy)).isEqualTo(Files.readAllBytes(artifacts.get(0)));
+    }
+
+    private static double mbPerSecond(long bytes, long nanos) {
+        return bytes / (1024.0 * 1024.0) / (nanos / 1_000_000_000.0);
+    }
+
+    private List<Path> createArtifacts() throws IOException {
+        Path cache = Files.createDirectories(tempDir.resolve("cache"));
+        Random rnd = new Random(42);
+        byte[] content = new byte[JAR_SIZE];
+        List<Path> artifacts = new ArrayList<>();
+        for (int i = 0; i < ARTIFACTS; i++) {
+            Path artifact = cache.resolve("lib-" + i + "-1.0.jar");
+            rnd.nextBytes(content);
+            Files.write(artifact, content);
+            artifacts.add(artifact);
+        }
+        return artifacts;
+    }
+}
@@ -0,0 +1,112 @@
+package org.codejive.jpm.util;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import org.eclipse.aether.resolution.ArtifactResult;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Benchmark comparing the default (depth-first, serial) dependency collection against the parallel
+ * breadth-first collection. It uses a synthetic graph of artifacts in a local file:// repository so
+ * the results are not influenced by network conditions. The timings are printed to standard out.
+ */
+class ResolverBenchmarkIT {
+
+    @TempDir Path tempDir;
+
+    private static final int ARTIFACTS = 250;
+    private static final int JAR_SIZE = 32 * 1024;
+
+    @Test
+    void benchmarkParallelResolution() throws Exception {
+        Path repo = tempDir.resolve("repo");
+        createSyntheticRepository(repo);
+        Map<String, String> repos = Collections.singletonMap("bench", repo.toUri().toString());
+        String[] roots = {"bench:lib-0:1.0"};
+
+        // Warm up the JVM so the first measurement isn't penalized
+        resolve(roots, repos, tempDir.resolve("cache-warmup"), 0);
+
+        long serial = System.nanoTime();
+        List<ArtifactResult> serialResults =
+                resolve(roots, repos, tempDir.resolve("cache-serial"), 0);
+        serial = System.nanoTime() - serial;
+
+        long parallel = System.nanoTime();
+        List<ArtifactResult> parallelResults =
+                resolve(roots, repos, tempDir.resolve("cache-parallel"), 8);
+        parallel = System.nanoTime() - parallel;
+
+        System.out.printf(
+                "Resolved %d artifacts: default %d ms, parallel (8 threads) %d ms%n",
+                serialResults.size(), serial / 1_000_000, parallel / 1_000_000);
+
+        assertThat(serialResults).hasSize(ARTIFACTS);
+        assertThat(gavs(parallelResults)).isEqualTo(gavs(serialResults));
+    }
+
+    private static List<ArtifactResult> resolve(
+            String[] roots, Map<String, String> repos, Path cacheDir, int threads)
+            throws Exception {
+        try (ResolverSession session = new ResolverSession()) {
+            return Resolver.create(roots, repos, cacheDir, session).threads(threads).resolve();
+        }
+    }
+
+    private static Set<String> gavs(List<ArtifactResult> results) {
+        return results.stream()
+                .map(ar -> ar.getArtifact().toString())
+                .collect(Collectors.toCollection(TreeSet::new));
+    }
+
+    /**
+     * Creates a repository where each artifact depends on up to three artifacts with a higher
+     * index, resulting in a wide and fairly deep graph that contains all artifacts.
+     */
+    private static void createSyntheticRepository(Path repo) throws IOException {
+        Random rnd = new Random(42);
+        byte[] content = new byte[JAR_SIZE];
+        for (int i = 0; i < ARTIFACTS; i++) {
+            Path dir = repo.resolve("bench").resolve("lib-" + i).resolve("1.0");
+            Files.createDirectories(dir);
+            StringBuilder deps = new StringBuilder();
+            for (int j : new int[] {2 * i + 1, 2 * i + 2, i + 7}) {
+                if (j < ARTIFACTS) {
+                    deps.append("    <dependency>\n")
+                            .append("      <groupId>bench</groupId>\n")
+                            .append("      <artifactId>lib-")
+                            .append(j)
+                            .append("</artifactId>\n")
+                            .append("      <version>1.0</version>\n")
+                            .append("    </dependency>\n");
+                }
+            }
+            String pom =
+                    "<project>\n"
+                            + "  <modelVersion>4.0.0</modelVersion>\n"
+                            + "  <groupId>bench</groupId>\n"
+                            + "  <artifactId>lib-"
+                            + i
+                            + "</artifactId>\n"
+                            + "  <version>1.0</version>\n"
+                            + "  <dependencies>\n"
+                            + deps
+                            + "  </dependencies>\n"
+                            + "</project>\n";
+            Files.writeString(dir.resolve("lib-" + i + "-1.0.pom"), pom);
+            rnd.nextBytes(content);
+            Files.write(dir.resolve("lib-" + i + "-1.0.jar"), content);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package org.codejive.jpm.util;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Benchmark for re-syncing a deps directory where nothing has changed, which is what most
+ * invocations of "jpm install" end up doing. It compares a re-sync that can use the sync manifest
+ * with one where the manifest has been removed. The timings are printed to standard out.
+ */
+class SyncBenchmarkIT {
+
+    @TempDir Path tempDir;
+
+    private static final int ARTIFACTS = 500;
+    private static final int ROUNDS = 20;
+
+    @Test
+    void benchmarkNoOpSync() throws Exception {
+        List<Path> artifacts = createArtifacts();
+        for (LinkMode mode : new LinkMode[] {LinkMode.SYMLINK, LinkMode.COPY}) {
+            Path dir = tempDir.resolve("deps-" + mode);
+            FileUtils.syncArtifacts(artifacts, dir, mode, false);
+
+            long withManifest = Long.MAX_VALUE;
+            long withoutManifest = Long.MAX_VALUE;
+            for (int i = 0; i < ROUNDS; i++) {
+                long start = System.nanoTime();
+                SyncResult result = FileUtils.syncArtifacts(artifacts, dir, mode, false);
+                withManifest = Math.min(withManifest, System.nanoTime() - start);
+                assertThat(result.copied + result.updated + result.deleted).isZero();
+
+                Files.delete(dir.resolve(SyncManifest.FILE_NAME));
+                start = System.nanoTime();
+                result = FileUtils.syncArtifacts(artifacts, dir, mode, false);
+                withoutManifest = Math.min(withoutManifest, System.nanoTime() - start);
+                assertThat(result.copied + result.updated + result.deleted).isZero();
+            }
+
+            System.out.printf(
+                    "No-op sync of %d artifacts (%s): with manifest %.2f ms, without manifest %.2f ms%n",
+                    ARTIFACTS, mode, withManifest / 1_000_000.0, withoutManifest / 1_000_000.0);
+        }
+    }
+
+    private List<Path> createArtifacts() throws IOException {
+        Path cache = Files.createDirectories(tempDir.resolve("cache"));
+        List<Path> artifacts = new ArrayList<>();
+        for (int i = 0; i < ARTIFACTS; i++) {
+            Path artifact = cache.resolve("lib-" + i + "-1.0.jar");
+            Files.writeString(artifact, "artifact " + i);
+            artifacts.add(artifact);
+        }
+        return artifacts;
+    }
+}
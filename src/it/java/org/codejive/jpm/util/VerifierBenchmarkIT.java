@@ -0,0 +1,69 @@
+package org.codejive.jpm.util;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Benchmark for verifying a large deps directory, comparing a single thread against the default
+ * parallelism. The files are verified a couple of times first so they are in the page cache, which
+ * is the common situation right after an install. The timings are printed to standard out.
+ */
+class VerifierBenchmarkIT {
+
+    @TempDir Path tempDir;
+
+    private static final int ARTIFACTS = 500;
+    private static final int JAR_SIZE = 256 * 1024;
+
+    @Test
+    void benchmarkVerify() throws Exception {
+        List<Verifier.Check> checks = createArtifacts();
+        int cpus = Runtime.getRuntime().availableProcessors();
+
+        // Warm up the JVM and the page cache
+        new Verifier(cpus).verify(checks);
+        new Verifier(cpus).verify(checks);
+
+        Verifier.VerifyResult serial = new Verifier(1).verify(checks);
+        Verifier.VerifyResult parallel = new Verifier(cpus).verify(checks);
+
+        System.out.printf(
+                "Verified %d artifacts of %d KB: 1 thread %d ms, %d threads %d ms%n",
+                ARTIFACTS,
+                JAR_SIZE / 1024,
+                serial.elapsed / 1_000_000,
+                cpus,
+                parallel.elapsed / 1_000_000);
+
+        assertThat(parallel.count(Verifier.Status.OK)).isEqualTo(ARTIFACTS);
+    }
+
+    private List<Verifier.Check> createArtifacts() throws IOException {
+        Path cache = tempDir.resolve("cache");
+        Path deps = tempDir.resolve("deps");
+        Files.createDirectories(cache);
+        Files.createDirectories(deps);
+        Random rnd = new Random(42);
+        byte[] content = new byte[JAR_SIZE];
+        List<Verifier.Check> checks = new ArrayList<>();
+        for (int i = 0; i < ARTIFACTS; i++) {
+            String name = "lib-" + i + "-1.0.jar";
+            Path source = cache.resolve(name);
+            rnd.nextBytes(content);
+            Files.write(source, content);
+            Files.writeString(cache.resolve(name + ".sha1"), FileUtils.checksum(source, "SHA-1"));
+            Path target = deps.resolve(name);
+            Files.copy(source, target);
+            checks.add(new Verifier.Check(target, source, null));
+        }
+        return checks;
+    }
+}
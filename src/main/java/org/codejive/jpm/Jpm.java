@@ -1,29 +1,57 @@
 package org.codejive.jpm;
 
 import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
 import java.util.*;
 import java.util.stream.Collectors;
 import org.codejive.jpm.config.AppInfo;
+import org.codejive.jpm.config.AppLock;
 import org.codejive.jpm.search.Search;
 import org.codejive.jpm.util.*;
 import org.eclipse.aether.artifact.Artifact;
+import org.eclipse.aether.artifact.DefaultArtifact;
+import org.eclipse.aether.resolution.ArtifactResult;
 import org.eclipse.aether.resolution.DependencyResolutionException;
 
 /** The class implementing all the jpm command actions. */
 public class Jpm {
     private final Path directory;
-    private final boolean noLinks;
+    private final LinkMode linkMode;
+    private final int generations;
     private final Path appFile;
     private final Path cacheDir;
     private final boolean verbose;
+    private final int threads;
+    private final boolean offline;
+    private final boolean dryRun;
+    private final ResolverSession session;
 
-    private Jpm(Path directory, boolean noLinks, Path appFile, Path cacheDir, boolean verbose) {
+    private Jpm(
+            Path directory,
+            LinkMode linkMode,
+            int generations,
+            Path appFile,
+            Path cacheDir,
+            boolean verbose,
+            int threads,
+            boolean offline,
+            boolean dryRun,
+            ResolverSession session) {
         this.directory = directory;
-        this.noLinks = noLinks;
+        this.linkMode = linkMode;
+        this.generations = generations;
         this.appFile = appFile;
         this.cacheDir = cacheDir;
         this.verbose = verbose;
+        this.threads = threads;
+        this.offline = offline;
+        this.dryRun = dryRun;
+        this.session = session;
     }
 
     /**
@@ -39,9 +67,15 @@ public class Jpm {
     public static class Builder {
         private Path directory;
         private boolean noLinks;
+        private LinkMode linkMode;
+        private int generations = -1;
         private Path appFile;
         private Path cacheDir;
         private boolean verbose;
+        private int threads;
+        private boolean offline;
+        private boolean dryRun;
+        private ResolverSession session;
 
         private Builder() {}
 
@@ -67,6 +101,32 @@ public class Jpm {
             return this;
         }
 
+        /**
+         * Set how artifacts are made available in the target directory. When set this takes
+         * precedence over {@link #noLinks(boolean)}.
+         *
+         * @param linkMode The link mode to use, or null to use the default.
+         * @return The builder instance for chaining.
+         */
+        public Builder linkMode(LinkMode linkMode) {
+            this.linkMode = linkMode;
+            return this;
+        }
+
+        /**
+         * Set whether to manage the target directory as a series of generations and how many
+         * previous generations to keep. Each sync then builds a complete new generation and
+         * atomically switches the target directory over to it, see {@link Generations}. A negative
+         * value (the default) updates the target directory in place.
+         *
+         * @param generations The number of previous generations to keep or a negative value.
+         * @return The builder instance for chaining.
+         */
+        public Builder generations(int generations) {
+            this.generations = generations;
+            return this;
+        }
+
         /**
          * Set the app.yml file to use for the jpm commands.
          *
@@ -100,13 +160,74 @@ public class Jpm {
             return this;
         }
 
+        /**
+         * Set the number of threads to use for dependency collection and artifact downloads. A
+         * value of zero (the default) uses the resolver's default settings.
+         *
+         * @param threads The number of threads.
+         * @return The builder instance for chaining.
+         */
+        public Builder threads(int threads) {
+            this.threads = threads;
+            return this;
+        }
+
+        /**
+         * Set whether to work in offline mode. In offline mode artifacts will only be resolved from
+         * the cache directory, no remote repositories will be contacted.
+         *
+         * @param offline Whether to work in offline mode or not.
+         * @return The builder instance for chaining.
+         */
+        public Builder offline(boolean offline) {
+            this.offline = offline;
+            return this;
+        }
+
+        /**
+         * Set whether to only plan the changes to the target directory instead of making them. In
+         * dry-run mode dependencies still get resolved, but neither the target directory nor the
+         * app.yml and app.lock files are changed. The {@link SyncResult} that gets returned has the
+         * {@link SyncPlan} attached that would have been executed.
+         *
+         * @param dryRun Whether to work in dry-run mode or not.
+         * @return The builder instance for chaining.
+         */
+        public Builder dryRun(boolean dryRun) {
+            this.dryRun = dryRun;
+            return this;
+        }
+
+        /**
+         * Set the resolver session to use for dependency resolution. If not set, the process-wide
+         * shared session will be used, which means that multiple {@link Jpm} instances will share
+         * the same repository system and Maven settings.
+         *
+         * @param session The resolver session.
+         * @return The builder instance for chaining.
+         */
+        public Builder session(ResolverSession session) {
+            this.session = session;
+            return this;
+        }
+
         /**
          * Builds the {@link Jpm} instance.
          *
          * @return A {@link Jpm} instance.
          */
         public Jpm build() {
-            return new Jpm(directory, noLinks, appFile, cacheDir, verbose);
+            return new Jpm(
+                    directory,
+                    linkMode != null ? linkMode : noLinks ? LinkMode.COPY : LinkMode.SYMLINK,
+                    generations,
+                    appFile,
+                    cacheDir,
+                    verbose,
+                    threads,
+                    offline,
+                    dryRun,
+                    session != null ? session : ResolverSession.shared());
         }
     }
 
@@ -134,10 +255,21 @@ public class Jpm {
      * @throws IOException If an error occurred during the copy operation.
      * @throws DependencyResolutionException If an error occurred during the dependency resolution.
      */
+    @SuppressWarnings("try")
     public SyncResult copy(String[] artifactNames, Map<String, String> repos, boolean sync)
             throws IOException, DependencyResolutionException {
-        List<Path> files = Resolver.create(artifactNames, repos, cacheDir).resolvePaths();
-        return FileUtils.syncArtifacts(files, directory, noLinks, !sync);
+        Metrics metrics = new Metrics();
+        List<Path> files =
+                Resolver.create(artifactNames, repos, cacheDir, session)
+                        .threads(threads)
+                        .offline(offline)
+                        .metrics(metrics)
+                        .resolvePaths();
+        try (FileLocks.Handle depsLock = syncLock(sync)) {
+            SyncResult stats = sync(files, !sync);
+            stats.metrics.add(metrics);
+            return stats;
+        }
     }
 
     /**
@@ -196,8 +328,11 @@ public class Jpm {
     /**
      * Installs the given artifacts to the target directory while also registering them as
      * dependencies in the app.yml file in the current directory. If no artifacts are given, all
-     * dependencies in the app.yml file will be installed. NB: "installation" in this context
-     * basically means sync-copying the artifacts to the target directory.
+     * dependencies in the app.yml file will be installed. In both cases an app.lock file will be
+     * written next to the app.yml file recording the result of the resolution. When adding
+     * artifacts to a project that has an up-to-date app.lock file, only the new artifacts will be
+     * resolved and merged into the existing graph. NB: "installation" in this context basically
+     * means sync-copying the artifacts to the target directory.
      *
      * @param artifactNames The artifacts to install.
      * @param extraRepos A map of additional repository names to URLs where artifacts can be found.
@@ -207,21 +342,664 @@ public class Jpm {
      */
     public SyncResult install(String[] artifactNames, Map<String, String> extraRepos)
             throws IOException, DependencyResolutionException {
+        return applyLocked(() -> prepareInstall(artifactNames, extraRepos));
+    }
+
+    /** The result of resolving dependencies, which gets applied while holding the locks. */
+    private interface Prepared {
+        SyncResult apply() throws IOException;
+    }
+
+    private interface Preparation {
+        Prepared prepare() throws IOException, DependencyResolutionException;
+    }
+
+    /**
+     * Prepares a change to the target directory and the app.yml and app.lock files, which includes
+     * resolving dependencies, and then applies it. Resolving can take a long time, especially when
+     * artifacts need to be downloaded, and doesn't change anything, so it's done without holding
+     * any locks. Only applying the result requires exclusive access. If the app.yml or app.lock
+     * file were changed in the meantime the result is of no use and we start over, after a few
+     * attempts doing everything while holding the locks.
+     */
+    @SuppressWarnings("try")
+    private SyncResult applyLocked(Preparation preparation)
+            throws IOException, DependencyResolutionException {
+        for (int attempt = 0; attempt < MAX_UNLOCKED_ATTEMPTS; attempt++) {
+            List<byte[]> inputs = readInputs();
+            Prepared prepared = preparation.prepare();
+            try (FileLocks.Handle appLock = lock(appInfoPath());
+                    FileLocks.Handle depsLock = lock(directory)) {
+                if (sameInputs(inputs, readInputs())) {
+                    return prepared.apply();
+                }
+            }
+        }
+        try (FileLocks.Handle appLock = lock(appInfoPath());
+                FileLocks.Handle depsLock = lock(directory)) {
+            return preparation.prepare().apply();
+        }
+    }
+
+    private static final int MAX_UNLOCKED_ATTEMPTS = 3;
+
+    /** Returns the contents of the app.yml and app.lock files, null for files that don't exist. */
+    private List<byte[]> readInputs() throws IOException {
+        List<byte[]> inputs = new ArrayList<>(2);
+        for (Path file : List.of(appInfoPath(), AppLock.lockFileFor(appInfoPath()))) {
+            try {
+                inputs.add(Files.readAllBytes(file));
+            } catch (NoSuchFileException e) {
+                inputs.add(null);
+            }
+        }
+        return inputs;
+    }
+
+    private static boolean sameInputs(List<byte[]> a, List<byte[]> b) {
+        for (int i = 0; i < a.size(); i++) {
+            if (!Arrays.equals(a.get(i), b.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Prepared prepareInstall(String[] artifactNames, Map<String, String> extraRepos)
+            throws IOException, DependencyResolutionException {
+        Metrics metrics = new Metrics();
+        long start = System.nanoTime();
         AppInfo appInfo = readAppInfo();
-        String[] artifacts = getArtifacts(artifactNames, appInfo);
+        metrics.addPhase(Metrics.PHASE_CONFIG, System.nanoTime() - start);
         Map<String, String> repos = getRepositories(extraRepos, appInfo);
-        if (artifacts.length > 0) {
-            List<Path> files = Resolver.create(artifacts, repos, cacheDir).resolvePaths();
-            SyncResult stats = FileUtils.syncArtifacts(files, directory, noLinks, true);
-            if (artifactNames.length > 0) {
-                appInfo.dependencies().addAll(Arrays.asList(artifactNames));
-                appInfo.repositories().putAll(repos);
-                AppInfo.write(appInfo);
+        Prepared prepared;
+        if (artifactNames.length > 0) {
+            prepared = prepareInstallArtifacts(artifactNames, appInfo, repos, metrics);
+        } else if (!appInfo.dependencies().isEmpty()) {
+            List<ArtifactResult> results =
+                    Resolver.create(appInfo.getDependencyGAVs(), repos, cacheDir, session)
+                            .threads(threads)
+                            .offline(offline)
+                            .metrics(metrics)
+                            .resolve();
+            List<Path> files = Resolver.toPaths(results);
+            List<AppLock.Entry> entries = toLockEntries(results, metrics);
+            prepared =
+                    () -> {
+                        SyncResult stats = sync(files, true);
+                        writeAppLock(appInfo.dependencies(), repos, entries);
+                        return stats;
+                    };
+        } else {
+            prepared = SyncResult::new;
+        }
+        return () -> {
+            SyncResult stats = prepared.apply();
+            stats.metrics.add(metrics);
+            return stats;
+        };
+    }
+
+    /**
+     * Adds the given artifacts to the app.yml file and installs them. When the app.lock file is
+     * still valid for the existing dependencies, only the new artifacts get resolved and the result
+     * is merged into the previously resolved graph: versions that are already part of the graph win
+     * over the ones pulled in transitively by the new artifacts, except when a new artifact is
+     * itself a newer or older version of one that was resolved before. Only the artifacts that were
+     * added or replaced get synced. Otherwise all dependencies get resolved again.
+     */
+    private Prepared prepareInstallArtifacts(
+            String[] artifactNames, AppInfo appInfo, Map<String, String> repos, Metrics metrics)
+            throws IOException, DependencyResolutionException {
+        List<String> oldDeps = new ArrayList<>(appInfo.dependencies());
+        List<String> newDeps = new ArrayList<>();
+        for (String artifactName : artifactNames) {
+            if (!oldDeps.contains(artifactName) && !newDeps.contains(artifactName)) {
+                newDeps.add(artifactName);
+            }
+        }
+        appInfo.dependencies().addAll(newDeps);
+        appInfo.repositories().putAll(repos);
+
+        Changes changes = resolveChanges(oldDeps, newDeps, appInfo, repos, metrics, false);
+        return () -> {
+            SyncResult stats = changes.sync();
+            if (!dryRun) {
+                AppInfo.write(appInfo, appInfoPath());
+            }
+            writeAppLock(appInfo.dependencies(), repos, changes.entries);
+            return stats;
+        };
+    }
+
+    /** The artifacts to sync after dependencies were added, removed or changed. */
+    private class Changes {
+        /** The entries for the new app.lock file. */
+        final List<AppLock.Entry> entries = new ArrayList<>();
+
+        /** The artifacts to sync, a subset of the entries when the old graph could be reused. */
+        List<Path> files;
+
+        /** The artifacts to remove from the target directory. */
+        List<Path> obsolete = Collections.emptyList();
+
+        boolean incremental;
+
+        SyncResult sync() throws IOException {
+            if (incremental && usesGenerations()) {
+                // A generation always holds the complete set of artifacts
+                List<Path> all = new ArrayList<>(entries.size());
+                for (AppLock.Entry e : entries) {
+                    all.add(e.path);
+                }
+                return Jpm.this.sync(all, false);
+            }
+            return Jpm.this.sync(files, true, obsolete);
+        }
+    }
+
+    /**
+     * Resolves the dependencies of the given app after newDeps were added to oldDeps, only
+     * resolving the new dependencies when the app.lock file is still valid for the old ones (see
+     * {@link #prepareInstallArtifacts(String[], AppInfo, Map, Metrics)}) and everything otherwise.
+     * When deleteUnused is set, artifacts from the old app.lock file that are no longer needed
+     * after resolving everything get removed as well.
+     */
+    private Changes resolveChanges(
+            List<String> oldDeps,
+            List<String> newDeps,
+            AppInfo appInfo,
+            Map<String, String> repos,
+            Metrics metrics,
+            boolean deleteUnused)
+            throws IOException, DependencyResolutionException {
+        Changes changes = new Changes();
+        AppLock lock = AppLock.read(appInfoPath());
+        if (lock != null
+                && lock.isValidFor(oldDeps, repos, cacheDir)
+                && !replacesRoot(oldDeps, newDeps)) {
+            List<ArtifactResult> results =
+                    newDeps.isEmpty()
+                            ? Collections.emptyList()
+                            : Resolver.create(
+                                            newDeps.toArray(new String[0]),
+                                            repos,
+                                            cacheDir,
+                                            session)
+                                    .threads(threads)
+                                    .offline(offline)
+                                    .metrics(metrics)
+                                    .resolve();
+            Set<String> newRoots = new HashSet<>();
+            for (String dep : newDeps) {
+                newRoots.add(versionlessId(new DefaultArtifact(dep)));
+            }
+            Map<String, AppLock.Entry> merged = new LinkedHashMap<>();
+            for (AppLock.Entry e : lock.artifacts()) {
+                merged.put(versionlessId(new DefaultArtifact(e.gav)), e);
+            }
+            List<ArtifactResult> added = new ArrayList<>();
+            List<Path> superseded = new ArrayList<>();
+            for (ArtifactResult ar : results) {
+                String id = versionlessId(ar.getArtifact());
+                AppLock.Entry existing = merged.get(id);
+                if (existing != null) {
+                    if (existing.gav.equals(ar.getArtifact().toString())
+                            || !newRoots.contains(id)) {
+                        // Already part of the graph or mediated away by the existing version
+                        continue;
+                    }
+                    superseded.add(existing.path);
+                    merged.remove(id);
+                }
+                added.add(ar);
+            }
+            changes.entries.addAll(merged.values());
+            changes.entries.addAll(toLockEntries(added, metrics));
+            changes.files = Resolver.toPaths(added);
+            changes.obsolete = superseded;
+            changes.incremental = true;
+        } else {
+            List<ArtifactResult> results =
+                    Resolver.create(appInfo.getDependencyGAVs(), repos, cacheDir, session)
+                            .threads(threads)
+                            .offline(offline)
+                            .metrics(metrics)
+                            .resolve();
+            changes.files = Resolver.toPaths(results);
+            // Artifacts that are still needed are never deleted, they're part of the sync
+            if (deleteUnused && lock != null) {
+                changes.obsolete = lock.getPaths();
+            }
+            changes.entries.addAll(toLockEntries(results, metrics));
+        }
+        return changes;
+    }
+
+    /**
+     * Brings the target directory up to date after the dependencies in the app.yml file were
+     * changed by hand. The given list is what the dependencies were before the change, and what the
+     * app.lock file was written for. When dependencies were only added, only those get resolved and
+     * synced, otherwise all dependencies get resolved again and the artifacts that are no longer
+     * needed are removed. Unlike {@link #install(String[], Map)} this never writes the app.yml
+     * file.
+     *
+     * @param previousDeps The dependencies before the app.yml file was changed.
+     * @param extraRepos A map of additional repository names to URLs where artifacts can be found.
+     * @return An instance of {@link SyncResult} containing the statistics of the operation.
+     * @throws IOException If an error occurred during the operation.
+     * @throws DependencyResolutionException If an error occurred during the dependency resolution.
+     */
+    public SyncResult update(List<String> previousDeps, Map<String, String> extraRepos)
+            throws IOException, DependencyResolutionException {
+        return applyLocked(() -> prepareUpdate(previousDeps, extraRepos));
+    }
+
+    private Prepared prepareUpdate(List<String> previousDeps, Map<String, String> extraRepos)
+            throws IOException, DependencyResolutionException {
+        Metrics metrics = new Metrics();
+        long start = System.nanoTime();
+        AppInfo appInfo = readAppInfo();
+        metrics.addPhase(Metrics.PHASE_CONFIG, System.nanoTime() - start);
+        Map<String, String> repos = getRepositories(extraRepos, appInfo);
+        List<String> oldDeps = previousDeps;
+        List<String> newDeps = new ArrayList<>();
+        for (String dep : appInfo.dependencies()) {
+            if (!previousDeps.contains(dep)) {
+                newDeps.add(dep);
             }
+        }
+        if (!appInfo.dependencies().containsAll(previousDeps)
+                || appInfo.dependencies().size() != previousDeps.size() + newDeps.size()) {
+            // Something was removed or reordered, the old graph is of no use
+            oldDeps = Collections.emptyList();
+        }
+        Changes changes = resolveChanges(oldDeps, newDeps, appInfo, repos, metrics, true);
+        return () -> {
+            SyncResult stats = changes.sync();
+            writeAppLock(appInfo.dependencies(), repos, changes.entries);
+            stats.metrics.add(metrics);
             return stats;
+        };
+    }
+
+    /** Receives the results of {@link #watch(Map, long, WatchListener)}. */
+    public interface WatchListener {
+        /**
+         * Called after the target directory was brought up to date.
+         *
+         * @param added The dependencies that were added to the app.yml file.
+         * @param removed The dependencies that were removed from the app.yml file.
+         * @param stats The statistics of the sync.
+         */
+        void updated(List<String> added, List<String> removed, SyncResult stats);
+
+        /**
+         * Called when updating failed, for example because the app.yml file contains an error.
+         * Watching continues regardless.
+         *
+         * @param e The exception that occurred.
+         */
+        void failed(Exception e);
+    }
+
+    /**
+     * Watches the app.yml file and the target directory and keeps the latter up to date until the
+     * thread gets interrupted. Changes to the dependencies in the app.yml file are handled by
+     * {@link #update(List, Map)}, so adding a dependency only resolves and syncs that one
+     * dependency. Artifacts that get deleted or modified in the target directory are synced again.
+     * Bursts of changes are combined and the same resolver session is used for all updates, so once
+     * it is warmed up most updates take just a fraction of a second.
+     *
+     * @param extraRepos A map of additional repository names to URLs where artifacts can be found.
+     * @param debounceMillis How long things must be quiet before acting on changes.
+     * @param listener Gets notified of each update.
+     * @throws IOException If the files could not be watched.
+     * @throws DependencyResolutionException If the initial dependency resolution failed.
+     * @throws InterruptedException When the thread was interrupted, which is the only way to stop
+     *     watching.
+     */
+    public void watch(Map<String, String> extraRepos, long debounceMillis, WatchListener listener)
+            throws IOException, DependencyResolutionException, InterruptedException {
+        Path appPath = appInfoPath().toAbsolutePath();
+        Path appName = appPath.getFileName();
+        List<String> deps = new ArrayList<>(readAppInfo().dependencies());
+        Set<Path> expected = new HashSet<>();
+        for (Path p : path(new String[0], extraRepos)) {
+            expected.add(p.getFileName());
+        }
+        try (FileWatcher watcher = new FileWatcher(debounceMillis)) {
+            watcher.watch(appPath.getParent(), e -> appName.equals(e.context()));
+            boolean resync = false;
+            while (true) {
+                // The target directory can be replaced by a different generation
+                if (Files.isDirectory(directory)) {
+                    watcher.watch(
+                            directory,
+                            e ->
+                                    e.kind() != StandardWatchEventKinds.ENTRY_CREATE
+                                            && expected.contains((Path) e.context()));
+                }
+                Set<Path> changed = watcher.awaitChanges();
+                // Remembered until it succeeds, the app.yml file might be broken right now
+                resync |= changed.contains(directory);
+                try {
+                    List<String> current = readAppInfo().dependencies();
+                    boolean depsChanged = !current.equals(deps);
+                    if (!depsChanged && !resync) {
+                        // Something else in the app.yml file changed
+                        continue;
+                    }
+                    SyncResult stats =
+                            depsChanged
+                                    ? update(deps, extraRepos)
+                                    : install(new String[0], extraRepos);
+                    List<String> added = new ArrayList<>(current);
+                    added.removeAll(deps);
+                    List<String> removed = new ArrayList<>(deps);
+                    removed.removeAll(current);
+                    deps = new ArrayList<>(current);
+                    resync = false;
+                    // Incremental updates only report the files that were added
+                    expected.clear();
+                    try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+                        for (Path p : files) {
+                            expected.add(p.getFileName());
+                        }
+                    }
+                    // Ignore whatever happened because of our own changes, but do so before
+                    // telling anyone so we don't miss changes they make in response
+                    watcher.drain();
+                    listener.updated(added, removed, stats);
+                } catch (IOException | DependencyResolutionException | RuntimeException e) {
+                    watcher.drain();
+                    listener.failed(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Resolves the dependencies of many projects at once into the cache directory, without creating
+     * any deps directories. The given paths can either point to app.yml files or to directories
+     * that will be scanned for app.yml files. Dependencies shared between projects will only be
+     * downloaded once.
+     *
+     * @param paths The app.yml files and/or directories to scan for app.yml files.
+     * @param extraRepos A map of additional repository names to URLs where artifacts can be found.
+     * @param parallelism The maximum number of projects to process concurrently.
+     * @return An instance of {@link Prefetcher.PrefetchResult} with the statistics of the
+     *     operation.
+     * @throws IOException If an error occurred while scanning for app.yml files.
+     * @throws InterruptedException If the operation was interrupted.
+     */
+    public Prefetcher.PrefetchResult prefetch(
+            List<Path> paths, Map<String, String> extraRepos, int parallelism)
+            throws IOException, InterruptedException {
+        List<Path> appFiles = Prefetcher.findAppFiles(paths);
+        return new Prefetcher(cacheDir, session, threads, offline, parallelism)
+                .prefetch(appFiles, extraRepos);
+    }
+
+    /**
+     * Verifies the integrity of the artifacts in the target directory for the dependencies in the
+     * app.yml file. Each artifact is hashed and compared against the checksum file stored next to
+     * it in the cache directory, or the checksum in the app.lock file when there isn't one. When
+     * asked to repair, missing and corrupted artifacts get synced again, and artifacts that turn
+     * out to be corrupted in the cache directory as well get downloaded again first.
+     *
+     * @param repair Whether to repair any missing or corrupted artifacts.
+     * @param extraRepos A map of additional repository names to URLs where artifacts can be found.
+     * @param parallelism The maximum number of files to hash concurrently.
+     * @return An instance of {@link Verifier.VerifyResult} with the result of each check (after
+     *     repairing, if requested).
+     * @throws IOException If an error occurred during the operation.
+     * @throws DependencyResolutionException If an error occurred during the dependency resolution.
+     * @throws InterruptedException If the operation was interrupted.
+     */
+    @SuppressWarnings("try")
+    public Verifier.VerifyResult verify(
+            boolean repair, Map<String, String> extraRepos, int parallelism)
+            throws IOException, DependencyResolutionException, InterruptedException {
+        try (FileLocks.Handle appLock = FileLocks.shared(appInfoPath());
+                FileLocks.Handle depsLock =
+                        repair ? FileLocks.exclusive(directory) : FileLocks.shared(directory)) {
+            return doVerify(repair, extraRepos, parallelism);
+        }
+    }
+
+    private Verifier.VerifyResult doVerify(
+            boolean repair, Map<String, String> extraRepos, int parallelism)
+            throws IOException, DependencyResolutionException, InterruptedException {
+        AppInfo appInfo = readAppInfo();
+        Map<String, String> repos = getRepositories(extraRepos, appInfo);
+        List<Verifier.Check> checks = new ArrayList<>();
+        AppLock lock = AppLock.read(appInfoPath());
+        if (lock != null && lock.isValidFor(appInfo.dependencies(), repos, cacheDir)) {
+            for (AppLock.Entry e : lock.artifacts()) {
+                checks.add(
+                        new Verifier.Check(
+                                directory.resolve(e.path.getFileName()), e.path, e.sha256));
+            }
+        } else if (!appInfo.dependencies().isEmpty()) {
+            for (Path p : resolve(appInfo.getDependencyGAVs(), repos)) {
+                checks.add(new Verifier.Check(directory.resolve(p.getFileName()), p, null));
+            }
+        }
+        Verifier verifier = new Verifier(parallelism);
+        Verifier.VerifyResult result = verifier.verify(checks);
+        List<Verifier.Check> problems = result.problems();
+        if (!repair || problems.isEmpty()) {
+            return result;
+        }
+
+        long start = System.nanoTime();
+        boolean redownload = false;
+        for (Verifier.Check c : problems) {
+            if (!Verifier.isSourceIntact(c)) {
+                Files.deleteIfExists(c.source);
+                redownload = true;
+            }
+            // Copies with the right size and timestamp would otherwise be left alone
+            Files.deleteIfExists(c.file);
+        }
+        List<Path> files = new ArrayList<>(checks.size());
+        if (redownload) {
+            files = resolve(appInfo.getDependencyGAVs(), repos);
         } else {
-            return new SyncResult();
+            for (Verifier.Check c : checks) {
+                files.add(c.source);
+            }
         }
+        sync(files, true);
+        long elapsed = System.nanoTime() - start + result.elapsed;
+        result = verifier.verify(checks);
+        result.repaired = problems.size() - result.problems().size();
+        result.elapsed += elapsed;
+        return result;
+    }
+
+    /**
+     * Switches the target directory back to one of its previous generations. Only works when the
+     * target directory is managed as a series of generations.
+     *
+     * @param generation The name of the generation to switch to or null for the one that was
+     *     current before the current one.
+     * @return The name of the generation that is now current.
+     * @throws IOException If an error occurred during the operation.
+     */
+    @SuppressWarnings("try")
+    public String rollback(String generation) throws IOException {
+        try (FileLocks.Handle depsLock = FileLocks.exclusive(directory)) {
+            return new Generations(directory).rollback(generation);
+        }
+    }
+
+    /**
+     * Returns the names of the generations of the target directory, the most recently activated one
+     * first.
+     *
+     * @return A list of generation names.
+     * @throws IOException If an error occurred during the operation.
+     */
+    @SuppressWarnings("try")
+    public List<String> listGenerations() throws IOException {
+        try (FileLocks.Handle depsLock = FileLocks.shared(directory)) {
+            return new Generations(directory).list();
+        }
+    }
+
+    /**
+     * Removes all artifacts from the content-addressed store that are no longer used by any of the
+     * projects that were installed using the "store" link mode.
+     *
+     * @return An instance of {@link ArtifactStore.GcResult} with the statistics of the operation.
+     * @throws IOException If an error occurred during the operation.
+     */
+    @SuppressWarnings("try")
+    public ArtifactStore.GcResult storeGc() throws IOException {
+        ArtifactStore store = ArtifactStore.forCacheDir(cacheDir);
+        // Projects that are being synced hold a shared lock on the store
+        try (FileLocks.Handle storeLock = FileLocks.exclusive(store.directory())) {
+            return store.gc();
+        }
+    }
+
+    /**
+     * Syncs the given artifacts to the target directory, either in place or by building a new
+     * generation. In the latter case the target directory will contain exactly the given artifacts
+     * and nothing else, regardless of noDelete.
+     */
+    private SyncResult sync(List<Path> files, boolean noDelete) throws IOException {
+        return sync(files, noDelete, Collections.emptyList());
+    }
+
+    /**
+     * Syncs the given artifacts like {@link #sync(List, boolean)}, also deleting the files with the
+     * same names as the given obsolete artifacts from the target directory.
+     */
+    @SuppressWarnings("try")
+    private SyncResult sync(List<Path> files, boolean noDelete, List<Path> obsolete)
+            throws IOException {
+        // Once there is a class index it gets kept up to date
+        boolean indexed = !dryRun && Files.isRegularFile(directory.resolve(ClassIndex.FILE_NAME));
+        ClassIndex previous = null;
+        if (indexed && usesGenerations()) {
+            // A new generation starts out without one, so hang on to the old one
+            try {
+                previous = ClassIndex.load(directory);
+            } catch (IOException e) {
+                // Then it will just have to be rebuilt from scratch
+            }
+        }
+        SyncResult result;
+        if (linkMode == LinkMode.STORE) {
+            ArtifactStore store = ArtifactStore.forCacheDir(cacheDir);
+            // Keeps the garbage collector from removing files before they are linked
+            try (FileLocks.Handle storeLock = FileLocks.shared(store.directory())) {
+                result = sync(files, noDelete, obsolete, store);
+            }
+        } else {
+            result = sync(files, noDelete, obsolete, null);
+        }
+        if (indexed) {
+            ClassIndex.update(directory, previous, FileUtils.DEFAULT_SYNC_PARALLELISM);
+        }
+        return result;
+    }
+
+    private SyncResult sync(
+            List<Path> files, boolean noDelete, List<Path> obsolete, ArtifactStore store)
+            throws IOException {
+        Generations gens = usesGenerations() ? new Generations(directory) : null;
+        if (gens != null && !dryRun) {
+            // A generation always holds exactly the given files, nothing to delete. Without
+            // being told how many to keep all previous generations are kept
+            int keep = generations >= 0 ? generations : Integer.MAX_VALUE;
+            return gens.sync(files, linkMode, FileUtils.DEFAULT_SYNC_PARALLELISM, keep, store);
+        }
+        SyncPlan plan =
+                gens != null
+                        ? gens.plan(files, linkMode, store)
+                        : SyncPlan.create(files, directory, linkMode, noDelete, store);
+        if (gens == null) {
+            for (Path p : obsolete) {
+                plan.delete(p.getFileName().toString());
+            }
+        }
+        if (dryRun) {
+            SyncResult result = plan.preview();
+            result.plan = plan;
+            return result;
+        }
+        return plan.execute(FileUtils.DEFAULT_SYNC_PARALLELISM);
+    }
+
+    /**
+     * Determines if the target directory is managed as a series of generations, either because that
+     * was asked for or because it already is a link to a generation. Updating such a link in place
+     * would write into the generation it points to.
+     */
+    private boolean usesGenerations() throws IOException {
+        return generations >= 0 || new Generations(directory).current() != null;
+    }
+
+    /**
+     * Returns the lock needed to sync the target directory. Only adding files is safe to do
+     * concurrently, deleting them is not, nor is switching to a new generation or pruning old ones.
+     */
+    private FileLocks.Handle syncLock(boolean deletes) throws IOException {
+        if (deletes || usesGenerations()) {
+            return FileLocks.exclusive(directory);
+        }
+        FileLocks.Handle handle = FileLocks.shared(directory);
+        if (usesGenerations()) {
+            // Someone built the first generation while we were waiting for the lock
+            handle.close();
+            return FileLocks.exclusive(directory);
+        }
+        return handle;
+    }
+
+    /** Only dry runs can make do with a shared lock on things they would otherwise change. */
+    private FileLocks.Handle lock(Path path) throws IOException {
+        return dryRun ? FileLocks.shared(path) : FileLocks.exclusive(path);
+    }
+
+    private List<Path> resolve(String[] deps, Map<String, String> repos)
+            throws DependencyResolutionException {
+        return Resolver.create(deps, repos, cacheDir, session)
+                .threads(threads)
+                .offline(offline)
+                .resolvePaths();
+    }
+
+    /**
+     * Determines if any of the new dependencies is a different version of one of the existing
+     * dependencies. In that case the existing graph can't be reused because the dependencies of the
+     * old version might no longer be needed.
+     */
+    private static boolean replacesRoot(List<String> oldDeps, List<String> newDeps) {
+        Set<String> oldRoots = new HashSet<>();
+        for (String dep : oldDeps) {
+            oldRoots.add(versionlessId(new DefaultArtifact(dep)));
+        }
+        for (String dep : newDeps) {
+            if (oldRoots.contains(versionlessId(new DefaultArtifact(dep)))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String versionlessId(Artifact artifact) {
+        return artifact.getGroupId()
+                + ":"
+                + artifact.getArtifactId()
+                + ":"
+                + artifact.getExtension()
+                + ":"
+                + artifact.getClassifier();
     }
 
     /**
@@ -240,7 +1018,8 @@ public class Jpm {
 
     /**
      * Returns the paths of the given artifacts. If no artifacts are given, the paths for all
-     * dependencies in the app.yml file will be returned instead.
+     * dependencies in the app.yml file will be returned instead. In that case the paths will be
+     * taken from the app.lock file if it is still up-to-date, skipping dependency resolution.
      *
      * @param artifactNames The artifacts to get the paths for.
      * @param extraRepos A map of additional repository names to URLs where artifacts can be found.
@@ -248,24 +1027,221 @@ public class Jpm {
      * @throws DependencyResolutionException If an error occurred during the dependency resolution.
      * @throws IOException If an error occurred during the operation.
      */
+    @SuppressWarnings("try")
     public List<Path> path(String[] artifactNames, Map<String, String> extraRepos)
             throws DependencyResolutionException, IOException {
-        AppInfo appInfo = readAppInfo();
+        try (FileLocks.Handle appLock = FileLocks.shared(appInfoPath())) {
+            return doPath(artifactNames, extraRepos, readAppInfo());
+        }
+    }
+
+    @SuppressWarnings("try")
+    private List<Path> doPath(
+            String[] artifactNames, Map<String, String> extraRepos, AppInfo appInfo)
+            throws DependencyResolutionException, IOException {
         String[] deps = getArtifacts(artifactNames, appInfo);
         Map<String, String> repos = getRepositories(extraRepos, appInfo);
         if (deps.length > 0) {
-            List<Path> files = Resolver.create(deps, repos, cacheDir).resolvePaths();
             if (artifactNames.length > 0) {
-                return files;
+                return Resolver.create(deps, repos, cacheDir, session)
+                        .threads(threads)
+                        .offline(offline)
+                        .resolvePaths();
             } else {
-                SyncResult result = FileUtils.syncArtifacts(files, directory, noLinks, true);
-                return result.files;
+                List<Path> files = getLockedPaths(appInfo.dependencies(), repos);
+                if (files == null) {
+                    files =
+                            Resolver.create(deps, repos, cacheDir, session)
+                                    .threads(threads)
+                                    .offline(offline)
+                                    .resolvePaths();
+                }
+                // Missing files only get added, which is safe to do concurrently
+                try (FileLocks.Handle depsLock = FileLocks.shared(directory)) {
+                    List<Path> current = currentGeneration(files);
+                    if (current != null) {
+                        return current;
+                    }
+                    if (generations < 0) {
+                        return sync(files, true).files;
+                    }
+                }
+                // But building the first generation replaces the target directory
+                try (FileLocks.Handle depsLock = lock(directory)) {
+                    List<Path> current = currentGeneration(files);
+                    if (current != null) {
+                        return current;
+                    }
+                    return sync(files, true).files;
+                }
             }
         } else {
             return Collections.emptyList();
         }
     }
 
+    /**
+     * When the target directory is a link to a generation, returns the given artifacts as found in
+     * that generation, without changing anything. Just getting the paths should never switch to a
+     * different generation, that would for example undo a rollback, nor write into the generation.
+     * Returns null when the target directory isn't a generation yet.
+     */
+    private List<Path> currentGeneration(List<Path> artifacts) throws IOException {
+        String current = new Generations(directory).current();
+        if (current == null) {
+            return null;
+        }
+        List<Path> result = new ArrayList<>(artifacts.size());
+        for (Path artifact : artifacts) {
+            Path file = directory.resolve(artifact.getFileName());
+            if (!Files.exists(file)) {
+                throw new IOException(
+                        "The current generation of "
+                                + directory
+                                + " ("
+                                + current
+                                + ") does not match the dependencies in the app.lock file,"
+                                + " probably because a rollback is active."
+                                + " Run 'jpm install' to switch to the current dependencies"
+                                + " or 'jpm rollback' to select a different generation");
+            }
+            result.add(file);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the path to a classpath jar for the given artifacts: a jar file in the target
+     * directory whose manifest references all the artifacts, which allows it to be used instead of
+     * the full classpath. If no artifacts are given, the classpath jar will be for all dependencies
+     * in the app.yml file instead. The jar only gets rewritten when the artifacts change.
+     *
+     * @param artifactNames The artifacts to get the classpath jar for.
+     * @param extraRepos A map of additional repository names to URLs where artifacts can be found.
+     * @return The path to the classpath jar.
+     * @throws DependencyResolutionException If an error occurred during the dependency resolution.
+     * @throws IOException If an error occurred during the operation.
+     */
+    public Path pathJar(String[] artifactNames, Map<String, String> extraRepos)
+            throws DependencyResolutionException, IOException {
+        return classpathJar(path(artifactNames, extraRepos));
+    }
+
+    /**
+     * Returns the jars in the target directory that contain the given class or resource, after
+     * making sure the target directory holds all dependencies in the app.yml file. Lookups use the
+     * class index in the target directory, which gets created the first time and from then on is
+     * kept up to date by every sync.
+     *
+     * @param name The name of a class, eg "org.example.Main", or the path of a resource inside a
+     *     jar, eg "META-INF/MANIFEST.MF".
+     * @param extraRepos A map of additional repository names to URLs where artifacts can be found.
+     * @return A list of paths, empty if the class or resource wasn't found.
+     * @throws DependencyResolutionException If an error occurred during the dependency resolution.
+     * @throws IOException If an error occurred during the operation.
+     */
+    @SuppressWarnings("try")
+    public List<Path> which(String name, Map<String, String> extraRepos)
+            throws DependencyResolutionException, IOException {
+        path(new String[0], extraRepos);
+        // Replaced atomically, so anyone can do this at the same time
+        try (FileLocks.Handle depsLock = FileLocks.shared(directory)) {
+            if (!Files.isDirectory(directory)) {
+                return Collections.emptyList();
+            }
+            ClassIndex.update(directory, FileUtils.DEFAULT_SYNC_PARALLELISM);
+            try (ClassIndex index = ClassIndex.open(directory)) {
+                List<Path> jars = new ArrayList<>();
+                for (String jar : index.find(name)) {
+                    jars.add(directory.resolve(jar));
+                }
+                return jars;
+            }
+        }
+    }
+
+    /**
+     * Finds the classes that are contained in more than one of the dependencies in the app.yml
+     * file, as well as the packages that are split across several of them, after making sure the
+     * target directory holds all dependencies. Like {@link #which(String, Map)} this uses, and if
+     * necessary creates, the class index in the target directory.
+     *
+     * @param extraRepos A map of additional repository names to URLs where artifacts can be found.
+     * @return An instance of {@link ClassConflicts}.
+     * @throws DependencyResolutionException If an error occurred during the dependency resolution.
+     * @throws IOException If an error occurred during the operation.
+     */
+    @SuppressWarnings("try")
+    public ClassConflicts conflicts(Map<String, String> extraRepos)
+            throws DependencyResolutionException, IOException {
+        List<String> jars = new ArrayList<>();
+        for (Path p : path(new String[0], extraRepos)) {
+            jars.add(p.getFileName().toString());
+        }
+        // Replaced atomically, so anyone can do this at the same time
+        try (FileLocks.Handle depsLock = FileLocks.shared(directory)) {
+            if (jars.size() < 2 || !Files.isDirectory(directory)) {
+                return ClassConflicts.none();
+            }
+            ClassIndex.update(directory, FileUtils.DEFAULT_SYNC_PARALLELISM);
+            try (ClassIndex index = ClassIndex.open(directory)) {
+                return ClassConflicts.find(index, jars);
+            }
+        }
+    }
+
+    @SuppressWarnings("try")
+    private Path classpathJar(List<Path> classpath) throws IOException {
+        // Replaced atomically, so anyone can do this at the same time
+        try (FileLocks.Handle depsLock = FileLocks.shared(directory)) {
+            return ClasspathJar.write(directory, classpath);
+        }
+    }
+
+    /**
+     * Returns the paths recorded in the app.lock file if it exists and is still valid for the given
+     * dependencies and repositories, otherwise returns null.
+     */
+    private List<Path> getLockedPaths(List<String> dependencies, Map<String, String> repos)
+            throws IOException {
+        AppLock lock = AppLock.read(appInfoPath());
+        if (lock != null && lock.isValidFor(dependencies, repos, cacheDir)) {
+            return lock.getPaths();
+        }
+        return null;
+    }
+
+    private void writeAppLock(
+            List<String> dependencies, Map<String, String> repos, List<AppLock.Entry> entries)
+            throws IOException {
+        if (dryRun) {
+            return;
+        }
+        AppLock lock = new AppLock();
+        lock.hash(AppLock.computeHash(dependencies, repos, cacheDir));
+        lock.artifacts().addAll(entries);
+        AppLock.write(lock, appInfoPath());
+    }
+
+    private static List<AppLock.Entry> toLockEntries(List<ArtifactResult> results, Metrics metrics)
+            throws IOException {
+        long start = System.nanoTime();
+        List<AppLock.Entry> entries = new ArrayList<>(results.size());
+        for (ArtifactResult ar : results) {
+            Path file = ar.getArtifact().getFile().toPath();
+            String repoId = ar.getRepository() != null ? ar.getRepository().getId() : null;
+            entries.add(
+                    new AppLock.Entry(
+                            ar.getArtifact().toString(),
+                            repoId,
+                            FileUtils.checksum(file, "SHA-256"),
+                            Files.size(file),
+                            file));
+        }
+        metrics.addPhase(Metrics.PHASE_CHECKSUM, System.nanoTime() - start);
+        return entries;
+    }
+
     private static String[] getArtifacts(String[] artifactNames, AppInfo appInfo) {
         String[] deps;
         if (artifactNames.length > 0) {
@@ -311,26 +1287,7 @@ public class Jpm {
      */
     public int executeAction(String actionName, List<String> args, Map<String, String> extraRepos)
             throws IOException, DependencyResolutionException, InterruptedException {
-        AppInfo appInfo = readAppInfo();
-
-        // Get the action command
-        String command = appInfo.getAction(actionName);
-        if (command == null) {
-            throw new IllegalArgumentException(
-                    "Action '"
-                            + actionName
-                            + "' not found in app.yml. Use --list to see available actions.");
-        }
-
-        // Add the user arguments to the command
-        if (args != null && !args.isEmpty()) {
-            command +=
-                    args.stream()
-                            .map(ScriptUtils::quoteArgument)
-                            .collect(Collectors.joining(" ", " ", ""));
-        }
-
-        return executeCommand(command, extraRepos);
+        return actionContext(extraRepos).executeAction(actionName, args);
     }
 
     /**
@@ -370,19 +1327,157 @@ public class Jpm {
      */
     public int executeCommand(String command, Map<String, String> extraRepos)
             throws IOException, DependencyResolutionException, InterruptedException {
-        // Get the classpath for variable substitution only if needed
-        List<Path> classpath = Collections.emptyList();
-        if (command.contains("{{deps}}")) {
-            classpath =
-                    this.path(
-                            new String[0],
-                            extraRepos); // Empty array means use dependencies from app.yml
+        return actionContext(extraRepos).executeCommand(command);
+    }
+
+    /**
+     * Returns a context for executing any number of actions and commands one after the other, like
+     * a chain of actions passed to "jpm do". The app.yml file gets read only once, and the
+     * dependencies only get resolved and synced the first time a command needs them, after which
+     * all following commands reuse the same classpath.
+     *
+     * @param extraRepos A map of additional repository names to URLs where artifacts can be found.
+     * @return An {@link ActionContext}
+     */
+    public ActionContext actionContext(Map<String, String> extraRepos) {
+        return new ActionContext(extraRepos);
+    }
+
+    /**
+     * Holds everything that the actions executed by a single jpm invocation have in common. Not
+     * meant to be used by multiple threads at the same time.
+     */
+    public class ActionContext {
+        private final Map<String, String> extraRepos;
+        private AppInfo appInfo;
+        private List<byte[]> inputs;
+        private List<Path> classpath;
+        private Path depsJar;
+        private CdsArchive cds;
+
+        private ActionContext(Map<String, String> extraRepos) {
+            this.extraRepos = extraRepos;
         }
 
-        return ScriptUtils.executeScript(command, classpath, verbose);
+        /**
+         * Returns a list of available action names defined in the app.yml file.
+         *
+         * @return A list of available action names
+         * @throws IOException If an error occurred during the operation
+         */
+        public List<String> listActions() throws IOException {
+            return new ArrayList<>(appInfo().getActionNames());
+        }
+
+        /**
+         * Executes an action defined in app.yml file.
+         *
+         * @param actionName The name of the action to execute
+         * @param args A list of additional arguments to pass to the action command
+         * @return An integer containing the exit result of the action
+         * @throws IllegalArgumentException If the action name is not provided or not found
+         * @throws IOException If an error occurred during the operation
+         * @throws DependencyResolutionException If an error occurred during dependency resolution
+         * @throws InterruptedException If the action execution was interrupted
+         */
+        public int executeAction(String actionName, List<String> args)
+                throws IOException, DependencyResolutionException, InterruptedException {
+            // Get the action command
+            String command = appInfo().getAction(actionName);
+            if (command == null) {
+                throw new IllegalArgumentException(
+                        "Action '"
+                                + actionName
+                                + "' not found in app.yml. Use --list to see available actions.");
+            }
+
+            // Add the user arguments to the command
+            if (args != null && !args.isEmpty()) {
+                command +=
+                        args.stream()
+                                .map(ScriptUtils::quoteArgument)
+                                .collect(Collectors.joining(" ", " ", ""));
+            }
+
+            return executeCommand(command);
+        }
+
+        /**
+         * Executes a command.
+         *
+         * @param command The command to execute
+         * @return An integer containing the exit result of the command
+         * @throws IOException If an error occurred during the operation
+         * @throws DependencyResolutionException If an error occurred during dependency resolution
+         * @throws InterruptedException If the command execution was interrupted
+         */
+        public int executeCommand(String command)
+                throws IOException, DependencyResolutionException, InterruptedException {
+            // Get the classpath for variable substitution only if needed
+            List<Path> cp = Collections.emptyList();
+            boolean usesDepsJar = command.contains("{{depsjar}}");
+            boolean usesCds = command.contains("{{cds}}");
+            if (command.contains("{{deps}}") || usesDepsJar || usesCds) {
+                cp = classpath();
+            }
+
+            if (usesDepsJar || usesCds) {
+                if (usesDepsJar && (depsJar == null || !Files.exists(depsJar))) {
+                    depsJar = classpathJar(cp);
+                }
+                if (usesCds && cds == null) {
+                    // A different classpath means a different archive, so it never gets out of date
+                    cds = CdsArchive.forClasspath(cacheDir, cp);
+                }
+                return ScriptUtils.executeScript(
+                        command, cp, usesDepsJar ? depsJar : null, usesCds ? cds : null, verbose);
+            }
+            return ScriptUtils.executeScript(command, cp, verbose);
+        }
+
+        private AppInfo appInfo() throws IOException {
+            List<byte[]> current = readInputs();
+            if (appInfo == null || !sameInputs(inputs, current)) {
+                // Either the first time or an earlier action, like a "jpm install", changed the
+                // app.yml or app.lock file, which means the classpath might be different as well
+                appInfo = readAppInfo();
+                inputs = current;
+                classpath = null;
+            }
+            return appInfo;
+        }
+
+        @SuppressWarnings("try")
+        private List<Path> classpath() throws DependencyResolutionException, IOException {
+            AppInfo info = appInfo();
+            if (classpath == null || !allExist(classpath)) {
+                // Also when an earlier action, like a "clean", removed files
+                try (FileLocks.Handle appLock = FileLocks.shared(appInfoPath())) {
+                    classpath = doPath(new String[0], extraRepos, info);
+                }
+                depsJar = null;
+                cds = null;
+            }
+            return classpath;
+        }
+
+        private boolean allExist(List<Path> paths) {
+            for (Path p : paths) {
+                if (!Files.exists(p)) {
+                    return false;
+                }
+            }
+            return true;
+        }
     }
 
     private AppInfo readAppInfo() throws IOException {
         return (appFile != null) ? AppInfo.read(appFile) : AppInfo.read();
     }
+
+    private Path appInfoPath() {
+        return (appFile != null)
+                ? appFile
+                : Paths.get(System.getProperty("user.dir"), AppInfo.APP_INFO_FILE);
+    }
 }
@@ -5,9 +5,9 @@
 //DEPS org.yaml:snakeyaml:2.5
 //DEPS org.jline:jline-console-ui:3.30.6 org.jline:jline-terminal-jni:3.30.6
 //DEPS org.slf4j:slf4j-api:2.0.17 org.slf4j:slf4j-simple:2.0.17
-//SOURCES Jpm.java config/AppInfo.java config/UserConfig.java
+//SOURCES Jpm.java config/AppInfo.java config/AppLock.java config/UserConfig.java
 //SOURCES search/Search.java search/SearchSolrRestImpl.java search/SearchSmoApiImpl.java
-//SOURCES util/CommandsParser.java util/FileUtils.java util/Resolver.java util/ScriptUtils.java util/SyncResult.java
+//SOURCES util/ArtifactStore.java util/CdsArchive.java util/ClassConflicts.java util/ClassIndex.java util/ClasspathJar.java util/CommandTemplate.java util/CommandsParser.java util/DescriptorCache.java util/FileLocks.java util/FileUtils.java util/FileWatcher.java util/Generations.java util/JpmRuntime.java util/LinkMode.java util/Metrics.java util/Prefetcher.java util/ResolutionCache.java util/Resolver.java util/ResolverSession.java util/ScriptUtils.java util/SyncManifest.java util/SyncPlan.java util/SyncResult.java util/Verifier.java
 //SOURCES util/Version.java
 // spotless:on
 
@@ -19,13 +19,21 @@ import java.net.URL;
 import java.nio.file.Files;
 import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
 import java.util.concurrent.Callable;
 import java.util.stream.Collectors;
 import org.codejive.jpm.config.UserConfig;
 import org.codejive.jpm.search.Search.Backends;
+import org.codejive.jpm.util.ArtifactStore;
+import org.codejive.jpm.util.ClassConflicts;
 import org.codejive.jpm.util.FileUtils;
+import org.codejive.jpm.util.FileWatcher;
+import org.codejive.jpm.util.LinkMode;
+import org.codejive.jpm.util.Prefetcher;
+import org.codejive.jpm.util.SyncPlan;
 import org.codejive.jpm.util.SyncResult;
+import org.codejive.jpm.util.Verifier;
 import org.codejive.jpm.util.Version;
 import org.jline.consoleui.elements.InputValue;
 import org.jline.consoleui.elements.ListChoice;
@@ -57,6 +65,12 @@ import picocli.CommandLine.Unmatched;
             Main.Install.class,
             Main.Copy.class,
             Main.PrintPath.class,
+            Main.Which.class,
+            Main.Conflicts.class,
+            Main.Prefetch.class,
+            Main.Verify.class,
+            Main.Rollback.class,
+            Main.Store.class,
             Main.Do.class,
             Main.Clean.class,
             Main.Build.class,
@@ -83,6 +97,7 @@ public class Main {
         @Mixin VerboseMixin verboseMixin;
         @Mixin ConfigMixin configMixin;
         @Mixin QuietMixin quietMixin;
+        @Mixin StatsMixin statsMixin;
         @Mixin ArtifactsMixin artifactsMixin;
 
         @Option(
@@ -97,8 +112,11 @@ public class Main {
             SyncResult stats =
                     Jpm.builder()
                             .directory(artifactsMixin.getDirectory())
-                            .noLinks(artifactsMixin.getNoLinks())
+                            .linkMode(artifactsMixin.getLinkMode())
+                            .generations(artifactsMixin.getGenerations())
                             .cacheDir(artifactsMixin.getCacheDir())
+                            .threads(artifactsMixin.getThreads())
+                            .offline(artifactsMixin.getOffline())
                             .build()
                             .copy(
                                     artifactsMixin.artifactNames,
@@ -107,6 +125,7 @@ public class Main {
             if (!quietMixin.quiet) {
                 printStats(stats);
             }
+            statsMixin.print(stats);
             return (Integer) 0;
         }
     }
@@ -171,8 +190,11 @@ public class Main {
                             SyncResult stats =
                                     Jpm.builder()
                                             .directory(depsMixin.getDirectory())
-                                            .noLinks(depsMixin.getNoLinks())
+                                            .linkMode(depsMixin.getLinkMode())
+                                            .generations(depsMixin.getGenerations())
                                             .cacheDir(depsMixin.getCacheDir())
+                                            .threads(depsMixin.getThreads())
+                                            .offline(depsMixin.getOffline())
                                             .appFile(appInfoFileMixin.appInfoFile)
                                             .build()
                                             .install(
@@ -185,8 +207,11 @@ public class Main {
                             SyncResult stats =
                                     Jpm.builder()
                                             .directory(depsMixin.getDirectory())
-                                            .noLinks(depsMixin.getNoLinks())
+                                            .linkMode(depsMixin.getLinkMode())
+                                            .generations(depsMixin.getGenerations())
                                             .cacheDir(depsMixin.getCacheDir())
+                                            .threads(depsMixin.getThreads())
+                                            .offline(depsMixin.getOffline())
                                             .appFile(appInfoFileMixin.appInfoFile)
                                             .build()
                                             .copy(
@@ -227,8 +252,11 @@ public class Main {
             try {
                 return Jpm.builder()
                         .directory(depsMixin.getDirectory())
-                        .noLinks(depsMixin.getNoLinks())
+                        .linkMode(depsMixin.getLinkMode())
+                        .generations(depsMixin.getGenerations())
                         .cacheDir(depsMixin.getCacheDir())
+                        .threads(depsMixin.getThreads())
+                        .offline(depsMixin.getOffline())
                         .appFile(appInfoFileMixin.appInfoFile)
                         .build()
                         .search(artifactPattern, Math.min(max, 200), backend);
@@ -321,24 +349,91 @@ public class Main {
         @Mixin VerboseMixin verboseMixin;
         @Mixin ConfigMixin configMixin;
         @Mixin QuietMixin quietMixin;
+        @Mixin StatsMixin statsMixin;
         @Mixin OptionalArtifactsMixin optionalArtifactsMixin;
         @Mixin AppInfoFileMixin appInfoFileMixin;
 
+        @Option(
+                names = {"-w", "--watch"},
+                description =
+                        "After installing, keep watching the app.yml file and the target directory and update the target directory whenever the dependencies change. Press Ctrl+C to stop")
+        boolean watch;
+
+        @Option(
+                names = {"-n", "--dry-run"},
+                description =
+                        "Only show what would be done to the target directory, without changing it or the app.yml file")
+        boolean dryRun;
+
+        @Option(
+                names = {"--conflicts"},
+                description =
+                        "After installing, warn about classes that are found in more than one artifact and packages that are split across artifacts")
+        boolean conflicts;
+
         @Override
         public Integer call() throws Exception {
-            SyncResult stats =
+            if (watch && dryRun) {
+                throw new IllegalArgumentException("--watch can't be combined with --dry-run");
+            }
+            if (conflicts && dryRun) {
+                throw new IllegalArgumentException("--conflicts can't be combined with --dry-run");
+            }
+            Jpm jpm =
                     Jpm.builder()
                             .directory(optionalArtifactsMixin.getDirectory())
-                            .noLinks(optionalArtifactsMixin.getNoLinks())
+                            .linkMode(optionalArtifactsMixin.getLinkMode())
+                            .generations(optionalArtifactsMixin.getGenerations())
                             .cacheDir(optionalArtifactsMixin.getCacheDir())
+                            .threads(optionalArtifactsMixin.getThreads())
+                            .offline(optionalArtifactsMixin.getOffline())
+                            .dryRun(dryRun)
                             .appFile(appInfoFileMixin.appInfoFile)
-                            .build()
-                            .install(
-                                    optionalArtifactsMixin.artifactNames,
-                                    optionalArtifactsMixin.getRepositoryMap());
+                            .build();
+            SyncResult stats =
+                    jpm.install(
+                            optionalArtifactsMixin.artifactNames,
+                            optionalArtifactsMixin.getRepositoryMap());
+            if (stats.plan != null) {
+                printPlan(stats.plan, verbose, quietMixin.quiet);
+                statsMixin.print(stats);
+                return (Integer) 0;
+            }
             if (!quietMixin.quiet) {
                 printStats(stats);
             }
+            statsMixin.print(stats);
+            if (conflicts) {
+                ClassConflicts result = jpm.conflicts(optionalArtifactsMixin.getRepositoryMap());
+                printConflicts(result, System.err, false);
+            }
+            if (watch) {
+                System.err.println("Watching for changes, press Ctrl+C to stop");
+                jpm.watch(
+                        optionalArtifactsMixin.getRepositoryMap(),
+                        FileWatcher.DEFAULT_DEBOUNCE_MILLIS,
+                        new Jpm.WatchListener() {
+                            @Override
+                            public void updated(
+                                    List<String> added, List<String> removed, SyncResult stats) {
+                                for (String dep : added) {
+                                    System.err.println("Added " + dep);
+                                }
+                                for (String dep : removed) {
+                                    System.err.println("Removed " + dep);
+                                }
+                                if (!quietMixin.quiet) {
+                                    printStats(stats);
+                                }
+                                statsMixin.print(stats);
+                            }
+
+                            @Override
+                            public void failed(Exception e) {
+                                System.err.println("Error: " + e.getMessage());
+                            }
+                        });
+            }
             return (Integer) 0;
         }
     }
@@ -356,18 +451,35 @@ public class Main {
         @Mixin OptionalArtifactsMixin optionalArtifactsMixin;
         @Mixin AppInfoFileMixin appInfoFileMixin;
 
+        @Option(
+                names = {"-j", "--jar"},
+                description =
+                        "Print the path of a jar file, kept in the deps directory, whose manifest references all artifacts instead of the full classpath")
+        private boolean jar;
+
         @Override
         public Integer call() throws Exception {
-            List<Path> files =
+            Jpm jpm =
                     Jpm.builder()
                             .directory(optionalArtifactsMixin.getDirectory())
-                            .noLinks(optionalArtifactsMixin.getNoLinks())
+                            .linkMode(optionalArtifactsMixin.getLinkMode())
+                            .generations(optionalArtifactsMixin.getGenerations())
                             .cacheDir(optionalArtifactsMixin.getCacheDir())
+                            .threads(optionalArtifactsMixin.getThreads())
+                            .offline(optionalArtifactsMixin.getOffline())
                             .appFile(appInfoFileMixin.appInfoFile)
-                            .build()
-                            .path(
-                                    optionalArtifactsMixin.artifactNames,
-                                    optionalArtifactsMixin.getRepositoryMap());
+                            .build();
+            if (jar) {
+                System.out.print(
+                        jpm.pathJar(
+                                optionalArtifactsMixin.artifactNames,
+                                optionalArtifactsMixin.getRepositoryMap()));
+                return (Integer) 0;
+            }
+            List<Path> files =
+                    jpm.path(
+                            optionalArtifactsMixin.artifactNames,
+                            optionalArtifactsMixin.getRepositoryMap());
             if (!files.isEmpty()) {
                 String classpath =
                         files.stream()
@@ -379,6 +491,312 @@ public class Main {
         }
     }
 
+    @Command(
+            name = "which",
+            description =
+                    "Prints the artifacts in the target directory that contain the given class or resource. "
+                            + "Classes can be given by name, resources by their path inside the artifact. "
+                            + "Lookups use an index that gets created in the target directory the first time "
+                            + "and from then on is kept up to date by every install.\n\n"
+                            + "Example:\n  jpm which org.apache.http.client.HttpClient\n")
+    static class Which implements Callable<Integer> {
+        @Mixin VerboseMixin verboseMixin;
+        @Mixin ConfigMixin configMixin;
+        @Mixin QuietMixin quietMixin;
+        @Mixin DepsMixin depsMixin;
+        @Mixin AppInfoFileMixin appInfoFileMixin;
+
+        @Parameters(
+                paramLabel = "name",
+                description =
+                        "The name of a class, eg org.example.Main, or the path of a resource, eg META-INF/MANIFEST.MF")
+        private String name;
+
+        @Override
+        public Integer call() throws Exception {
+            List<Path> jars =
+                    Jpm.builder()
+                            .directory(depsMixin.getDirectory())
+                            .linkMode(depsMixin.getLinkMode())
+                            .generations(depsMixin.getGenerations())
+                            .cacheDir(depsMixin.getCacheDir())
+                            .threads(depsMixin.getThreads())
+                            .offline(depsMixin.getOffline())
+                            .appFile(appInfoFileMixin.appInfoFile)
+                            .build()
+                            .which(name, depsMixin.getRepositoryMap());
+            if (jars.isEmpty()) {
+                if (!quietMixin.quiet) {
+                    System.err.println("Not found: " + name);
+                }
+                return (Integer) 1;
+            }
+            for (Path jar : jars) {
+                System.out.println(jar);
+            }
+            return (Integer) 0;
+        }
+    }
+
+    @Command(
+            name = "conflicts",
+            description =
+                    "Lists the classes that are found in more than one of the dependencies defined in the app.yml file, grouped by package and artifact. "
+                            + "Only the first copy on the classpath will ever be loaded, which can cause subtle bugs. "
+                            + "Packages that are split across artifacts without any duplicate classes are listed as well, those won't work with the module system.\n\n"
+                            + "Example:\n  jpm conflicts\n")
+    static class Conflicts implements Callable<Integer> {
+        @Mixin VerboseMixin verboseMixin;
+        @Mixin ConfigMixin configMixin;
+        @Mixin QuietMixin quietMixin;
+        @Mixin DepsMixin depsMixin;
+        @Mixin AppInfoFileMixin appInfoFileMixin;
+
+        @Override
+        public Integer call() throws Exception {
+            long start = System.nanoTime();
+            ClassConflicts result =
+                    Jpm.builder()
+                            .directory(depsMixin.getDirectory())
+                            .linkMode(depsMixin.getLinkMode())
+                            .generations(depsMixin.getGenerations())
+                            .cacheDir(depsMixin.getCacheDir())
+                            .threads(depsMixin.getThreads())
+                            .offline(depsMixin.getOffline())
+                            .appFile(appInfoFileMixin.appInfoFile)
+                            .build()
+                            .conflicts(depsMixin.getRepositoryMap());
+            printConflicts(result, System.out, true);
+            if (!quietMixin.quiet) {
+                System.err.printf(
+                        Locale.ROOT,
+                        "Found %d duplicate classes and %d split packages in %.1f ms%n",
+                        result.duplicateCount(),
+                        result.packages.size(),
+                        (System.nanoTime() - start) / 1_000_000.0);
+            }
+            return result.isEmpty() ? 0 : 1;
+        }
+    }
+
+    @Command(
+            name = "prefetch",
+            description =
+                    "Resolves the dependencies of one or more projects into the cache without copying them anywhere. "
+                            + "Arguments can be app.yml files or directories that will be scanned for app.yml files. "
+                            + "The projects are resolved concurrently and artifacts shared between projects are only downloaded once. "
+                            + "If no arguments are passed the current directory will be scanned.\n\n"
+                            + "Example:\n  jpm prefetch ~/projects\n")
+    static class Prefetch implements Callable<Integer> {
+        @Mixin VerboseMixin verboseMixin;
+        @Mixin ConfigMixin configMixin;
+        @Mixin QuietMixin quietMixin;
+        @Mixin DepsMixin depsMixin;
+
+        @Option(
+                names = {"-j", "--parallel"},
+                description =
+                        "Maximum number of projects to resolve concurrently (default: number of processors)")
+        Integer parallel;
+
+        @Parameters(
+                paramLabel = "paths",
+                description = "The app.yml files or directories to scan for app.yml files",
+                arity = "0..*")
+        List<Path> paths = new ArrayList<>();
+
+        @Override
+        public Integer call() throws Exception {
+            int parallelism =
+                    parallel != null ? parallel : Runtime.getRuntime().availableProcessors();
+            if (parallelism < 1) {
+                throw new IllegalArgumentException(
+                        "The number of parallel projects must be a positive number: "
+                                + parallelism);
+            }
+            List<Path> ps = paths.isEmpty() ? Collections.singletonList(Paths.get(".")) : paths;
+            Prefetcher.PrefetchResult result =
+                    Jpm.builder()
+                            .cacheDir(depsMixin.getCacheDir())
+                            .threads(depsMixin.getThreads())
+                            .offline(depsMixin.getOffline())
+                            .build()
+                            .prefetch(ps, depsMixin.getRepositoryMap(), parallelism);
+            for (Map.Entry<Path, String> e : result.failures.entrySet()) {
+                System.err.println("Failed " + e.getKey() + ": " + e.getValue());
+            }
+            if (!quietMixin.quiet) {
+                System.err.printf(
+                        "Projects: %d (%d already cached, %d failed), artifacts: %d unique of %d total%n",
+                        result.projects,
+                        result.cached,
+                        result.failures.size(),
+                        result.artifacts,
+                        result.references);
+                System.err.printf(
+                        Locale.ROOT,
+                        "Downloaded %d bytes in %.1f s (%.2f MB/s)%n",
+                        result.metrics.bytesDownloaded(),
+                        result.elapsed / 1_000_000_000.0,
+                        result.bytesPerSecond() / (1024 * 1024));
+            }
+            return result.failures.isEmpty() ? 0 : 1;
+        }
+    }
+
+    @Command(
+            name = "verify",
+            description =
+                    "Checks the integrity of the artifacts in the target directory for the dependencies defined in the app.yml file. "
+                            + "Each artifact is compared against the checksum stored next to it in the cache, or the one recorded in the app.lock file. "
+                            + "Missing or corrupted artifacts are reported and can be restored using the --repair option.\n\n"
+                            + "Example:\n  jpm verify --repair\n")
+    static class Verify implements Callable<Integer> {
+        @Mixin VerboseMixin verboseMixin;
+        @Mixin ConfigMixin configMixin;
+        @Mixin QuietMixin quietMixin;
+        @Mixin DepsMixin depsMixin;
+        @Mixin AppInfoFileMixin appInfoFileMixin;
+
+        @Option(
+                names = {"--repair"},
+                description =
+                        "Sync missing or corrupted artifacts again, downloading them if the copy in the cache is corrupted as well")
+        boolean repair;
+
+        @Option(
+                names = {"-j", "--parallel"},
+                description =
+                        "Maximum number of files to check concurrently (default: number of processors)")
+        Integer parallel;
+
+        @Override
+        public Integer call() throws Exception {
+            int parallelism =
+                    parallel != null ? parallel : Runtime.getRuntime().availableProcessors();
+            if (parallelism < 1) {
+                throw new IllegalArgumentException(
+                        "The number of parallel files must be a positive number: " + parallelism);
+            }
+            Verifier.VerifyResult result =
+                    Jpm.builder()
+                            .directory(depsMixin.getDirectory())
+                            .linkMode(depsMixin.getLinkMode())
+                            .generations(depsMixin.getGenerations())
+                            .cacheDir(depsMixin.getCacheDir())
+                            .threads(depsMixin.getThreads())
+                            .offline(depsMixin.getOffline())
+                            .appFile(appInfoFileMixin.appInfoFile)
+                            .build()
+                            .verify(repair, depsMixin.getRepositoryMap(), parallelism);
+            for (Verifier.Check c : result.problems()) {
+                if (c.status == Verifier.Status.MISSING) {
+                    System.err.println("Missing " + c.file);
+                } else {
+                    System.err.println(
+                            "Corrupted "
+                                    + c.file
+                                    + " (expected "
+                                    + c.expected
+                                    + ", got "
+                                    + c.actual
+                                    + ")");
+                }
+            }
+            if (!quietMixin.quiet) {
+                if (repair) {
+                    System.err.printf("Repaired: %d%n", result.repaired);
+                }
+                System.err.printf(
+                        Locale.ROOT,
+                        "Verified %d artifacts in %.1f ms: ok %d, corrupted %d, missing %d, unknown %d%n",
+                        result.checks.size(),
+                        result.elapsed / 1_000_000.0,
+                        result.count(Verifier.Status.OK),
+                        result.count(Verifier.Status.MISMATCH),
+                        result.count(Verifier.Status.MISSING),
+                        result.count(Verifier.Status.UNKNOWN));
+            }
+            return result.problems().isEmpty() ? 0 : 1;
+        }
+    }
+
+    @Command(
+            name = "rollback",
+            description =
+                    "Switches the target directory back to a previous generation. Only works for directories that are managed using --generations. "
+                            + "Without arguments the generation that was current before the current one is restored, running it twice switches back again.\n\n"
+                            + "Example:\n  jpm rollback\n")
+    static class Rollback implements Callable<Integer> {
+        @Mixin VerboseMixin verboseMixin;
+        @Mixin ConfigMixin configMixin;
+        @Mixin QuietMixin quietMixin;
+        @Mixin DepsMixin depsMixin;
+
+        @Option(
+                names = {"-l", "--list"},
+                description = "List the available generations, the current one first")
+        boolean list;
+
+        @Parameters(
+                paramLabel = "generation",
+                description = "The name of the generation to switch to",
+                arity = "0..1")
+        String generation;
+
+        @Override
+        public Integer call() throws Exception {
+            Jpm jpm = Jpm.builder().directory(depsMixin.getDirectory()).build();
+            if (list) {
+                for (String g : jpm.listGenerations()) {
+                    System.out.println(g);
+                }
+                return 0;
+            }
+            String current = jpm.rollback(generation);
+            if (!quietMixin.quiet) {
+                System.err.println(
+                        "Switched " + depsMixin.getDirectory() + " to generation " + current);
+            }
+            return 0;
+        }
+    }
+
+    @Command(
+            name = "store",
+            description =
+                    "Manages the content-addressed artifact store that is used by --link-mode=store.",
+            subcommands = {Main.Store.Gc.class})
+    static class Store {
+        @Command(
+                name = "gc",
+                description =
+                        "Removes all artifacts from the store that are no longer used by any project.\n\n"
+                                + "Example:\n  jpm store gc\n")
+        static class Gc implements Callable<Integer> {
+            @Mixin VerboseMixin verboseMixin;
+            @Mixin ConfigMixin configMixin;
+            @Mixin QuietMixin quietMixin;
+            @Mixin DepsMixin depsMixin;
+
+            @Override
+            public Integer call() throws Exception {
+                ArtifactStore.GcResult result =
+                        Jpm.builder().cacheDir(depsMixin.getCacheDir()).build().storeGc();
+                if (!quietMixin.quiet) {
+                    System.err.printf(
+                            Locale.ROOT,
+                            "Removed %d artifacts (%.1f MB), kept %d used by %d projects%n",
+                            result.removed,
+                            result.bytesRemoved / (1024.0 * 1024.0),
+                            result.kept,
+                            result.projects);
+                }
+                return 0;
+            }
+        }
+    }
+
     @Command(
             name = "exec",
             description =
@@ -387,6 +805,8 @@ public class Main {
                             + "\n"
                             + "Supported tokens and what they expand to:\n"
                             + "  {{deps}}  : the classpath of all dependencies defined in the app.yml file\n"
+                            + "  {{depsjar}} : a jar file whose manifest references all dependencies defined in the app.yml file\n"
+                            + "  {{cds}} : a JVM option that creates a Class Data Sharing archive for the dependencies on the first run and uses it after that (Java 13+, jars only)\n"
                             + "  {/} : the OS' file path separator\n"
                             + "  {:} : the OS' class path separator\n"
                             + "  {~} : the user's home directory using the OS' class path format\n"
@@ -420,8 +840,11 @@ public class Main {
             try {
                 return Jpm.builder()
                         .directory(depsMixin.getDirectory())
-                        .noLinks(depsMixin.getNoLinks())
+                        .linkMode(depsMixin.getLinkMode())
+                        .generations(depsMixin.getGenerations())
                         .cacheDir(depsMixin.getCacheDir())
+                        .threads(depsMixin.getThreads())
+                        .offline(depsMixin.getOffline())
                         .appFile(appInfoFileMixin.appInfoFile)
                         .verbose(!quietMixin.quiet)
                         .build()
@@ -476,15 +899,21 @@ public class Main {
         @Override
         public Integer call() throws Exception {
             try {
+                // Shared by all actions, so app.yml gets read and the deps resolved only once
+                Jpm.ActionContext context =
+                        Jpm.builder()
+                                .directory(depsMixin.getDirectory())
+                                .linkMode(depsMixin.getLinkMode())
+                                .generations(depsMixin.getGenerations())
+                                .cacheDir(depsMixin.getCacheDir())
+                                .threads(depsMixin.getThreads())
+                                .offline(depsMixin.getOffline())
+                                .appFile(appInfoFileMixin.appInfoFile)
+                                .verbose(!quietMixin.quiet)
+                                .build()
+                                .actionContext(depsMixin.getRepositoryMap());
                 if (list) {
-                    List<String> actionNames =
-                            Jpm.builder()
-                                    .directory(depsMixin.getDirectory())
-                                    .noLinks(depsMixin.getNoLinks())
-                                    .cacheDir(depsMixin.getCacheDir())
-                                    .appFile(appInfoFileMixin.appInfoFile)
-                                    .build()
-                                    .listActions();
+                    List<String> actionNames = context.listActions();
                     if (actionNames.isEmpty()) {
                         if (!quietMixin.quiet) System.out.println("No actions defined in app.yml");
                     } else {
@@ -523,15 +952,7 @@ public class Main {
                             }
                             idx++;
                         }
-                        int exitCode =
-                                Jpm.builder()
-                                        .directory(depsMixin.getDirectory())
-                                        .noLinks(depsMixin.getNoLinks())
-                                        .cacheDir(depsMixin.getCacheDir())
-                                        .appFile(appInfoFileMixin.appInfoFile)
-                                        .verbose(!quietMixin.quiet)
-                                        .build()
-                                        .executeAction(action, args, depsMixin.getRepositoryMap());
+                        int exitCode = context.executeAction(action, args);
                         if (exitCode != 0) {
                             return exitCode;
                         }
@@ -561,11 +982,15 @@ public class Main {
                 // Use only unmatched args for pass-through to preserve ordering
                 return Jpm.builder()
                         .directory(depsMixin.getDirectory())
-                        .noLinks(depsMixin.getNoLinks())
+                        .linkMode(depsMixin.getLinkMode())
+                        .generations(depsMixin.getGenerations())
                         .cacheDir(depsMixin.getCacheDir())
+                        .threads(depsMixin.getThreads())
+                        .offline(depsMixin.getOffline())
                         .appFile(appInfoFileMixin.appInfoFile)
                         .build()
-                        .executeAction(actionName(), args, depsMixin.getRepositoryMap());
+                        .actionContext(depsMixin.getRepositoryMap())
+                        .executeAction(actionName(), args);
             } catch (Exception e) {
                 System.err.println(e.getMessage());
                 return 1;
@@ -630,12 +1055,36 @@ public class Main {
                         "Always copy artifacts, don't try to create symlinks (default: false)")
         Boolean noLinks;
 
+        @Option(
+                names = {"--link-mode"},
+                description =
+                        "How to make artifacts available in the target directory: symlink, hard, copy, auto or store. Hard links and copies behave like real files, auto uses hard links where possible and falls back to symlinks and then copies, store uses hard links to a content-addressed store shared by all projects (default: symlink, or copy when --no-links is set)")
+        String linkMode;
+
+        @Option(
+                names = {"--generations"},
+                description =
+                        "Build each sync as a complete new generation of the target directory and atomically switch the directory, which becomes a symbolic link, over to it. The value is the number of previous generations to keep for 'jpm rollback' (default: update the directory in place)")
+        Integer generations;
+
         @Option(
                 names = {"-r", "--repo"},
                 description =
                         "URL to additional repository to use when resolving artifacts. Can be preceded by a name and an equals sign, e.g. -r myrepo=https://my.repo.com/maven2. When needing to pass user and password you can set JPM_REPO_<name>_USER and JPM_REPO_<name>_PASSWORD environment variables.")
         List<String> repositories = new ArrayList<>();
 
+        @Option(
+                names = {"--threads"},
+                description =
+                        "Number of threads to use for collecting dependencies and downloading artifacts. Setting this enables breadth-first collection with parallel POM prefetching (default: resolver defaults)")
+        Integer threads;
+
+        @Option(
+                names = {"--offline"},
+                description =
+                        "Work offline, only resolve artifacts from the cache and fail immediately when any are missing (default: false)")
+        Boolean offline;
+
         @Option(
                 names = {"-c", "--cache"},
                 description =
@@ -728,6 +1177,87 @@ public class Main {
             return false; // Hardcoded default
         }
 
+        /**
+         * Returns how to make artifacts available in the target directory. Priority: --link-mode
+         * option > --no-links option > UserConfig link-mode > UserConfig no-links > hardcoded
+         * default (symlink).
+         *
+         * @return The link mode to use
+         */
+        LinkMode getLinkMode() {
+            if (linkMode != null) {
+                return LinkMode.parse(linkMode);
+            }
+            if (noLinks != null) {
+                return noLinks ? LinkMode.COPY : LinkMode.SYMLINK;
+            }
+            LinkMode userConfigLinkMode = getUserConfig().linkMode();
+            if (userConfigLinkMode != null) {
+                return userConfigLinkMode;
+            }
+            return getNoLinks() ? LinkMode.COPY : LinkMode.SYMLINK;
+        }
+
+        /**
+         * Returns the number of previous generations of the target directory to keep. Priority: CLI
+         * option > UserConfig > hardcoded default (-1, meaning generations are not used).
+         *
+         * @return The number of generations to keep or -1 to update the directory in place
+         */
+        int getGenerations() {
+            if (generations != null) {
+                if (generations < 0) {
+                    throw new IllegalArgumentException(
+                            "The number of generations must be zero or a positive number: "
+                                    + generations);
+                }
+                return generations;
+            }
+            Integer userConfigGenerations = getUserConfig().generations();
+            if (userConfigGenerations != null) {
+                return userConfigGenerations;
+            }
+            return -1;
+        }
+
+        /**
+         * Returns the number of threads to use for dependency resolution. Priority: CLI option >
+         * UserConfig > hardcoded default (0, meaning the resolver's defaults).
+         *
+         * @return The number of threads or 0 to use the resolver's defaults
+         */
+        int getThreads() {
+            if (threads != null) {
+                if (threads < 1) {
+                    throw new IllegalArgumentException(
+                            "The number of threads must be a positive number: " + threads);
+                }
+                return threads;
+            }
+            Integer userConfigThreads = getUserConfig().threads();
+            if (userConfigThreads != null) {
+                return userConfigThreads;
+            }
+            return 0;
+        }
+
+        /**
+         * Returns whether to work in offline mode. Priority: CLI option > UserConfig > hardcoded
+         * default (false).
+         *
+         * @return true to work offline, false otherwise
+         */
+        boolean getOffline() {
+            if (offline != null) {
+                return offline;
+            }
+            Boolean userConfigOffline = getUserConfig().offline();
+            if (userConfigOffline != null) {
+                return userConfigOffline;
+            }
+            return false;
+        }
+
         /**
          * Returns the repository map. Priority: UserConfig repositories (base) + CLI repositories
          * (override).
@@ -812,6 +1342,29 @@ public class Main {
         }
     }
 
+    static class StatsMixin {
+        @Option(
+                names = {"--stats"},
+                description =
+                        "Print detailed timings, download and cache statistics to standard error")
+        boolean stats;
+
+        @Option(
+                names = {"--stats-json"},
+                description =
+                        "Print detailed timings, download and cache statistics as JSON to standard output")
+        boolean statsJson;
+
+        void print(SyncResult result) {
+            if (stats) {
+                System.err.println(result.metrics.toReport());
+            }
+            if (statsJson) {
+                System.out.println(result.toJson());
+            }
+        }
+    }
+
     static class QuietMixin {
         @Option(
                 names = {"-q", "--quiet"},
@@ -820,6 +1373,45 @@ public class Main {
         private boolean quiet;
     }
 
+    private static void printPlan(SyncPlan plan, boolean verbose, boolean quiet) {
+        for (SyncPlan.Step step : plan.steps()) {
+            if (step.action != SyncPlan.Action.UNCHANGED || verbose) {
+                System.out.printf(
+                        "%-9s %s (%d bytes)%n",
+                        step.action.name().toLowerCase(Locale.ENGLISH),
+                        step.target.getFileName(),
+                        (Long) step.size);
+            }
+        }
+        if (!quiet) {
+            System.err.printf(
+                    "Would copy: %d, link: %d, update: %d, delete: %d, unchanged: %d (%d bytes to copy)%n",
+                    (Integer) plan.count(SyncPlan.Action.COPY),
+                    (Integer) plan.count(SyncPlan.Action.LINK),
+                    (Integer) plan.count(SyncPlan.Action.UPDATE),
+                    (Integer) plan.count(SyncPlan.Action.DELETE),
+                    (Integer) plan.count(SyncPlan.Action.UNCHANGED),
+                    (Long) plan.bytesToCopy());
+        }
+    }
+
+    private static void printConflicts(ClassConflicts conflicts, PrintStream out, boolean classes) {
+        for (ClassConflicts.SplitPackage pkg : conflicts.packages) {
+            String name = pkg.name.isEmpty() ? "(default package)" : pkg.name;
+            out.println("Package " + name + " is split across " + String.join(", ", pkg.jars));
+            for (Map.Entry<List<String>, List<String>> e : pkg.duplicates.entrySet()) {
+                out.printf(
+                        "  %d duplicate classes in %s%n",
+                        e.getValue().size(), String.join(", ", e.getKey()));
+                if (classes) {
+                    for (String cls : e.getValue()) {
+                        out.println("    " + cls);
+                    }
+                }
+            }
+        }
+    }
+
     private static void printStats(SyncResult stats) {
         System.err.printf(
                 "Artifacts new: %d, updated: %d, deleted: %d%n",
@@ -2,6 +2,7 @@ package org.codejive.jpm.config;
 
 import java.io.IOException;
 import java.io.Reader;
+import java.io.StringWriter;
 import java.io.Writer;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -10,6 +11,7 @@ import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import org.codejive.jpm.util.FileUtils;
 import org.yaml.snakeyaml.DumperOptions;
 import org.yaml.snakeyaml.Yaml;
 
@@ -191,7 +193,8 @@ public class AppInfo {
     }
 
     /**
-     * Writes the AppInfo object to the given path.
+     * Writes the AppInfo object to the given path. The file is replaced atomically, so anyone
+     * reading it at the same time sees either the old or the new contents, never a partial file.
      *
      * @param appInfo The AppInfo object to write
      * @param appInfoFile The path to write the app.yml file to
@@ -199,9 +202,9 @@ public class AppInfo {
      */
     @SuppressWarnings("unchecked")
     public static void write(AppInfo appInfo, Path appInfoFile) throws IOException {
-        try (Writer out = Files.newBufferedWriter(appInfoFile)) {
-            write(appInfo, out);
-        }
+        StringWriter out = new StringWriter();
+        write(appInfo, out);
+        FileUtils.writeAtomically(appInfoFile, out.toString());
     }
 
     /**
@@ -0,0 +1,285 @@
+package org.codejive.jpm.config;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import org.codejive.jpm.util.FileUtils;
+import org.yaml.snakeyaml.DumperOptions;
+import org.yaml.snakeyaml.Yaml;
+
+/**
+ * Represents the contents of an app.lock file. The lock file sits next to the app.yml file and
+ * holds the fully resolved list of artifacts for the dependencies and repositories that were
+ * defined at the time of the last install. As long as the hash stored in the lock file matches the
+ * hash of the current dependencies and repositories the lock can be used to build the classpath
+ * without having to resolve the dependencies again.
+ */
+public class AppLock {
+    private String hash;
+    private final List<Entry> artifacts = new ArrayList<>();
+
+    /** The official name of the app.lock file. */
+    public static final String APP_LOCK_FILE = "app.lock";
+
+    /** A single resolved artifact as recorded in the lock file. */
+    public static class Entry {
+        /** The full coordinates of the artifact. */
+        public final String gav;
+
+        /** The id of the repository the artifact was resolved from (can be null). */
+        public final String repository;
+
+        /** The SHA-256 checksum of the artifact's file. */
+        public final String sha256;
+
+        /** The size of the artifact's file in bytes. */
+        public final long size;
+
+        /** The path to the artifact's file in the local cache. */
+        public final Path path;
+
+        public Entry(String gav, String repository, String sha256, long size, Path path) {
+            this.gav = gav;
+            this.repository = repository;
+            this.sha256 = sha256;
+            this.size = size;
+            this.path = path;
+        }
+    }
+
+    public String hash() {
+        return hash;
+    }
+
+    public void hash(String hash) {
+        this.hash = hash;
+    }
+
+    public List<Entry> artifacts() {
+        return artifacts;
+    }
+
+    /**
+     * Returns the paths of all the artifacts in the lock file.
+     *
+     * @return A list of paths
+     */
+    public List<Path> getPaths() {
+        List<Path> paths = new ArrayList<>(artifacts.size());
+        for (Entry e : artifacts) {
+            paths.add(e.path);
+        }
+        return paths;
+    }
+
+    /**
+     * Determines if the lock file can be used instead of resolving the given dependencies and
+     * repositories using the default cache directory. See {@link #isValidFor(List, Map, Path)}.
+     *
+     * @param dependencies The dependencies to check against
+     * @param repositories The repositories to check against
+     * @return true if the lock file can be used, false otherwise
+     */
+    public boolean isValidFor(List<String> dependencies, Map<String, String> repositories) {
+        return isValidFor(dependencies, repositories, null);
+    }
+
+    /**
+     * Determines if the lock file can be used instead of resolving the given dependencies and
+     * repositories into the given cache directory. This is only the case when the hash matches and
+     * all the artifacts recorded in the lock file still exist in the local cache with their
+     * original sizes.
+     *
+     * @param dependencies The dependencies to check against
+     * @param repositories The repositories to check against
+     * @param cacheDir The cache directory to check against, null for the default one
+     * @return true if the lock file can be used, false otherwise
+     */
+    public boolean isValidFor(
+            List<String> dependencies, Map<String, String> repositories, Path cacheDir) {
+        if (hash == null || !hash.equals(computeHash(dependencies, repositories, cacheDir))) {
+            return false;
+        }
+        for (Entry e : artifacts) {
+            try {
+                if (e.path == null || Files.size(e.path) != e.size) {
+                    return false;
+                }
+            } catch (IOException ex) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Computes the hash for the given dependencies and repositories using the default cache
+     * directory. See {@link #computeHash(List, Map, Path)}.
+     *
+     * @param dependencies The dependencies to hash
+     * @param repositories The repositories to hash
+     * @return The hash as a hex string
+     */
+    public static String computeHash(List<String> dependencies, Map<String, String> repositories) {
+        return computeHash(dependencies, repositories, null);
+    }
+
+    /**
+     * Computes the hash for the given dependencies, repositories and cache directory. The order of
+     * the dependencies is significant, the order of the repositories is not. The cache directory is
+     * part of the hash because the lock file records where the artifacts are found in it, so
+     * switching to a different one must not reuse the artifacts from the old one.
+     *
+     * @param dependencies The dependencies to hash
+     * @param repositories The repositories to hash
+     * @param cacheDir The cache directory, null for the default one
+     * @return The hash as a hex string
+     */
+    public static String computeHash(
+            List<String> dependencies, Map<String, String> repositories, Path cacheDir) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("dependencies:\n");
+        for (String dep : dependencies) {
+            sb.append(dep).append('\n');
+        }
+        sb.append("repositories:\n");
+        for (Map.Entry<String, String> e : new TreeMap<>(repositories).entrySet()) {
+            sb.append(e.getKey()).append('=').append(e.getValue()).append('\n');
+        }
+        if (cacheDir != null) {
+            // Left out for the default, so lock files written before this was added stay valid
+            sb.append("cache:").append(cacheDir.toAbsolutePath().normalize()).append('\n');
+        }
+        return sha256(sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String sha256(byte[] data) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            return FileUtils.toHex(md.digest(data));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns the path of the lock file that belongs to the given app.yml file.
+     *
+     * @param appInfoFile The path to the app.yml file
+     * @return The path to the app.lock file
+     */
+    public static Path lockFileFor(Path appInfoFile) {
+        String name = appInfoFile.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        String lockName = (dot > 0 ? name.substring(0, dot) : name) + ".lock";
+        return appInfoFile.resolveSibling(lockName);
+    }
+
+    /**
+     * Reads the lock file that belongs to the given app.yml file. If the file does not exist, null
+     * is returned.
+     *
+     * @param appInfoFile The path to the app.yml file
+     * @return An instance of AppLock or null
+     * @throws IOException if an error occurred while reading or parsing the file
+     */
+    public static AppLock read(Path appInfoFile) throws IOException {
+        Path lockFile = lockFileFor(appInfoFile);
+        if (Files.isRegularFile(lockFile)) {
+            try (Reader in = Files.newBufferedReader(lockFile)) {
+                return read(in);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads the lock file from the given Reader and returns its content as an AppLock object.
+     *
+     * @param in The Reader to read the app.lock content from
+     * @return An instance of AppLock
+     */
+    @SuppressWarnings("unchecked")
+    public static AppLock read(Reader in) {
+        AppLock appLock = new AppLock();
+        Yaml yaml = new Yaml();
+        Map<String, Object> data = yaml.load(in);
+        if (data == null) {
+            return appLock;
+        }
+        if (data.get("hash") instanceof String) {
+            appLock.hash = (String) data.get("hash");
+        }
+        if (data.get("artifacts") instanceof List) {
+            for (Object obj : (List<Object>) data.get("artifacts")) {
+                if (obj instanceof Map) {
+                    Map<String, Object> a = (Map<String, Object>) obj;
+                    Object size = a.get("size");
+                    Object path = a.get("path");
+                    appLock.artifacts.add(
+                            new Entry(
+                                    (String) a.get("gav"),
+                                    (String) a.get("repository"),
+                                    (String) a.get("sha256"),
+                                    size instanceof Number ? ((Number) size).longValue() : -1,
+                                    path != null ? Paths.get(path.toString()) : null));
+                }
+            }
+        }
+        return appLock;
+    }
+
+    /**
+     * Writes the AppLock object to the lock file that belongs to the given app.yml file.
+     *
+     * @param appLock The AppLock object to write
+     * @param appInfoFile The path to the app.yml file
+     * @throws IOException if an error occurred while writing the file
+     */
+    public static void write(AppLock appLock, Path appInfoFile) throws IOException {
+        StringWriter out = new StringWriter();
+        write(appLock, out);
+        FileUtils.writeAtomically(lockFileFor(appInfoFile), out.toString());
+    }
+
+    /**
+     * Writes the AppLock object to the given Writer.
+     *
+     * @param appLock The AppLock object to write
+     * @param out The Writer to write to
+     */
+    public static void write(AppLock appLock, Writer out) {
+        DumperOptions dopts = new DumperOptions();
+        dopts.setDefaultFlowStyle(DumperOptions.FlowStyle.BLOCK);
+        dopts.setPrettyFlow(true);
+        Yaml yaml = new Yaml(dopts);
+        Map<String, Object> data = new LinkedHashMap<>();
+        data.put("hash", appLock.hash);
+        List<Map<String, Object>> artifacts = new ArrayList<>();
+        for (Entry e : appLock.artifacts) {
+            Map<String, Object> a = new LinkedHashMap<>();
+            a.put("gav", e.gav);
+            if (e.repository != null) {
+                a.put("repository", e.repository);
+            }
+            a.put("sha256", e.sha256);
+            a.put("size", e.size);
+            a.put("path", e.path.toString());
+            artifacts.add(a);
+        }
+        data.put("artifacts", artifacts);
+        yaml.dump(data, out);
+    }
+}
@@ -7,6 +7,7 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import org.codejive.jpm.util.LinkMode;
 import org.yaml.snakeyaml.Yaml;
 
 /**
@@ -18,6 +19,10 @@ public class UserConfig {
     private String cache;
     private String directory;
     private Boolean noLinks;
+    private LinkMode linkMode;
+    private Integer generations;
+    private Integer threads;
+    private Boolean offline;
     private final Map<String, String> repositories = new LinkedHashMap<>();
 
     /** The primary user config file location (XDG standard). */
@@ -38,6 +43,22 @@ public class UserConfig {
         return noLinks;
     }
 
+    public LinkMode linkMode() {
+        return linkMode;
+    }
+
+    public Integer generations() {
+        return generations;
+    }
+
+    public Integer threads() {
+        return threads;
+    }
+
+    public Boolean offline() {
+        return offline;
+    }
+
     public Map<String, String> repositories() {
         return repositories;
     }
@@ -181,6 +202,53 @@ public class UserConfig {
                 }
             }
 
+            // Parse link-mode
+            if (config.containsKey("link-mode")) {
+                Object linkModeObj = config.get("link-mode");
+                try {
+                    userConfig.linkMode = LinkMode.parse(String.valueOf(linkModeObj));
+                } catch (IllegalArgumentException e) {
+                    System.err.println(
+                            "Warning: 'link-mode' must be one of symlink, hard, copy, auto or store, ignoring: "
+                                    + linkModeObj);
+                }
+            }
+
+            // Parse generations
+            if (config.containsKey("generations")) {
+                Object generationsObj = config.get("generations");
+                if (generationsObj instanceof Integer && (Integer) generationsObj >= 0) {
+                    userConfig.generations = (Integer) generationsObj;
+                } else {
+                    System.err.println(
+                            "Warning: 'generations' must be zero or a positive integer, ignoring: "
+                                    + generationsObj);
+                }
+            }
+
+            // Parse threads
+            if (config.containsKey("threads")) {
+                Object threadsObj = config.get("threads");
+                if (threadsObj instanceof Integer && (Integer) threadsObj > 0) {
+                    userConfig.threads = (Integer) threadsObj;
+                } else {
+                    System.err.println(
+                            "Warning: 'threads' must be a positive integer, ignoring: "
+                                    + threadsObj);
+                }
+            }
+
+            // Parse offline
+            if (config.containsKey("offline")) {
+                Object offlineObj = config.get("offline");
+                if (offlineObj instanceof Boolean) {
+                    userConfig.offline = (Boolean) offlineObj;
+                } else {
+                    System.err.println(
+                            "Warning: 'offline' must be a boolean, ignoring: " + offlineObj);
+                }
+            }
+
             // Parse repositories
             if (config.containsKey("repositories")) {
                 Object reposObj = config.get("repositories");
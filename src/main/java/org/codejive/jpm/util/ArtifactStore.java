@@ -0,0 +1,210 @@
+package org.codejive.jpm.util;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A content-addressed store of artifacts that is shared by all projects using the same cache
+ * directory. Each distinct file is stored exactly once, named after its SHA-256 checksum, and deps
+ * directories get hard links to those files. So no matter how many projects use the same jar, and
+ * even if it ended up in the cache directory multiple times, it only takes up space (on disk and in
+ * the page cache) once, while the files in the deps directories still behave like real copies.
+ *
+ * <p>Every directory that gets files from the store is registered, which is what allows {@link
+ * #gc()} to find the files that are no longer used by any project.
+ */
+public class ArtifactStore {
+    private final Path directory;
+
+    /** The name of the directory (inside the cache directory) where the store is kept. */
+    public static final String STORE_DIR = ".jpm/store";
+
+    /**
+     * Returns the store that belongs to the given Maven cache directory. If the cache directory is
+     * null the local repository from the user's Maven settings is used.
+     *
+     * @param cacheDir The cache directory (can be null)
+     * @return An {@link ArtifactStore} instance
+     */
+    public static ArtifactStore forCacheDir(Path cacheDir) {
+        Path base = ResolverSession.localRepository(cacheDir);
+        return new ArtifactStore(base.resolve(STORE_DIR));
+    }
+
+    public ArtifactStore(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Returns the directory where the store is kept.
+     *
+     * @return A path
+     */
+    public Path directory() {
+        return directory;
+    }
+
+    private Path blobs() {
+        return directory.resolve("blobs");
+    }
+
+    private Path projects() {
+        return directory.resolve("projects");
+    }
+
+    /**
+     * Adds the given file to the store, unless a file with the same contents is already present.
+     *
+     * @param file The file to add
+     * @return The file in the store
+     * @throws IOException if the file could not be read or added
+     */
+    public Path add(Path file) throws IOException {
+        Path blob = blob(file);
+        if (!Files.exists(blob)) {
+            Files.createDirectories(blob.getParent());
+            // Concurrent adds of the same file are harmless, the last rename wins
+            FileUtils.copyFile(file, blob);
+        }
+        return blob;
+    }
+
+    /**
+     * Returns where the given file is, or would be, kept in the store. The file doesn't get added.
+     *
+     * @param file The file to look up
+     * @return The file in the store, which might not exist
+     * @throws IOException if the file could not be read
+     */
+    public Path blob(Path file) throws IOException {
+        String sha256 = FileUtils.checksumMapped(file, "SHA-256");
+        return blobs().resolve(sha256.substring(0, 2)).resolve(sha256);
+    }
+
+    /**
+     * Registers a directory as containing links to files in the store.
+     *
+     * @param dir The directory to register
+     * @throws IOException if the registration could not be written
+     */
+    public void register(Path dir) throws IOException {
+        String path = dir.toAbsolutePath().normalize().toString();
+        Path registration = projects().resolve(key(path));
+        if (!Files.isRegularFile(registration)) {
+            Files.createDirectories(projects());
+            Path tmp = FileUtils.tempSibling(registration);
+            try {
+                Files.write(tmp, path.getBytes(StandardCharsets.UTF_8));
+                FileUtils.moveAtomically(tmp, registration);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        }
+    }
+
+    /** Holds the results of a garbage collection. */
+    public static class GcResult {
+        /** The number of registered directories that still exist. */
+        public int projects;
+
+        /** The number of files in the store that are still in use. */
+        public int kept;
+
+        /** The number of files that were removed from the store. */
+        public int removed;
+
+        /** The total size of the removed files in bytes. */
+        public long bytesRemoved;
+    }
+
+    /**
+     * Removes all files from the store that are no longer linked from any of the registered
+     * directories. Registrations of directories that no longer exist are removed as well. Files are
+     * recognized by their file key (eg their inode), on file systems that don't support those
+     * nothing is removed from the store.
+     *
+     * @return A {@link GcResult} with statistics
+     * @throws IOException if an error occurred
+     */
+    public GcResult gc() throws IOException {
+        GcResult result = new GcResult();
+        Set<Object> referenced = new HashSet<>();
+        if (Files.isDirectory(projects())) {
+            try (DirectoryStream<Path> registrations = Files.newDirectoryStream(projects())) {
+                for (Path registration : registrations) {
+                    if (registration.getFileName().toString().startsWith(".")) {
+                        continue;
+                    }
+                    Path dir =
+                            Paths.get(
+                                    new String(
+                                            Files.readAllBytes(registration),
+                                            StandardCharsets.UTF_8));
+                    if (!Files.isDirectory(dir, LinkOption.NOFOLLOW_LINKS)) {
+                        Files.deleteIfExists(registration);
+                        continue;
+                    }
+                    result.projects++;
+                    try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+                        for (Path f : files) {
+                            BasicFileAttributes attrs =
+                                    Files.readAttributes(
+                                            f,
+                                            BasicFileAttributes.class,
+                                            LinkOption.NOFOLLOW_LINKS);
+                            if (attrs.isRegularFile() && attrs.fileKey() != null) {
+                                referenced.add(attrs.fileKey());
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        if (Files.isDirectory(blobs())) {
+            try (DirectoryStream<Path> prefixes = Files.newDirectoryStream(blobs())) {
+                for (Path prefix : prefixes) {
+                    if (!Files.isDirectory(prefix)) {
+                        continue;
+                    }
+                    try (DirectoryStream<Path> blobs = Files.newDirectoryStream(prefix)) {
+                        for (Path blob : blobs) {
+                            if (blob.getFileName().toString().startsWith(".")) {
+                                continue;
+                            }
+                            BasicFileAttributes attrs =
+                                    Files.readAttributes(blob, BasicFileAttributes.class);
+                            if (attrs.fileKey() == null || referenced.contains(attrs.fileKey())) {
+                                result.kept++;
+                            } else {
+                                Files.delete(blob);
+                                result.removed++;
+                                result.bytesRemoved += attrs.size();
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    private static String key(String path) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            return FileUtils.toHex(md.digest(path.getBytes(StandardCharsets.UTF_8)))
+                    .substring(0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
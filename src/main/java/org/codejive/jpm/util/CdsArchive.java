@@ -0,0 +1,153 @@
+package org.codejive.jpm.util;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+/**
+ * A Class Data Sharing archive for a specific classpath. Such an archive holds the parsed and
+ * verified classes of the application and its dependencies, which the JVM can map into memory at
+ * startup instead of loading them from the jars one by one. For applications with large classpaths
+ * this is one of the most effective ways to reduce startup time.
+ *
+ * <p>Archives are kept in the cache directory, named after a hash of the classpath that includes
+ * the size and last modified time of each entry, so any change to the dependencies results in a
+ * different archive. The hash also includes the JDK jpm runs on, which is assumed to be the one the
+ * actions get launched with, because an archive can only be used by the JDK that created it. The
+ * archive does not get created up front. Instead the first launch, the training run, gets {@code
+ * -XX:ArchiveClassesAtExit} to dump all classes it loaded when it exits, and each launch after that
+ * gets {@code -XX:SharedArchiveFile} to use them. This requires Java 13 or newer, on older versions
+ * no option is used at all. The JVM refuses to create an archive for some classpaths, for example
+ * ones containing non-empty directories. When a training run doesn't produce an archive a marker
+ * file is left in its place, so later launches don't get any option either instead of repeating the
+ * failed training run over and over.
+ */
+public class CdsArchive {
+    private final Path file;
+    private final Path tmpFile;
+    private final Path noArchiveFile;
+    private boolean training;
+
+    /** The name of the directory (inside the cache directory) where the archives are kept. */
+    public static final String CDS_DIR = ".jpm/cds";
+
+    /** The first Java version that supports {@code -XX:ArchiveClassesAtExit}. */
+    static final int MIN_JAVA_VERSION = 13;
+
+    CdsArchive(Path file) {
+        this.file = file;
+        this.tmpFile = FileUtils.tempSibling(file);
+        this.noArchiveFile = file.resolveSibling(file.getFileName() + ".none");
+    }
+
+    /**
+     * Returns the archive for the given classpath. If the cache directory is null the local
+     * repository from the user's Maven settings is used.
+     *
+     * @param cacheDir The cache directory (can be null)
+     * @param classpath The classpath
+     * @return A {@link CdsArchive}, whose file might not exist yet
+     * @throws IOException if one of the classpath entries could not be read
+     */
+    public static CdsArchive forClasspath(Path cacheDir, List<Path> classpath) throws IOException {
+        Path base = ResolverSession.localRepository(cacheDir);
+        return new CdsArchive(base.resolve(CDS_DIR).resolve(key(classpath) + ".jsa"));
+    }
+
+    /**
+     * Returns a key that changes whenever anything about the given classpath changes, which
+     * includes the contents of the files (as far as their size and modification time tell), or when
+     * a different JDK is used.
+     */
+    static String key(List<Path> classpath) throws IOException {
+        return key(
+                System.getProperty("java.home") + "|" + System.getProperty("java.version"),
+                classpath);
+    }
+
+    static String key(String jdk, List<Path> classpath) throws IOException {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        md.update(jdk.getBytes(StandardCharsets.UTF_8));
+        md.update((byte) 0);
+        for (Path p : classpath) {
+            Path abs = p.toAbsolutePath().normalize();
+            String entry = abs.toString();
+            try {
+                BasicFileAttributes attrs = Files.readAttributes(abs, BasicFileAttributes.class);
+                entry += "|" + attrs.size() + "|" + attrs.lastModifiedTime().toMillis();
+            } catch (NoSuchFileException e) {
+                // Not much to go on, the JVM won't be able to use it either
+            }
+            md.update(entry.getBytes(StandardCharsets.UTF_8));
+            md.update((byte) 0);
+        }
+        return FileUtils.toHex(md.digest()).substring(0, 32);
+    }
+
+    /**
+     * Returns the path of the archive file.
+     *
+     * @return A path
+     */
+    public Path file() {
+        return file;
+    }
+
+    /**
+     * Returns the JVM option to launch with: one that uses the archive if it exists, otherwise one
+     * that creates it when the JVM exits. Returns null if Java is too old to create archives or if
+     * an earlier training run failed to create one.
+     *
+     * @return A JVM option or null
+     * @throws IOException if the directory for the archive could not be created
+     */
+    public String option() throws IOException {
+        if (Runtime.version().feature() < MIN_JAVA_VERSION) {
+            return null;
+        }
+        if (Files.isRegularFile(file)) {
+            return "-XX:SharedArchiveFile=" + file;
+        }
+        if (Files.exists(noArchiveFile)) {
+            return null;
+        }
+        Files.createDirectories(file.getParent());
+        training = true;
+        // Written under a temporary name, so no one ever uses a half written archive
+        return "-XX:ArchiveClassesAtExit=" + tmpFile;
+    }
+
+    /**
+     * Must be called after the JVM that got the {@link #option()} has exited. Puts the archive
+     * created by a training run into place, if there was one, otherwise leaves the marker that
+     * keeps the training run from being repeated.
+     *
+     * @throws IOException if the archive or the marker could not be written
+     */
+    public void commit() throws IOException {
+        if (!training) {
+            return;
+        }
+        training = false;
+        if (Files.isRegularFile(tmpFile)) {
+            try {
+                FileUtils.moveAtomically(tmpFile, file);
+            } finally {
+                Files.deleteIfExists(tmpFile);
+            }
+        } else if (!Files.isRegularFile(file)) {
+            Files.write(noArchiveFile, new byte[0]);
+        }
+    }
+}
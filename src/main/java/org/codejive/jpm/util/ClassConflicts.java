@@ -0,0 +1,233 @@
+package org.codejive.jpm.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * The classes that can be found in more than one jar on a classpath, and the packages that are
+ * split across several jars. With duplicate classes only the first copy on the classpath gets
+ * loaded, which is typically caused by relocated artifacts (javax vs jakarta) or artifacts that
+ * include shaded copies of their dependencies. Split packages cause similar problems and don't work
+ * at all with the module system.
+ *
+ * <p>The conflicts are found using a {@link ClassIndex}, whose entries are sorted by name, so all
+ * copies of a class are found next to each other. Module descriptors and everything inside {@code
+ * META-INF} are ignored.
+ */
+public class ClassConflicts {
+    /** The packages found in more than one jar, sorted by name. */
+    public final List<SplitPackage> packages;
+
+    private static final byte[] CLASS_SUFFIX = ".class".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] META_INF = "META-INF/".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] MODULE_INFO = "module-info.class".getBytes(StandardCharsets.UTF_8);
+
+    /** A package with classes in more than one jar. */
+    public static class SplitPackage {
+        /** The name of the package, empty for the default package. */
+        public final String name;
+
+        /** The names of the jars that contain classes of this package. */
+        public final List<String> jars;
+
+        /**
+         * The classes that are found in more than one jar, grouped by the jars that contain them.
+         * Empty if the package is split but none of its classes are duplicated.
+         */
+        public final Map<List<String>, List<String>> duplicates;
+
+        SplitPackage(String name, List<String> jars, Map<List<String>, List<String>> duplicates) {
+            this.name = name;
+            this.jars = jars;
+            this.duplicates = duplicates;
+        }
+
+        /**
+         * Returns the number of classes in this package that are found in more than one jar.
+         *
+         * @return A number
+         */
+        public int duplicateCount() {
+            return duplicates.values().stream().mapToInt(List::size).sum();
+        }
+    }
+
+    private ClassConflicts(List<SplitPackage> packages) {
+        this.packages = packages;
+    }
+
+    /**
+     * Returns an instance without any conflicts.
+     *
+     * @return A {@link ClassConflicts}
+     */
+    public static ClassConflicts none() {
+        return new ClassConflicts(Collections.emptyList());
+    }
+
+    /**
+     * Returns the total number of classes that are found in more than one jar.
+     *
+     * @return A number
+     */
+    public int duplicateCount() {
+        return packages.stream().mapToInt(SplitPackage::duplicateCount).sum();
+    }
+
+    /**
+     * Returns whether there are no duplicate classes nor split packages.
+     *
+     * @return true if there are no conflicts
+     */
+    public boolean isEmpty() {
+        return packages.isEmpty();
+    }
+
+    /**
+     * Finds the conflicts between the given jars.
+     *
+     * @param index An index that includes the jars
+     * @param jars The names of the jars to check, relative to the directory of the index, jars that
+     *     aren't in the index are ignored
+     * @return A {@link ClassConflicts}
+     */
+    public static ClassConflicts find(ClassIndex index, Collection<String> jars) {
+        List<String> indexed = index.jars();
+        Set<String> wanted = new HashSet<>(jars);
+        BitSet included = new BitSet(indexed.size());
+        for (int i = 0; i < indexed.size(); i++) {
+            if (wanted.contains(indexed.get(i))) {
+                included.set(i);
+            }
+        }
+        if (included.cardinality() < 2) {
+            return none();
+        }
+
+        Map<String, PackageInfo> packages = new HashMap<>();
+        PackageInfo pkg = null;
+        byte[] prevName = null;
+        BitSet prevJars = new BitSet();
+        for (int i = 0; i <= index.size(); i++) {
+            byte[] name = null;
+            int jar = -1;
+            if (i < index.size()) {
+                jar = index.entryJar(i);
+                if (!included.get(jar)) {
+                    continue;
+                }
+                name = index.entryName(i);
+                if (!isClass(name)) {
+                    continue;
+                }
+                if (prevName != null && Arrays.equals(name, prevName)) {
+                    // Another copy of the same class
+                    prevJars.set(jar);
+                    pkg.jars.set(jar);
+                    continue;
+                }
+            }
+            // Done with the copies of the previous class
+            if (prevName != null && prevJars.cardinality() > 1) {
+                pkg.duplicate(prevName, prevJars);
+            }
+            if (name == null) {
+                break;
+            }
+            int slash = lastSlash(name);
+            if (pkg == null || !pkg.contains(name, slash)) {
+                String pkgName = new String(name, 0, Math.max(slash, 0), StandardCharsets.UTF_8);
+                pkg = packages.computeIfAbsent(pkgName, PackageInfo::new);
+            }
+            pkg.jars.set(jar);
+            prevName = name;
+            prevJars.clear();
+            prevJars.set(jar);
+        }
+
+        Map<String, SplitPackage> result = new TreeMap<>();
+        for (PackageInfo p : packages.values()) {
+            if (p.jars.cardinality() > 1) {
+                Map<List<String>, List<String>> duplicates = new LinkedHashMap<>();
+                for (Map.Entry<BitSet, List<String>> e : p.duplicates.entrySet()) {
+                    duplicates.put(names(indexed, e.getKey()), e.getValue());
+                }
+                String name = p.name.replace('/', '.');
+                result.put(name, new SplitPackage(name, names(indexed, p.jars), duplicates));
+            }
+        }
+        return new ClassConflicts(new ArrayList<>(result.values()));
+    }
+
+    /** What is known about a package while going through the index. */
+    private static class PackageInfo {
+        final String name;
+        final byte[] prefix;
+        final BitSet jars = new BitSet();
+        final Map<BitSet, List<String>> duplicates = new LinkedHashMap<>();
+
+        PackageInfo(String name) {
+            this.name = name;
+            this.prefix = name.getBytes(StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Whether the class with the given name, whose last slash is at the given index, is in it.
+         */
+        boolean contains(byte[] name, int slash) {
+            return Math.max(slash, 0) == prefix.length && startsWith(name, prefix);
+        }
+
+        void duplicate(byte[] name, BitSet jars) {
+            String className =
+                    new String(name, 0, name.length - CLASS_SUFFIX.length, StandardCharsets.UTF_8);
+            duplicates
+                    .computeIfAbsent((BitSet) jars.clone(), k -> new ArrayList<>())
+                    .add(className.replace('/', '.'));
+        }
+    }
+
+    private static boolean isClass(byte[] name) {
+        return endsWith(name, CLASS_SUFFIX)
+                && !startsWith(name, META_INF)
+                && !Arrays.equals(name, MODULE_INFO);
+    }
+
+    private static boolean startsWith(byte[] name, byte[] prefix) {
+        return name.length >= prefix.length
+                && Arrays.equals(name, 0, prefix.length, prefix, 0, prefix.length);
+    }
+
+    private static boolean endsWith(byte[] name, byte[] suffix) {
+        int start = name.length - suffix.length;
+        return start >= 0 && Arrays.equals(name, start, name.length, suffix, 0, suffix.length);
+    }
+
+    private static int lastSlash(byte[] name) {
+        for (int i = name.length - 1; i >= 0; i--) {
+            if (name[i] == '/') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static List<String> names(List<String> jars, BitSet set) {
+        List<String> names = new ArrayList<>(set.cardinality());
+        for (int i = set.nextSetBit(0); i >= 0; i = set.nextSetBit(i + 1)) {
+            names.add(jars.get(i));
+        }
+        return names;
+    }
+}
@@ -0,0 +1,559 @@
+package org.codejive.jpm.util;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+
+/**
+ * An index, kept in a deps directory, that maps the name of every class and resource to the jars in
+ * the directory that contain it. The index is a single binary file that gets memory mapped and
+ * searched in place, so opening it and looking something up takes next to no time, even for
+ * classpaths with hundreds of thousands of classes. Building it only requires reading the central
+ * directory at the end of each jar, and when the contents of the deps directory change only the
+ * jars that were added or changed get scanned again.
+ *
+ * <p>The file starts with a header (magic number, number of jars, number of entries) followed by a
+ * record for each jar (name, size and last modified time), a record for each entry (name and jar)
+ * sorted by name and then the names themselves, UTF-8 encoded.
+ */
+public class ClassIndex implements Closeable {
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private final int jarCount;
+    private final int entryCount;
+
+    /** The name of the index file inside the deps directory. */
+    public static final String FILE_NAME = FileUtils.JPM_FILE_PREFIX + "classes.idx";
+
+    private static final long MAGIC = 0x4a504d4349445831L; // "JPMCIDX1"
+    private static final int HEADER_SIZE = 16;
+    private static final int JAR_RECORD_SIZE = 24;
+    private static final int ENTRY_RECORD_SIZE = 12;
+
+    private static final int EOCD_SIGNATURE = 0x06054b50;
+    private static final int EOCD_SIZE = 22;
+    private static final int CEN_SIGNATURE = 0x02014b50;
+    private static final int CEN_HEADER_SIZE = 46;
+
+    private ClassIndex(FileChannel channel, ByteBuffer buffer) throws IOException {
+        this.channel = channel;
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER_SIZE || buffer.getLong(0) != MAGIC) {
+            throw new IOException("Not a valid class index");
+        }
+        this.jarCount = buffer.getInt(8);
+        this.entryCount = buffer.getInt(12);
+        long tables =
+                HEADER_SIZE
+                        + (long) jarCount * JAR_RECORD_SIZE
+                        + (long) entryCount * ENTRY_RECORD_SIZE;
+        if (jarCount < 0 || entryCount < 0 || tables > buffer.capacity()) {
+            throw new IOException("Not a valid class index");
+        }
+    }
+
+    /**
+     * Opens the index in the given directory.
+     *
+     * @param directory The deps directory
+     * @return A {@link ClassIndex} that must be closed after use
+     * @throws NoSuchFileException if the directory has no index
+     * @throws IOException if the index could not be read
+     */
+    public static ClassIndex open(Path directory) throws IOException {
+        FileChannel channel =
+                FileChannel.open(directory.resolve(FILE_NAME), StandardOpenOption.READ);
+        try {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new ClassIndex(channel, buffer);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads the index in the given directory into memory. Unlike {@link #open(Path)} the result
+     * doesn't depend on the index file anymore, so it remains usable when the file, or the whole
+     * directory, gets removed. Closing it is not necessary.
+     *
+     * @param directory The deps directory
+     * @return A {@link ClassIndex}
+     * @throws NoSuchFileException if the directory has no index
+     * @throws IOException if the index could not be read
+     */
+    public static ClassIndex load(Path directory) throws IOException {
+        byte[] bytes = Files.readAllBytes(directory.resolve(FILE_NAME));
+        return new ClassIndex(null, ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * Returns the names of the jars (relative to the deps directory) that contain the given class
+     * or resource. Resources are looked up by their path inside the jar, eg "META-INF/MANIFEST.MF".
+     * Classes can also be given by their name, eg "org.example.Main" or "org.example.Main$Inner".
+     *
+     * @param name The name of the class or resource
+     * @return The names of the jars, empty if none contain it
+     */
+    public List<String> find(String name) {
+        List<String> jars = findExact(name);
+        if (jars.isEmpty() && !name.endsWith(".class") && !name.contains("/")) {
+            jars = findExact(name.replace('.', '/') + ".class");
+        }
+        return jars;
+    }
+
+    private List<String> findExact(String name) {
+        byte[] key = name.getBytes(StandardCharsets.UTF_8);
+        // Find the first entry that is not smaller than the key
+        int lo = 0;
+        int hi = entryCount;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compareEntry(mid, key) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        List<String> jars = new ArrayList<>();
+        for (int i = lo; i < entryCount && compareEntry(i, key) == 0; i++) {
+            jars.add(jarName(buffer.getInt(entryRecord(i) + 8)));
+        }
+        return jars;
+    }
+
+    /**
+     * Returns the names of all jars in the index.
+     *
+     * @return A list of jar names, relative to the deps directory
+     */
+    public List<String> jars() {
+        List<String> jars = new ArrayList<>(jarCount);
+        for (int i = 0; i < jarCount; i++) {
+            jars.add(jarName(i));
+        }
+        return jars;
+    }
+
+    /**
+     * Returns the number of class and resource entries in the index.
+     *
+     * @return A number
+     */
+    public int size() {
+        return entryCount;
+    }
+
+    /** Returns the UTF-8 encoded name of the i-th entry, entries are sorted by name. */
+    byte[] entryName(int i) {
+        return bytes(entryRecord(i));
+    }
+
+    /** Returns the number of the jar that contains the i-th entry. */
+    int entryJar(int i) {
+        return buffer.getInt(entryRecord(i) + 8);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    private int entryRecord(int i) {
+        return HEADER_SIZE + jarCount * JAR_RECORD_SIZE + i * ENTRY_RECORD_SIZE;
+    }
+
+    private int compareEntry(int i, byte[] key) {
+        int rec = entryRecord(i);
+        int off = buffer.getInt(rec);
+        int len = buffer.getInt(rec + 4);
+        int n = Math.min(len, key.length);
+        for (int j = 0; j < n; j++) {
+            int c = (buffer.get(off + j) & 0xff) - (key[j] & 0xff);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return len - key.length;
+    }
+
+    private String jarName(int jar) {
+        return string(HEADER_SIZE + jar * JAR_RECORD_SIZE);
+    }
+
+    private String string(int rec) {
+        return new String(bytes(rec), StandardCharsets.UTF_8);
+    }
+
+    private byte[] bytes(int rec) {
+        int off = buffer.getInt(rec);
+        int len = buffer.getInt(rec + 4);
+        byte[] bytes = new byte[len];
+        ByteBuffer dup = buffer.duplicate();
+        dup.position(off);
+        dup.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * The entries of a single jar as recorded in, or about to be written to, the index. The names
+     * are kept UTF-8 encoded, the way both jars and the index store them.
+     */
+    private static class JarEntries {
+        final String name;
+        final long size;
+        final long modified;
+        final List<byte[]> entries;
+
+        JarEntries(String name, long size, long modified, List<byte[]> entries) {
+            this.name = name;
+            this.size = size;
+            this.modified = modified;
+            this.entries = entries;
+        }
+    }
+
+    /**
+     * Brings the index in the given directory up to date with the files in it, creating it if it
+     * doesn't exist. Only files that were added or changed since the index was last written get
+     * scanned, concurrently using at most the given number of threads. Files that aren't jars (or
+     * zips) are recorded as having no entries. The index is replaced atomically.
+     *
+     * @param directory The deps directory
+     * @param parallelism The maximum number of files to scan concurrently
+     * @return Whether the index had to be written
+     * @throws IOException if the directory could not be read or the index could not be written
+     */
+    public static boolean update(Path directory, int parallelism) throws IOException {
+        return update(directory, null, parallelism);
+    }
+
+    /**
+     * Brings the index in the given directory up to date like {@link #update(Path, int)}, but
+     * reusing what is known from the given index instead of the one in the directory. This is
+     * useful when the directory got replaced by a new one with mostly the same jars.
+     *
+     * @param directory The deps directory
+     * @param previous A previous index for (mostly) the same jars or null to use the one in the
+     *     directory
+     * @param parallelism The maximum number of files to scan concurrently
+     * @return Whether the index had to be written
+     * @throws IOException if the directory could not be read or the index could not be written
+     */
+    public static boolean update(Path directory, ClassIndex previous, int parallelism)
+            throws IOException {
+        Map<String, JarEntries> known = Collections.emptyMap();
+        if (previous != null) {
+            known = previous.readAll();
+        } else {
+            try (ClassIndex old = open(directory)) {
+                known = old.readAll();
+            } catch (IOException e) {
+                // Missing or unreadable, everything gets scanned
+            }
+        }
+        boolean exists = previous == null && !known.isEmpty();
+        Map<String, JarEntries> current = new TreeMap<>();
+        List<Path> toScan = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (name.startsWith(FileUtils.JPM_FILE_PREFIX)) {
+                    continue;
+                }
+                BasicFileAttributes attrs;
+                try {
+                    // Following links, it's the artifact that matters
+                    attrs = Files.readAttributes(file, BasicFileAttributes.class);
+                } catch (NoSuchFileException e) {
+                    // A dangling link
+                    continue;
+                }
+                if (!attrs.isRegularFile()) {
+                    continue;
+                }
+                long size = attrs.size();
+                long modified = attrs.lastModifiedTime().toMillis();
+                JarEntries k = known.get(name);
+                if (k != null && k.size == size && k.modified == modified) {
+                    current.put(name, k);
+                } else {
+                    current.put(name, new JarEntries(name, size, modified, null));
+                    toScan.add(file);
+                }
+            }
+        }
+        if (toScan.isEmpty()
+                && current.keySet().equals(known.keySet())
+                && (exists || Files.isRegularFile(directory.resolve(FILE_NAME)))) {
+            return false;
+        }
+        for (JarEntries je : scanAll(toScan, parallelism)) {
+            current.put(je.name, je);
+        }
+        write(directory.resolve(FILE_NAME), new ArrayList<>(current.values()));
+        return true;
+    }
+
+    private Map<String, JarEntries> readAll() {
+        List<List<byte[]>> entries = new ArrayList<>(jarCount);
+        for (int i = 0; i < jarCount; i++) {
+            entries.add(new ArrayList<>());
+        }
+        for (int i = 0; i < entryCount; i++) {
+            int rec = entryRecord(i);
+            entries.get(buffer.getInt(rec + 8)).add(bytes(rec));
+        }
+        Map<String, JarEntries> result = new TreeMap<>();
+        for (int i = 0; i < jarCount; i++) {
+            int rec = HEADER_SIZE + i * JAR_RECORD_SIZE;
+            String name = string(rec);
+            result.put(
+                    name,
+                    new JarEntries(
+                            name,
+                            buffer.getLong(rec + 8),
+                            buffer.getLong(rec + 16),
+                            entries.get(i)));
+        }
+        return result;
+    }
+
+    private static List<JarEntries> scanAll(List<Path> files, int parallelism) throws IOException {
+        List<JarEntries> result = new ArrayList<>(files.size());
+        if (files.size() <= 1 || parallelism <= 1) {
+            for (Path file : files) {
+                result.add(scan(file));
+            }
+            return result;
+        }
+        ExecutorService executor =
+                Executors.newFixedThreadPool(
+                        Math.min(parallelism, files.size()), FileUtils.daemonThreads("jpm-index-"));
+        try {
+            List<Future<JarEntries>> futures = new ArrayList<>(files.size());
+            for (Path file : files) {
+                futures.add(executor.submit(() -> scan(file)));
+            }
+            for (Future<JarEntries> f : futures) {
+                result.add(f.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Indexing was interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        return result;
+    }
+
+    private static JarEntries scan(Path file) throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        List<byte[]> entries;
+        try {
+            entries = rawEntryNames(file);
+        } catch (ZipException | EOFException e) {
+            // Not a jar, so it can't contain anything
+            entries = Collections.emptyList();
+        }
+        return new JarEntries(
+                file.getFileName().toString(),
+                attrs.size(),
+                attrs.lastModifiedTime().toMillis(),
+                entries);
+    }
+
+    /**
+     * Returns the names of all files in the given jar by only reading its central directory, the
+     * table of contents at the end of the file. Directory entries are skipped.
+     *
+     * @param jar The jar file
+     * @return A list of names
+     * @throws ZipException if the file is not a jar
+     * @throws IOException if the file could not be read
+     */
+    static List<String> entryNames(Path jar) throws IOException {
+        List<String> names = new ArrayList<>();
+        for (byte[] name : rawEntryNames(jar)) {
+            names.add(new String(name, StandardCharsets.UTF_8));
+        }
+        return names;
+    }
+
+    private static List<byte[]> rawEntryNames(Path jar) throws IOException {
+        try (FileChannel ch = FileChannel.open(jar, StandardOpenOption.READ)) {
+            long size = ch.size();
+            // The end of central directory record, possibly followed by a comment
+            int tailSize = (int) Math.min(size, EOCD_SIZE + 0xffff);
+            ByteBuffer tail = read(ch, size - tailSize, tailSize);
+            int eocd = -1;
+            for (int i = tailSize - EOCD_SIZE; i >= 0; i--) {
+                if (tail.getInt(i) == EOCD_SIGNATURE) {
+                    eocd = i;
+                    break;
+                }
+            }
+            if (eocd < 0) {
+                throw new ZipException("Not a zip file: " + jar);
+            }
+            int total = tail.getShort(eocd + 10) & 0xffff;
+            long cenSize = tail.getInt(eocd + 12) & 0xffffffffL;
+            if (total == 0xffff || cenSize == 0xffffffffL) {
+                // A zip64 file, rare enough to leave it to the JDK
+                return entryNamesUsingZipFile(jar);
+            }
+            // Relative to the end record instead of using the recorded offset, which is wrong
+            // for files that have something prepended (like executable jars)
+            long cenStart = size - tailSize + eocd - cenSize;
+            if (cenStart < 0) {
+                throw new ZipException("Invalid central directory: " + jar);
+            }
+            ByteBuffer cen = read(ch, cenStart, (int) cenSize);
+            List<byte[]> names = new ArrayList<>(total);
+            int pos = 0;
+            while (pos + CEN_HEADER_SIZE <= cenSize && cen.getInt(pos) == CEN_SIGNATURE) {
+                int nameLen = cen.getShort(pos + 28) & 0xffff;
+                int extraLen = cen.getShort(pos + 30) & 0xffff;
+                int commentLen = cen.getShort(pos + 32) & 0xffff;
+                if (pos + CEN_HEADER_SIZE + nameLen > cenSize) {
+                    throw new ZipException("Invalid central directory: " + jar);
+                }
+                int start = pos + CEN_HEADER_SIZE;
+                // Directories end with a slash
+                if (nameLen > 0 && cen.get(start + nameLen - 1) != '/') {
+                    names.add(Arrays.copyOfRange(cen.array(), start, start + nameLen));
+                }
+                pos += CEN_HEADER_SIZE + nameLen + extraLen + commentLen;
+            }
+            return names;
+        }
+    }
+
+    private static List<byte[]> entryNamesUsingZipFile(Path jar) throws IOException {
+        List<byte[]> names = new ArrayList<>();
+        try (ZipFile zf = new ZipFile(jar.toFile())) {
+            Enumeration<? extends ZipEntry> entries = zf.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry e = entries.nextElement();
+                if (!e.isDirectory()) {
+                    names.add(e.getName().getBytes(StandardCharsets.UTF_8));
+                }
+            }
+        }
+        return names;
+    }
+
+    private static ByteBuffer read(FileChannel ch, long position, int size) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        while (buf.hasRemaining()) {
+            if (ch.read(buf, position + buf.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+        return buf;
+    }
+
+    private static class Entry {
+        final byte[] name;
+        final int jar;
+
+        Entry(byte[] name, int jar) {
+            this.name = name;
+            this.jar = jar;
+        }
+    }
+
+    private static void write(Path file, List<JarEntries> jars) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        List<byte[]> jarNames = new ArrayList<>(jars.size());
+        for (int i = 0; i < jars.size(); i++) {
+            JarEntries je = jars.get(i);
+            jarNames.add(je.name.getBytes(StandardCharsets.UTF_8));
+            for (byte[] name : je.entries) {
+                entries.add(new Entry(name, i));
+            }
+        }
+        // Sorted by the bytes of the name, which is what lookups compare, and then by jar
+        entries.sort(
+                (a, b) -> {
+                    int c = Arrays.compareUnsigned(a.name, b.name);
+                    return c != 0 ? c : Integer.compare(a.jar, b.jar);
+                });
+        long stringsStart =
+                HEADER_SIZE
+                        + (long) jars.size() * JAR_RECORD_SIZE
+                        + (long) entries.size() * ENTRY_RECORD_SIZE;
+        long stringsSize = 0;
+        for (byte[] n : jarNames) {
+            stringsSize += n.length;
+        }
+        for (Entry e : entries) {
+            stringsSize += e.name.length;
+        }
+        if (stringsStart + stringsSize > Integer.MAX_VALUE) {
+            throw new IOException("Too many entries for a class index");
+        }
+        ByteBuffer buf = ByteBuffer.allocate((int) (stringsStart + stringsSize));
+        buf.putLong(MAGIC).putInt(jars.size()).putInt(entries.size());
+        int off = (int) stringsStart;
+        for (int i = 0; i < jars.size(); i++) {
+            JarEntries je = jars.get(i);
+            buf.putInt(off).putInt(jarNames.get(i).length).putLong(je.size).putLong(je.modified);
+            off += jarNames.get(i).length;
+        }
+        for (Entry e : entries) {
+            buf.putInt(off).putInt(e.name.length).putInt(e.jar);
+            off += e.name.length;
+        }
+        for (byte[] n : jarNames) {
+            buf.put(n);
+        }
+        for (Entry e : entries) {
+            buf.put(e.name);
+        }
+        Path tmp = FileUtils.tempSibling(file);
+        try {
+            try (OutputStream out = Files.newOutputStream(tmp)) {
+                out.write(buf.array());
+            }
+            FileUtils.moveAtomically(tmp, file);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+}
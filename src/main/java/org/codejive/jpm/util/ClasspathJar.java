@@ -0,0 +1,119 @@
+package org.codejive.jpm.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+/**
+ * Creates a "classpath jar": an otherwise empty jar file whose manifest has a {@code Class-Path}
+ * attribute listing all the artifacts. Passing just that jar with {@code -cp} gives the JVM (and
+ * most tools) the complete classpath, so command lines stay short no matter how many dependencies
+ * there are and nothing needs to support argument files. The jar is kept in the deps directory,
+ * with the artifacts referenced by relative URLs, and only gets rewritten when the set of artifacts
+ * changes, so it can be reused by every launch.
+ */
+public class ClasspathJar {
+
+    /** The name of the classpath jar inside the deps directory. */
+    public static final String FILE_NAME = FileUtils.JPM_FILE_PREFIX + "classpath.jar";
+
+    private ClasspathJar() {}
+
+    /**
+     * Makes sure the classpath jar in the given directory references exactly the given artifacts,
+     * writing it if it doesn't exist or if it references something else.
+     *
+     * @param directory The directory to put the jar in, normally the deps directory
+     * @param classpath The artifacts that make up the classpath
+     * @return The path to the classpath jar
+     * @throws IOException if the jar could not be read or written
+     */
+    public static Path write(Path directory, List<Path> classpath) throws IOException {
+        Path jar = directory.resolve(FILE_NAME);
+        String classPath = classPath(directory, classpath);
+        if (classPath.equals(readClassPath(jar))) {
+            return jar;
+        }
+        Manifest manifest = new Manifest();
+        Attributes attrs = manifest.getMainAttributes();
+        attrs.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        attrs.put(new Attributes.Name("Created-By"), "jpm");
+        attrs.put(Attributes.Name.CLASS_PATH, classPath);
+        Files.createDirectories(directory);
+        Path tmp = FileUtils.tempSibling(jar);
+        try {
+            try (OutputStream out = Files.newOutputStream(tmp);
+                    JarOutputStream jos = new JarOutputStream(out, manifest)) {
+                // Nothing but the manifest
+                jos.finish();
+            }
+            FileUtils.moveAtomically(tmp, jar);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        return jar;
+    }
+
+    /**
+     * Returns the value of the {@code Class-Path} attribute for the given artifacts. The attribute
+     * is a space separated list of URLs, relative to the jar itself when possible.
+     */
+    static String classPath(Path directory, List<Path> classpath) {
+        Path base = directory.toAbsolutePath().normalize();
+        StringBuilder sb = new StringBuilder();
+        for (Path p : classpath) {
+            if (sb.length() > 0) {
+                sb.append(' ');
+            }
+            sb.append(toUrl(base, p.toAbsolutePath().normalize()));
+        }
+        return sb.toString();
+    }
+
+    private static String toUrl(Path base, Path file) {
+        Path rel;
+        try {
+            rel = base.relativize(file);
+        } catch (IllegalArgumentException e) {
+            // Different roots (eg drive letters on Windows), no relative URL possible
+            return file.toUri().toString();
+        }
+        StringBuilder sb = new StringBuilder();
+        for (Path name : rel) {
+            String segment;
+            try {
+                segment = new URI(null, null, name.toString(), null).getRawPath();
+            } catch (URISyntaxException e) {
+                return file.toUri().toString();
+            }
+            if (sb.length() > 0) {
+                sb.append('/');
+            } else if (segment.contains(":")) {
+                // Would otherwise be mistaken for a URL scheme
+                sb.append("./");
+            }
+            sb.append(segment);
+        }
+        return sb.toString();
+    }
+
+    private static String readClassPath(Path jar) {
+        try (JarFile jf = new JarFile(jar.toFile())) {
+            Manifest manifest = jf.getManifest();
+            return manifest != null
+                    ? manifest.getMainAttributes().getValue(Attributes.Name.CLASS_PATH)
+                    : null;
+        } catch (IOException e) {
+            // Missing or unreadable, either way it needs to be written
+            return null;
+        }
+    }
+}
@@ -0,0 +1,371 @@
+package org.codejive.jpm.util;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * A command with jpm's substitution tokens, parsed once so it can be rendered any number of times
+ * in a single pass. Everything that only depends on the OS, like {@code {/}}, {@code {:}}, {@code
+ * {~}}, {@code {;}} and paths like {@code {./lib:~/ext}}, gets resolved while compiling, which
+ * leaves just a list of literal text, {@code {{deps}}}, {@code {{depsjar}}} and {@code {{cds}}}
+ * tokens and {@code @[ ... ]} groups. That also means the length of the result can be determined
+ * without rendering it.
+ */
+public class CommandTemplate {
+    private final List<Part> parts;
+    private final boolean usingSubstitutions;
+    private final boolean usingDeps;
+
+    private static final String DEPS = "{{deps}}";
+    private static final String DEPSJAR = "{{depsjar}}";
+    private static final String CDS = "{{cds}}";
+
+    private CommandTemplate(List<Part> parts, boolean usingSubstitutions, boolean usingDeps) {
+        this.parts = parts;
+        this.usingSubstitutions = usingSubstitutions;
+        this.usingDeps = usingDeps;
+    }
+
+    /** The values for the tokens that can't be resolved while compiling. */
+    private static class Values {
+        final String deps;
+        final String depsJar;
+        final String cds;
+
+        Values(List<Path> classpath, Path depsJar, String cdsOption, boolean usingDeps) {
+            // Joining a long classpath is the expensive part, so only done when needed
+            this.deps = usingDeps ? join(classpath) : "";
+            this.depsJar = depsJar != null ? depsJar.toString() : "";
+            this.cds = cdsOption != null ? cdsOption : "";
+        }
+
+        private static String join(List<Path> classpath) {
+            if (classpath == null || classpath.isEmpty()) {
+                return "";
+            }
+            int length = classpath.size() - 1;
+            List<String> paths = new ArrayList<>(classpath.size());
+            for (Path p : classpath) {
+                String s = p.toString();
+                paths.add(s);
+                length += s.length();
+            }
+            StringBuilder sb = new StringBuilder(length);
+            for (String s : paths) {
+                if (sb.length() > 0) {
+                    sb.append(File.pathSeparatorChar);
+                }
+                sb.append(s);
+            }
+            return sb.toString();
+        }
+    }
+
+    private interface Part {
+        int length(Values values);
+
+        void render(StringBuilder sb, Values values, Function<String, Path> argsFileCreator);
+    }
+
+    private static class Text implements Part {
+        final String text;
+
+        Text(String text) {
+            this.text = text;
+        }
+
+        @Override
+        public int length(Values values) {
+            return text.length();
+        }
+
+        @Override
+        public void render(StringBuilder sb, Values values, Function<String, Path> creator) {
+            sb.append(text);
+        }
+    }
+
+    private enum Token implements Part {
+        DEPS {
+            @Override
+            String value(Values values) {
+                return values.deps;
+            }
+        },
+        DEPSJAR {
+            @Override
+            String value(Values values) {
+                return values.depsJar;
+            }
+        },
+        CDS {
+            @Override
+            String value(Values values) {
+                return values.cds;
+            }
+        };
+
+        abstract String value(Values values);
+
+        @Override
+        public int length(Values values) {
+            return value(values).length();
+        }
+
+        @Override
+        public void render(StringBuilder sb, Values values, Function<String, Path> creator) {
+            sb.append(value(values));
+        }
+    }
+
+    /** An {@code @[ ... ]} group, whose contents either go into an args file or get inlined. */
+    private static class ArgsFile implements Part {
+        final List<Part> parts;
+
+        ArgsFile(List<Part> parts) {
+            this.parts = parts;
+        }
+
+        @Override
+        public int length(Values values) {
+            // The contents get trimmed, so this is an upper bound
+            int length = 0;
+            for (Part p : parts) {
+                length += p.length(values);
+            }
+            return length;
+        }
+
+        @Override
+        public void render(StringBuilder sb, Values values, Function<String, Path> creator) {
+            StringBuilder contents = new StringBuilder(length(values));
+            for (Part p : parts) {
+                p.render(contents, values, null);
+            }
+            String args = contents.toString().trim();
+            if (creator != null) {
+                // Write contents to a file and replace @[ ... ] with @<args-file-path>
+                sb.append('@').append(creator.apply(args));
+            } else {
+                // Just remove the @[ ... ] and keep the contents as-is
+                sb.append(args);
+            }
+        }
+    }
+
+    /**
+     * Parses the given command.
+     *
+     * @param command The command, possibly containing substitution tokens
+     * @return A {@link CommandTemplate}
+     */
+    public static CommandTemplate compile(String command) {
+        Parser parser = new Parser(command);
+        List<Part> parts = parser.parse(false);
+        return new CommandTemplate(
+                Collections.unmodifiableList(parts), parser.usingSubstitutions, parser.usingDeps);
+    }
+
+    /**
+     * Returns whether the command uses any of the tokens that deal with OS differences or args
+     * files, which are all tokens except for {@code {{deps}}}, {@code {{depsjar}}} and {@code
+     * {{cds}}}.
+     *
+     * @return true if the command uses such tokens
+     */
+    public boolean isUsingSubstitutions() {
+        return usingSubstitutions;
+    }
+
+    /**
+     * Supplies the values for the tokens that can't be resolved while compiling.
+     *
+     * @param classpath The classpath to use for {{deps}} substitution
+     * @param depsJar The classpath jar to use for {{depsjar}} substitution
+     * @param cdsOption The JVM option to use for {{cds}} substitution
+     * @return A {@link Bound} template that is ready to be rendered
+     */
+    public Bound bind(List<Path> classpath, Path depsJar, String cdsOption) {
+        return new Bound(new Values(classpath, depsJar, cdsOption, usingDeps));
+    }
+
+    /**
+     * Renders the command using the given values.
+     *
+     * @param classpath The classpath to use for {{deps}} substitution
+     * @param depsJar The classpath jar to use for {{depsjar}} substitution
+     * @param cdsOption The JVM option to use for {{cds}} substitution
+     * @param argsFileCreator A function that creates an args file given its content, or null to not
+     *     use args files
+     * @return The rendered command
+     */
+    public String render(
+            List<Path> classpath,
+            Path depsJar,
+            String cdsOption,
+            Function<String, Path> argsFileCreator) {
+        return bind(classpath, depsJar, cdsOption).render(argsFileCreator);
+    }
+
+    /** A template together with the values for its tokens. */
+    public class Bound {
+        private final Values values;
+        private final int length;
+
+        private Bound(Values values) {
+            this.values = values;
+            int len = 0;
+            for (Part p : parts) {
+                len += p.length(values);
+            }
+            this.length = len;
+        }
+
+        /**
+         * Returns the length of the rendered command when not using args files. When args files are
+         * involved this can be a few characters too long.
+         *
+         * @return The length of the rendered command
+         */
+        public int length() {
+            return length;
+        }
+
+        /**
+         * Renders the command.
+         *
+         * @param argsFileCreator A function that creates an args file given its content, or null to
+         *     not use args files
+         * @return The rendered command
+         */
+        public String render(Function<String, Path> argsFileCreator) {
+            StringBuilder sb = new StringBuilder(length);
+            for (Part p : parts) {
+                p.render(sb, values, argsFileCreator);
+            }
+            return sb.toString();
+        }
+    }
+
+    private static class Parser {
+        final String command;
+        int pos;
+        boolean closed;
+        boolean usingSubstitutions;
+        boolean usingDeps;
+
+        Parser(String command) {
+            this.command = command;
+        }
+
+        /** Parses until the end of the command or, for a group, until its closing bracket. */
+        List<Part> parse(boolean inGroup) {
+            List<Part> parts = new ArrayList<>();
+            StringBuilder text = new StringBuilder();
+            while (pos < command.length()) {
+                char c = command.charAt(pos);
+                if (c == ']' && inGroup) {
+                    pos++;
+                    closed = true;
+                    break;
+                }
+                Part token = null;
+                String literal = null;
+                if (c == '{') {
+                    if (command.startsWith(DEPS, pos)) {
+                        token = Token.DEPS;
+                        usingDeps = true;
+                        pos += DEPS.length();
+                    } else if (command.startsWith(DEPSJAR, pos)) {
+                        token = Token.DEPSJAR;
+                        pos += DEPSJAR.length();
+                    } else if (command.startsWith(CDS, pos)) {
+                        token = Token.CDS;
+                        pos += CDS.length();
+                    } else {
+                        literal = parseBraces();
+                    }
+                } else if (c == '@' && !inGroup && command.startsWith("@[", pos)) {
+                    int start = pos;
+                    pos += 2;
+                    closed = false;
+                    List<Part> contents = parse(true);
+                    if (closed) {
+                        token = new ArgsFile(contents);
+                        usingSubstitutions = true;
+                    } else {
+                        // Unterminated, so just text
+                        pos = start + 2;
+                        literal = "@[";
+                    }
+                }
+                if (token != null) {
+                    addText(parts, text);
+                    parts.add(token);
+                } else if (literal != null) {
+                    text.append(literal);
+                } else {
+                    text.append(c);
+                    pos++;
+                }
+            }
+            addText(parts, text);
+            return parts;
+        }
+
+        /** Handles anything starting with a brace, returning what to replace it with. */
+        String parseBraces() {
+            String result = null;
+            int len = 0;
+            if (command.startsWith("{/}", pos)) {
+                result = File.separator;
+                len = 3;
+            } else if (command.startsWith("{:}", pos)) {
+                result = File.pathSeparator;
+                len = 3;
+            } else if (command.startsWith("{~}", pos)) {
+                result =
+                        ScriptUtils.isWindows()
+                                ? Paths.get(System.getProperty("user.home")).toString()
+                                : "~";
+                len = 3;
+            } else if (command.startsWith("{;}", pos)) {
+                result = ScriptUtils.isWindows() ? "&" : ";";
+                len = 3;
+            } else if (command.startsWith("{]}", pos)) {
+                // An escaped bracket, which is left alone but doesn't end a group
+                return nextChars(3);
+            } else if (command.startsWith("{./", pos) || command.startsWith("{~/", pos)) {
+                int end = command.indexOf('}', pos);
+                if (end > 0) {
+                    result = ScriptUtils.osPaths(command.substring(pos + 1, end));
+                    len = end + 1 - pos;
+                }
+            }
+            if (result == null) {
+                return nextChars(1);
+            }
+            usingSubstitutions = true;
+            pos += len;
+            return result;
+        }
+
+        private String nextChars(int n) {
+            String s = command.substring(pos, pos + n);
+            pos += n;
+            return s;
+        }
+
+        private static void addText(List<Part> parts, StringBuilder text) {
+            if (text.length() > 0) {
+                parts.add(new Text(text.toString()));
+                text.setLength(0);
+            }
+        }
+    }
+}
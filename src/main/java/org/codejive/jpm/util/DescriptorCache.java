@@ -0,0 +1,362 @@
+package org.codejive.jpm.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import org.eclipse.aether.RepositorySystemSession;
+import org.eclipse.aether.artifact.Artifact;
+import org.eclipse.aether.artifact.DefaultArtifact;
+import org.eclipse.aether.graph.Dependency;
+import org.eclipse.aether.graph.Exclusion;
+import org.eclipse.aether.impl.ArtifactDescriptorReader;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.eclipse.aether.repository.RepositoryPolicy;
+import org.eclipse.aether.resolution.ArtifactDescriptorException;
+import org.eclipse.aether.resolution.ArtifactDescriptorRequest;
+import org.eclipse.aether.resolution.ArtifactDescriptorResult;
+
+/**
+ * An {@link ArtifactDescriptorReader} that keeps a persistent binary copy of every artifact
+ * descriptor it reads. Reading a descriptor normally means parsing the artifact's POM and all its
+ * parent POMs and running the Maven model builder to get the effective dependencies. Besides the
+ * POM's contents that result depends on the profiles that get activated, which is determined by the
+ * JDK, the OS and the properties of the session, and on the repositories the parent POMs are found
+ * in. So we store it in the cache directory, keyed by the coordinates and a hash of those
+ * properties and repositories, together with the SHA-1 checksum of the POM file. As long as none of
+ * them change the stored copy is used instead, skipping all XML parsing, inheritance and
+ * interpolation. Snapshots and artifacts whose POM isn't in the local repository yet are always
+ * passed on to the wrapped reader.
+ */
+public class DescriptorCache implements ArtifactDescriptorReader {
+    private final ArtifactDescriptorReader delegate;
+
+    /** The name of the directory (inside the cache directory) where entries are stored. */
+    public static final String CACHE_DIR = ".jpm/descriptors";
+
+    private static final int MAGIC = 0x4a504d44; // "JPMD"
+    private static final int VERSION = 1;
+
+    private static final String PROPERTIES_KEY = DescriptorCache.class.getName() + ".properties";
+
+    public DescriptorCache(ArtifactDescriptorReader delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public ArtifactDescriptorResult readArtifactDescriptor(
+            RepositorySystemSession session, ArtifactDescriptorRequest request)
+            throws ArtifactDescriptorException {
+        Artifact artifact = request.getArtifact();
+        if (!isCacheable(artifact)) {
+            return delegate.readArtifactDescriptor(session, request);
+        }
+        Path basedir = session.getLocalRepository().getBasedir().toPath();
+        Path pom = basedir.resolve(pomPath(session, artifact));
+        Path entry = entryPath(basedir, artifact, environment(session, request));
+        String checksum = null;
+        if (Files.isRegularFile(pom)) {
+            try {
+                checksum = FileUtils.checksum(pom, "SHA-1");
+                ArtifactDescriptorResult result = read(entry, checksum, session, request);
+                if (result != null) {
+                    return result;
+                }
+            } catch (IOException | RuntimeException e) {
+                // Ignore, fall back to reading the POM
+            }
+        }
+        ArtifactDescriptorResult result = delegate.readArtifactDescriptor(session, request);
+        if (result.getExceptions().isEmpty()) {
+            try {
+                if (checksum == null && Files.isRegularFile(pom)) {
+                    // The POM was just downloaded
+                    checksum = FileUtils.checksum(pom, "SHA-1");
+                }
+                if (checksum != null) {
+                    write(entry, checksum, result);
+                }
+            } catch (IOException e) {
+                // Ignore, caching is only an optimization
+            }
+        }
+        return result;
+    }
+
+    private static boolean isCacheable(Artifact artifact) {
+        String v = artifact.getVersion();
+        return !artifact.isSnapshot()
+                && !v.startsWith("[")
+                && !v.startsWith("(")
+                && !v.equals("LATEST")
+                && !v.equals("RELEASE");
+    }
+
+    private static String pomPath(RepositorySystemSession session, Artifact artifact) {
+        Artifact pom =
+                new DefaultArtifact(
+                        artifact.getGroupId(),
+                        artifact.getArtifactId(),
+                        "",
+                        "pom",
+                        artifact.getVersion());
+        return session.getLocalRepositoryManager().getPathForLocalArtifact(pom);
+    }
+
+    static Path entryPath(Path basedir, Artifact artifact, String environment) {
+        return basedir.resolve(CACHE_DIR)
+                .resolve(artifact.getGroupId())
+                .resolve(artifact.getArtifactId())
+                .resolve(artifact.getVersion() + "-" + environment + ".bin");
+    }
+
+    /**
+     * Returns a hash of everything besides the POM itself that can influence the effective model:
+     * the properties used for profile activation and the repositories of the request.
+     */
+    static String environment(RepositorySystemSession session, ArtifactDescriptorRequest request) {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        // The same for every request of the session, so only determined once
+        String properties =
+                (String)
+                        session.getData()
+                                .computeIfAbsent(
+                                        PROPERTIES_KEY, () -> activationProperties(session));
+        md.update(properties.getBytes(StandardCharsets.UTF_8));
+        for (RemoteRepository r : request.getRepositories()) {
+            md.update((r.getId() + "=" + r.getUrl() + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        return FileUtils.toHex(md.digest()).substring(0, 16);
+    }
+
+    private static String activationProperties(RepositorySystemSession session) {
+        Map<String, String> props = new TreeMap<>();
+        session.getSystemProperties()
+                .forEach(
+                        (k, v) -> {
+                            if (k.equals("java.version") || k.startsWith("os.")) {
+                                props.put(k, v);
+                            }
+                        });
+        session.getUserProperties().forEach((k, v) -> props.put("user:" + k, v));
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, String> e : props.entrySet()) {
+            sb.append(e.getKey()).append('=').append(e.getValue()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static ArtifactDescriptorResult read(
+            Path entry,
+            String checksum,
+            RepositorySystemSession session,
+            ArtifactDescriptorRequest request)
+            throws IOException {
+        if (!Files.isRegularFile(entry)) {
+            return null;
+        }
+        try (DataInputStream in =
+                new DataInputStream(new BufferedInputStream(Files.newInputStream(entry)))) {
+            if (in.readInt() != MAGIC
+                    || in.readInt() != VERSION
+                    || !checksum.equals(in.readUTF())) {
+                return null;
+            }
+            ArtifactDescriptorResult result = new ArtifactDescriptorResult(request);
+            Artifact artifact = request.getArtifact();
+            if (in.readBoolean()) {
+                String g = in.readUTF();
+                String a = in.readUTF();
+                String v = in.readUTF();
+                artifact =
+                        new DefaultArtifact(
+                                g,
+                                a,
+                                artifact.getClassifier(),
+                                artifact.getExtension(),
+                                v,
+                                artifact.getProperties(),
+                                (File) null);
+            }
+            result.setArtifact(artifact);
+            result.setRepository(session.getLocalRepository());
+            for (int i = in.readInt(); i > 0; i--) {
+                result.addRelocation(readArtifact(in));
+            }
+            for (int i = in.readInt(); i > 0; i--) {
+                result.addAlias(readArtifact(in));
+            }
+            for (int i = in.readInt(); i > 0; i--) {
+                result.addRepository(readRepository(in));
+            }
+            for (int i = in.readInt(); i > 0; i--) {
+                result.addDependency(readDependency(in));
+            }
+            for (int i = in.readInt(); i > 0; i--) {
+                result.addManagedDependency(readDependency(in));
+            }
+            Map<String, Object> properties = new LinkedHashMap<>();
+            for (int i = in.readInt(); i > 0; i--) {
+                properties.put(in.readUTF(), in.readUTF());
+            }
+            result.setProperties(properties);
+            return result;
+        }
+    }
+
+    private static void write(Path entry, String checksum, ArtifactDescriptorResult result)
+            throws IOException {
+        Files.createDirectories(entry.getParent());
+        Path tmp = Files.createTempFile(entry.getParent(), "entry-", ".tmp");
+        try {
+            try (DataOutputStream out =
+                    new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeUTF(checksum);
+                Artifact requested = result.getRequest().getArtifact();
+                Artifact artifact = result.getArtifact();
+                boolean relocated =
+                        !requested.getGroupId().equals(artifact.getGroupId())
+                                || !requested.getArtifactId().equals(artifact.getArtifactId())
+                                || !requested.getVersion().equals(artifact.getVersion());
+                out.writeBoolean(relocated);
+                if (relocated) {
+                    out.writeUTF(artifact.getGroupId());
+                    out.writeUTF(artifact.getArtifactId());
+                    out.writeUTF(artifact.getVersion());
+                }
+                out.writeInt(result.getRelocations().size());
+                for (Artifact a : result.getRelocations()) {
+                    writeArtifact(out, a);
+                }
+                out.writeInt(result.getAliases().size());
+                for (Artifact a : result.getAliases()) {
+                    writeArtifact(out, a);
+                }
+                out.writeInt(result.getRepositories().size());
+                for (RemoteRepository r : result.getRepositories()) {
+                    writeRepository(out, r);
+                }
+                out.writeInt(result.getDependencies().size());
+                for (Dependency d : result.getDependencies()) {
+                    writeDependency(out, d);
+                }
+                out.writeInt(result.getManagedDependencies().size());
+                for (Dependency d : result.getManagedDependencies()) {
+                    writeDependency(out, d);
+                }
+                Map<String, Object> properties = result.getProperties();
+                out.writeInt(properties.size());
+                for (Map.Entry<String, Object> e : properties.entrySet()) {
+                    out.writeUTF(e.getKey());
+                    out.writeUTF(String.valueOf(e.getValue()));
+                }
+            }
+            Files.move(
+                    tmp,
+                    entry,
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static void writeArtifact(DataOutputStream out, Artifact a) throws IOException {
+        out.writeUTF(a.getGroupId());
+        out.writeUTF(a.getArtifactId());
+        out.writeUTF(a.getClassifier());
+        out.writeUTF(a.getExtension());
+        out.writeUTF(a.getVersion());
+        Map<String, String> props = a.getProperties();
+        out.writeInt(props.size());
+        for (Map.Entry<String, String> e : props.entrySet()) {
+            out.writeUTF(e.getKey());
+            out.writeUTF(e.getValue());
+        }
+    }
+
+    private static Artifact readArtifact(DataInputStream in) throws IOException {
+        String g = in.readUTF();
+        String a = in.readUTF();
+        String c = in.readUTF();
+        String e = in.readUTF();
+        String v = in.readUTF();
+        Map<String, String> props = new LinkedHashMap<>();
+        for (int i = in.readInt(); i > 0; i--) {
+            props.put(in.readUTF(), in.readUTF());
+        }
+        return new DefaultArtifact(g, a, c, e, v, props, (File) null);
+    }
+
+    private static void writeDependency(DataOutputStream out, Dependency d) throws IOException {
+        writeArtifact(out, d.getArtifact());
+        out.writeUTF(d.getScope());
+        Boolean optional = d.getOptional();
+        out.writeByte(optional == null ? 0 : optional ? 2 : 1);
+        out.writeInt(d.getExclusions().size());
+        for (Exclusion x : d.getExclusions()) {
+            out.writeUTF(x.getGroupId());
+            out.writeUTF(x.getArtifactId());
+            out.writeUTF(x.getClassifier());
+            out.writeUTF(x.getExtension());
+        }
+    }
+
+    private static Dependency readDependency(DataInputStream in) throws IOException {
+        Artifact artifact = readArtifact(in);
+        String scope = in.readUTF();
+        byte opt = in.readByte();
+        Boolean optional = opt == 0 ? null : opt == 2;
+        List<Exclusion> exclusions = new ArrayList<>();
+        for (int i = in.readInt(); i > 0; i--) {
+            exclusions.add(new Exclusion(in.readUTF(), in.readUTF(), in.readUTF(), in.readUTF()));
+        }
+        return new Dependency(artifact, scope, optional, exclusions);
+    }
+
+    private static void writeRepository(DataOutputStream out, RemoteRepository r)
+            throws IOException {
+        out.writeUTF(r.getId());
+        out.writeUTF(r.getContentType());
+        out.writeUTF(r.getUrl());
+        writePolicy(out, r.getPolicy(false));
+        writePolicy(out, r.getPolicy(true));
+    }
+
+    private static RemoteRepository readRepository(DataInputStream in) throws IOException {
+        return new RemoteRepository.Builder(in.readUTF(), in.readUTF(), in.readUTF())
+                .setReleasePolicy(readPolicy(in))
+                .setSnapshotPolicy(readPolicy(in))
+                .build();
+    }
+
+    private static void writePolicy(DataOutputStream out, RepositoryPolicy p) throws IOException {
+        out.writeBoolean(p.isEnabled());
+        out.writeUTF(p.getUpdatePolicy());
+        out.writeUTF(p.getChecksumPolicy());
+    }
+
+    private static RepositoryPolicy readPolicy(DataInputStream in) throws IOException {
+        return new RepositoryPolicy(in.readBoolean(), in.readUTF(), in.readUTF());
+    }
+}
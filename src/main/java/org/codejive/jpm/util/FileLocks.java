@@ -0,0 +1,182 @@
+package org.codejive.jpm.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Read/write locks that work across processes as well as between threads of the same process. Each
+ * lock is represented by a small lock file on which {@link FileChannel#lock(long, long, boolean)}
+ * is used. Because the OS only allows a single process to hold one lock per file, and trying to
+ * take the same lock twice from one JVM results in an exception, the threads within a process first
+ * coordinate using a {@link ReentrantReadWriteLock} and share a single OS lock for reading.
+ *
+ * <p>Locks are held on things like a deps directory or an app.yml file, not on the lock file
+ * itself. Use {@link #lockFileFor(Path)} to get the lock file for such a path.
+ */
+public class FileLocks {
+    private static final ConcurrentMap<Path, LockState> states = new ConcurrentHashMap<>();
+
+    private static class LockState {
+        final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        int readers;
+        FileChannel channel;
+        FileLock fileLock;
+    }
+
+    /** A lock that is being held, closing it releases the lock. */
+    public static class Handle implements Closeable {
+        private final LockState state;
+        private final boolean shared;
+        private boolean closed;
+
+        private Handle(LockState state, boolean shared) {
+            this.state = state;
+            this.shared = shared;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (shared) {
+                try {
+                    synchronized (state) {
+                        if (--state.readers == 0) {
+                            release(state);
+                        }
+                    }
+                } finally {
+                    state.lock.readLock().unlock();
+                }
+            } else {
+                try {
+                    release(state);
+                } finally {
+                    state.lock.writeLock().unlock();
+                }
+            }
+        }
+    }
+
+    private FileLocks() {}
+
+    /** The directory, next to the locked paths, that holds the lock files. */
+    public static final String LOCKS_DIR = ".jpm/locks";
+
+    /**
+     * Returns the lock file that is used for locking the given file or directory. It's kept in a
+     * hidden ".jpm/locks" directory next to it, which means it works for paths that don't exist yet
+     * and survives the path getting replaced (like a deps directory switching generations), without
+     * cluttering the project directory.
+     *
+     * @param path The file or directory to lock
+     * @return The path of the lock file
+     */
+    public static Path lockFileFor(Path path) {
+        Path p = path.toAbsolutePath().normalize();
+        return p.resolveSibling(LOCKS_DIR).resolve(p.getFileName() + ".lock");
+    }
+
+    /**
+     * Takes a shared lock on the given file or directory, blocking until no one holds an exclusive
+     * lock on it. Any number of shared locks can be held at the same time.
+     *
+     * @param path The file or directory to lock
+     * @return A {@link Handle} that must be closed to release the lock
+     * @throws IOException if the lock file could not be created or locked
+     */
+    public static Handle shared(Path path) throws IOException {
+        Path lockFile = lockFileFor(path);
+        LockState state = states.computeIfAbsent(lockFile, p -> new LockState());
+        state.lock.readLock().lock();
+        try {
+            synchronized (state) {
+                if (state.readers == 0) {
+                    acquire(state, lockFile, true);
+                }
+                state.readers++;
+            }
+        } catch (IOException | RuntimeException e) {
+            state.lock.readLock().unlock();
+            throw e;
+        }
+        return new Handle(state, true);
+    }
+
+    /**
+     * Takes an exclusive lock on the given file or directory, blocking until no one else holds any
+     * lock on it.
+     *
+     * @param path The file or directory to lock
+     * @return A {@link Handle} that must be closed to release the lock
+     * @throws IOException if the lock file could not be created or locked
+     */
+    public static Handle exclusive(Path path) throws IOException {
+        Path lockFile = lockFileFor(path);
+        LockState state = states.computeIfAbsent(lockFile, p -> new LockState());
+        state.lock.writeLock().lock();
+        try {
+            acquire(state, lockFile, false);
+        } catch (IOException | RuntimeException e) {
+            state.lock.writeLock().unlock();
+            throw e;
+        }
+        return new Handle(state, false);
+    }
+
+    private static void acquire(LockState state, Path lockFile, boolean shared) throws IOException {
+        if (!Files.isDirectory(lockFile.getParent())) {
+            createLocksDir(lockFile.getParent());
+        }
+        FileChannel channel =
+                FileChannel.open(
+                        lockFile,
+                        StandardOpenOption.CREATE,
+                        StandardOpenOption.READ,
+                        StandardOpenOption.WRITE);
+        try {
+            state.fileLock = channel.lock(0, Long.MAX_VALUE, shared);
+            state.channel = channel;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Creates the directory for the lock files. The ".jpm" directory it lives in ignores itself, so
+     * the lock files never show up as changes in a project that uses git.
+     */
+    private static void createLocksDir(Path locksDir) throws IOException {
+        Files.createDirectories(locksDir);
+        Path gitignore = locksDir.getParent().resolve(".gitignore");
+        if (!Files.exists(gitignore)) {
+            try {
+                Files.writeString(gitignore, "*\n", StandardOpenOption.CREATE_NEW);
+            } catch (FileAlreadyExistsException e) {
+                // Someone else got there first
+            }
+        }
+    }
+
+    private static void release(LockState state) throws IOException {
+        FileChannel channel = state.channel;
+        state.channel = null;
+        state.fileLock = null;
+        if (channel != null) {
+            // Closing the channel releases the lock as well
+            channel.close();
+        }
+    }
+}
@@ -1,19 +1,45 @@
 package org.codejive.jpm.util;
 
-import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.InvalidPathException;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
-import java.util.HashSet;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.List;
-import java.util.Set;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /** Utility class for file operations. */
 public class FileUtils {
 
+    /**
+     * The prefix of the files that jpm keeps for itself in a deps directory, like temporary files
+     * and the sync manifest. Syncing never deletes those.
+     */
+    static final String JPM_FILE_PREFIX = ".jpm-";
+
+    /**
+     * The default number of files that {@link #syncArtifacts(List, Path, boolean, boolean)} will
+     * process concurrently. Syncing is mostly waiting for the file system, so this is larger than
+     * the number of processors.
+     */
+    public static final int DEFAULT_SYNC_PARALLELISM =
+            Math.max(8, Runtime.getRuntime().availableProcessors() * 2);
+
     /**
      * Synchronizes a list of artifacts with a target directory.
      *
@@ -27,72 +53,411 @@ public class FileUtils {
     public static SyncResult syncArtifacts(
             List<Path> artifacts, Path directory, boolean noLinks, boolean noDelete)
             throws IOException {
-        SyncResult stats = new SyncResult();
-
-        // Make sure the target directory exists
-        Files.createDirectories(directory);
-
-        // Remember current artifact names in target directory (if any)
-        Set<String> artifactsToDelete = new HashSet<>();
-        if (!noDelete) {
-            File[] files = directory.toFile().listFiles(File::isFile);
-            if (files != null) {
-                for (File file : files) {
-                    artifactsToDelete.add(file.getName());
+        return syncArtifacts(
+                artifacts,
+                directory,
+                noLinks ? LinkMode.COPY : LinkMode.SYMLINK,
+                noDelete,
+                DEFAULT_SYNC_PARALLELISM);
+    }
+
+    /**
+     * Synchronizes a list of artifacts with a target directory.
+     *
+     * @param artifacts list of artifacts to synchronize
+     * @param directory target directory
+     * @param noLinks if true, copy artifacts instead of creating symbolic links
+     * @param noDelete if true, do not delete artifacts that are no longer needed
+     * @param parallelism the maximum number of files to process concurrently
+     * @return An instance of {@link SyncResult} with statistics about the synchronization
+     * @throws IOException if an error occurred during the synchronization
+     */
+    public static SyncResult syncArtifacts(
+            List<Path> artifacts,
+            Path directory,
+            boolean noLinks,
+            boolean noDelete,
+            int parallelism)
+            throws IOException {
+        return syncArtifacts(
+                artifacts,
+                directory,
+                noLinks ? LinkMode.COPY : LinkMode.SYMLINK,
+                noDelete,
+                parallelism);
+    }
+
+    /**
+     * Synchronizes a list of artifacts with a target directory.
+     *
+     * @param artifacts list of artifacts to synchronize
+     * @param directory target directory
+     * @param linkMode how to make the artifacts available in the target directory
+     * @param noDelete if true, do not delete artifacts that are no longer needed
+     * @return An instance of {@link SyncResult} with statistics about the synchronization
+     * @throws IOException if an error occurred during the synchronization
+     */
+    public static SyncResult syncArtifacts(
+            List<Path> artifacts, Path directory, LinkMode linkMode, boolean noDelete)
+            throws IOException {
+        return syncArtifacts(artifacts, directory, linkMode, noDelete, DEFAULT_SYNC_PARALLELISM);
+    }
+
+    /**
+     * Synchronizes a list of artifacts with a target directory. First all the operations are
+     * planned (see {@link SyncPlan}), which are then executed concurrently on a pool with at most
+     * the given number of threads. The contents of the returned {@link SyncResult} do not depend on
+     * the order in which the operations finish. If any operations fail, all others are still
+     * performed after which a single exception is thrown that has the individual failures attached
+     * as suppressed exceptions.
+     *
+     * @param artifacts list of artifacts to synchronize
+     * @param directory target directory
+     * @param linkMode how to make the artifacts available in the target directory
+     * @param noDelete if true, do not delete artifacts that are no longer needed
+     * @param parallelism the maximum number of files to process concurrently
+     * @return An instance of {@link SyncResult} with statistics about the synchronization
+     * @throws IOException if an error occurred during the synchronization
+     */
+    public static SyncResult syncArtifacts(
+            List<Path> artifacts,
+            Path directory,
+            LinkMode linkMode,
+            boolean noDelete,
+            int parallelism)
+            throws IOException {
+        return syncArtifacts(artifacts, directory, linkMode, noDelete, parallelism, null);
+    }
+
+    /**
+     * Synchronizes a list of artifacts with a target directory, just like {@link
+     * #syncArtifacts(List, Path, LinkMode, boolean, int)}, using the given store when the link mode
+     * is {@link LinkMode#STORE}. The target directory then gets registered with the store.
+     *
+     * @param artifacts list of artifacts to synchronize
+     * @param directory target directory
+     * @param linkMode how to make the artifacts available in the target directory
+     * @param noDelete if true, do not delete artifacts that are no longer needed
+     * @param parallelism the maximum number of files to process concurrently
+     * @param store the artifact store to use, null for the one in the default cache directory
+     * @return An instance of {@link SyncResult} with statistics about the synchronization
+     * @throws IOException if an error occurred during the synchronization
+     */
+    public static SyncResult syncArtifacts(
+            List<Path> artifacts,
+            Path directory,
+            LinkMode linkMode,
+            boolean noDelete,
+            int parallelism,
+            ArtifactStore store)
+            throws IOException {
+        return SyncPlan.create(artifacts, directory, linkMode, noDelete, store)
+                .execute(parallelism);
+    }
+
+    /**
+     * Determines if the existing target is what syncing the source using the given link mode would
+     * have resulted in.
+     */
+    static boolean isUpToDate(Path source, Path target, LinkMode linkMode, Boolean sameStore)
+            throws IOException {
+        boolean symlink = Files.isSymbolicLink(target);
+        switch (linkMode) {
+            case SYMLINK:
+                return symlink && isLinkTo(target, source);
+            case COPY:
+                return !symlink && !Files.isSameFile(source, target) && isSameCopy(source, target);
+            case HARD:
+                if (symlink) {
+                    return false;
                 }
-            }
+                if (Files.isSameFile(source, target)) {
+                    return true;
+                }
+                return !Boolean.TRUE.equals(sameStore) && isSameCopy(source, target);
+            case AUTO:
+            default:
+                if (!symlink && Files.isSameFile(source, target)) {
+                    return true;
+                }
+                if (Boolean.TRUE.equals(sameStore)) {
+                    return false;
+                }
+                return symlink ? isLinkTo(target, source) : isSameCopy(source, target);
         }
+    }
 
-        // Copy artifacts
-        for (Path artifact : artifacts) {
-            String artifactName = artifact.getFileName().toString();
-            artifactsToDelete.remove(artifactName);
-            Path target = directory.resolve(artifactName);
-            stats.files.add(target);
-            if (!Files.exists(target)) {
-                copyDependency(artifact, directory, noLinks);
-                stats.copied++;
-            } else if (Files.isSymbolicLink(target) == noLinks) {
-                copyDependency(artifact, directory, noLinks);
-                stats.updated++;
-            } else if (Files.size(target) != Files.size(artifact)
-                    || !Files.getLastModifiedTime(target)
-                            .equals(Files.getLastModifiedTime(artifact))) {
-                copyDependency(artifact, directory, noLinks);
-                stats.updated++;
-            }
+    /**
+     * Determines if the given link points to the source, links that point nowhere or to a different
+     * file need to be recreated.
+     */
+    static boolean isLinkTo(Path link, Path source) throws IOException {
+        if (!Files.exists(link)) {
+            return false;
         }
+        return Files.readSymbolicLink(link).equals(source) || Files.isSameFile(source, link);
+    }
 
-        // Now remove any artifacts that are no longer needed
-        if (!noDelete) {
-            for (String existingArtifact : artifactsToDelete) {
-                Path target = directory.resolve(existingArtifact);
-                Files.delete(target);
-                stats.deleted++;
-            }
+    private static boolean isSameCopy(Path source, Path target) throws IOException {
+        // Timestamps are compared in millis because copying doesn't always
+        // preserve their full precision
+        return Files.size(target) == Files.size(source)
+                && Files.getLastModifiedTime(target).toMillis()
+                        == Files.getLastModifiedTime(source).toMillis();
+    }
+
+    /**
+     * Returns an object identifying the file system the given path is on, or null if that can't be
+     * determined. On Unix-like systems this is the device id, which is a lot cheaper to look up
+     * than the path's {@link java.nio.file.FileStore}.
+     */
+    static Object fileStoreId(Path path) {
+        try {
+            return Files.getAttribute(path, "unix:dev");
+        } catch (IOException | UnsupportedOperationException | IllegalArgumentException e) {
+            return null;
         }
+    }
 
-        return stats;
+    static ThreadFactory daemonThreads(String prefix) {
+        AtomicInteger count = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, prefix + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
     }
 
-    private static void copyDependency(Path artifact, Path directory, boolean noLinks)
+    /**
+     * Makes the artifact available as the target file using the given link mode. The new file or
+     * link is always created under a temporary name first and then renamed, so the target is
+     * atomically replaced and never observed missing or half-written.
+     */
+    static void copyDependency(Path artifact, Path target, LinkMode linkMode, Boolean sameStore)
             throws IOException {
-        Path target = directory.resolve(artifact.getFileName().toString());
-        if (!noLinks) {
-            Files.deleteIfExists(target);
+        if ((linkMode == LinkMode.HARD || linkMode == LinkMode.AUTO)
+                && !Boolean.FALSE.equals(sameStore)) {
+            Path tmp = tempSibling(target);
             try {
-                Files.createSymbolicLink(target, artifact);
+                Files.createLink(tmp, artifact);
+                moveAtomically(tmp, target);
+                return;
+            } catch (IOException | UnsupportedOperationException e) {
+                // Hard links are not supported by all file systems
+                Files.deleteIfExists(tmp);
+            }
+        }
+        if (linkMode == LinkMode.SYMLINK || linkMode == LinkMode.AUTO) {
+            Path tmp = tempSibling(target);
+            try {
+                Files.createSymbolicLink(tmp, artifact);
+                moveAtomically(tmp, target);
                 return;
             } catch (IOException e) {
                 // Creating a symlink might fail (eg on Windows) so we
                 // fall through and try again by simply copying the file
+                Files.deleteIfExists(tmp);
+            }
+        }
+        copyFile(artifact, target);
+    }
+
+    /**
+     * Copies a file using {@link FileChannel#transferTo(long, long,
+     * java.nio.channels.WritableByteChannel)}, which allows the OS to copy the data without it ever
+     * entering the JVM (eg using sendfile or copy_file_range on Linux). The copy is written to a
+     * temporary file next to the target which then gets renamed, atomically replacing the target if
+     * it exists. The copy gets the same last modified time and, where supported, permissions as the
+     * source. If the source gets truncated while it's being copied the copy is discarded and an
+     * exception is thrown.
+     *
+     * @param source The file to copy
+     * @param target The file to create or replace
+     * @throws IOException if an error occurred during the copy
+     */
+    public static void copyFile(Path source, Path target) throws IOException {
+        Path tmp = tempSibling(target);
+        try {
+            try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+                    FileChannel out =
+                            FileChannel.open(
+                                    tmp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                long size = in.size();
+                long pos = 0;
+                ByteBuffer buffer = null;
+                while (pos < size) {
+                    long n = in.transferTo(pos, size - pos, out);
+                    if (n <= 0) {
+                        // No progress, which some channels do instead of failing, so copy the
+                        // next chunk ourselves. That also tells us when the source was truncated
+                        if (buffer == null) {
+                            buffer = ByteBuffer.allocate(COPY_BUFFER_SIZE);
+                        }
+                        buffer.clear();
+                        n = in.read(buffer, pos);
+                        if (n < 0) {
+                            break;
+                        }
+                        buffer.flip();
+                        while (buffer.hasRemaining()) {
+                            out.write(buffer);
+                        }
+                    }
+                    pos += n;
+                }
+                if (pos != size) {
+                    // Never put a partial copy in place of the target
+                    throw new IOException("File was truncated while copying it: " + source);
+                }
+            }
+            copyPermissions(source, tmp);
+            Files.setLastModifiedTime(tmp, Files.getLastModifiedTime(source));
+            moveAtomically(tmp, target);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    /** Gives the copy the same permissions as the source, where the file system supports them. */
+    private static void copyPermissions(Path source, Path target) throws IOException {
+        PosixFileAttributeView view =
+                Files.getFileAttributeView(source, PosixFileAttributeView.class);
+        if (view != null) {
+            Files.setPosixFilePermissions(target, view.readAttributes().permissions());
+        }
+    }
+
+    /**
+     * Writes the given text to a file by writing it to a temporary file next to it first, which
+     * then gets renamed, atomically replacing the file if it exists. Readers will therefore only
+     * ever see the complete old or the complete new contents. When the file is a symbolic link the
+     * file it points to gets replaced instead.
+     *
+     * @param file The file to create or replace
+     * @param content The text to write
+     * @throws IOException if an error occurred while writing
+     */
+    public static void writeAtomically(Path file, String content) throws IOException {
+        Path target = Files.isSymbolicLink(file) ? file.toRealPath() : file;
+        Path tmp = tempSibling(target);
+        try {
+            Files.write(tmp, content.getBytes(StandardCharsets.UTF_8));
+            moveAtomically(tmp, target);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    static void moveAtomically(Path source, Path target) throws IOException {
+        try {
+            Files.move(
+                    source,
+                    target,
+                    StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /** Returns a unique temporary name in the same directory as the given file. */
+    static Path tempSibling(Path file) {
+        return file.resolveSibling(
+                JPM_FILE_PREFIX
+                        + file.getFileName()
+                        + "."
+                        + Long.toHexString(ThreadLocalRandom.current().nextLong())
+                        + ".tmp");
+    }
+
+    /**
+     * Deletes the given file or directory including all its contents. Symbolic links are deleted
+     * themselves, never followed. Nothing happens if the path doesn't exist.
+     *
+     * @param path The file or directory to delete
+     * @throws IOException if an error occurred while deleting
+     */
+    public static void deleteRecursively(Path path) throws IOException {
+        if (!Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+            return;
+        }
+        List<Path> paths;
+        try (Stream<Path> s = Files.walk(path)) {
+            paths = s.collect(Collectors.toList());
+        }
+        for (int i = paths.size() - 1; i >= 0; i--) {
+            Files.deleteIfExists(paths.get(i));
+        }
+    }
+
+    /**
+     * Computes the checksum of the given file using the given algorithm.
+     *
+     * @param file The file to compute the checksum for
+     * @param algorithm The name of the digest algorithm to use, eg "SHA-256"
+     * @return The checksum as a lowercase hex string
+     * @throws IOException if an error occurred while reading the file
+     */
+    public static String checksum(Path file, String algorithm) throws IOException {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException("Unsupported digest algorithm: " + algorithm, e);
+        }
+        byte[] buf = new byte[64 * 1024];
+        try (InputStream in = Files.newInputStream(file)) {
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                md.update(buf, 0, n);
+            }
+        }
+        return toHex(md.digest());
+    }
+
+    /**
+     * Computes the checksum of the given file using the given algorithm, just like {@link
+     * #checksum(Path, String)}, but reading the file through a memory mapping. This avoids copying
+     * the file's contents into a buffer, which makes a notable difference when hashing many files
+     * that are already in the OS' page cache.
+     *
+     * @param file The file to compute the checksum for
+     * @param algorithm The name of the digest algorithm to use, eg "SHA-1"
+     * @return The checksum as a lowercase hex string
+     * @throws IOException if an error occurred while reading the file
+     */
+    public static String checksumMapped(Path file, String algorithm) throws IOException {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException("Unsupported digest algorithm: " + algorithm, e);
+        }
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = ch.size();
+            for (long pos = 0; pos < size; pos += Integer.MAX_VALUE) {
+                long len = Math.min(Integer.MAX_VALUE, size - pos);
+                md.update(ch.map(FileChannel.MapMode.READ_ONLY, pos, len));
             }
         }
-        Files.copy(
-                artifact,
-                target,
-                StandardCopyOption.REPLACE_EXISTING,
-                StandardCopyOption.COPY_ATTRIBUTES);
+        return toHex(md.digest());
+    }
+
+    /**
+     * Converts the given bytes to a lowercase hex string.
+     *
+     * @param bytes The bytes to convert
+     * @return The hex string
+     */
+    public static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+            sb.append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
     }
 
     public static Path safePath(String w) {
@@ -0,0 +1,125 @@
+package org.codejive.jpm.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Watches a number of directories for changes using a {@link WatchService}. Each directory has a
+ * filter that decides which events are relevant. Changes usually come in bursts (an editor saving a
+ * file, a tool writing many files), so after the first relevant event {@link #awaitChanges()} keeps
+ * collecting events until things have been quiet for a while.
+ */
+public class FileWatcher implements Closeable {
+    private final WatchService service;
+    private final long debounceMillis;
+    private final Map<Path, WatchKey> keys = new HashMap<>();
+    private final Map<WatchKey, Watch> watches = new HashMap<>();
+
+    /** The default time to wait for more events before reporting changes. */
+    public static final long DEFAULT_DEBOUNCE_MILLIS = 250;
+
+    private static class Watch {
+        final Path directory;
+        final Predicate<WatchEvent<?>> filter;
+
+        Watch(Path directory, Predicate<WatchEvent<?>> filter) {
+            this.directory = directory;
+            this.filter = filter;
+        }
+    }
+
+    /**
+     * Creates a new watcher.
+     *
+     * @param debounceMillis How long things must be quiet before changes get reported
+     * @throws IOException if the watch service could not be created
+     */
+    public FileWatcher(long debounceMillis) throws IOException {
+        this.service = FileSystems.getDefault().newWatchService();
+        this.debounceMillis = debounceMillis;
+    }
+
+    /**
+     * Starts watching the given directory, replacing any earlier watch for the same path. When the
+     * path is a symbolic link the directory it currently points to is watched, so calling this
+     * again after the link changed makes the watch follow it.
+     *
+     * @param directory The directory to watch
+     * @param filter Decides which events are relevant, the context of each event is a {@link Path}
+     *     relative to the directory
+     * @throws IOException if the directory could not be watched
+     */
+    public void watch(Path directory, Predicate<WatchEvent<?>> filter) throws IOException {
+        WatchKey old = keys.remove(directory);
+        if (old != null) {
+            old.cancel();
+            watches.remove(old);
+        }
+        WatchKey key =
+                directory.register(
+                        service,
+                        StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_DELETE,
+                        StandardWatchEventKinds.ENTRY_MODIFY);
+        keys.put(directory, key);
+        watches.put(key, new Watch(directory, filter));
+    }
+
+    /**
+     * Blocks until relevant changes occur and then waits until no more relevant events come in for
+     * the debounce period.
+     *
+     * @return The watched directories that had relevant changes
+     * @throws InterruptedException if the thread was interrupted while waiting
+     */
+    public Set<Path> awaitChanges() throws InterruptedException {
+        Set<Path> changed = new LinkedHashSet<>();
+        while (changed.isEmpty()) {
+            collect(service.take(), changed);
+        }
+        WatchKey key;
+        while ((key = service.poll(debounceMillis, TimeUnit.MILLISECONDS)) != null) {
+            collect(key, changed);
+        }
+        return changed;
+    }
+
+    /** Throws away all events that are waiting to be processed. */
+    public void drain() {
+        WatchKey key;
+        while ((key = service.poll()) != null) {
+            key.pollEvents();
+            key.reset();
+        }
+    }
+
+    private void collect(WatchKey key, Set<Path> changed) {
+        Watch watch = watches.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            // On overflow we can't tell what happened, so assume it's relevant
+            if (watch != null
+                    && (event.kind() == StandardWatchEventKinds.OVERFLOW
+                            || watch.filter.test(event))) {
+                changed.add(watch.directory);
+            }
+        }
+        key.reset();
+    }
+
+    @Override
+    public void close() throws IOException {
+        service.close();
+    }
+}
@@ -0,0 +1,296 @@
+package org.codejive.jpm.util;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Manages a deps directory as a series of generations. Instead of updating the deps directory in
+ * place, each sync is performed in a separate generation directory after which the deps directory,
+ * which is a symbolic link, gets atomically switched over to it. Processes that are started at any
+ * moment will therefore always see either the complete old set of artifacts or the complete new
+ * one. Generations are named after a hash of their contents, so going back to a set of artifacts
+ * that was used before just means switching the link back to the existing generation. The
+ * generations are kept in a hidden directory next to the deps directory, ie ".deps.generations" for
+ * "deps", together with a history of the order in which they were activated.
+ */
+public class Generations {
+    private final Path directory;
+    private final Path root;
+
+    /** The name of the file, inside the generations directory, that holds the history. */
+    public static final String HISTORY_FILE = FileUtils.JPM_FILE_PREFIX + "history";
+
+    /**
+     * Creates a new instance for the given deps directory.
+     *
+     * @param directory The deps directory, which will be turned into a symbolic link
+     */
+    public Generations(Path directory) {
+        this.directory = directory;
+        this.root = directory.resolveSibling("." + directory.getFileName() + ".generations");
+    }
+
+    /**
+     * Returns the directory where the generations are stored.
+     *
+     * @return A path
+     */
+    public Path root() {
+        return root;
+    }
+
+    /**
+     * Returns the name of the generation that would hold the given artifacts.
+     *
+     * @param artifacts The artifacts
+     * @param linkMode How the artifacts are made available
+     * @return The name of the generation
+     */
+    public static String id(List<Path> artifacts, LinkMode linkMode) {
+        // Artifacts are identified by file name in the deps directory, the last one wins
+        Map<String, Path> sources = new TreeMap<>();
+        for (Path artifact : artifacts) {
+            sources.put(artifact.getFileName().toString(), artifact);
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append(linkMode).append('\n');
+        for (Map.Entry<String, Path> e : sources.entrySet()) {
+            sb.append(e.getKey()).append('\t').append(e.getValue()).append('\n');
+        }
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            byte[] hash = md.digest(sb.toString().getBytes(StandardCharsets.UTF_8));
+            return FileUtils.toHex(hash).substring(0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Syncs the given artifacts into the generation for exactly that set of artifacts, creating it
+     * if it doesn't exist yet, and then makes it the current generation. Afterwards all but the
+     * given number of previous generations are removed.
+     *
+     * @param artifacts The artifacts that the deps directory should contain
+     * @param linkMode How to make the artifacts available
+     * @param parallelism The maximum number of files to process concurrently
+     * @param keep The number of previous generations to keep
+     * @param store The artifact store to use for {@link LinkMode#STORE}, null for the default one
+     * @return An instance of {@link SyncResult} with the files as seen through the deps directory
+     * @throws IOException if an error occurred during the synchronization
+     */
+    public SyncResult sync(
+            List<Path> artifacts, LinkMode linkMode, int parallelism, int keep, ArtifactStore store)
+            throws IOException {
+        String id = id(artifacts, linkMode);
+        Path generation = root.resolve(id);
+        SyncResult result =
+                FileUtils.syncArtifacts(artifacts, generation, linkMode, false, parallelism, store);
+        List<Path> files = new ArrayList<>(result.files.size());
+        for (Path f : result.files) {
+            files.add(directory.resolve(f.getFileName()));
+        }
+        result.files.clear();
+        result.files.addAll(files);
+        if (!id.equals(current())) {
+            activate(id);
+            prune(keep);
+        }
+        return result;
+    }
+
+    /**
+     * Plans the sync that {@link #sync(List, LinkMode, int, int, ArtifactStore)} would perform,
+     * without changing anything.
+     *
+     * @param artifacts The artifacts that the deps directory should contain
+     * @param linkMode How to make the artifacts available
+     * @param store The artifact store to use for {@link LinkMode#STORE}, null for the default one
+     * @return A {@link SyncPlan} for the generation directory
+     * @throws IOException if the generation directory could not be read
+     */
+    public SyncPlan plan(List<Path> artifacts, LinkMode linkMode, ArtifactStore store)
+            throws IOException {
+        return SyncPlan.create(
+                artifacts, root.resolve(id(artifacts, linkMode)), linkMode, false, store);
+    }
+
+    /**
+     * Returns the name of the generation the deps directory currently points to.
+     *
+     * @return The name of a generation or null if the deps directory isn't a generation
+     * @throws IOException if the link could not be read
+     */
+    public String current() throws IOException {
+        if (!Files.isSymbolicLink(directory)) {
+            return null;
+        }
+        Path target = Files.readSymbolicLink(directory);
+        if (target.getParent() == null
+                || !root.getFileName().equals(target.getParent().getFileName())) {
+            return null;
+        }
+        return target.getFileName().toString();
+    }
+
+    /**
+     * Returns the names of the existing generations, the most recently activated first.
+     *
+     * @return A list of generation names
+     * @throws IOException if the history could not be read
+     */
+    public List<String> list() throws IOException {
+        List<String> result = new ArrayList<>();
+        for (String id : readHistory()) {
+            if (Files.isDirectory(root.resolve(id))) {
+                result.add(id);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Switches the deps directory back to a previous generation. This doesn't touch any files other
+     * than the link itself.
+     *
+     * @param id The name of the generation to switch to or null for the one that was active before
+     *     the current one
+     * @return The name of the generation that is now current
+     * @throws IOException if the link could not be switched
+     * @throws IllegalArgumentException if there is no such generation
+     */
+    public String rollback(String id) throws IOException {
+        List<String> generations = list();
+        String current = current();
+        if (id == null) {
+            for (String g : generations) {
+                if (!g.equals(current)) {
+                    id = g;
+                    break;
+                }
+            }
+            if (id == null) {
+                throw new IllegalArgumentException(
+                        "There is no previous generation of " + directory);
+            }
+        } else if (!generations.contains(id)) {
+            throw new IllegalArgumentException("Unknown generation of " + directory + ": " + id);
+        }
+        if (!id.equals(current)) {
+            activate(id);
+        }
+        return id;
+    }
+
+    /** Atomically points the deps directory at the given generation. */
+    private void activate(String id) throws IOException {
+        Path link = FileUtils.tempSibling(directory);
+        try {
+            Files.createSymbolicLink(link, Paths.get(root.getFileName().toString(), id));
+        } catch (IOException | UnsupportedOperationException e) {
+            throw new IOException(
+                    "Generations require symbolic links, which could not be created: " + e, e);
+        }
+        try {
+            if (Files.isDirectory(directory, LinkOption.NOFOLLOW_LINKS)) {
+                // The first time the existing directory has to be moved out of the way, a
+                // directory can't be atomically replaced by a link
+                Path old = FileUtils.tempSibling(directory);
+                try {
+                    Files.move(directory, old);
+                } catch (NoSuchFileException e) {
+                    // Someone else that is syncing the same generation beat us to it
+                    old = null;
+                }
+                try {
+                    FileUtils.moveAtomically(link, directory);
+                } catch (IOException e) {
+                    if (old != null) {
+                        Files.move(old, directory);
+                    }
+                    throw e;
+                }
+                if (old != null) {
+                    FileUtils.deleteRecursively(old);
+                }
+            } else {
+                FileUtils.moveAtomically(link, directory);
+            }
+        } finally {
+            Files.deleteIfExists(link);
+        }
+        Set<String> history = new LinkedHashSet<>();
+        history.add(id);
+        history.addAll(readHistory());
+        writeHistory(history);
+    }
+
+    /** Removes all generations except the current one and the given number of previous ones. */
+    private void prune(int keep) throws IOException {
+        Set<String> kept = new LinkedHashSet<>();
+        String current = current();
+        if (current != null) {
+            kept.add(current);
+        }
+        for (String id : list()) {
+            if (kept.size() > keep) {
+                break;
+            }
+            kept.add(id);
+        }
+        try (DirectoryStream<Path> dirs = Files.newDirectoryStream(root)) {
+            for (Path dir : dirs) {
+                String name = dir.getFileName().toString();
+                if (!name.startsWith(".") && !kept.contains(name)) {
+                    FileUtils.deleteRecursively(dir);
+                }
+            }
+        }
+        writeHistory(kept);
+    }
+
+    private List<String> readHistory() throws IOException {
+        try {
+            List<String> result = new ArrayList<>();
+            for (String line : Files.readAllLines(root.resolve(HISTORY_FILE))) {
+                if (!line.trim().isEmpty()) {
+                    result.add(line.trim());
+                }
+            }
+            return result;
+        } catch (NoSuchFileException e) {
+            return new ArrayList<>();
+        }
+    }
+
+    private void writeHistory(Set<String> history) throws IOException {
+        Path file = root.resolve(HISTORY_FILE);
+        Path tmp = FileUtils.tempSibling(file);
+        try {
+            try (BufferedWriter out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                for (String id : history) {
+                    out.write(id);
+                    out.newLine();
+                }
+            }
+            FileUtils.moveAtomically(tmp, file);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package org.codejive.jpm.util;
+
+import eu.maveniverse.maven.mima.context.ContextOverrides;
+import eu.maveniverse.maven.mima.context.Lookup;
+import eu.maveniverse.maven.mima.runtime.shared.PreBoot;
+import eu.maveniverse.maven.mima.runtime.standalonestatic.MemoizingRepositorySystemSupplierLookup;
+import eu.maveniverse.maven.mima.runtime.standalonestatic.SettingsBuilderSupplier;
+import eu.maveniverse.maven.mima.runtime.standalonestatic.StandaloneStaticRuntime;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import org.apache.maven.model.building.ModelBuilder;
+import org.apache.maven.repository.internal.DefaultArtifactDescriptorReader;
+import org.apache.maven.repository.internal.ModelCacheFactory;
+import org.apache.maven.settings.Settings;
+import org.apache.maven.settings.building.SettingsBuildingException;
+import org.eclipse.aether.impl.ArtifactDescriptorReader;
+import org.eclipse.aether.impl.ArtifactResolver;
+import org.eclipse.aether.impl.RemoteRepositoryManager;
+import org.eclipse.aether.impl.RepositoryEventDispatcher;
+import org.eclipse.aether.impl.VersionRangeResolver;
+import org.eclipse.aether.impl.VersionResolver;
+
+/**
+ * The MIMA runtime used by jpm. It's the standard standalone runtime, except that the artifact
+ * descriptor reader of the repository system gets wrapped in a {@link DescriptorCache}, so parsed
+ * POMs are persisted in the cache directory and reused by later resolutions.
+ */
+public class JpmRuntime extends StandaloneStaticRuntime {
+    private static final JpmRuntime INSTANCE = new JpmRuntime();
+
+    public static JpmRuntime instance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the local repository that a context created with the given overrides would use,
+     * taking the user's Maven settings into account the same way context creation does, but without
+     * the cost of setting up a repository system.
+     *
+     * @param overrides The overrides that a context would be created with
+     * @return The path of the local repository
+     */
+    public Path localRepository(ContextOverrides overrides) {
+        PreBoot preBoot = preBoot(overrides);
+        if (overrides.getLocalRepositoryOverride() == null) {
+            try {
+                Settings settings =
+                        newEffectiveSettings(
+                                preBoot.getOverrides(),
+                                preBoot.getMavenUserHome(),
+                                preBoot.getMavenSystemHome(),
+                                new SettingsBuilderSupplier().get());
+                if (settings.getLocalRepository() != null) {
+                    return Paths.get(settings.getLocalRepository()).toAbsolutePath();
+                }
+            } catch (SettingsBuildingException e) {
+                // Creating a context would fail as well, so this is as good as anything
+            }
+        }
+        return preBoot.getMavenUserHome().localRepository();
+    }
+
+    @Override
+    protected Lookup createRepositorySystemLookup(PreBoot preBoot) {
+        return new MemoizingRepositorySystemSupplierLookup() {
+            @Override
+            protected ArtifactDescriptorReader getArtifactDescriptorReader(
+                    RemoteRepositoryManager remoteRepositoryManager,
+                    VersionResolver versionResolver,
+                    VersionRangeResolver versionRangeResolver,
+                    ArtifactResolver artifactResolver,
+                    ModelBuilder modelBuilder,
+                    RepositoryEventDispatcher repositoryEventDispatcher,
+                    ModelCacheFactory modelCacheFactory) {
+                // The same reader the supplier would create, wrapped in our cache. The result gets
+                // memoized like every other component, so the lookup hands out the same instance
+                // the repository system uses
+                return memoize(
+                        ArtifactDescriptorReader.class,
+                        new DescriptorCache(
+                                new DefaultArtifactDescriptorReader(
+                                        remoteRepositoryManager,
+                                        versionResolver,
+                                        versionRangeResolver,
+                                        artifactResolver,
+                                        modelBuilder,
+                                        repositoryEventDispatcher,
+                                        modelCacheFactory)));
+            }
+        };
+    }
+}
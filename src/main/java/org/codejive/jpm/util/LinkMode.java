@@ -0,0 +1,46 @@
+package org.codejive.jpm.util;
+
+import java.util.Locale;
+
+/** The ways in which artifacts from the cache can be made available in a deps directory. */
+public enum LinkMode {
+    /** Create symbolic links, falling back to copying when that's not possible. */
+    SYMLINK,
+    /** Create hard links, falling back to copying when that's not possible. */
+    HARD,
+    /** Always copy the artifacts. */
+    COPY,
+    /**
+     * Create hard links when the cache and the deps directory are on the same file system,
+     * otherwise symbolic links and as a last resort copy the artifacts.
+     */
+    AUTO,
+    /**
+     * Create hard links to a content-addressed store in the cache directory, which holds only a
+     * single copy of each distinct file, falling back to copying when that's not possible.
+     */
+    STORE;
+
+    /**
+     * Parses the given name of a link mode, ignoring case.
+     *
+     * @param name The name to parse
+     * @return The corresponding {@link LinkMode}
+     * @throws IllegalArgumentException If the name isn't a valid link mode
+     */
+    public static LinkMode parse(String name) {
+        try {
+            return valueOf(name.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(
+                    "Invalid link mode '"
+                            + name
+                            + "', must be one of: symlink, hard, copy, auto, store");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,317 @@
+package org.codejive.jpm.util;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import org.eclipse.aether.AbstractRepositoryListener;
+import org.eclipse.aether.DefaultRepositorySystemSession;
+import org.eclipse.aether.RepositoryEvent;
+import org.eclipse.aether.RepositorySystemSession;
+import org.eclipse.aether.transfer.AbstractTransferListener;
+import org.eclipse.aether.transfer.TransferEvent;
+import org.eclipse.aether.util.listener.ChainedRepositoryListener;
+import org.eclipse.aether.util.listener.ChainedTransferListener;
+
+/**
+ * Keeps track of where time is spent during a jpm operation. It records the duration of each phase
+ * (reading the app.yml file, collecting the dependency graph, resolving and downloading artifacts,
+ * computing checksums and syncing files), the number of bytes downloaded, the number of artifacts
+ * that were found in the local cache (hits) or had to be downloaded (misses) per repository and the
+ * time it took to sync each individual file. All methods are thread-safe because the resolver
+ * reports downloads from multiple threads.
+ */
+public class Metrics {
+    private final Map<String, Long> phases = new LinkedHashMap<>();
+    private final Map<String, Long> counters = new LinkedHashMap<>();
+    private final Map<String, RepositoryMetrics> repositories = new TreeMap<>();
+    private final Map<Path, Long> files = new LinkedHashMap<>();
+    private long bytesDownloaded;
+
+    /** The name of the phase that reads the app.yml file. */
+    public static final String PHASE_CONFIG = "config";
+
+    /** The name of the phase that collects the dependency graph. */
+    public static final String PHASE_COLLECT = "collect";
+
+    /** The name of the phase that resolves (and if necessary downloads) the artifacts. */
+    public static final String PHASE_RESOLVE = "resolve";
+
+    /** The name of the phase that computes the checksums for the app.lock file. */
+    public static final String PHASE_CHECKSUM = "checksum";
+
+    /** The name of the phase that syncs the artifacts to the target directory. */
+    public static final String PHASE_SYNC = "sync";
+
+    private static final List<String> PHASES =
+            Arrays.asList(PHASE_CONFIG, PHASE_COLLECT, PHASE_RESOLVE, PHASE_CHECKSUM, PHASE_SYNC);
+
+    /** Hit and miss counts for a single repository. */
+    public static class RepositoryMetrics {
+        /** The number of artifacts that were found in the local cache. */
+        public int hits;
+
+        /** The number of artifacts that had to be downloaded. */
+        public int misses;
+
+        /** The number of bytes downloaded from the repository. */
+        public long bytes;
+    }
+
+    /**
+     * Adds the given duration to the given phase.
+     *
+     * @param phase The name of the phase
+     * @param nanos The duration in nanoseconds
+     */
+    public synchronized void addPhase(String phase, long nanos) {
+        phases.merge(phase, nanos, Long::sum);
+    }
+
+    /**
+     * Increments the given counter by one.
+     *
+     * @param counter The name of the counter
+     */
+    public synchronized void increment(String counter) {
+        counters.merge(counter, 1L, Long::sum);
+    }
+
+    /**
+     * Records the time it took to sync the given file.
+     *
+     * @param file The file that was synced
+     * @param nanos The duration in nanoseconds
+     */
+    public synchronized void addFile(Path file, long nanos) {
+        files.merge(file, nanos, Long::sum);
+    }
+
+    /**
+     * Adds all the information of the given metrics to this one.
+     *
+     * @param other The metrics to add
+     */
+    public void add(Metrics other) {
+        if (other == this) {
+            return;
+        }
+        synchronized (other) {
+            synchronized (this) {
+                other.phases.forEach((k, v) -> phases.merge(k, v, Long::sum));
+                other.counters.forEach((k, v) -> counters.merge(k, v, Long::sum));
+                other.files.forEach((k, v) -> files.merge(k, v, Long::sum));
+                other.repositories.forEach(
+                        (k, v) -> {
+                            RepositoryMetrics rm = repository(k);
+                            rm.hits += v.hits;
+                            rm.misses += v.misses;
+                            rm.bytes += v.bytes;
+                        });
+                bytesDownloaded += other.bytesDownloaded;
+            }
+        }
+    }
+
+    /**
+     * Returns the durations of all phases in nanoseconds. The well-known phases are always returned
+     * in the order in which they normally occur, any others follow in the order they were recorded.
+     *
+     * @return A map of phase names to durations
+     */
+    public synchronized Map<String, Long> phases() {
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (String phase : PHASES) {
+            if (phases.containsKey(phase)) {
+                result.put(phase, phases.get(phase));
+            }
+        }
+        phases.forEach(result::putIfAbsent);
+        return Collections.unmodifiableMap(result);
+    }
+
+    public synchronized Map<String, Long> counters() {
+        return Collections.unmodifiableMap(new LinkedHashMap<>(counters));
+    }
+
+    public synchronized Map<String, RepositoryMetrics> repositories() {
+        return Collections.unmodifiableMap(new TreeMap<>(repositories));
+    }
+
+    public synchronized Map<Path, Long> files() {
+        return Collections.unmodifiableMap(new LinkedHashMap<>(files));
+    }
+
+    public synchronized long bytesDownloaded() {
+        return bytesDownloaded;
+    }
+
+    /**
+     * Returns a copy of the given session that reports all artifact resolutions and downloads to
+     * this object (on top of any listeners the session already had).
+     *
+     * @param session The session to instrument
+     * @return A new {@link RepositorySystemSession}
+     */
+    public RepositorySystemSession instrument(RepositorySystemSession session) {
+        DefaultRepositorySystemSession s = new DefaultRepositorySystemSession(session);
+        Set<String> downloaded = ConcurrentHashMap.newKeySet();
+        s.setRepositoryListener(
+                ChainedRepositoryListener.newInstance(
+                        session.getRepositoryListener(),
+                        new AbstractRepositoryListener() {
+                            @Override
+                            public void artifactDownloaded(RepositoryEvent event) {
+                                if (event.getException() == null && event.getRepository() != null) {
+                                    downloaded.add(event.getArtifact().toString());
+                                    synchronized (Metrics.this) {
+                                        repository(event.getRepository().getId()).misses++;
+                                    }
+                                }
+                            }
+
+                            @Override
+                            public void artifactResolved(RepositoryEvent event) {
+                                if (event.getException() == null
+                                        && event.getRepository() != null
+                                        && !downloaded.contains(event.getArtifact().toString())) {
+                                    synchronized (Metrics.this) {
+                                        repository(event.getRepository().getId()).hits++;
+                                    }
+                                }
+                            }
+                        }));
+        s.setTransferListener(
+                ChainedTransferListener.newInstance(
+                        session.getTransferListener(),
+                        new AbstractTransferListener() {
+                            @Override
+                            public void transferSucceeded(TransferEvent event) {
+                                if (event.getRequestType() != TransferEvent.RequestType.GET) {
+                                    return;
+                                }
+                                long bytes = event.getTransferredBytes();
+                                String repoId = event.getResource().getRepositoryId();
+                                synchronized (Metrics.this) {
+                                    bytesDownloaded += bytes;
+                                    if (repoId != null && !repoId.isEmpty()) {
+                                        repository(repoId).bytes += bytes;
+                                    }
+                                }
+                            }
+                        }));
+        return s;
+    }
+
+    private RepositoryMetrics repository(String id) {
+        return repositories.computeIfAbsent(id, k -> new RepositoryMetrics());
+    }
+
+    /**
+     * Returns a human readable report of the metrics.
+     *
+     * @return A multi-line string
+     */
+    public synchronized String toReport() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Timings:");
+        phases().forEach((k, v) -> sb.append(String.format(" %s %s ms", k, millis(v))));
+        sb.append(String.format("%nDownloaded: %d bytes", bytesDownloaded));
+        counters.forEach((k, v) -> sb.append(String.format(", %s: %d", k, v)));
+        repositories.forEach(
+                (k, v) ->
+                        sb.append(
+                                String.format(
+                                        "%nRepository %s: hits %d, misses %d, %d bytes",
+                                        k, v.hits, v.misses, v.bytes)));
+        files.forEach(
+                (k, v) -> sb.append(String.format("%n  %s ms %s", millis(v), k.getFileName())));
+        return sb.toString();
+    }
+
+    /**
+     * Returns the metrics as a JSON object.
+     *
+     * @return A JSON string
+     */
+    public synchronized String toJson() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"phases\":{");
+        appendEntries(sb, phases(), Metrics::millis);
+        sb.append("},\"bytesDownloaded\":").append(bytesDownloaded);
+        sb.append(",\"counters\":{");
+        appendEntries(sb, counters, String::valueOf);
+        sb.append("},\"repositories\":{");
+        appendEntries(
+                sb,
+                repositories,
+                v ->
+                        "{\"hits\":"
+                                + v.hits
+                                + ",\"misses\":"
+                                + v.misses
+                                + ",\"bytes\":"
+                                + v.bytes
+                                + "}");
+        sb.append("},\"files\":{");
+        appendEntries(sb, files, Metrics::millis);
+        sb.append("}}");
+        return sb.toString();
+    }
+
+    private static <K, V> void appendEntries(
+            StringBuilder sb, Map<K, V> map, Function<V, String> value) {
+        boolean first = true;
+        for (Map.Entry<K, V> e : map.entrySet()) {
+            if (!first) {
+                sb.append(',');
+            }
+            first = false;
+            sb.append(jsonString(e.getKey().toString()))
+                    .append(':')
+                    .append(value.apply(e.getValue()));
+        }
+    }
+
+    /** Formats a duration in nanoseconds as milliseconds with 3 decimals. */
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1_000_000.0);
+    }
+
+    static String jsonString(String s) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (char c : s.toCharArray()) {
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        return sb.append('"').toString();
+    }
+}
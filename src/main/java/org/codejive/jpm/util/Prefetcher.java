@@ -0,0 +1,342 @@
+package org.codejive.jpm.util;
+
+import eu.maveniverse.maven.mima.context.Context;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.codejive.jpm.config.AppInfo;
+import org.eclipse.aether.RepositorySystemSession;
+import org.eclipse.aether.artifact.Artifact;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.eclipse.aether.resolution.ArtifactRequest;
+import org.eclipse.aether.resolution.ArtifactResolutionException;
+import org.eclipse.aether.resolution.ArtifactResult;
+import org.eclipse.aether.resolution.DependencyResolutionException;
+import org.eclipse.aether.util.artifact.JavaScopes;
+
+/**
+ * Warms the cache directory with the dependencies of many projects at once. It works in two phases:
+ * first the dependency graphs of all projects are collected concurrently, then all the artifacts of
+ * all those graphs are de-duplicated and resolved, so each artifact that is shared between projects
+ * only gets downloaded once. The results are stored in the {@link ResolutionCache} so later
+ * installs of the same projects don't need to resolve anything.
+ */
+public class Prefetcher {
+    private final Path cacheDir;
+    private final ResolverSession session;
+    private final int threads;
+    private final boolean offline;
+    private final int parallelism;
+
+    /**
+     * Creates a new prefetcher.
+     *
+     * @param cacheDir The cache directory to fill (can be null to use Maven's default)
+     * @param session The resolver session to use
+     * @param threads The number of resolver threads per context (0 for default)
+     * @param offline Whether to work in offline mode
+     * @param parallelism The maximum number of projects to process concurrently
+     */
+    public Prefetcher(
+            Path cacheDir, ResolverSession session, int threads, boolean offline, int parallelism) {
+        this.cacheDir = cacheDir;
+        this.session = session;
+        this.threads = threads;
+        this.offline = offline;
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /** Holds the statistics of a prefetch operation. */
+    public static class PrefetchResult {
+        /** The number of projects that were processed. */
+        public int projects;
+
+        /** The number of projects that were already fully available in the resolution cache. */
+        public int cached;
+
+        /** The number of unique artifacts that were resolved. */
+        public int artifacts;
+
+        /** The total number of artifacts over all projects, including duplicates. */
+        public int references;
+
+        /** The time the whole operation took in nanoseconds. */
+        public long elapsed;
+
+        /** The projects that failed, with their error messages. */
+        public final Map<Path, String> failures = new LinkedHashMap<>();
+
+        /** Download statistics and timings. */
+        public final Metrics metrics = new Metrics();
+
+        /**
+         * Returns the download throughput in bytes per second.
+         *
+         * @return The throughput
+         */
+        public double bytesPerSecond() {
+            return elapsed > 0 ? metrics.bytesDownloaded() * 1_000_000_000.0 / elapsed : 0;
+        }
+    }
+
+    private static class Project {
+        final Path appFile;
+        final List<Artifact> roots;
+        final List<RemoteRepository> repositories;
+        Context context;
+        RepositorySystemSession rss;
+        List<ArtifactRequest> requests;
+
+        Project(Path appFile, List<Artifact> roots, List<RemoteRepository> repositories) {
+            this.appFile = appFile;
+            this.roots = roots;
+            this.repositories = repositories;
+        }
+    }
+
+    /**
+     * Finds all app.yml files in the given paths. Paths can either point directly to app.yml files
+     * or to directories that will be scanned recursively (skipping hidden directories).
+     *
+     * @param paths The files and directories to look in
+     * @return A sorted list of app.yml files
+     * @throws IOException If a directory could not be scanned
+     */
+    public static List<Path> findAppFiles(List<Path> paths) throws IOException {
+        List<Path> result = new ArrayList<>();
+        for (Path path : paths) {
+            if (Files.isDirectory(path)) {
+                List<Path> found = new ArrayList<>();
+                Files.walkFileTree(
+                        path,
+                        new SimpleFileVisitor<Path>() {
+                            @Override
+                            public FileVisitResult preVisitDirectory(
+                                    Path dir, BasicFileAttributes attrs) {
+                                if (!dir.equals(path)
+                                        && dir.getFileName().toString().startsWith(".")) {
+                                    return FileVisitResult.SKIP_SUBTREE;
+                                }
+                                return FileVisitResult.CONTINUE;
+                            }
+
+                            @Override
+                            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                                if (file.getFileName().toString().equals(AppInfo.APP_INFO_FILE)) {
+                                    found.add(file);
+                                }
+                                return FileVisitResult.CONTINUE;
+                            }
+                        });
+                found.sort(null);
+                result.addAll(found);
+            } else {
+                result.add(path);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Resolves the dependencies of all the given app.yml files into the cache directory.
+     *
+     * @param appFiles The app.yml files of the projects to prefetch
+     * @param extraRepos Additional repositories to use for all projects
+     * @return A {@link PrefetchResult} with the statistics of the operation
+     * @throws InterruptedException If the operation was interrupted
+     */
+    public PrefetchResult prefetch(List<Path> appFiles, Map<String, String> extraRepos)
+            throws InterruptedException {
+        long start = System.nanoTime();
+        PrefetchResult result = new PrefetchResult();
+        ResolutionCache cache = ResolutionCache.forCacheDir(cacheDir);
+        List<Project> projects = new ArrayList<>();
+        for (Path appFile : appFiles) {
+            result.projects++;
+            try {
+                if (!Files.isRegularFile(appFile)) {
+                    throw new IOException("File not found");
+                }
+                AppInfo appInfo = AppInfo.read(appFile);
+                Map<String, String> repos = new HashMap<>(appInfo.repositories());
+                repos.putAll(extraRepos);
+                List<Artifact> roots = Resolver.parseArtifacts(appInfo.getDependencyGAVs());
+                List<RemoteRepository> repositories = Resolver.parseRepositories(repos);
+                List<ArtifactResult> cached = cache.get(roots, JavaScopes.RUNTIME, repositories);
+                if (roots.isEmpty() || cached != null) {
+                    result.cached++;
+                    result.references += cached != null ? cached.size() : 0;
+                } else {
+                    projects.add(new Project(appFile, roots, repositories));
+                }
+            } catch (IOException | RuntimeException e) {
+                result.failures.put(appFile, String.valueOf(e.getMessage()));
+            }
+        }
+
+        ExecutorService executor =
+                Executors.newFixedThreadPool(parallelism, FileUtils.daemonThreads("jpm-prefetch-"));
+        try {
+            collect(projects, executor, result);
+            resolve(projects, executor, result, cache);
+        } finally {
+            executor.shutdownNow();
+        }
+        result.elapsed = System.nanoTime() - start;
+        return result;
+    }
+
+    /** Collects the dependency graphs of all projects concurrently. */
+    private void collect(List<Project> projects, ExecutorService executor, PrefetchResult result)
+            throws InterruptedException {
+        long start = System.nanoTime();
+        Map<Context, RepositorySystemSession> sessions = new IdentityHashMap<>();
+        List<Future<?>> futures = new ArrayList<>();
+        for (Project p : projects) {
+            p.context = session.context(cacheDir, p.repositories, threads, offline);
+            p.rss =
+                    sessions.computeIfAbsent(
+                            p.context, c -> result.metrics.instrument(c.repositorySystemSession()));
+            futures.add(
+                    executor.submit(
+                            () -> {
+                                p.requests =
+                                        Resolver.toArtifactRequests(
+                                                Resolver.collectDependencies(
+                                                                p.context, p.rss, p.roots, null)
+                                                        .getRoot());
+                                return null;
+                            }));
+        }
+        for (int i = 0; i < projects.size(); i++) {
+            try {
+                futures.get(i).get();
+            } catch (ExecutionException e) {
+                Project p = projects.get(i);
+                p.requests = null;
+                synchronized (result) {
+                    result.failures.put(p.appFile, message(e.getCause()));
+                }
+            }
+        }
+        result.metrics.addPhase(Metrics.PHASE_COLLECT, System.nanoTime() - start);
+    }
+
+    /**
+     * Resolves the unique artifacts of all projects, in batches that are spread over the executor,
+     * and then stores the result of each project in the resolution cache.
+     */
+    private void resolve(
+            List<Project> projects,
+            ExecutorService executor,
+            PrefetchResult result,
+            ResolutionCache cache)
+            throws InterruptedException {
+        long start = System.nanoTime();
+        // Artifacts are de-duplicated per context, because each context has its own set of
+        // repositories to resolve them from
+        Map<Context, Map<String, ArtifactRequest>> unique = new IdentityHashMap<>();
+        Map<Context, RepositorySystemSession> sessions = new IdentityHashMap<>();
+        for (Project p : projects) {
+            if (p.requests == null) {
+                continue;
+            }
+            result.references += p.requests.size();
+            sessions.put(p.context, p.rss);
+            Map<String, ArtifactRequest> reqs =
+                    unique.computeIfAbsent(p.context, c -> new LinkedHashMap<>());
+            for (ArtifactRequest req : p.requests) {
+                reqs.putIfAbsent(req.getArtifact().toString(), req);
+            }
+        }
+
+        Map<String, ArtifactResult> resolved = new HashMap<>();
+        Map<String, String> errors = new HashMap<>();
+        List<Future<List<ArtifactResult>>> futures = new ArrayList<>();
+        for (Map.Entry<Context, Map<String, ArtifactRequest>> e : unique.entrySet()) {
+            Context context = e.getKey();
+            RepositorySystemSession rss = sessions.get(context);
+            List<ArtifactRequest> reqs = new ArrayList<>(e.getValue().values());
+            result.artifacts += reqs.size();
+            int batchSize = Math.max(1, (reqs.size() + parallelism - 1) / parallelism);
+            for (int i = 0; i < reqs.size(); i += batchSize) {
+                List<ArtifactRequest> batch = reqs.subList(i, Math.min(i + batchSize, reqs.size()));
+                futures.add(
+                        executor.submit(
+                                () -> {
+                                    try {
+                                        return context.repositorySystem()
+                                                .resolveArtifacts(rss, batch);
+                                    } catch (ArtifactResolutionException ex) {
+                                        return ex.getResults();
+                                    }
+                                }));
+            }
+        }
+        for (Future<List<ArtifactResult>> f : futures) {
+            try {
+                for (ArtifactResult ar : f.get()) {
+                    String key = ar.getRequest().getArtifact().toString();
+                    if (ar.isResolved()) {
+                        resolved.put(key, ar);
+                    } else {
+                        errors.put(
+                                key,
+                                ar.getExceptions().isEmpty()
+                                        ? "not found"
+                                        : message(ar.getExceptions().get(0)));
+                    }
+                }
+            } catch (ExecutionException ex) {
+                throw new IllegalStateException(ex.getCause());
+            }
+        }
+        result.metrics.addPhase(Metrics.PHASE_RESOLVE, System.nanoTime() - start);
+
+        for (Project p : projects) {
+            if (p.requests == null) {
+                continue;
+            }
+            List<ArtifactResult> results = new ArrayList<>(p.requests.size());
+            List<String> missing = new ArrayList<>();
+            for (ArtifactRequest req : p.requests) {
+                String key = req.getArtifact().toString();
+                ArtifactResult ar = resolved.get(key);
+                if (ar != null) {
+                    results.add(ar);
+                } else {
+                    missing.add(key + " (" + errors.getOrDefault(key, "not resolved") + ")");
+                }
+            }
+            if (missing.isEmpty()) {
+                cache.put(p.roots, JavaScopes.RUNTIME, p.repositories, results);
+            } else {
+                result.failures.put(p.appFile, "Could not resolve " + String.join(", ", missing));
+            }
+        }
+    }
+
+    private static String message(Throwable t) {
+        if (t instanceof DependencyResolutionException) {
+            List<String> missing =
+                    new ArrayList<>(Resolver.missingArtifacts((DependencyResolutionException) t));
+            if (!missing.isEmpty()) {
+                return "Could not resolve " + String.join(", ", missing);
+            }
+        }
+        return String.valueOf(t.getMessage());
+    }
+}
@@ -0,0 +1,272 @@
+package org.codejive.jpm.util;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.eclipse.aether.artifact.Artifact;
+import org.eclipse.aether.artifact.DefaultArtifact;
+import org.eclipse.aether.graph.DependencyNode;
+import org.eclipse.aether.repository.ArtifactRepository;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.eclipse.aether.resolution.ArtifactRequest;
+import org.eclipse.aether.resolution.ArtifactResult;
+
+/**
+ * A persistent cache of dependency resolution results that is shared by all projects using the same
+ * cache directory. Entries are keyed by a hash of the root artifacts, the scope and the (ordered)
+ * list of repositories, so any project that declares the same roots will get the same result
+ * without having to walk the dependency graph again. An entry is considered invalid as soon as any
+ * of the files it references has disappeared from the local repository. Results that can change
+ * over time, because a snapshot or a version range was involved anywhere in the graph, are never
+ * cached. The number of entries is capped, the least recently used ones get evicted first.
+ */
+public class ResolutionCache {
+    private final Path directory;
+    private final int maxEntries;
+
+    /** The name of the directory (inside the cache directory) where entries are stored. */
+    public static final String CACHE_DIR = ".jpm/resolutions";
+
+    /** The default maximum number of entries to keep in the cache. */
+    public static final int DEFAULT_MAX_ENTRIES = 500;
+
+    private static final String HEADER = "# jpm resolution cache v1";
+
+    /**
+     * Creates a resolution cache that stores its entries inside the given Maven cache directory. If
+     * the cache directory is null the local repository from the user's Maven settings is used.
+     *
+     * @param cacheDir The cache directory (can be null)
+     * @return A {@link ResolutionCache} instance
+     */
+    public static ResolutionCache forCacheDir(Path cacheDir) {
+        Path base = ResolverSession.localRepository(cacheDir);
+        return new ResolutionCache(base.resolve(CACHE_DIR), DEFAULT_MAX_ENTRIES);
+    }
+
+    public ResolutionCache(Path directory, int maxEntries) {
+        this.directory = directory;
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Looks up the resolution result for the given roots, scope and repositories.
+     *
+     * @param roots The root artifacts
+     * @param scope The resolution scope
+     * @param repositories The ordered list of repositories
+     * @return The cached list of {@link ArtifactResult} or null if there was no valid entry
+     */
+    public List<ArtifactResult> get(
+            List<Artifact> roots, String scope, List<RemoteRepository> repositories) {
+        if (!isCacheable(roots)) {
+            return null;
+        }
+        Path entry = directory.resolve(key(roots, scope, repositories));
+        if (!Files.isRegularFile(entry)) {
+            return null;
+        }
+        try {
+            List<String> lines = Files.readAllLines(entry, StandardCharsets.UTF_8);
+            if (lines.isEmpty() || !HEADER.equals(lines.get(0))) {
+                Files.deleteIfExists(entry);
+                return null;
+            }
+            List<ArtifactResult> results = new ArrayList<>(lines.size() - 1);
+            for (String line : lines.subList(1, lines.size())) {
+                String[] parts = line.split("\t", 3);
+                if (parts.length != 3) {
+                    Files.deleteIfExists(entry);
+                    return null;
+                }
+                Path file = Paths.get(parts[2]);
+                if (!Files.isRegularFile(file)) {
+                    // A referenced file has disappeared, the entry is no longer valid
+                    Files.deleteIfExists(entry);
+                    return null;
+                }
+                results.add(toResult(parts[0], parts[1], file));
+            }
+            // Touch the entry so it counts as recently used
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+            return results;
+        } catch (IOException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Stores the resolution result for the given roots, scope and repositories. Failing to write
+     * the entry is not considered an error, the result simply won't be cached.
+     *
+     * @param roots The root artifacts
+     * @param scope The resolution scope
+     * @param repositories The ordered list of repositories
+     * @param results The resolved artifacts
+     */
+    public void put(
+            List<Artifact> roots,
+            String scope,
+            List<RemoteRepository> repositories,
+            List<ArtifactResult> results) {
+        if (!isCacheable(roots) || !isCacheable(results)) {
+            return;
+        }
+        try {
+            Files.createDirectories(directory);
+            Path entry = directory.resolve(key(roots, scope, repositories));
+            Path tmp = Files.createTempFile(directory, "entry-", ".tmp");
+            try {
+                try (BufferedWriter out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                    out.write(HEADER);
+                    out.newLine();
+                    for (ArtifactResult ar : results) {
+                        Artifact a = ar.getArtifact();
+                        String repoId =
+                                ar.getRepository() != null ? ar.getRepository().getId() : "";
+                        out.write(a.toString() + "\t" + repoId + "\t" + a.getFile());
+                        out.newLine();
+                    }
+                }
+                Files.move(
+                        tmp,
+                        entry,
+                        StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+            evict();
+        } catch (IOException e) {
+            // Ignore, caching is only an optimization
+        }
+    }
+
+    /** Removes the least recently used entries until the maximum number of entries is reached. */
+    private void evict() throws IOException {
+        List<Path> entries;
+        try (Stream<Path> s = Files.list(directory)) {
+            entries =
+                    s.filter(p -> !p.getFileName().toString().endsWith(".tmp"))
+                            .collect(Collectors.toList());
+        }
+        if (entries.size() <= maxEntries) {
+            return;
+        }
+        entries.sort(Comparator.comparing(ResolutionCache::lastModified));
+        for (Path p : entries.subList(0, entries.size() - maxEntries)) {
+            Files.deleteIfExists(p);
+        }
+    }
+
+    private static FileTime lastModified(Path p) {
+        try {
+            return Files.getLastModifiedTime(p);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    /**
+     * Results for snapshots, version ranges and meta versions can change over time, so we never
+     * cache those.
+     */
+    private static boolean isCacheable(List<Artifact> roots) {
+        for (Artifact a : roots) {
+            String v = a.getVersion();
+            if (a.isSnapshot()
+                    || v.startsWith("[")
+                    || v.startsWith("(")
+                    || v.equals("LATEST")
+                    || v.equals("RELEASE")) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The same goes for any of the results: a fixed version can still pull in a snapshot or use a
+     * version range for one of its dependencies, which might resolve differently tomorrow.
+     */
+    private static boolean isCacheable(Collection<ArtifactResult> results) {
+        for (ArtifactResult ar : results) {
+            if (ar.getArtifact() == null || ar.getArtifact().isSnapshot()) {
+                return false;
+            }
+            DependencyNode node = ar.getRequest().getDependencyNode();
+            if (node != null
+                    && node.getVersionConstraint() != null
+                    && node.getVersionConstraint().getRange() != null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static String key(List<Artifact> roots, String scope, List<RemoteRepository> repositories) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("scope:").append(scope).append('\n');
+        sb.append("roots:\n");
+        for (Artifact a : roots) {
+            sb.append(a).append('\n');
+        }
+        sb.append("repositories:\n");
+        for (RemoteRepository r : repositories) {
+            sb.append(r.getId()).append('=').append(r.getUrl()).append('\n');
+        }
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            return FileUtils.toHex(md.digest(sb.toString().getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static ArtifactResult toResult(String gav, String repoId, Path file) {
+        Artifact artifact = new DefaultArtifact(gav).setFile(file.toFile());
+        ArtifactResult result = new ArtifactResult(new ArtifactRequest(artifact, null, null));
+        result.setArtifact(artifact);
+        if (!repoId.isEmpty()) {
+            result.setRepository(new CachedRepository(repoId));
+        }
+        return result;
+    }
+
+    /** Stand-in for the repository an artifact was originally resolved from. */
+    private static class CachedRepository implements ArtifactRepository {
+        private final String id;
+
+        CachedRepository(String id) {
+            this.id = id;
+        }
+
+        @Override
+        public String getContentType() {
+            return "default";
+        }
+
+        @Override
+        public String getId() {
+            return id;
+        }
+
+        @Override
+        public String toString() {
+            return id;
+        }
+    }
+}
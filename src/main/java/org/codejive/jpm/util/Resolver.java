@@ -1,53 +1,142 @@
 package org.codejive.jpm.util;
 
 import eu.maveniverse.maven.mima.context.Context;
-import eu.maveniverse.maven.mima.context.ContextOverrides;
-import eu.maveniverse.maven.mima.context.Runtime;
-import eu.maveniverse.maven.mima.context.Runtimes;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
+import org.eclipse.aether.RepositorySystemSession;
 import org.eclipse.aether.artifact.Artifact;
 import org.eclipse.aether.artifact.DefaultArtifact;
 import org.eclipse.aether.collection.CollectRequest;
+import org.eclipse.aether.collection.CollectResult;
+import org.eclipse.aether.collection.DependencyCollectionException;
 import org.eclipse.aether.graph.Dependency;
+import org.eclipse.aether.graph.DependencyNode;
 import org.eclipse.aether.repository.RemoteRepository;
+import org.eclipse.aether.resolution.ArtifactDescriptorException;
+import org.eclipse.aether.resolution.ArtifactDescriptorResult;
+import org.eclipse.aether.resolution.ArtifactRequest;
+import org.eclipse.aether.resolution.ArtifactResolutionException;
 import org.eclipse.aether.resolution.ArtifactResult;
 import org.eclipse.aether.resolution.DependencyRequest;
 import org.eclipse.aether.resolution.DependencyResolutionException;
 import org.eclipse.aether.resolution.DependencyResult;
 import org.eclipse.aether.util.artifact.JavaScopes;
+import org.eclipse.aether.util.graph.visitor.PreorderNodeListGenerator;
 
 public class Resolver {
     private final List<Artifact> artifacts;
     private final List<RemoteRepository> repositories;
     private final Path cacheDir;
+    private final ResolverSession session;
+    private int threads;
+    private boolean offline;
+    private Metrics metrics;
 
     private List<ArtifactResult> resolvedArtifacts;
 
     public static Resolver create(
             String[] artifactNames, Map<String, String> repositories, Path cacheDir) {
-        return new Resolver(artifactNames, repositories, cacheDir);
+        return create(artifactNames, repositories, cacheDir, ResolverSession.shared());
     }
 
-    private Resolver(String[] artifactNames, Map<String, String> repos, Path cacheDir) {
+    public static Resolver create(
+            String[] artifactNames,
+            Map<String, String> repositories,
+            Path cacheDir,
+            ResolverSession session) {
+        return new Resolver(artifactNames, repositories, cacheDir, session);
+    }
+
+    private Resolver(
+            String[] artifactNames,
+            Map<String, String> repos,
+            Path cacheDir,
+            ResolverSession session) {
         artifacts = parseArtifacts(artifactNames);
         repositories = parseRepositories(repos);
         this.cacheDir = cacheDir;
+        this.session = session;
+    }
+
+    /**
+     * Sets the number of threads to use for collecting dependencies and downloading artifacts. When
+     * set to a value larger than zero, dependencies will be collected breadth-first with parallel
+     * POM prefetching. The default of zero uses the resolver's default settings.
+     *
+     * @param threads the number of threads to use
+     * @return this {@link Resolver} instance for chaining
+     */
+    public Resolver threads(int threads) {
+        this.threads = threads;
+        return this;
+    }
+
+    /**
+     * Sets whether to resolve in offline mode. In offline mode no remote repositories will be
+     * contacted, all artifacts must already be available in the cache directory. If any of them are
+     * missing the resolution fails immediately with an error listing the missing artifacts.
+     *
+     * @param offline whether to resolve in offline mode
+     * @return this {@link Resolver} instance for chaining
+     */
+    public Resolver offline(boolean offline) {
+        this.offline = offline;
+        return this;
+    }
+
+    /**
+     * Sets the metrics object that will record timings, downloads and cache hits of the resolution.
+     *
+     * @param metrics the {@link Metrics} to record to (can be null)
+     * @return this {@link Resolver} instance for chaining
+     */
+    public Resolver metrics(Metrics metrics) {
+        this.metrics = metrics;
+        return this;
     }
 
     public List<ArtifactResult> resolve() throws DependencyResolutionException {
         if (resolvedArtifacts == null) {
-            resolvedArtifacts = resolveArtifacts(artifacts, repositories, cacheDir);
+            ResolutionCache cache = ResolutionCache.forCacheDir(cacheDir);
+            resolvedArtifacts = cache.get(artifacts, JavaScopes.RUNTIME, repositories);
+            if (resolvedArtifacts != null) {
+                if (metrics != null) {
+                    metrics.increment("resolutionCacheHits");
+                }
+            } else {
+                Context context = session.context(cacheDir, repositories, threads, offline);
+                try {
+                    resolvedArtifacts = resolveArtifacts(context, artifacts, metrics);
+                } catch (DependencyResolutionException e) {
+                    if (offline) {
+                        throw offlineException(e, context);
+                    }
+                    throw e;
+                }
+                cache.put(artifacts, JavaScopes.RUNTIME, repositories, resolvedArtifacts);
+            }
         }
         return resolvedArtifacts;
     }
 
     public List<Path> resolvePaths() throws DependencyResolutionException {
-        List<ArtifactResult> ras = resolve();
+        return toPaths(resolve());
+    }
+
+    /**
+     * Returns the paths of the files of the given resolved artifacts.
+     *
+     * @param ras the resolved artifacts as a list of {@link ArtifactResult} instances
+     * @return the paths of the artifacts' files
+     */
+    public static List<Path> toPaths(List<ArtifactResult> ras) {
         return ras.stream()
                 .map(ar -> ar.getArtifact().getFile().toPath())
                 .collect(Collectors.toList());
@@ -63,40 +152,192 @@ public class Resolver {
     public static List<ArtifactResult> resolveArtifacts(
             List<Artifact> artifacts, List<RemoteRepository> repositories, Path cacheDir)
             throws DependencyResolutionException {
+        Context context = ResolverSession.shared().context(cacheDir, repositories);
+        return resolveArtifacts(context, artifacts);
+    }
+
+    /**
+     * Resolves the given artifacts using the given (reusable) context.
+     *
+     * @param context the MIMA context to use for the resolution
+     * @param artifacts the artifacts to resolve as a list of {@link Artifact} instances
+     * @return the resolved artifacts as a list of {@link ArtifactResult} instances
+     * @throws DependencyResolutionException if an error occurs while resolving the artifacts
+     */
+    public static List<ArtifactResult> resolveArtifacts(Context context, List<Artifact> artifacts)
+            throws DependencyResolutionException {
+        return resolveArtifacts(context, artifacts, null);
+    }
+
+    /**
+     * Resolves the given artifacts using the given (reusable) context, recording the time spent
+     * collecting the dependency graph and resolving the artifacts separately.
+     *
+     * @param context the MIMA context to use for the resolution
+     * @param artifacts the artifacts to resolve as a list of {@link Artifact} instances
+     * @param metrics the {@link Metrics} to record to (can be null)
+     * @return the resolved artifacts as a list of {@link ArtifactResult} instances
+     * @throws DependencyResolutionException if an error occurs while resolving the artifacts
+     */
+    public static List<ArtifactResult> resolveArtifacts(
+            Context context, List<Artifact> artifacts, Metrics metrics)
+            throws DependencyResolutionException {
+        RepositorySystemSession rss = context.repositorySystemSession();
+        if (metrics != null) {
+            rss = metrics.instrument(rss);
+        }
+        CollectResult collectResult = collectDependencies(context, rss, artifacts, metrics);
+
+        long start = System.nanoTime();
+        try {
+            DependencyRequest dependencyRequest =
+                    new DependencyRequest(collectResult.getRoot(), null)
+                            .setCollectRequest(collectRequest(context, artifacts));
+            DependencyResult dependencyResult =
+                    context.repositorySystem().resolveDependencies(rss, dependencyRequest);
+            return dependencyResult.getArtifactResults();
+        } finally {
+            if (metrics != null) {
+                metrics.addPhase(Metrics.PHASE_RESOLVE, System.nanoTime() - start);
+            }
+        }
+    }
+
+    /**
+     * Collects the dependency graph for the given artifacts without resolving any of the artifacts
+     * themselves (only their POMs get downloaded).
+     *
+     * @param context the MIMA context to use for the collection
+     * @param rss the session to use, which can be an instrumented copy of the context's session
+     * @param artifacts the root artifacts
+     * @param metrics the {@link Metrics} to record to (can be null)
+     * @return the result of the collection
+     * @throws DependencyResolutionException if the dependency graph could not be collected
+     */
+    static CollectResult collectDependencies(
+            Context context, RepositorySystemSession rss, List<Artifact> artifacts, Metrics metrics)
+            throws DependencyResolutionException {
+        CollectRequest collectRequest = collectRequest(context, artifacts);
+        long start = System.nanoTime();
+        try {
+            return context.repositorySystem().collectDependencies(rss, collectRequest);
+        } catch (DependencyCollectionException e) {
+            // Report collection failures the same way resolveDependencies() would
+            DependencyResult result =
+                    new DependencyResult(new DependencyRequest().setCollectRequest(collectRequest));
+            result.setRoot(e.getResult().getRoot());
+            result.setCollectExceptions(e.getResult().getExceptions());
+            throw new DependencyResolutionException(result, e);
+        } finally {
+            if (metrics != null) {
+                metrics.addPhase(Metrics.PHASE_COLLECT, System.nanoTime() - start);
+            }
+        }
+    }
+
+    private static CollectRequest collectRequest(Context context, List<Artifact> artifacts) {
         List<Dependency> dependencies =
                 artifacts.stream()
                         .map(a -> new Dependency(a, JavaScopes.RUNTIME))
                         .collect(Collectors.toList());
-        ContextOverrides.Builder ctxb =
-                ContextOverrides.create()
-                        .withUserSettings(true)
-                        .withLocalRepositoryOverride(cacheDir);
-        if (repositories != null && !repositories.isEmpty()) {
-            ctxb.repositories(repositories);
+        return new CollectRequest()
+                .setDependencies(dependencies)
+                .setRepositories(context.remoteRepositories());
+    }
+
+    /**
+     * Returns the requests needed to resolve all the artifacts in the given (collected) dependency
+     * graph, in the same order as a regular resolution would return them.
+     *
+     * @param root the root of the dependency graph
+     * @return a list of {@link ArtifactRequest} instances
+     */
+    static List<ArtifactRequest> toArtifactRequests(DependencyNode root) {
+        PreorderNodeListGenerator nlg = new PreorderNodeListGenerator();
+        root.accept(nlg);
+        List<ArtifactRequest> requests = new ArrayList<>();
+        for (DependencyNode node : nlg.getNodes()) {
+            if (node.getDependency() != null) {
+                requests.add(new ArtifactRequest(node));
+            }
         }
-        ContextOverrides overrides = ctxb.build();
-        Runtime runtime = Runtimes.INSTANCE.getRuntime();
-        try (Context context = runtime.create(overrides)) {
-            CollectRequest collectRequest =
-                    new CollectRequest()
-                            .setDependencies(dependencies)
-                            .setRepositories(context.remoteRepositories());
-            DependencyRequest dependencyRequest =
-                    new DependencyRequest().setCollectRequest(collectRequest);
+        return requests;
+    }
 
-            DependencyResult dependencyResult =
-                    context.repositorySystem()
-                            .resolveDependencies(
-                                    context.repositorySystemSession(), dependencyRequest);
-            return dependencyResult.getArtifactResults();
+    /**
+     * Wraps the given exception in one that lists exactly which artifacts were missing from the
+     * local cache, instead of the long chain of nested resolver errors.
+     */
+    private static DependencyResolutionException offlineException(
+            DependencyResolutionException e, Context context) {
+        Set<String> missing = missingArtifacts(e);
+        if (missing.isEmpty()) {
+            return e;
+        }
+        StringBuilder msg = new StringBuilder();
+        msg.append("Offline mode: the following artifacts are missing from the cache (")
+                .append(context.repositorySystemSession().getLocalRepository().getBasedir())
+                .append("):");
+        for (String gav : missing) {
+            msg.append("\n  ").append(gav);
+        }
+        return new DependencyResolutionException(e.getResult(), msg.toString(), e);
+    }
+
+    /**
+     * Returns the coordinates of all artifacts (or POMs) that could not be resolved according to
+     * the given exception.
+     *
+     * @param e the exception thrown by the resolver
+     * @return an ordered set of artifact coordinates
+     */
+    static Set<String> missingArtifacts(DependencyResolutionException e) {
+        Set<String> missing = new LinkedHashSet<>();
+        DependencyResult result = e.getResult();
+        if (result != null) {
+            for (Exception ce : result.getCollectExceptions()) {
+                addMissing(missing, ce);
+            }
+            for (ArtifactResult ar : result.getArtifactResults()) {
+                if (!ar.isResolved()) {
+                    missing.add(ar.getRequest().getArtifact().toString());
+                }
+            }
+        }
+        if (missing.isEmpty()) {
+            addMissing(missing, e.getCause());
+        }
+        return missing;
+    }
+
+    private static void addMissing(Set<String> missing, Throwable t) {
+        for (; t != null; t = t.getCause()) {
+            if (t instanceof ArtifactDescriptorException) {
+                ArtifactDescriptorResult adr = ((ArtifactDescriptorException) t).getResult();
+                missing.add(adr.getRequest().getArtifact().toString());
+                return;
+            } else if (t instanceof DependencyCollectionException) {
+                for (Exception ce :
+                        ((DependencyCollectionException) t).getResult().getExceptions()) {
+                    addMissing(missing, ce);
+                }
+                return;
+            } else if (t instanceof ArtifactResolutionException) {
+                for (ArtifactResult ar : ((ArtifactResolutionException) t).getResults()) {
+                    if (!ar.isResolved()) {
+                        missing.add(ar.getRequest().getArtifact().toString());
+                    }
+                }
+                return;
+            }
         }
     }
 
-    private static List<Artifact> parseArtifacts(String[] artifactNames) {
+    static List<Artifact> parseArtifacts(String[] artifactNames) {
         return Arrays.stream(artifactNames).map(DefaultArtifact::new).collect(Collectors.toList());
     }
 
-    private static List<RemoteRepository> parseRepositories(Map<String, String> repositories) {
+    static List<RemoteRepository> parseRepositories(Map<String, String> repositories) {
         if (repositories == null) {
             return Collections.emptyList();
         }
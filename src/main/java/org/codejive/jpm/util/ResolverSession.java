@@ -0,0 +1,185 @@
+package org.codejive.jpm.util;
+
+import eu.maveniverse.maven.mima.context.Context;
+import eu.maveniverse.maven.mima.context.ContextOverrides;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import org.eclipse.aether.repository.RemoteRepository;
+
+/**
+ * Keeps MIMA {@link Context} instances alive so they can be reused for multiple resolutions within
+ * the same process. Creating a context means setting up a repository system, parsing the Maven
+ * settings and setting up the transport stack, which is costly enough that we only want to do it
+ * once. Contexts are keyed by cache directory and repository set, they are created lazily on first
+ * use and closed when the session gets closed.
+ */
+public class ResolverSession implements AutoCloseable {
+    private final Map<Key, Context> contexts = new LinkedHashMap<>();
+    private boolean closed;
+
+    private static ResolverSession shared;
+    private static Path defaultLocalRepository;
+
+    /**
+     * Returns the process-wide shared session. It gets created on first use and will be closed
+     * automatically when the process exits.
+     *
+     * @return The shared {@link ResolverSession}
+     */
+    public static synchronized ResolverSession shared() {
+        if (shared == null) {
+            ResolverSession session = new ResolverSession();
+            Runtime.getRuntime()
+                    .addShutdownHook(new Thread(session::close, "jpm-resolver-session-close"));
+            shared = session;
+        }
+        return shared;
+    }
+
+    /**
+     * Returns the local repository that resolutions using the given cache directory download
+     * artifacts to. That's the cache directory itself when one is given, otherwise it's what the
+     * user's Maven settings say, which is determined only once per process.
+     *
+     * @param cacheDir The cache directory (can be null to use Maven's default)
+     * @return The path of the local repository
+     */
+    public static Path localRepository(Path cacheDir) {
+        if (cacheDir != null) {
+            return cacheDir;
+        }
+        synchronized (ResolverSession.class) {
+            if (defaultLocalRepository == null) {
+                defaultLocalRepository =
+                        JpmRuntime.instance().localRepository(overrides(null, false).build());
+            }
+            return defaultLocalRepository;
+        }
+    }
+
+    /**
+     * Returns the context for the given cache directory and repositories, creating it if necessary.
+     *
+     * @param cacheDir The cache directory to use (can be null to use Maven's default)
+     * @param repositories The additional repositories to use
+     * @return A {@link Context} instance
+     */
+    public Context context(Path cacheDir, List<RemoteRepository> repositories) {
+        return context(cacheDir, repositories, 0, false);
+    }
+
+    /**
+     * Returns the context for the given cache directory, repositories, number of threads and
+     * offline mode, creating it if necessary. When the number of threads is larger than zero the
+     * context will use the breadth-first dependency collector, which prefetches POMs in parallel,
+     * and will download artifacts using the same number of threads. Otherwise the resolver's
+     * defaults are used.
+     *
+     * @param cacheDir The cache directory to use (can be null to use Maven's default)
+     * @param repositories The additional repositories to use
+     * @param threads The number of threads to use for collection and downloads (0 for default)
+     * @param offline Whether the context should work in offline mode, resolving artifacts from the
+     *     cache directory only
+     * @return A {@link Context} instance
+     */
+    public synchronized Context context(
+            Path cacheDir, List<RemoteRepository> repositories, int threads, boolean offline) {
+        if (closed) {
+            throw new IllegalStateException("Resolver session has already been closed");
+        }
+        Key key = new Key(cacheDir, repositories, threads, offline);
+        Context context = contexts.get(key);
+        if (context == null) {
+            context = createContext(cacheDir, repositories, threads, offline);
+            contexts.put(key, context);
+        }
+        return context;
+    }
+
+    private static Context createContext(
+            Path cacheDir, List<RemoteRepository> repositories, int threads, boolean offline) {
+        ContextOverrides.Builder ctxb = overrides(cacheDir, offline);
+        if (repositories != null && !repositories.isEmpty()) {
+            ctxb.repositories(repositories);
+        }
+        if (threads > 0) {
+            ctxb.configProperties(threadsConfig(threads));
+        }
+        return JpmRuntime.instance().create(ctxb.build());
+    }
+
+    private static ContextOverrides.Builder overrides(Path cacheDir, boolean offline) {
+        return ContextOverrides.create()
+                .withUserSettings(true)
+                .withLocalRepositoryOverride(cacheDir)
+                .offline(offline);
+    }
+
+    static Map<String, Object> threadsConfig(int threads) {
+        String t = String.valueOf(threads);
+        Map<String, Object> config = new LinkedHashMap<>();
+        // Collect breadth-first, resolving the POMs of each level in parallel
+        config.put("aether.dependencyCollector.impl", "bf");
+        config.put("aether.dependencyCollector.bf.threads", t);
+        // Download artifacts and metadata in parallel
+        config.put("aether.connector.basic.threads", t);
+        config.put("aether.metadataResolver.threads", t);
+        return config;
+    }
+
+    /** Closes all the contexts that were created by this session. */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (Context context : contexts.values()) {
+            try {
+                context.close();
+            } catch (RuntimeException e) {
+                // Ignore, we're shutting down anyway
+            }
+        }
+        contexts.clear();
+    }
+
+    private static class Key {
+        private final Path cacheDir;
+        private final List<String> repositories;
+        private final int threads;
+        private final boolean offline;
+
+        Key(Path cacheDir, List<RemoteRepository> repositories, int threads, boolean offline) {
+            this.cacheDir = cacheDir != null ? cacheDir.toAbsolutePath().normalize() : null;
+            this.repositories = new ArrayList<>();
+            if (repositories != null) {
+                for (RemoteRepository r : repositories) {
+                    this.repositories.add(r.getId() + "=" + r.getUrl());
+                }
+            }
+            this.threads = threads;
+            this.offline = offline;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return Objects.equals(cacheDir, key.cacheDir)
+                    && repositories.equals(key.repositories)
+                    && threads == key.threads
+                    && offline == key.offline;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(cacheDir, repositories, threads, offline);
+        }
+    }
+}
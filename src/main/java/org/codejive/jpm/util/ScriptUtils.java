@@ -12,8 +12,6 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.Locale;
 import java.util.function.Function;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 /** Utility class for executing scripts with path conversion and variable substitution. */
@@ -31,18 +29,58 @@ public class ScriptUtils {
      */
     public static int executeScript(String command, List<Path> classpath, boolean verbose)
             throws IOException, InterruptedException {
-        // We do a first pass of processing just to know the size of the command
-        String tmpCommand = processCommand(command, classpath, null);
-        boolean useArgsFiles =
-                (isWindows() && tmpCommand.length() > 8000)
-                        || (!isWindows() && tmpCommand.length() > 32000);
+        return executeScript(command, classpath, null, verbose);
+    }
 
-        command = suggestSubstitutions(command);
+    /**
+     * Executes a script command with variable substitution and path conversion.
+     *
+     * @param command The command to execute
+     * @param classpath The classpath to use for {{deps}} substitution
+     * @param depsJar The classpath jar to use for {{depsjar}} substitution
+     * @param verbose If true, prints the command before execution
+     * @return The exit code of the executed command
+     * @throws IOException if an error occurred during execution
+     * @throws InterruptedException if the execution was interrupted
+     */
+    public static int executeScript(
+            String command, List<Path> classpath, Path depsJar, boolean verbose)
+            throws IOException, InterruptedException {
+        return executeScript(command, classpath, depsJar, null, verbose);
+    }
+
+    /**
+     * Executes a script command with variable substitution and path conversion.
+     *
+     * @param command The command to execute
+     * @param classpath The classpath to use for {{deps}} substitution
+     * @param depsJar The classpath jar to use for {{depsjar}} substitution
+     * @param cds The CDS archive to use for {{cds}} substitution
+     * @param verbose If true, prints the command before execution
+     * @return The exit code of the executed command
+     * @throws IOException if an error occurred during execution
+     * @throws InterruptedException if the execution was interrupted
+     */
+    public static int executeScript(
+            String command, List<Path> classpath, Path depsJar, CdsArchive cds, boolean verbose)
+            throws IOException, InterruptedException {
+        String cdsOption = cds != null ? cds.option() : null;
+        CommandTemplate compiled = CommandTemplate.compile(command);
+        if (!compiled.isUsingSubstitutions()) {
+            String suggested = suggestCommandsSubstitutions(command);
+            if (!suggested.equals(command)) {
+                compiled = CommandTemplate.compile(suggested);
+            }
+        }
+        CommandTemplate.Bound template = compiled.bind(classpath, depsJar, cdsOption);
+        // The size of the command is known without rendering it
+        boolean useArgsFiles =
+                (isWindows() && template.length() > 8000)
+                        || (!isWindows() && template.length() > 32000);
 
         try (ArgsFiles argsFiles = new ArgsFiles()) {
             // Process the command for variable substitution and path conversion
-            String processedCommand =
-                    processCommand(command, classpath, useArgsFiles ? argsFiles::create : null);
+            String processedCommand = template.render(useArgsFiles ? argsFiles::create : null);
             if (verbose) {
                 System.out.println("> " + processedCommand);
             }
@@ -58,7 +96,11 @@ public class ScriptUtils {
             Process p = pb.start();
             BufferedReader br = new BufferedReader(new InputStreamReader(p.getInputStream()));
             br.lines().forEach(System.out::println);
-            return p.waitFor();
+            int exitCode = p.waitFor();
+            if (cds != null) {
+                cds.commit();
+            }
+            return exitCode;
         }
     }
 
@@ -68,21 +110,24 @@ public class ScriptUtils {
 
     static String suggestSubstitutions(String command) {
         if (!usingSubstitutions(command)) {
-            // First try to parse the command
-            CommandsParser parser = new CommandsParser(command);
-            CommandsParser.Commands commands = parser.parse();
-            if (commands != null) {
-                command = suggestCommandsSubstitutions(commands);
-            }
+            command = suggestCommandsSubstitutions(command);
+        }
+        return command;
+    }
+
+    private static String suggestCommandsSubstitutions(String command) {
+        // First try to parse the command
+        CommandsParser parser = new CommandsParser(command);
+        CommandsParser.Commands commands = parser.parse();
+        if (commands != null) {
+            command = suggestCommandsSubstitutions(commands);
         }
         return command;
     }
 
     // Is the command using any substitutions? (we ignore {{deps}} here)
     private static boolean usingSubstitutions(String command) {
-        command = command.replace("{]}", "\u0007");
-        Pattern pattern = Pattern.compile("\\{([/:;~]|\\./.*|~/.*)}|@\\[.*]");
-        return pattern.matcher(command).find();
+        return CommandTemplate.compile(command).isUsingSubstitutions();
     }
 
     private static String suggestCommandsSubstitutions(CommandsParser.Commands commands) {
@@ -234,117 +279,79 @@ public class ScriptUtils {
      */
     static String processCommand(
             String command, List<Path> classpath, Function<String, Path> argsFileCreator) {
-        String result = command;
-
-        // Substitute {{deps}} with the classpath
-        result = substituteDeps(result, classpath);
-
-        // Find all occurrences of {./...} and {~/...} and replace them with os paths
-        // This also handles classpath constructs with multiple paths separated by :
-        result = substitutePaths(result);
-
-        // Special replacements for dealing with paths and classpath separators
-        // in a cross-platform way
-        result = result.replace("{/}", File.separator);
-        result = result.replace("{:}", File.pathSeparator);
-        result =
-                result.replace(
-                        "{~}",
-                        isWindows() ? Paths.get(System.getProperty("user.home")).toString() : "~");
-
-        // Special replacement {;} for dealing with multi-command actions in a
-        // cross-platform way
-        result = result.replace("{;}", isWindows() ? "&" : ";");
-
-        // Now we go look for any @[ ... ] and write the contents to an args file
-        // replacing the construct with an @ followed by the args file path
-        result = substituteArgsFiles(result, argsFileCreator);
-
-        return result;
+        return processCommand(command, classpath, null, argsFileCreator);
     }
 
-    private static String substituteDeps(String command, List<Path> classpath) {
-        if (command.contains("{{deps}}")) {
-            String classpathStr = "";
-            if (classpath != null && !classpath.isEmpty()) {
-                classpathStr =
-                        classpath.stream()
-                                .map(Path::toString)
-                                .collect(Collectors.joining(File.pathSeparator));
-            }
-            command = command.replace("{{deps}}", classpathStr);
-        }
-        return command;
+    /**
+     * Processes a command by performing variable substitution and path conversion.
+     *
+     * @param command The raw command
+     * @param classpath The classpath to use for {{deps}} substitution
+     * @param depsJar The classpath jar to use for {{depsjar}} substitution
+     * @param argsFileCreator A function that creates an args file given its content, or null to not
+     *     use args files
+     * @return The processed command
+     */
+    static String processCommand(
+            String command,
+            List<Path> classpath,
+            Path depsJar,
+            Function<String, Path> argsFileCreator) {
+        return processCommand(command, classpath, depsJar, null, argsFileCreator);
     }
 
-    private static String substitutePaths(String command) {
-        Pattern pattern = Pattern.compile("\\{([.~]/[^}]*)}");
-        Matcher matcher = pattern.matcher(command);
-        StringBuilder sb = new StringBuilder();
-        while (matcher.find()) {
-            String path = matcher.group(1);
-            String replacedPath;
-            if (isWindows()) {
-                String[] cp = path.split(":");
-                replacedPath =
-                        Arrays.stream(cp)
-                                .map(
-                                        p -> {
-                                            if (p.startsWith("~/")) {
-                                                return Paths.get(
-                                                                System.getProperty("user.home"),
-                                                                p.substring(2))
-                                                        .toString();
-                                            } else {
-                                                return Paths.get(p).toString();
-                                            }
-                                        })
-                                .collect(Collectors.joining(File.pathSeparator));
-            } else {
-                // If we're not on Windows, we assume the path is already correct
-                replacedPath = path;
-            }
-            matcher.appendReplacement(sb, Matcher.quoteReplacement(replacedPath));
-        }
-        matcher.appendTail(sb);
-        return sb.toString();
+    /**
+     * Processes a command by performing variable substitution and path conversion.
+     *
+     * @param command The raw command
+     * @param classpath The classpath to use for {{deps}} substitution
+     * @param depsJar The classpath jar to use for {{depsjar}} substitution
+     * @param cdsOption The JVM option to use for {{cds}} substitution
+     * @param argsFileCreator A function that creates an args file given its content, or null to not
+     *     use args files
+     * @return The processed command
+     */
+    static String processCommand(
+            String command,
+            List<Path> classpath,
+            Path depsJar,
+            String cdsOption,
+            Function<String, Path> argsFileCreator) {
+        return CommandTemplate.compile(command)
+                .render(classpath, depsJar, cdsOption, argsFileCreator);
     }
 
-    private static String substituteArgsFiles(
-            String command, Function<String, Path> argsFileCreator) {
-        // First we replace any {]} with a placeholder to avoid messing up the regex
-        String tmpCommand = command.replace("{]}", "\u0007");
-        // Now we go look for any @[ ... ] and write the contents to an args file
-        // replacing the construct with an @ followed by the args file path
-        Pattern pattern = Pattern.compile("@\\[([^]]*)]");
-        Matcher matcher = pattern.matcher(tmpCommand);
-        StringBuilder sb = new StringBuilder();
-        while (matcher.find()) {
-            // Extract the contents inside @[ ... ]
-            String argsContent = matcher.group(1).trim();
-            if (argsFileCreator != null) {
-                // Write contents to a file and replace @[ ... ] with @<args-file-path>
-                String path = argsFileCreator.apply(argsContent).toString();
-                matcher.appendReplacement(sb, Matcher.quoteReplacement("@" + path));
-            } else {
-                // Just remove the @[ ... ] and keep the contents as-is
-                matcher.appendReplacement(sb, Matcher.quoteReplacement(argsContent));
-            }
+    /**
+     * Converts a path, or a class path of paths separated by colons, written in the Unix way with
+     * paths that start with "./" or "~/", to the format of the OS.
+     */
+    static String osPaths(String path) {
+        if (!isWindows()) {
+            // If we're not on Windows, we assume the path is already correct
+            return path;
         }
-        matcher.appendTail(sb);
-        String result = sb.toString();
-        // Now we put back any ] we might have had
-        result = result.replace("\u0007", "{]}");
-        return result;
+        return Arrays.stream(path.split(":"))
+                .map(
+                        p -> {
+                            if (p.startsWith("~/")) {
+                                return Paths.get(System.getProperty("user.home"), p.substring(2))
+                                        .toString();
+                            } else {
+                                return Paths.get(p).toString();
+                            }
+                        })
+                .collect(Collectors.joining(File.pathSeparator));
     }
 
+    private static final boolean WINDOWS =
+            System.getProperty("os.name")
+                    .toLowerCase(Locale.ENGLISH)
+                    .replaceAll("[^a-z0-9]+", "")
+                    .startsWith("win");
+
     /** Checks if the current operating system is Windows. */
     public static boolean isWindows() {
-        String os =
-                System.getProperty("os.name")
-                        .toLowerCase(Locale.ENGLISH)
-                        .replaceAll("[^a-z0-9]+", "");
-        return os.startsWith("win");
+        return WINDOWS;
     }
 
     static class ArgsFiles implements AutoCloseable {
@@ -0,0 +1,219 @@
+package org.codejive.jpm.util;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+/**
+ * A small file kept in a deps directory that records, for each file that was synced into it, where
+ * it came from, how it was made available and what both the source and the target looked like
+ * afterwards. When nothing has changed since the last sync a single attribute read of the source
+ * and of the target is enough to know that a file is up to date, instead of the separate existence,
+ * link, size and timestamp checks that would otherwise be needed.
+ */
+class SyncManifest {
+    private final Map<String, Entry> entries;
+    private boolean changed;
+
+    /** The name of the manifest file inside the deps directory. */
+    static final String FILE_NAME = FileUtils.JPM_FILE_PREFIX + "sync";
+
+    private static final String HEADER = "# jpm sync manifest v1";
+
+    private SyncManifest(Map<String, Entry> entries) {
+        this.entries = entries;
+    }
+
+    /** What was recorded about a single synced file. */
+    static class Entry {
+        final String source;
+        final LinkMode linkMode;
+        final long sourceSize;
+        final long sourceModified;
+        final long targetSize;
+        final long targetModified;
+
+        Entry(
+                String source,
+                LinkMode linkMode,
+                long sourceSize,
+                long sourceModified,
+                long targetSize,
+                long targetModified) {
+            this.source = source;
+            this.linkMode = linkMode;
+            this.sourceSize = sourceSize;
+            this.sourceModified = sourceModified;
+            this.targetSize = targetSize;
+            this.targetModified = targetModified;
+        }
+
+        /**
+         * Reads the current state of the given source and target. The target itself is looked at,
+         * not what it links to.
+         *
+         * @return An {@link Entry} or null if the target doesn't exist
+         * @throws IOException if the attributes could not be read
+         */
+        static Entry read(Path source, Path target, LinkMode linkMode) throws IOException {
+            BasicFileAttributes sa = Files.readAttributes(source, BasicFileAttributes.class);
+            BasicFileAttributes ta;
+            try {
+                ta =
+                        Files.readAttributes(
+                                target, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            } catch (NoSuchFileException e) {
+                return null;
+            }
+            return new Entry(
+                    source.toString(),
+                    linkMode,
+                    sa.size(),
+                    sa.lastModifiedTime().toMillis(),
+                    ta.size(),
+                    ta.lastModifiedTime().toMillis());
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Entry)) {
+                return false;
+            }
+            Entry e = (Entry) o;
+            return sourceSize == e.sourceSize
+                    && sourceModified == e.sourceModified
+                    && targetSize == e.targetSize
+                    && targetModified == e.targetModified
+                    && linkMode == e.linkMode
+                    && source.equals(e.source);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(
+                    source, linkMode, sourceSize, sourceModified, targetSize, targetModified);
+        }
+    }
+
+    /**
+     * Reads the manifest from the given directory. A missing or unreadable manifest results in an
+     * empty one, which simply means every file gets checked the slow way.
+     *
+     * @param directory The deps directory
+     * @return A {@link SyncManifest}
+     */
+    static SyncManifest read(Path directory) {
+        Map<String, Entry> entries = new TreeMap<>();
+        Path file = directory.resolve(FILE_NAME);
+        try {
+            List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+            if (lines.isEmpty() || !HEADER.equals(lines.get(0))) {
+                return new SyncManifest(new TreeMap<>());
+            }
+            for (String line : lines.subList(1, lines.size())) {
+                String[] parts = line.split("\t", 7);
+                if (parts.length != 7) {
+                    return new SyncManifest(new TreeMap<>());
+                }
+                entries.put(
+                        parts[0],
+                        new Entry(
+                                parts[6],
+                                LinkMode.parse(parts[1]),
+                                Long.parseLong(parts[2]),
+                                Long.parseLong(parts[3]),
+                                Long.parseLong(parts[4]),
+                                Long.parseLong(parts[5])));
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            return new SyncManifest(new TreeMap<>());
+        }
+        return new SyncManifest(entries);
+    }
+
+    Entry get(String name) {
+        return entries.get(name);
+    }
+
+    void put(String name, Entry entry) {
+        if (entry == null) {
+            remove(name);
+        } else if (!entry.equals(entries.put(name, entry))) {
+            changed = true;
+        }
+    }
+
+    void remove(String name) {
+        if (entries.remove(name) != null) {
+            changed = true;
+        }
+    }
+
+    /** Removes all entries except the ones with the given names. */
+    void retain(Collection<String> names) {
+        if (entries.keySet().retainAll(names)) {
+            changed = true;
+        }
+    }
+
+    /**
+     * Writes the manifest to the given directory if anything changed since it was read. Failing to
+     * write it is not considered an error, the next sync will just be a bit slower.
+     *
+     * @param directory The deps directory
+     */
+    void write(Path directory) {
+        if (!changed) {
+            return;
+        }
+        Path file = directory.resolve(FILE_NAME);
+        Path tmp = FileUtils.tempSibling(file);
+        try {
+            try (BufferedWriter out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                out.write(HEADER);
+                out.newLine();
+                for (Map.Entry<String, Entry> me : entries.entrySet()) {
+                    Entry e = me.getValue();
+                    out.write(
+                            me.getKey()
+                                    + "\t"
+                                    + e.linkMode
+                                    + "\t"
+                                    + e.sourceSize
+                                    + "\t"
+                                    + e.sourceModified
+                                    + "\t"
+                                    + e.targetSize
+                                    + "\t"
+                                    + e.targetModified
+                                    + "\t"
+                                    + e.source);
+                    out.newLine();
+                }
+            }
+            FileUtils.moveAtomically(tmp, file);
+            changed = false;
+        } catch (IOException e) {
+            // Ignore, the manifest is only an optimization
+        } finally {
+            try {
+                Files.deleteIfExists(tmp);
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+    }
+}
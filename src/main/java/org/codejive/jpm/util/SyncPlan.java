@@ -0,0 +1,546 @@
+package org.codejive.jpm.util;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+
+/**
+ * The plan for synchronizing a list of artifacts with a target directory: one {@link Step} for each
+ * distinct file name (if the same name occurs more than once the last artifact wins) and one for
+ * each file in the target directory that is no longer needed. Creating a plan only looks at the
+ * file system, it doesn't change anything, so it can be used to preview what a sync would do and
+ * how many bytes it would need to copy. The plan can then be executed serially or concurrently
+ * using any {@link Executor}.
+ *
+ * <p>Files that are already present in the target directory are only replaced when they are out of
+ * date or were created using a different link mode. When the link mode asks for hard links but the
+ * artifact and the target directory are on different file systems, a copy is what's expected
+ * instead.
+ */
+public class SyncPlan {
+    private final Path directory;
+    private final LinkMode linkMode;
+    private final boolean noDelete;
+    private final ArtifactStore store;
+    private final SyncManifest manifest;
+    private final Map<String, Step> steps;
+    private final List<Path> files;
+    private final long planNanos;
+
+    /** What a step will do to its target. */
+    public enum Action {
+        /** The target doesn't exist yet and will be a copy of the source. */
+        COPY,
+        /** The target doesn't exist yet and will be a link to the source. */
+        LINK,
+        /** The target exists but is out of date and will be replaced. */
+        UPDATE,
+        /** The target is no longer needed and will be deleted. */
+        DELETE,
+        /** The target is up to date, nothing needs to be done. */
+        UNCHANGED
+    }
+
+    /** A single planned operation on a file in the target directory. */
+    public static class Step {
+        /** The artifact to sync, null when the target will be deleted. */
+        public final Path source;
+
+        /** The file in the target directory. */
+        public final Path target;
+
+        /** What will be done to the target. */
+        public final Action action;
+
+        /**
+         * The size of the file involved in bytes: the source when syncing, the target when
+         * deleting.
+         */
+        public final long size;
+
+        /** Whether the data of the source gets copied, as opposed to creating a link. */
+        public final boolean copiesData;
+
+        private IOException error;
+        private boolean known;
+        private boolean done;
+        private long nanos;
+
+        Step(Path source, Path target, Action action, long size, boolean copiesData) {
+            this.source = source;
+            this.target = target;
+            this.action = action;
+            this.size = size;
+            this.copiesData = copiesData;
+        }
+
+        private Step failed(IOException e, long nanos) {
+            this.error = e;
+            this.nanos = nanos;
+            return this;
+        }
+
+        private Step took(long nanos) {
+            this.nanos = nanos;
+            return this;
+        }
+    }
+
+    private SyncPlan(
+            Path directory,
+            LinkMode linkMode,
+            boolean noDelete,
+            ArtifactStore store,
+            SyncManifest manifest,
+            Map<String, Step> steps,
+            List<Path> files,
+            long planNanos) {
+        this.directory = directory;
+        this.linkMode = linkMode;
+        this.noDelete = noDelete;
+        this.store = store;
+        this.manifest = manifest;
+        this.steps = steps;
+        this.files = files;
+        this.planNanos = planNanos;
+    }
+
+    /**
+     * Plans the synchronization of a list of artifacts with a target directory. Nothing is changed
+     * on disk. Problems with individual files don't make planning fail, they get reported when the
+     * plan is executed.
+     *
+     * @param artifacts list of artifacts to synchronize
+     * @param directory target directory
+     * @param linkMode how to make the artifacts available in the target directory
+     * @param noDelete if true, do not delete artifacts that are no longer needed
+     * @param store the artifact store to use for {@link LinkMode#STORE}, null for the one in the
+     *     default cache directory
+     * @return A {@link SyncPlan}
+     * @throws IOException if the target directory could not be read
+     */
+    public static SyncPlan create(
+            List<Path> artifacts,
+            Path directory,
+            LinkMode linkMode,
+            boolean noDelete,
+            ArtifactStore store)
+            throws IOException {
+        long planStart = System.nanoTime();
+        if (linkMode == LinkMode.STORE && store == null) {
+            store = ArtifactStore.forCacheDir(null);
+        }
+        List<Path> files = new ArrayList<>(artifacts.size());
+        Map<String, Path> sources = new LinkedHashMap<>();
+        for (Path artifact : artifacts) {
+            String artifactName = artifact.getFileName().toString();
+            files.add(directory.resolve(artifactName));
+            sources.remove(artifactName);
+            sources.put(artifactName, artifact);
+        }
+        boolean exists = Files.isDirectory(directory);
+        Set<String> artifactsToDelete = new TreeSet<>();
+        if (!noDelete && exists) {
+            // Only the names are needed, anything unexpected gets a closer look
+            try (DirectoryStream<Path> dirFiles = Files.newDirectoryStream(directory)) {
+                for (Path file : dirFiles) {
+                    String name = file.getFileName().toString();
+                    if (!sources.containsKey(name)
+                            && !name.startsWith(FileUtils.JPM_FILE_PREFIX)
+                            && Files.isRegularFile(file)) {
+                        artifactsToDelete.add(name);
+                    }
+                }
+            }
+        }
+        SyncManifest manifest = SyncManifest.read(directory);
+        Object directoryStore = exists ? FileUtils.fileStoreId(directory) : null;
+        Map<String, Step> steps = new LinkedHashMap<>();
+        for (Map.Entry<String, Path> e : sources.entrySet()) {
+            String name = e.getKey();
+            steps.put(
+                    name,
+                    planSync(
+                            e.getValue(),
+                            directory.resolve(name),
+                            manifest.get(name),
+                            linkMode,
+                            directoryStore,
+                            store));
+        }
+        for (String name : artifactsToDelete) {
+            steps.put(name, planDelete(directory.resolve(name)));
+        }
+        return new SyncPlan(
+                directory,
+                linkMode,
+                noDelete,
+                store,
+                manifest,
+                steps,
+                files,
+                System.nanoTime() - planStart);
+    }
+
+    private static Step planSync(
+            Path source,
+            Path target,
+            SyncManifest.Entry known,
+            LinkMode linkMode,
+            Object directoryStore,
+            ArtifactStore store) {
+        long start = System.nanoTime();
+        try {
+            if (known != null && known.linkMode == linkMode) {
+                // When nothing changed since this artifact was last synced there's nothing to do,
+                // as long as a link still points to the artifact
+                SyncManifest.Entry current = SyncManifest.Entry.read(source, target, linkMode);
+                if (known.equals(current)
+                        && (!Files.isSymbolicLink(target) || FileUtils.isLinkTo(target, source))) {
+                    Step step = new Step(source, target, Action.UNCHANGED, known.sourceSize, false);
+                    step.known = true;
+                    return step.took(System.nanoTime() - start);
+                }
+            }
+            long size = Files.size(source);
+            // Whether hard links are possible, null if we can't tell
+            Boolean sameStore = null;
+            if (directoryStore != null
+                    && (linkMode == LinkMode.HARD || linkMode == LinkMode.AUTO)) {
+                Object sourceStore = FileUtils.fileStoreId(source);
+                sameStore = sourceStore != null ? directoryStore.equals(sourceStore) : null;
+            }
+            boolean links = links(linkMode, sameStore);
+            Action action;
+            if (!Files.exists(target, LinkOption.NOFOLLOW_LINKS)) {
+                action = links ? Action.LINK : Action.COPY;
+            } else if (linkMode == LinkMode.STORE) {
+                // Only a link to the exact same file in the store is up to date
+                Path blob = store.blob(source);
+                action =
+                        Files.isSymbolicLink(target)
+                                        || !Files.exists(blob)
+                                        || !Files.isSameFile(blob, target)
+                                ? Action.UPDATE
+                                : Action.UNCHANGED;
+            } else {
+                action =
+                        FileUtils.isUpToDate(source, target, linkMode, sameStore)
+                                ? Action.UNCHANGED
+                                : Action.UPDATE;
+            }
+            return new Step(source, target, action, size, !links && action != Action.UNCHANGED)
+                    .took(System.nanoTime() - start);
+        } catch (IOException e) {
+            return new Step(source, target, Action.UPDATE, 0, false)
+                    .failed(e, System.nanoTime() - start);
+        } catch (RuntimeException e) {
+            return new Step(source, target, Action.UPDATE, 0, false)
+                    .failed(
+                            new IOException("Failed to sync " + target + ": " + e, e),
+                            System.nanoTime() - start);
+        }
+    }
+
+    private static Step planDelete(Path target) {
+        long size = 0;
+        try {
+            size =
+                    Files.readAttributes(
+                                    target, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS)
+                            .size();
+        } catch (IOException e) {
+            // Doesn't matter, we're only reporting it
+        }
+        return new Step(null, target, Action.DELETE, size, false);
+    }
+
+    /** Determines if the given link mode results in a link rather than a copy. */
+    private static boolean links(LinkMode linkMode, Boolean sameStore) {
+        switch (linkMode) {
+            case COPY:
+                return false;
+            case HARD:
+                return !Boolean.FALSE.equals(sameStore);
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Adds a step that deletes the given file from the target directory, if it exists and isn't
+     * already part of the plan. Useful for removing artifacts that are known to be obsolete when
+     * the plan doesn't delete unexpected files by itself.
+     *
+     * @param name The name of the file in the target directory
+     */
+    public void delete(String name) {
+        Path target = directory.resolve(name);
+        if (!steps.containsKey(name) && Files.exists(target, LinkOption.NOFOLLOW_LINKS)) {
+            steps.put(name, planDelete(target));
+        }
+    }
+
+    /**
+     * Returns the target directory.
+     *
+     * @return A path
+     */
+    public Path directory() {
+        return directory;
+    }
+
+    /**
+     * Returns the link mode the plan was made for.
+     *
+     * @return A {@link LinkMode}
+     */
+    public LinkMode linkMode() {
+        return linkMode;
+    }
+
+    /**
+     * Returns all steps of the plan, including the ones that don't need to do anything.
+     *
+     * @return An unmodifiable list of steps
+     */
+    public List<Step> steps() {
+        return Collections.unmodifiableList(new ArrayList<>(steps.values()));
+    }
+
+    /**
+     * Returns the number of steps with the given action.
+     *
+     * @param action The action to count
+     * @return The number of steps
+     */
+    public int count(Action action) {
+        int count = 0;
+        for (Step step : steps.values()) {
+            if (step.action == action) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the total number of bytes that will be copied when executing this plan, which is the
+     * best indication of how expensive it will be.
+     *
+     * @return A number of bytes
+     */
+    public long bytesToCopy() {
+        long bytes = 0;
+        for (Step step : steps.values()) {
+            if (step.copiesData) {
+                bytes += step.size;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns true if executing this plan wouldn't change anything.
+     *
+     * @return A boolean
+     */
+    public boolean isEmpty() {
+        for (Step step : steps.values()) {
+            if (step.action != Action.UNCHANGED) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the result that executing this plan is expected to have, without executing it.
+     *
+     * @return An instance of {@link SyncResult}
+     */
+    public SyncResult preview() {
+        SyncResult stats = new SyncResult();
+        stats.files.addAll(files);
+        stats.copied = count(Action.COPY) + count(Action.LINK);
+        stats.updated = count(Action.UPDATE);
+        stats.deleted = count(Action.DELETE);
+        return stats;
+    }
+
+    /**
+     * Executes the plan using a thread pool with at most the given number of threads. See {@link
+     * #execute(Executor)}.
+     *
+     * @param parallelism the maximum number of files to process concurrently
+     * @return An instance of {@link SyncResult} with statistics about the synchronization
+     * @throws IOException if an error occurred during the synchronization
+     */
+    public SyncResult execute(int parallelism) throws IOException {
+        int pending = steps.size() - count(Action.UNCHANGED);
+        if (pending <= 1 || parallelism <= 1) {
+            return execute(Runnable::run);
+        }
+        ExecutorService executor =
+                Executors.newFixedThreadPool(
+                        Math.min(parallelism, pending), FileUtils.daemonThreads("jpm-sync-"));
+        try {
+            return execute(executor);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Executes the plan, handing each step that needs doing to the given executor. Passing {@code
+     * Runnable::run} executes the steps one after the other on the calling thread, a thread pool
+     * executes them concurrently. The contents of the returned {@link SyncResult} do not depend on
+     * the order in which the steps finish. If any steps fail, all others are still performed after
+     * which a single exception is thrown that has the individual failures attached as suppressed
+     * exceptions. A plan can only be executed once.
+     *
+     * @param executor The executor to run the steps on
+     * @return An instance of {@link SyncResult} with statistics about the synchronization
+     * @throws IOException if an error occurred during the synchronization
+     */
+    public SyncResult execute(Executor executor) throws IOException {
+        long syncStart = System.nanoTime();
+        List<Step> pending = new ArrayList<>();
+        for (Step step : steps.values()) {
+            if (step.done) {
+                throw new IllegalStateException("The plan was already executed");
+            }
+            if (step.action != Action.UNCHANGED && step.error == null) {
+                pending.add(step);
+            }
+        }
+        Files.createDirectories(directory);
+        if (linkMode == LinkMode.STORE && !pending.isEmpty()) {
+            store.register(directory);
+        }
+        // Hard links can only be made if the directory turns out to be on the same file system
+        Object directoryStore = pending.isEmpty() ? null : FileUtils.fileStoreId(directory);
+        List<FutureTask<Void>> tasks = new ArrayList<>(pending.size());
+        for (Step step : pending) {
+            FutureTask<Void> task = new FutureTask<>(() -> run(step, directoryStore), null);
+            tasks.add(task);
+            executor.execute(task);
+        }
+        try {
+            for (FutureTask<Void> task : tasks) {
+                task.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Sync was interrupted");
+        } catch (ExecutionException e) {
+            // Steps catch their own exceptions, so this should never happen
+            throw new IllegalStateException(e.getCause());
+        }
+
+        // Tally the results in plan order and record them in the manifest
+        SyncResult stats = new SyncResult();
+        stats.files.addAll(files);
+        List<IOException> errors = new ArrayList<>();
+        for (Map.Entry<String, Step> e : steps.entrySet()) {
+            String name = e.getKey();
+            Step step = e.getValue();
+            step.done = true;
+            if (step.error != null) {
+                manifest.remove(name);
+                errors.add(step.error);
+                continue;
+            }
+            if (step.source == null) {
+                manifest.remove(name);
+            } else if (!step.known) {
+                manifest.put(name, manifestEntry(step));
+            }
+            switch (step.action) {
+                case COPY:
+                case LINK:
+                    stats.copied++;
+                    break;
+                case UPDATE:
+                    stats.updated++;
+                    break;
+                case DELETE:
+                    stats.deleted++;
+                    break;
+                default:
+                    break;
+            }
+            if (step.source != null) {
+                stats.metrics.addFile(step.target, step.nanos);
+            }
+        }
+        if (!noDelete) {
+            Set<String> names = new TreeSet<>();
+            for (Path f : files) {
+                names.add(f.getFileName().toString());
+            }
+            manifest.retain(names);
+        }
+        manifest.write(directory);
+        if (errors.size() == 1) {
+            throw errors.get(0);
+        } else if (!errors.isEmpty()) {
+            IOException e = new IOException("Failed to sync " + errors.size() + " files");
+            errors.forEach(e::addSuppressed);
+            throw e;
+        }
+
+        stats.metrics.addPhase(Metrics.PHASE_SYNC, planNanos + System.nanoTime() - syncStart);
+        return stats;
+    }
+
+    private void run(Step step, Object directoryStore) {
+        long start = System.nanoTime();
+        try {
+            if (step.source == null) {
+                Files.deleteIfExists(step.target);
+            } else if (linkMode == LinkMode.STORE) {
+                Path blob = store.add(step.source);
+                FileUtils.copyDependency(blob, step.target, LinkMode.HARD, null);
+            } else {
+                // Whether hard links are possible, null if we can't tell
+                Boolean sameStore = null;
+                if (directoryStore != null
+                        && (linkMode == LinkMode.HARD || linkMode == LinkMode.AUTO)) {
+                    Object sourceStore = FileUtils.fileStoreId(step.source);
+                    sameStore = sourceStore != null ? directoryStore.equals(sourceStore) : null;
+                }
+                FileUtils.copyDependency(step.source, step.target, linkMode, sameStore);
+            }
+        } catch (IOException e) {
+            step.error = e;
+        } catch (RuntimeException e) {
+            step.error = new IOException("Failed to sync " + step.target + ": " + e, e);
+        }
+        step.nanos += System.nanoTime() - start;
+    }
+
+    private SyncManifest.Entry manifestEntry(Step step) {
+        try {
+            return SyncManifest.Entry.read(step.source, step.target, linkMode);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
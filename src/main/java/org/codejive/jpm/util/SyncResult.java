@@ -16,4 +16,27 @@ public class SyncResult {
 
     /** The number of existing artifacts that were deleted. */
     public int deleted;
+
+    /** The plan that would have been executed, only set for dry runs. */
+    public SyncPlan plan;
+
+    /** Detailed timings and download statistics of the operation that produced this result. */
+    public final Metrics metrics = new Metrics();
+
+    /**
+     * Returns the statistics as a JSON object.
+     *
+     * @return A JSON string
+     */
+    public String toJson() {
+        return "{\"copied\":"
+                + copied
+                + ",\"updated\":"
+                + updated
+                + ",\"deleted\":"
+                + deleted
+                + ",\"metrics\":"
+                + metrics.toJson()
+                + "}";
+    }
 }
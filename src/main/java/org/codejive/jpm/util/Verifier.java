@@ -0,0 +1,219 @@
+package org.codejive.jpm.util;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Checks the integrity of the artifacts in a deps directory. Each file gets hashed (in parallel,
+ * using memory-mapped reads) and compared against the SHA-1 checksum file that the resolver stored
+ * next to the artifact in the cache directory. When there is no such file the SHA-256 checksum
+ * recorded in the app.lock file is used instead.
+ */
+public class Verifier {
+    private final int parallelism;
+
+    /**
+     * Creates a new verifier.
+     *
+     * @param parallelism The maximum number of files to hash concurrently
+     */
+    public Verifier(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /** The outcome of checking a single file. */
+    public enum Status {
+        /** The file matches its checksum. */
+        OK,
+        /** The file doesn't match its checksum. */
+        MISMATCH,
+        /** The file doesn't exist. */
+        MISSING,
+        /** There is no checksum to compare the file against. */
+        UNKNOWN
+    }
+
+    /** A single file to check. */
+    public static class Check {
+        /** The file in the deps directory. */
+        public final Path file;
+
+        /** The artifact in the cache directory the file was synced from. */
+        public final Path source;
+
+        /** The SHA-256 checksum from the app.lock file (can be null). */
+        public final String sha256;
+
+        /** The result of the check. */
+        public Status status;
+
+        /** The checksum that was expected (null if unknown). */
+        public String expected;
+
+        /** The checksum of the file (null if it was not computed). */
+        public String actual;
+
+        public Check(Path file, Path source, String sha256) {
+            this.file = file;
+            this.source = source;
+            this.sha256 = sha256;
+        }
+    }
+
+    /** Holds the results of a verification. */
+    public static class VerifyResult {
+        /** All the checks that were performed, in their original order. */
+        public final List<Check> checks;
+
+        /** The time the verification took in nanoseconds. */
+        public long elapsed;
+
+        /** The number of files that were repaired (only when repairing). */
+        public int repaired;
+
+        VerifyResult(List<Check> checks) {
+            this.checks = checks;
+        }
+
+        /**
+         * Returns the number of checks with the given status.
+         *
+         * @param status The status to count
+         * @return The number of checks
+         */
+        public int count(Status status) {
+            int n = 0;
+            for (Check c : checks) {
+                if (c.status == status) {
+                    n++;
+                }
+            }
+            return n;
+        }
+
+        /**
+         * Returns the checks that found a missing or corrupted file.
+         *
+         * @return A list of checks
+         */
+        public List<Check> problems() {
+            List<Check> result = new ArrayList<>();
+            for (Check c : checks) {
+                if (c.status == Status.MISMATCH || c.status == Status.MISSING) {
+                    result.add(c);
+                }
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Verifies the given files concurrently.
+     *
+     * @param checks The files to check, the results are stored in the checks themselves
+     * @return A {@link VerifyResult} with all the checks
+     * @throws IOException If any of the checksum files could not be read
+     * @throws InterruptedException If the operation was interrupted
+     */
+    public VerifyResult verify(List<Check> checks) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        if (!checks.isEmpty()) {
+            ExecutorService executor =
+                    Executors.newFixedThreadPool(
+                            Math.min(parallelism, checks.size()),
+                            FileUtils.daemonThreads("jpm-verify-"));
+            try {
+                List<Future<?>> futures = new ArrayList<>(checks.size());
+                for (Check c : checks) {
+                    futures.add(
+                            executor.submit(
+                                    () -> {
+                                        check(c);
+                                        return null;
+                                    }));
+                }
+                for (Future<?> f : futures) {
+                    try {
+                        f.get();
+                    } catch (ExecutionException e) {
+                        if (e.getCause() instanceof IOException) {
+                            throw (IOException) e.getCause();
+                        }
+                        throw new IllegalStateException(e.getCause());
+                    }
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+        VerifyResult result = new VerifyResult(Collections.unmodifiableList(checks));
+        result.elapsed = System.nanoTime() - start;
+        return result;
+    }
+
+    private static void check(Check c) throws IOException {
+        c.status = null;
+        c.expected = null;
+        c.actual = null;
+        if (!Files.isRegularFile(c.file)) {
+            c.status = Status.MISSING;
+            return;
+        }
+        String algorithm = expectedChecksum(c);
+        if (algorithm == null) {
+            c.status = Status.UNKNOWN;
+            return;
+        }
+        c.actual = FileUtils.checksumMapped(c.file, algorithm);
+        c.status = c.actual.equalsIgnoreCase(c.expected) ? Status.OK : Status.MISMATCH;
+    }
+
+    /**
+     * Determines if the source of the given check, the artifact in the cache directory, still
+     * matches its checksum.
+     *
+     * @param c A check that was performed by {@link #verify(List)}
+     * @return true if the source is intact, false otherwise
+     * @throws IOException If the source could not be read
+     */
+    public static boolean isSourceIntact(Check c) throws IOException {
+        if (!Files.isRegularFile(c.source)) {
+            return false;
+        }
+        Check sc = new Check(c.source, c.source, c.sha256);
+        check(sc);
+        return sc.status != Status.MISMATCH;
+    }
+
+    /**
+     * Sets the expected checksum of the given check and returns the algorithm to use to compute the
+     * actual checksum, or null if nothing is known about the file.
+     */
+    private static String expectedChecksum(Check c) throws IOException {
+        Path sha1File = Paths.get(c.source + ".sha1");
+        if (Files.isRegularFile(sha1File)) {
+            // Checksum files can contain the file name after the checksum
+            String content = new String(Files.readAllBytes(sha1File), StandardCharsets.US_ASCII);
+            String[] parts = content.trim().split("\\s+");
+            if (!parts[0].isEmpty()) {
+                c.expected = parts[0];
+                return "SHA-1";
+            }
+        }
+        if (c.sha256 != null) {
+            c.expected = c.sha256;
+            return "SHA-256";
+        }
+        return null;
+    }
+}
@@ -0,0 +1,490 @@
+package org.codejive.jpm;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+import org.codejive.jpm.config.AppInfo;
+import org.codejive.jpm.config.AppLock;
+import org.codejive.jpm.util.FileLocks;
+import org.codejive.jpm.util.LinkMode;
+import org.codejive.jpm.util.Resolver;
+import org.codejive.jpm.util.ResolverSession;
+import org.codejive.jpm.util.ScriptUtils;
+import org.codejive.jpm.util.SyncResult;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.MockedStatic;
+import org.mockito.Mockito;
+
+/** Tests for Jpm's install command, focusing on incremental installs. */
+class JpmInstallTest {
+
+    @TempDir Path tempDir;
+
+    private Path repo;
+    private Path cacheDir;
+    private Path depsDir;
+    private Path appFile;
+    private ResolverSession session;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        repo = tempDir.resolve("repo");
+        cacheDir = tempDir.resolve("cache");
+        depsDir = tempDir.resolve("deps");
+        appFile = tempDir.resolve("app.yml");
+        session = new ResolverSession();
+
+        // app -> [lib-a:1.0, lib-b:1.0]
+        writeArtifact("app", "1.0", "lib-a:1.0", "lib-b:1.0");
+        writeArtifact("lib-a", "1.0");
+        writeArtifact("lib-b", "1.0");
+        // extra -> [lib-b:2.0, lib-c:1.0]
+        writeArtifact("extra", "1.0", "lib-b:2.0", "lib-c:1.0");
+        writeArtifact("lib-b", "2.0");
+        writeArtifact("lib-c", "1.0");
+        // lib-a:2.0 is a new version of a transitive dependency of app
+        writeArtifact("lib-a", "2.0");
+
+        writeAppFile("test:app:1.0");
+    }
+
+    @AfterEach
+    void tearDown() {
+        session.close();
+    }
+
+    @Test
+    void testIncrementalInstallMergesIntoExistingGraph() throws Exception {
+        jpm().install(new String[0]);
+        assertThat(lockedGavs())
+                .containsExactly("test:app:jar:1.0", "test:lib-a:jar:1.0", "test:lib-b:jar:1.0");
+
+        // Remove the POM of the existing root from the repository and the cache, a full
+        // resolution would now fail so this proves only the new artifact gets resolved
+        Files.delete(repo.resolve("test/app/1.0/app-1.0.pom"));
+        Files.delete(cacheDir.resolve("test/app/1.0/app-1.0.pom"));
+
+        SyncResult stats = jpm().install(new String[] {"test:extra:1.0"});
+
+        // lib-b:1.0 was already part of the graph so it wins over lib-b:2.0
+        assertThat(stats.copied).isEqualTo(2);
+        assertThat(lockedGavs())
+                .containsExactly(
+                        "test:app:jar:1.0",
+                        "test:lib-a:jar:1.0",
+                        "test:lib-b:jar:1.0",
+                        "test:extra:jar:1.0",
+                        "test:lib-c:jar:1.0");
+        assertThat(depsDir.resolve("extra-1.0.jar")).exists();
+        assertThat(depsDir.resolve("lib-c-1.0.jar")).exists();
+        assertThat(depsDir.resolve("lib-b-2.0.jar")).doesNotExist();
+        assertThat(AppInfo.read(appFile).dependencies())
+                .containsExactly("test:app:1.0", "test:extra:1.0");
+        AppLock lock = AppLock.read(appFile);
+        assertThat(lock.isValidFor(AppInfo.read(appFile).dependencies(), repos(), cacheDir))
+                .isTrue();
+    }
+
+    @Test
+    void testOtherCacheDirIsNotIgnored() throws Exception {
+        jpm().install(new String[0]);
+        Path otherCache = tempDir.resolve("other-cache");
+        Jpm other =
+                Jpm.builder()
+                        .directory(depsDir)
+                        .appFile(appFile)
+                        .cacheDir(otherCache)
+                        .session(session)
+                        .build();
+
+        // The lock file points into the old cache, so everything gets resolved again
+        assertThat(other.path(new String[0])).contains(depsDir.resolve("lib-a-1.0.jar"));
+        assertThat(otherCache.resolve("test/lib-a/1.0/lib-a-1.0.jar")).exists();
+        other.install(new String[0]);
+        assertThat(AppLock.read(appFile).getPaths())
+                .allMatch(p -> p.startsWith(otherCache), "is in the other cache");
+    }
+
+    @Test
+    void testIncrementalInstallNewRootReplacesTransitiveVersion() throws Exception {
+        jpm().install(new String[0]);
+        assertThat(depsDir.resolve("lib-a-1.0.jar")).exists();
+
+        SyncResult stats = jpm().install(new String[] {"test:lib-a:2.0"});
+
+        assertThat(stats.copied).isEqualTo(1);
+        assertThat(stats.deleted).isEqualTo(1);
+        assertThat(lockedGavs())
+                .containsExactly("test:app:jar:1.0", "test:lib-b:jar:1.0", "test:lib-a:jar:2.0");
+        assertThat(depsDir.resolve("lib-a-2.0.jar")).exists();
+        assertThat(depsDir.resolve("lib-a-1.0.jar")).doesNotExist();
+    }
+
+    @Test
+    void testInstallRecordsMetrics() throws Exception {
+        SyncResult stats = jpm().install(new String[0]);
+
+        assertThat(stats.metrics.phases().keySet())
+                .containsExactly("config", "collect", "resolve", "checksum", "sync");
+        assertThat(stats.metrics.repositories().get("test").misses).isEqualTo(6);
+        assertThat(stats.metrics.bytesDownloaded()).isPositive();
+        assertThat(stats.metrics.files()).hasSize(3);
+
+        // The second time around everything comes from the resolution cache
+        stats = jpm().install(new String[0]);
+        assertThat(stats.metrics.counters()).containsEntry("resolutionCacheHits", 1L);
+        assertThat(stats.metrics.bytesDownloaded()).isZero();
+    }
+
+    @Test
+    void testInstallWithoutLockResolvesEverything() throws Exception {
+        SyncResult stats = jpm().install(new String[] {"test:extra:1.0"});
+
+        assertThat(stats.copied).isEqualTo(5);
+        assertThat(lockedGavs())
+                .containsExactlyInAnyOrder(
+                        "test:app:jar:1.0",
+                        "test:lib-a:jar:1.0",
+                        "test:lib-b:jar:1.0",
+                        "test:extra:jar:1.0",
+                        "test:lib-c:jar:1.0");
+        assertThat(AppInfo.read(appFile).dependencies())
+                .containsExactly("test:app:1.0", "test:extra:1.0");
+    }
+
+    @Test
+    void testUpdateOnlyResolvesAddedDependencies() throws Exception {
+        jpm().install(new String[0]);
+        List<String> previous = AppInfo.read(appFile).dependencies();
+        writeAppFile("test:app:1.0", "test:extra:1.0");
+        // A full resolution would now fail
+        Files.delete(repo.resolve("test/app/1.0/app-1.0.pom"));
+        Files.delete(cacheDir.resolve("test/app/1.0/app-1.0.pom"));
+
+        SyncResult stats = jpm().update(previous, Collections.emptyMap());
+
+        assertThat(stats.copied).isEqualTo(2);
+        assertThat(depsDir.resolve("extra-1.0.jar")).exists();
+        assertThat(lockedGavs()).contains("test:extra:jar:1.0", "test:lib-c:jar:1.0");
+        // The app.yml file is left alone
+        assertThat(Files.readString(appFile)).contains("  - test:extra:1.0\n");
+    }
+
+    @Test
+    void testUpdateRemovesUnusedArtifacts() throws Exception {
+        jpm().install(new String[] {"test:extra:1.0"});
+        List<String> previous = AppInfo.read(appFile).dependencies();
+        writeAppFile("test:extra:1.0");
+
+        SyncResult stats = jpm().update(previous, Collections.emptyMap());
+
+        // Without app, lib-b:2.0 from extra wins
+        assertThat(stats.deleted).isEqualTo(3);
+        assertThat(depsDir.resolve("app-1.0.jar")).doesNotExist();
+        assertThat(depsDir.resolve("lib-a-1.0.jar")).doesNotExist();
+        assertThat(depsDir.resolve("lib-b-1.0.jar")).doesNotExist();
+        assertThat(depsDir.resolve("lib-b-2.0.jar")).exists();
+        assertThat(depsDir.resolve("extra-1.0.jar")).exists();
+        assertThat(lockedGavs())
+                .containsExactlyInAnyOrder(
+                        "test:extra:jar:1.0", "test:lib-b:jar:2.0", "test:lib-c:jar:1.0");
+    }
+
+    @Test
+    void testDryRunChangesNothing() throws Exception {
+        jpm().install(new String[0]);
+        String app = Files.readString(appFile);
+        String lock = Files.readString(AppLock.lockFileFor(appFile));
+
+        SyncResult stats =
+                Jpm.builder()
+                        .directory(depsDir)
+                        .appFile(appFile)
+                        .cacheDir(cacheDir)
+                        .session(session)
+                        .linkMode(LinkMode.COPY)
+                        .dryRun(true)
+                        .build()
+                        .install(new String[] {"test:extra:1.0"});
+
+        assertThat(stats.plan.steps())
+                .extracting(s -> s.target.getFileName().toString() + " " + s.action)
+                .containsExactly("extra-1.0.jar COPY", "lib-c-1.0.jar COPY");
+        assertThat(stats.copied).isEqualTo(2);
+        assertThat(stats.plan.bytesToCopy()).isPositive();
+        assertThat(depsDir.resolve("extra-1.0.jar")).doesNotExist();
+        assertThat(Files.readString(appFile)).isEqualTo(app);
+        assertThat(Files.readString(AppLock.lockFileFor(appFile))).isEqualTo(lock);
+    }
+
+    @Test
+    void testWatchPicksUpChanges() throws Exception {
+        jpm().install(new String[0]);
+        BlockingQueue<List<String>> updates = new LinkedBlockingQueue<>();
+        Thread watcher =
+                new Thread(
+                        () -> {
+                            try {
+                                jpm().watch(
+                                                Collections.emptyMap(),
+                                                50,
+                                                new Jpm.WatchListener() {
+                                                    @Override
+                                                    public void updated(
+                                                            List<String> added,
+                                                            List<String> removed,
+                                                            SyncResult stats) {
+                                                        updates.add(added);
+                                                    }
+
+                                                    @Override
+                                                    public void failed(Exception e) {
+                                                        updates.add(List.of("failed: " + e));
+                                                    }
+                                                });
+                            } catch (InterruptedException e) {
+                                // Done
+                            } catch (Exception e) {
+                                updates.add(List.of("failed: " + e));
+                            }
+                        });
+        watcher.setDaemon(true);
+        watcher.start();
+        try {
+            // We can't tell when the watcher is ready, so keep adding and removing the
+            // dependency until the watcher reports it was added
+            List<String> added = null;
+            for (int i = 0; i < 20 && !List.of("test:extra:1.0").equals(added); i++) {
+                if (i % 2 == 0) {
+                    writeAppFile("test:app:1.0", "test:extra:1.0");
+                } else {
+                    writeAppFile("test:app:1.0");
+                }
+                added = updates.poll(1, TimeUnit.SECONDS);
+            }
+            assertThat(added).containsExactly("test:extra:1.0");
+            // Make sure we end up with the dependency added and wait for things to settle
+            writeAppFile("test:app:1.0", "test:extra:1.0");
+            while (updates.poll(2, TimeUnit.SECONDS) != null) {
+                // Skip any updates caused by the toggling above
+            }
+            assertThat(depsDir.resolve("extra-1.0.jar")).exists();
+
+            // Deleted artifacts get restored
+            Files.delete(depsDir.resolve("lib-a-1.0.jar"));
+            assertThat(updates.poll(10, TimeUnit.SECONDS)).isEmpty();
+            assertThat(depsDir.resolve("lib-a-1.0.jar")).exists();
+        } finally {
+            watcher.interrupt();
+            watcher.join(5000);
+        }
+    }
+
+    @Test
+    void testPathNeverSwitchesGenerations() throws Exception {
+        Jpm gens =
+                Jpm.builder()
+                        .directory(depsDir)
+                        .appFile(appFile)
+                        .cacheDir(cacheDir)
+                        .session(session)
+                        .generations(2)
+                        .build();
+        gens.install(new String[0]);
+        String first = gens.listGenerations().get(0);
+        gens.install(new String[] {"test:extra:1.0"});
+        assertThat(gens.rollback(null)).isEqualTo(first);
+
+        // Also when not told about the generations, the link is recognized
+        for (Jpm jpm : List.of(gens, jpm())) {
+            assertThatThrownBy(() -> jpm.path(new String[0]))
+                    .isInstanceOf(IOException.class)
+                    .hasMessageContaining("rollback");
+            assertThat(jpm.listGenerations()).hasSize(2).first().isEqualTo(first);
+            assertThat(depsDir.resolve("extra-1.0.jar")).doesNotExist();
+        }
+
+        // Once the link points at the right generation it gets used as is
+        gens.install(new String[0]);
+        List<String> generations = gens.listGenerations();
+        assertThat(jpm().path(new String[0]))
+                .contains(depsDir.resolve("extra-1.0.jar"), depsDir.resolve("lib-a-1.0.jar"));
+        assertThat(gens.listGenerations()).isEqualTo(generations);
+    }
+
+    @Test
+    @SuppressWarnings("try")
+    void testFirstGenerationWaitsForReaders() throws Exception {
+        Jpm gens =
+                Jpm.builder()
+                        .directory(depsDir)
+                        .appFile(appFile)
+                        .cacheDir(cacheDir)
+                        .session(session)
+                        .generations(2)
+                        .build();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<List<Path>> path;
+            // Someone is reading the deps directory, which is about to be replaced by a link
+            try (FileLocks.Handle reader = FileLocks.shared(depsDir)) {
+                path = executor.submit(() -> gens.path(new String[0]));
+                assertThatThrownBy(() -> path.get(500, TimeUnit.MILLISECONDS))
+                        .isInstanceOf(TimeoutException.class);
+                assertThat(gens.listGenerations()).isEmpty();
+            }
+            assertThat(path.get(10, TimeUnit.SECONDS)).hasSize(3);
+            assertThat(gens.listGenerations()).hasSize(1);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    @SuppressWarnings("try")
+    void testInstallStartsOverWhenAppFileChangesWhileResolving() throws Exception {
+        jpm().install(new String[0]);
+
+        // Another process adds a dependency while we're resolving, without holding any locks
+        boolean[] changed = {false};
+        try (MockedStatic<Resolver> mockedResolver =
+                Mockito.mockStatic(
+                        Resolver.class,
+                        inv -> {
+                            if (!changed[0] && inv.getMethod().getName().equals("create")) {
+                                changed[0] = true;
+                                writeAppFile("test:app:1.0", "test:lib-c:1.0");
+                            }
+                            return inv.callRealMethod();
+                        })) {
+            jpm().install(new String[] {"test:extra:1.0"});
+        }
+
+        assertThat(AppInfo.read(appFile).dependencies())
+                .containsExactly("test:app:1.0", "test:lib-c:1.0", "test:extra:1.0");
+        AppLock lock = AppLock.read(appFile);
+        assertThat(lock.isValidFor(AppInfo.read(appFile).dependencies(), repos(), cacheDir))
+                .isTrue();
+        assertThat(depsDir.resolve("extra-1.0.jar")).exists();
+    }
+
+    @Test
+    void testActionContextResolvesOnce() throws Exception {
+        Files.writeString(
+                appFile,
+                Files.readString(appFile)
+                        + "actions:\n  build: \"echo {{deps}}\"\n  run: \"echo {{deps}}\"\n");
+        try (MockedStatic<ScriptUtils> mockedScriptUtils = Mockito.mockStatic(ScriptUtils.class)) {
+            List<List<Path>> classpaths = new ArrayList<>();
+            mockedScriptUtils
+                    .when(() -> ScriptUtils.executeScript(anyString(), any(), anyBoolean()))
+                    .thenAnswer(
+                            inv -> {
+                                classpaths.add(inv.getArgument(1));
+                                return 0;
+                            });
+
+            Jpm.ActionContext context = jpm().actionContext(Collections.emptyMap());
+            assertThat(context.executeAction("build", null)).isEqualTo(0);
+
+            // Nothing changed, so the classpath doesn't get resolved again
+            assertThat(context.executeAction("run", null)).isEqualTo(0);
+            assertThat(classpaths).hasSize(2);
+            assertThat(classpaths.get(1)).isSameAs(classpaths.get(0)).hasSize(3);
+
+            // Unless an earlier action removed any of the artifacts
+            Files.delete(depsDir.resolve("lib-a-1.0.jar"));
+            assertThat(context.executeAction("run", null)).isEqualTo(0);
+            assertThat(classpaths.get(2)).isEqualTo(classpaths.get(0));
+            assertThat(depsDir.resolve("lib-a-1.0.jar")).exists();
+
+            // Or changed the app.yml file, like a "jpm install" would
+            jpm().install(new String[] {"test:extra:1.0"});
+            assertThat(context.executeAction("run", null)).isEqualTo(0);
+            assertThat(classpaths.get(3))
+                    .hasSize(5)
+                    .contains(depsDir.resolve("extra-1.0.jar"), depsDir.resolve("lib-c-1.0.jar"));
+        }
+    }
+
+    private Jpm jpm() {
+        return Jpm.builder()
+                .directory(depsDir)
+                .appFile(appFile)
+                .cacheDir(cacheDir)
+                .session(session)
+                .build();
+    }
+
+    private void writeAppFile(String... deps) throws IOException {
+        StringBuilder sb = new StringBuilder("dependencies:\n");
+        for (String dep : deps) {
+            sb.append("  - ").append(dep).append('\n');
+        }
+        sb.append("repositories:\n  test: ").append(repo.toUri()).append('\n');
+        Files.writeString(appFile, sb.toString());
+    }
+
+    private Map<String, String> repos() {
+        return Collections.singletonMap("test", repo.toUri().toString());
+    }
+
+    private List<String> lockedGavs() throws IOException {
+        return AppLock.read(appFile).artifacts().stream()
+                .map(e -> e.gav)
+                .collect(Collectors.toList());
+    }
+
+    private void writeArtifact(String artifactId, String version, String... deps)
+            throws IOException {
+        Path dir = repo.resolve("test").resolve(artifactId).resolve(version);
+        Files.createDirectories(dir);
+        StringBuilder sb = new StringBuilder();
+        for (String dep : deps) {
+            String[] parts = dep.split(":");
+            sb.append("    <dependency>\n")
+                    .append("      <groupId>test</groupId>\n")
+                    .append("      <artifactId>")
+                    .append(parts[0])
+                    .append("</artifactId>\n")
+                    .append("      <version>")
+                    .append(parts[1])
+                    .append("</version>\n")
+                    .append("    </dependency>\n");
+        }
+        String pom =
+                "<project>\n"
+                        + "  <modelVersion>4.0.0</modelVersion>\n"
+                        + "  <groupId>test</groupId>\n"
+                        + "  <artifactId>"
+                        + artifactId
+                        + "</artifactId>\n"
+                        + "  <version>"
+                        + version
+                        + "</version>\n"
+                        + "  <dependencies>\n"
+                        + sb
+                        + "  </dependencies>\n"
+                        + "</project>\n";
+        Files.writeString(dir.resolve(artifactId + "-" + version + ".pom"), pom);
+        Files.writeString(dir.resolve(artifactId + "-" + version + ".jar"), artifactId + version);
+    }
+}
@@ -0,0 +1,137 @@
+package org.codejive.jpm;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import org.codejive.jpm.util.FileUtils;
+import org.codejive.jpm.util.ResolverSession;
+import org.codejive.jpm.util.Verifier;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/** Tests for Jpm's verify command. */
+class JpmVerifyTest {
+
+    @TempDir Path tempDir;
+
+    private Path repo;
+    private Path cacheDir;
+    private Path depsDir;
+    private Path appFile;
+    private ResolverSession session;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        repo = tempDir.resolve("repo");
+        cacheDir = tempDir.resolve("cache");
+        depsDir = tempDir.resolve("deps");
+        appFile = tempDir.resolve("app.yml");
+        session = new ResolverSession();
+
+        // lib-a comes with checksum files, lib-b doesn't
+        writeArtifact("lib-a", true);
+        writeArtifact("lib-b", false);
+        Files.writeString(
+                appFile,
+                "dependencies:\n"
+                        + "  - test:lib-a:1.0\n"
+                        + "  - test:lib-b:1.0\n"
+                        + "repositories:\n"
+                        + "  test: "
+                        + repo.toUri()
+                        + "\n");
+    }
+
+    @AfterEach
+    void tearDown() {
+        session.close();
+    }
+
+    @Test
+    void testVerifyIntactArtifacts() throws Exception {
+        jpm(true).install(new String[0]);
+
+        Verifier.VerifyResult result = jpm(true).verify(false, Collections.emptyMap(), 4);
+
+        assertThat(result.checks).hasSize(2);
+        assertThat(result.count(Verifier.Status.OK)).isEqualTo(2);
+        assertThat(result.problems()).isEmpty();
+        assertThat(result.checks.get(0).expected).hasSize(40); // SHA-1
+        assertThat(result.checks.get(1).expected).hasSize(64); // SHA-256 from app.lock
+    }
+
+    @Test
+    void testVerifyReportsAndRepairsCopies() throws Exception {
+        jpm(true).install(new String[0]);
+        Path a = depsDir.resolve("lib-a-1.0.jar");
+        Path b = depsDir.resolve("lib-b-1.0.jar");
+        // Same size, so a plain sync would not notice
+        Files.writeString(a, "lib-A1.0");
+        Files.delete(b);
+
+        Verifier.VerifyResult result = jpm(true).verify(false, Collections.emptyMap(), 4);
+        assertThat(result.count(Verifier.Status.MISMATCH)).isEqualTo(1);
+        assertThat(result.count(Verifier.Status.MISSING)).isEqualTo(1);
+
+        result = jpm(true).verify(true, Collections.emptyMap(), 4);
+        assertThat(result.repaired).isEqualTo(2);
+        assertThat(result.problems()).isEmpty();
+        assertThat(Files.readString(a)).isEqualTo("lib-a1.0");
+        assertThat(b).exists();
+    }
+
+    @Test
+    void testRepairDownloadsCorruptedCacheArtifacts() throws Exception {
+        jpm(false).install(new String[0]);
+        Path cached = cacheDir.resolve("test/lib-a/1.0/lib-a-1.0.jar");
+        Files.writeString(cached, "corrupted");
+
+        Verifier.VerifyResult result = jpm(false).verify(true, Collections.emptyMap(), 4);
+
+        assertThat(result.repaired).isEqualTo(1);
+        assertThat(result.problems()).isEmpty();
+        assertThat(Files.readString(cached)).isEqualTo("lib-a1.0");
+        assertThat(Files.readString(depsDir.resolve("lib-a-1.0.jar"))).isEqualTo("lib-a1.0");
+    }
+
+    private Jpm jpm(boolean noLinks) {
+        return Jpm.builder()
+                .directory(depsDir)
+                .noLinks(noLinks)
+                .appFile(appFile)
+                .cacheDir(cacheDir)
+                .session(session)
+                .build();
+    }
+
+    private void writeArtifact(String artifactId, boolean checksums) throws IOException {
+        Path dir = repo.resolve("test").resolve(artifactId).resolve("1.0");
+        Files.createDirectories(dir);
+        String pom =
+                "<project>\n"
+                        + "  <modelVersion>4.0.0</modelVersion>\n"
+                        + "  <groupId>test</groupId>\n"
+                        + "  <artifactId>"
+                        + artifactId
+                        + "</artifactId>\n"
+                        + "  <version>1.0</version>\n"
+                        + "</project>\n";
+        Path pomFile = dir.resolve(artifactId + "-1.0.pom");
+        Path jarFile = dir.resolve(artifactId + "-1.0.jar");
+        Files.writeString(pomFile, pom);
+        Files.writeString(jarFile, artifactId + "1.0");
+        if (checksums) {
+            Files.writeString(
+                    dir.resolve(pomFile.getFileName() + ".sha1"),
+                    FileUtils.checksum(pomFile, "SHA-1"));
+            Files.writeString(
+                    dir.resolve(jarFile.getFileName() + ".sha1"),
+                    FileUtils.checksum(jarFile, "SHA-1"));
+        }
+    }
+}
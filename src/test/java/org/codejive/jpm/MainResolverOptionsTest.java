@@ -0,0 +1,232 @@
+package org.codejive.jpm;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.codejive.jpm.config.UserConfig;
+import org.codejive.jpm.util.LinkMode;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junitpioneer.jupiter.SetEnvironmentVariable;
+
+/** Tests for Main class CLI options that influence dependency resolution. */
+@SetEnvironmentVariable(key = "JPM_CONFIG", value = "/nonexistent/config.yml")
+class MainResolverOptionsTest {
+
+    @TempDir Path tempDir;
+
+    private PrintStream originalErr;
+    private ByteArrayOutputStream errContent;
+
+    @BeforeEach
+    void setUp() {
+        // Capture stderr to verify warning messages
+        originalErr = System.err;
+        errContent = new ByteArrayOutputStream();
+        System.setErr(new PrintStream(errContent));
+    }
+
+    @AfterEach
+    void tearDown() {
+        System.setErr(originalErr);
+    }
+
+    @Test
+    void testGetThreadsWithDefault() {
+        Main.DepsMixin mixin = new Main.DepsMixin();
+
+        assertThat(mixin.getThreads()).isEqualTo(0);
+    }
+
+    @Test
+    void testGetThreadsWithCommandLineOption() {
+        Main.DepsMixin mixin = new Main.DepsMixin();
+        mixin.threads = 8;
+
+        assertThat(mixin.getThreads()).isEqualTo(8);
+    }
+
+    @Test
+    void testGetThreadsWithInvalidCommandLineOption() {
+        Main.DepsMixin mixin = new Main.DepsMixin();
+        mixin.threads = 0;
+
+        assertThatThrownBy(mixin::getThreads)
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("The number of threads must be a positive number");
+    }
+
+    @Test
+    void testGetThreadsWithUserConfig() throws IOException {
+        Main.DepsMixin mixin = mixinWithConfig("config:\n  threads: 12\n");
+
+        assertThat(mixin.getThreads()).isEqualTo(12);
+        assertThat(errContent.toString()).isEmpty();
+    }
+
+    @Test
+    void testGetThreadsCliOptionOverridesUserConfig() throws IOException {
+        Main.DepsMixin mixin = mixinWithConfig("config:\n  threads: 12\n");
+        mixin.threads = 4;
+
+        assertThat(mixin.getThreads()).isEqualTo(4);
+    }
+
+    @Test
+    void testGetThreadsWithInvalidUserConfig() throws IOException {
+        Main.DepsMixin mixin = mixinWithConfig("config:\n  threads: lots\n");
+
+        assertThat(mixin.getThreads()).isEqualTo(0);
+        assertThat(errContent.toString())
+                .contains("Warning: 'threads' must be a positive integer, ignoring: lots");
+    }
+
+    @Test
+    void testGetOfflineWithDefault() {
+        Main.DepsMixin mixin = new Main.DepsMixin();
+
+        assertThat(mixin.getOffline()).isFalse();
+    }
+
+    @Test
+    void testGetOfflineWithCommandLineOption() {
+        Main.DepsMixin mixin = new Main.DepsMixin();
+        mixin.offline = true;
+
+        assertThat(mixin.getOffline()).isTrue();
+    }
+
+    @Test
+    void testGetOfflineWithUserConfig() throws IOException {
+        Main.DepsMixin mixin = mixinWithConfig("config:\n  offline: true\n");
+
+        assertThat(mixin.getOffline()).isTrue();
+        assertThat(errContent.toString()).isEmpty();
+    }
+
+    @Test
+    void testGetOfflineCliOptionOverridesUserConfig() throws IOException {
+        Main.DepsMixin mixin = mixinWithConfig("config:\n  offline: true\n");
+        mixin.offline = false;
+
+        assertThat(mixin.getOffline()).isFalse();
+    }
+
+    @Test
+    void testGetOfflineWithInvalidUserConfig() throws IOException {
+        Main.DepsMixin mixin = mixinWithConfig("config:\n  offline: sometimes\n");
+
+        assertThat(mixin.getOffline()).isFalse();
+        assertThat(errContent.toString())
+                .contains("Warning: 'offline' must be a boolean, ignoring: sometimes");
+    }
+
+    @Test
+    void testGetLinkModeWithDefault() {
+        Main.DepsMixin mixin = new Main.DepsMixin();
+
+        assertThat(mixin.getLinkMode()).isEqualTo(LinkMode.SYMLINK);
+    }
+
+    @Test
+    void testGetLinkModeWithCommandLineOption() {
+        Main.DepsMixin mixin = new Main.DepsMixin();
+        mixin.linkMode = "Hard";
+        mixin.noLinks = true;
+
+        assertThat(mixin.getLinkMode()).isEqualTo(LinkMode.HARD);
+    }
+
+    @Test
+    void testGetLinkModeWithNoLinksOption() throws IOException {
+        Main.DepsMixin mixin = mixinWithConfig("config:\n  link-mode: auto\n");
+        mixin.noLinks = true;
+
+        assertThat(mixin.getLinkMode()).isEqualTo(LinkMode.COPY);
+    }
+
+    @Test
+    void testGetLinkModeWithInvalidCommandLineOption() {
+        Main.DepsMixin mixin = new Main.DepsMixin();
+        mixin.linkMode = "reflink";
+
+        assertThatThrownBy(mixin::getLinkMode)
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("Invalid link mode 'reflink'");
+    }
+
+    @Test
+    void testGetLinkModeWithUserConfig() throws IOException {
+        Main.DepsMixin mixin = mixinWithConfig("config:\n  link-mode: auto\n  no-links: true\n");
+
+        assertThat(mixin.getLinkMode()).isEqualTo(LinkMode.AUTO);
+        assertThat(errContent.toString()).isEmpty();
+    }
+
+    @Test
+    void testGetLinkModeWithNoLinksUserConfig() throws IOException {
+        Main.DepsMixin mixin = mixinWithConfig("config:\n  no-links: true\n");
+
+        assertThat(mixin.getLinkMode()).isEqualTo(LinkMode.COPY);
+    }
+
+    @Test
+    void testGetLinkModeWithInvalidUserConfig() throws IOException {
+        Main.DepsMixin mixin = mixinWithConfig("config:\n  link-mode: reflink\n");
+
+        assertThat(mixin.getLinkMode()).isEqualTo(LinkMode.SYMLINK);
+        assertThat(errContent.toString())
+                .contains(
+                        "Warning: 'link-mode' must be one of symlink, hard, copy, auto or store, ignoring: reflink");
+    }
+
+    @Test
+    void testGetGenerationsWithDefault() {
+        Main.DepsMixin mixin = new Main.DepsMixin();
+
+        assertThat(mixin.getGenerations()).isEqualTo(-1);
+    }
+
+    @Test
+    void testGetGenerationsCliOptionOverridesUserConfig() throws IOException {
+        Main.DepsMixin mixin = mixinWithConfig("config:\n  generations: 3\n");
+        assertThat(mixin.getGenerations()).isEqualTo(3);
+
+        mixin.generations = 0;
+        assertThat(mixin.getGenerations()).isEqualTo(0);
+    }
+
+    @Test
+    void testGetGenerationsWithInvalidValues() throws IOException {
+        Main.DepsMixin mixin = mixinWithConfig("config:\n  generations: -2\n");
+
+        assertThat(mixin.getGenerations()).isEqualTo(-1);
+        assertThat(errContent.toString())
+                .contains(
+                        "Warning: 'generations' must be zero or a positive integer, ignoring: -2");
+
+        mixin.generations = -1;
+        assertThatThrownBy(mixin::getGenerations)
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining(
+                        "The number of generations must be zero or a positive number");
+    }
+
+    private Main.DepsMixin mixinWithConfig(String config) throws IOException {
+        Path configFile = tempDir.resolve("config.yml");
+        Files.writeString(configFile, config);
+        UserConfig userConfig = UserConfig.read(configFile);
+        return new Main.DepsMixin() {
+            @Override
+            UserConfig getUserConfig() {
+                return userConfig;
+            }
+        };
+    }
+}
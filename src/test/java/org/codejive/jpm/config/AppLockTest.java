@@ -0,0 +1,130 @@
+package org.codejive.jpm.config;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/** Tests for AppLock class, focusing on reading, writing and validating lock files. */
+class AppLockTest {
+
+    @TempDir Path tempDir;
+
+    @Test
+    void testWriteAndReadAppLock() throws IOException {
+        Path appYml = tempDir.resolve("app.yml");
+        Path jar = createJar("lib1.jar", "some content");
+        List<String> deps = Collections.singletonList("com.example:lib1:1.0.0");
+        Map<String, String> repos = Collections.singletonMap("myrepo", "https://my.repo.com");
+
+        AppLock lock = new AppLock();
+        lock.hash(AppLock.computeHash(deps, repos));
+        lock.artifacts()
+                .add(
+                        new AppLock.Entry(
+                                "com.example:lib1:jar:1.0.0",
+                                "myrepo",
+                                "abc123",
+                                Files.size(jar),
+                                jar));
+        AppLock.write(lock, appYml);
+
+        assertThat(tempDir.resolve(AppLock.APP_LOCK_FILE)).exists();
+
+        AppLock read = AppLock.read(appYml);
+        assertThat(read).isNotNull();
+        assertThat(read.hash()).isEqualTo(lock.hash());
+        assertThat(read.artifacts()).hasSize(1);
+        AppLock.Entry e = read.artifacts().get(0);
+        assertThat(e.gav).isEqualTo("com.example:lib1:jar:1.0.0");
+        assertThat(e.repository).isEqualTo("myrepo");
+        assertThat(e.sha256).isEqualTo("abc123");
+        assertThat(e.size).isEqualTo(Files.size(jar));
+        assertThat(e.path).isEqualTo(jar);
+        assertThat(read.getPaths()).containsExactly(jar);
+        assertThat(read.isValidFor(deps, repos)).isTrue();
+    }
+
+    @Test
+    void testReadMissingAppLock() throws IOException {
+        assertThat(AppLock.read(tempDir.resolve("app.yml"))).isNull();
+    }
+
+    @Test
+    void testLockFileNameFollowsAppFileName() {
+        assertThat(AppLock.lockFileFor(tempDir.resolve("app.yml")))
+                .isEqualTo(tempDir.resolve("app.lock"));
+        assertThat(AppLock.lockFileFor(tempDir.resolve("other.yml")))
+                .isEqualTo(tempDir.resolve("other.lock"));
+    }
+
+    @Test
+    void testHashIgnoresRepositoryOrder() {
+        List<String> deps = Arrays.asList("com.example:lib1:1.0.0", "com.example:lib2:2.0.0");
+        Map<String, String> repos1 = new LinkedHashMap<>();
+        repos1.put("a", "https://a.com");
+        repos1.put("b", "https://b.com");
+        Map<String, String> repos2 = new LinkedHashMap<>();
+        repos2.put("b", "https://b.com");
+        repos2.put("a", "https://a.com");
+
+        assertThat(AppLock.computeHash(deps, repos1)).isEqualTo(AppLock.computeHash(deps, repos2));
+    }
+
+    @Test
+    void testInvalidWhenDependenciesChange() throws IOException {
+        Path jar = createJar("lib1.jar", "some content");
+        AppLock lock = createLock(jar, "com.example:lib1:1.0.0");
+
+        assertThat(lock.isValidFor(List.of("com.example:lib1:1.0.0"), Map.of())).isTrue();
+        assertThat(lock.isValidFor(List.of("com.example:lib1:1.0.1"), Map.of())).isFalse();
+        assertThat(lock.isValidFor(List.of("com.example:lib1:1.0.0"), Map.of("r", "https://r")))
+                .isFalse();
+    }
+
+    @Test
+    void testInvalidWhenCacheDirChanges() throws IOException {
+        Path jar = createJar("lib1.jar", "some content");
+        List<String> deps = List.of("com.example:lib1:1.0.0");
+        Path cache = tempDir.resolve("cache");
+        AppLock lock = new AppLock();
+        lock.hash(AppLock.computeHash(deps, Map.of(), cache));
+        lock.artifacts().add(new AppLock.Entry(deps.get(0), null, "abc", Files.size(jar), jar));
+
+        assertThat(lock.isValidFor(deps, Map.of(), cache)).isTrue();
+        assertThat(lock.isValidFor(deps, Map.of(), tempDir.resolve("x/../cache"))).isTrue();
+        assertThat(lock.isValidFor(deps, Map.of(), tempDir.resolve("other"))).isFalse();
+        assertThat(lock.isValidFor(deps, Map.of())).isFalse();
+    }
+
+    @Test
+    void testInvalidWhenArtifactDisappears() throws IOException {
+        Path jar = createJar("lib1.jar", "some content");
+        AppLock lock = createLock(jar, "com.example:lib1:1.0.0");
+
+        Files.delete(jar);
+
+        assertThat(lock.isValidFor(List.of("com.example:lib1:1.0.0"), Map.of())).isFalse();
+    }
+
+    private AppLock createLock(Path jar, String dep) throws IOException {
+        AppLock lock = new AppLock();
+        lock.hash(AppLock.computeHash(List.of(dep), Map.of()));
+        lock.artifacts().add(new AppLock.Entry(dep, null, "abc123", Files.size(jar), jar));
+        return lock;
+    }
+
+    private Path createJar(String name, String content) throws IOException {
+        Path jar = tempDir.resolve(name);
+        Files.writeString(jar, content);
+        return jar;
+    }
+}
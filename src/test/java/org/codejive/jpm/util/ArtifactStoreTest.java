@@ -0,0 +1,95 @@
+package org.codejive.jpm.util;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/** Tests for the ArtifactStore class and syncing using {@link LinkMode#STORE}. */
+class ArtifactStoreTest {
+
+    @TempDir Path tempDir;
+
+    @Test
+    void testIdenticalArtifactsAreStoredOnce() throws IOException {
+        ArtifactStore store = new ArtifactStore(tempDir.resolve("store"));
+        Path a = Files.writeString(tempDir.resolve("a.jar"), "same content");
+        Path b = Files.writeString(tempDir.resolve("b.jar"), "same content");
+        Path c = Files.writeString(tempDir.resolve("c.jar"), "other content");
+
+        assertThat(store.add(a)).isEqualTo(store.add(b));
+        assertThat(store.add(c)).isNotEqualTo(store.add(a));
+        assertThat(Files.readString(store.add(a))).isEqualTo("same content");
+    }
+
+    @Test
+    void testSyncHardLinksFromStore() throws IOException {
+        ArtifactStore store = new ArtifactStore(tempDir.resolve("store"));
+        Path artifact = Files.writeString(tempDir.resolve("lib-1.0.jar"), "library");
+        Path deps1 = tempDir.resolve("project1/deps");
+        Path deps2 = tempDir.resolve("project2/deps");
+
+        SyncResult result = sync(List.of(artifact), deps1, store);
+        sync(List.of(artifact), deps2, store);
+
+        assertThat(result.copied).isEqualTo(1);
+        Path file1 = deps1.resolve("lib-1.0.jar");
+        assertThat(Files.isSymbolicLink(file1)).isFalse();
+        assertThat(Files.isSameFile(file1, deps2.resolve("lib-1.0.jar"))).isTrue();
+        assertThat(Files.isSameFile(file1, artifact)).isFalse();
+        assertThat(Files.isSameFile(file1, store.add(artifact))).isTrue();
+
+        // Nothing to do the second time, even without the sync manifest
+        Files.delete(deps1.resolve(SyncManifest.FILE_NAME));
+        result = sync(List.of(artifact), deps1, store);
+        assertThat(result.copied + result.updated).isZero();
+    }
+
+    @Test
+    void testSyncReplacesCopies() throws IOException {
+        ArtifactStore store = new ArtifactStore(tempDir.resolve("store"));
+        Path artifact = Files.writeString(tempDir.resolve("lib-1.0.jar"), "library");
+        Path deps = tempDir.resolve("deps");
+        FileUtils.syncArtifacts(List.of(artifact), deps, LinkMode.COPY, false);
+
+        SyncResult result = sync(List.of(artifact), deps, store);
+
+        assertThat(result.updated).isEqualTo(1);
+        assertThat(Files.isSameFile(deps.resolve("lib-1.0.jar"), store.add(artifact))).isTrue();
+    }
+
+    @Test
+    void testGcRemovesUnusedArtifacts() throws IOException {
+        ArtifactStore store = new ArtifactStore(tempDir.resolve("store"));
+        Path lib1 = Files.writeString(tempDir.resolve("lib-1.0.jar"), "library 1");
+        Path lib2 = Files.writeString(tempDir.resolve("lib-2.0.jar"), "library 2");
+        Path deps1 = tempDir.resolve("project1/deps");
+        Path deps2 = tempDir.resolve("project2/deps");
+        sync(List.of(lib1, lib2), deps1, store);
+        sync(List.of(lib1), deps2, store);
+
+        ArtifactStore.GcResult result = store.gc();
+        assertThat(result.projects).isEqualTo(2);
+        assertThat(result.kept).isEqualTo(2);
+        assertThat(result.removed).isZero();
+
+        // Project 1 no longer uses lib2 and project 2 is gone altogether
+        sync(List.of(lib1), deps1, store);
+        FileUtils.deleteRecursively(deps2);
+        result = store.gc();
+        assertThat(result.projects).isEqualTo(1);
+        assertThat(result.kept).isEqualTo(1);
+        assertThat(result.removed).isEqualTo(1);
+        assertThat(result.bytesRemoved).isEqualTo(9);
+        assertThat(Files.readString(deps1.resolve("lib-1.0.jar"))).isEqualTo("library 1");
+    }
+
+    private static SyncResult sync(List<Path> artifacts, Path dir, ArtifactStore store)
+            throws IOException {
+        return FileUtils.syncArtifacts(artifacts, dir, LinkMode.STORE, false, 4, store);
+    }
+}
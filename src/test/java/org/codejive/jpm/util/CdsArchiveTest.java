@@ -0,0 +1,90 @@
+package org.codejive.jpm.util;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class CdsArchiveTest {
+
+    @TempDir Path tempDir;
+
+    @Test
+    void testKeyChangesWithClasspath() throws Exception {
+        Path a = Files.write(tempDir.resolve("a.jar"), new byte[] {1});
+        Path b = Files.write(tempDir.resolve("b.jar"), new byte[] {2});
+        String key = CdsArchive.key(Arrays.asList(a, b));
+
+        assertThat(CdsArchive.key(Arrays.asList(a, b))).isEqualTo(key);
+        assertThat(CdsArchive.key(Arrays.asList(b, a))).isNotEqualTo(key);
+        assertThat(CdsArchive.key(Collections.singletonList(a))).isNotEqualTo(key);
+
+        // Same files, different contents
+        Files.write(b, new byte[] {2, 3});
+        assertThat(CdsArchive.key(Arrays.asList(a, b))).isNotEqualTo(key);
+    }
+
+    @Test
+    void testKeyChangesWithJdk() throws Exception {
+        Path a = Files.write(tempDir.resolve("a.jar"), new byte[] {1});
+        String key = CdsArchive.key("/opt/jdk-17|17.0.1", Collections.singletonList(a));
+
+        assertThat(CdsArchive.key("/opt/jdk-17|17.0.2", Collections.singletonList(a)))
+                .isNotEqualTo(key);
+        assertThat(CdsArchive.key("/opt/other-17|17.0.1", Collections.singletonList(a)))
+                .isNotEqualTo(key);
+        assertThat(CdsArchive.key(Collections.singletonList(a))).isNotEqualTo(key);
+    }
+
+    @Test
+    void testTrainingRunCreatesArchive() throws Exception {
+        assumeTrue(Runtime.version().feature() >= CdsArchive.MIN_JAVA_VERSION);
+        Path cache = tempDir.resolve("cache");
+        Path jar = Files.write(tempDir.resolve("a.jar"), new byte[] {1});
+        CdsArchive cds = CdsArchive.forClasspath(cache, Collections.singletonList(jar));
+        assertThat(cds.file().getParent()).isEqualTo(cache.resolve(CdsArchive.CDS_DIR));
+
+        // Simulates the JVM dumping the archive on exit
+        String option = cds.option();
+        assertThat(option).startsWith("-XX:ArchiveClassesAtExit=");
+        Files.write(Paths.get(option.substring(option.indexOf('=') + 1)), new byte[] {42});
+        cds.commit();
+        assertThat(cds.file()).hasBinaryContent(new byte[] {42});
+        try (Stream<Path> files = Files.list(cds.file().getParent())) {
+            assertThat(files).containsExactly(cds.file());
+        }
+
+        CdsArchive again = CdsArchive.forClasspath(cache, Collections.singletonList(jar));
+        assertThat(again.option()).isEqualTo("-XX:SharedArchiveFile=" + cds.file());
+    }
+
+    @Test
+    void testFailedTrainingRunIsNotRepeated() throws Exception {
+        assumeTrue(Runtime.version().feature() >= CdsArchive.MIN_JAVA_VERSION);
+        Path cache = tempDir.resolve("cache");
+        Path jar = Files.write(tempDir.resolve("a.jar"), new byte[] {1});
+        CdsArchive cds = CdsArchive.forClasspath(cache, Collections.singletonList(jar));
+
+        // The JVM didn't write the archive, for example because of a directory in the classpath
+        assertThat(cds.option()).startsWith("-XX:ArchiveClassesAtExit=");
+        cds.commit();
+        assertThat(cds.file()).doesNotExist();
+
+        CdsArchive again = CdsArchive.forClasspath(cache, Collections.singletonList(jar));
+        assertThat(again.option()).isNull();
+        again.commit();
+        assertThat(again.file()).doesNotExist();
+
+        // Until the dependencies change
+        Files.write(jar, new byte[] {1, 2});
+        CdsArchive changed = CdsArchive.forClasspath(cache, Collections.singletonList(jar));
+        assertThat(changed.option()).startsWith("-XX:ArchiveClassesAtExit=");
+    }
+}
@@ -0,0 +1,99 @@
+package org.codejive.jpm.util;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ClassConflictsTest {
+
+    @TempDir Path tempDir;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        createJar(
+                "a.jar",
+                "module-info.class",
+                "META-INF/versions/11/org/a/A.class",
+                "org/a/A.class",
+                "org/a/B.class",
+                "org/a/sub/S.class",
+                "org/s/X.class",
+                "Main.class");
+        createJar(
+                "b.jar",
+                "module-info.class",
+                "META-INF/versions/11/org/a/A.class",
+                "org/a/A.class",
+                "org/a/B.class",
+                "org/s/Y.class",
+                "org/a/A.properties");
+        createJar("c.jar", "org/a/A.class", "org/c/C.class", "Main.class");
+        ClassIndex.update(tempDir, 1);
+    }
+
+    @Test
+    void testFind() throws IOException {
+        ClassConflicts conflicts;
+        try (ClassIndex index = ClassIndex.open(tempDir)) {
+            conflicts = ClassConflicts.find(index, Arrays.asList("a.jar", "b.jar", "c.jar"));
+        }
+        assertThat(conflicts.isEmpty()).isFalse();
+        assertThat(conflicts.duplicateCount()).isEqualTo(3);
+        assertThat(conflicts.packages)
+                .extracting(p -> p.name)
+                .containsExactly("", "org.a", "org.s");
+
+        ClassConflicts.SplitPackage def = conflicts.packages.get(0);
+        assertThat(def.jars).containsExactly("a.jar", "c.jar");
+        assertThat(def.duplicates)
+                .containsExactly(entry(Arrays.asList("a.jar", "c.jar"), Arrays.asList("Main")));
+
+        ClassConflicts.SplitPackage a = conflicts.packages.get(1);
+        assertThat(a.jars).containsExactly("a.jar", "b.jar", "c.jar");
+        assertThat(a.duplicates)
+                .containsOnly(
+                        entry(Arrays.asList("a.jar", "b.jar", "c.jar"), Arrays.asList("org.a.A")),
+                        entry(Arrays.asList("a.jar", "b.jar"), Arrays.asList("org.a.B")));
+        assertThat(a.duplicateCount()).isEqualTo(2);
+
+        // Split, but nothing duplicated
+        ClassConflicts.SplitPackage s = conflicts.packages.get(2);
+        assertThat(s.jars).containsExactly("a.jar", "b.jar");
+        assertThat(s.duplicates).isEmpty();
+    }
+
+    @Test
+    void testFindOnlyGivenJars() throws IOException {
+        try (ClassIndex index = ClassIndex.open(tempDir)) {
+            ClassConflicts conflicts =
+                    ClassConflicts.find(index, Arrays.asList("b.jar", "c.jar", "missing.jar"));
+            assertThat(conflicts.packages).extracting(p -> p.name).containsExactly("org.a");
+            assertThat(conflicts.packages.get(0).duplicates)
+                    .containsExactly(
+                            entry(Arrays.asList("b.jar", "c.jar"), Arrays.asList("org.a.A")));
+
+            assertThat(ClassConflicts.find(index, Collections.singletonList("a.jar")).isEmpty())
+                    .isTrue();
+        }
+    }
+
+    private void createJar(String name, String... entries) throws IOException {
+        try (OutputStream out = Files.newOutputStream(tempDir.resolve(name));
+                JarOutputStream jos = new JarOutputStream(out)) {
+            for (String entry : entries) {
+                jos.putNextEntry(new JarEntry(entry));
+                jos.closeEntry();
+            }
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package org.codejive.jpm.util;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ClassIndexTest {
+
+    @TempDir Path tempDir;
+
+    @Test
+    void testEntryNamesSkipsDirectories() throws IOException {
+        Path jar = createJar(tempDir.resolve("a.jar"), "org/", "org/a/A.class", "a.properties");
+        assertThat(ClassIndex.entryNames(jar)).containsExactly("org/a/A.class", "a.properties");
+
+        // Something in front of the zip, like the launcher script of an executable jar
+        Path exec = tempDir.resolve("exec.jar");
+        Files.write(exec, "#!/bin/sh\nexec java -jar $0\n".getBytes());
+        Files.write(exec, Files.readAllBytes(jar), StandardOpenOption.APPEND);
+        assertThat(ClassIndex.entryNames(exec)).containsExactly("org/a/A.class", "a.properties");
+    }
+
+    @Test
+    void testFind() throws IOException {
+        Path deps = Files.createDirectory(tempDir.resolve("deps"));
+        createJar(deps.resolve("a.jar"), "org/a/A.class", "org/a/A$Inner.class", "common.txt");
+        createJar(deps.resolve("b.jar"), "org/b/B.class", "common.txt", "META-INF/b.txt");
+        Files.write(deps.resolve("notes.pom"), "<project/>".getBytes());
+
+        assertThat(ClassIndex.update(deps, 2)).isTrue();
+        try (ClassIndex index = ClassIndex.open(deps)) {
+            assertThat(index.jars()).containsExactly("a.jar", "b.jar", "notes.pom");
+            assertThat(index.size()).isEqualTo(6);
+            assertThat(index.find("org.a.A")).containsExactly("a.jar");
+            assertThat(index.find("org.a.A$Inner")).containsExactly("a.jar");
+            assertThat(index.find("org/b/B.class")).containsExactly("b.jar");
+            assertThat(index.find("META-INF/b.txt")).containsExactly("b.jar");
+            assertThat(index.find("common.txt")).containsExactly("a.jar", "b.jar");
+            assertThat(index.find("org.a")).isEmpty();
+            assertThat(index.find("org.c.C")).isEmpty();
+            assertThat(index.find("")).isEmpty();
+        }
+    }
+
+    @Test
+    void testUpdateOnlyWhenChanged() throws IOException {
+        Path deps = Files.createDirectory(tempDir.resolve("deps"));
+        createJar(deps.resolve("a.jar"), "org/a/A.class");
+        createJar(deps.resolve("b.jar"), "org/b/B.class");
+        assertThat(ClassIndex.update(deps, 1)).isTrue();
+        assertThat(ClassIndex.update(deps, 1)).isFalse();
+
+        Files.delete(deps.resolve("b.jar"));
+        createJar(deps.resolve("c.jar"), "org/c/C.class");
+        assertThat(ClassIndex.update(deps, 1)).isTrue();
+        try (ClassIndex index = ClassIndex.open(deps)) {
+            assertThat(index.jars()).containsExactly("a.jar", "c.jar");
+            assertThat(index.find("org.a.A")).containsExactly("a.jar");
+            assertThat(index.find("org.b.B")).isEmpty();
+            assertThat(index.find("org.c.C")).containsExactly("c.jar");
+        }
+
+        // A changed jar gets scanned again
+        createJar(deps.resolve("a.jar"), "org/a/A2.class", "org/a/A3.class");
+        assertThat(ClassIndex.update(deps, 1)).isTrue();
+        try (ClassIndex index = ClassIndex.open(deps)) {
+            assertThat(index.find("org.a.A")).isEmpty();
+            assertThat(index.find("org.a.A2")).containsExactly("a.jar");
+        }
+    }
+
+    @Test
+    void testUpdateFromPreviousIndex() throws IOException {
+        Path gen1 = Files.createDirectory(tempDir.resolve("gen1"));
+        createJar(gen1.resolve("a.jar"), "org/a/A.class");
+        ClassIndex.update(gen1, 1);
+        ClassIndex previous = ClassIndex.load(gen1);
+        FileUtils.deleteRecursively(gen1);
+        assertThat(previous.find("org.a.A")).containsExactly("a.jar");
+
+        // A new directory without an index gets one, even if nothing changed
+        Path gen2 = Files.createDirectory(tempDir.resolve("gen2"));
+        createJar(gen2.resolve("b.jar"), "org/b/B.class");
+        assertThat(ClassIndex.update(gen2, previous, 1)).isTrue();
+        try (ClassIndex index = ClassIndex.open(gen2)) {
+            assertThat(index.jars()).containsExactly("b.jar");
+            assertThat(index.find("org.b.B")).containsExactly("b.jar");
+        }
+    }
+
+    @Test
+    void testOpenInvalidIndex() throws IOException {
+        Files.write(tempDir.resolve(ClassIndex.FILE_NAME), "not an index".getBytes());
+        assertThatThrownBy(() -> ClassIndex.open(tempDir))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("Not a valid class index");
+        // Gets replaced by a proper one
+        createJar(tempDir.resolve("a.jar"), "org/a/A.class");
+        assertThat(ClassIndex.update(tempDir, 1)).isTrue();
+        try (ClassIndex index = ClassIndex.open(tempDir)) {
+            assertThat(index.find("org.a.A")).containsExactly("a.jar");
+        }
+    }
+
+    private static Path createJar(Path jar, String... names) throws IOException {
+        try (OutputStream out = Files.newOutputStream(jar);
+                JarOutputStream jos = new JarOutputStream(out)) {
+            for (String name : names) {
+                jos.putNextEntry(new JarEntry(name));
+                if (!name.endsWith("/")) {
+                    jos.write(name.getBytes());
+                }
+                jos.closeEntry();
+            }
+        }
+        return jar;
+    }
+}
@@ -0,0 +1,68 @@
+package org.codejive.jpm.util;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ClasspathJarTest {
+
+    @TempDir Path tempDir;
+
+    @Test
+    void testManifestReferencesArtifacts() throws IOException {
+        Path deps = tempDir.resolve("deps");
+        List<Path> classpath =
+                List.of(
+                        deps.resolve("lib-a-1.0.jar"),
+                        deps.resolve("lib b 2.0.jar"),
+                        tempDir.resolve("repo/org/lib-c-1.0.jar"));
+
+        Path jar = ClasspathJar.write(deps, classpath);
+
+        assertThat(jar).isEqualTo(deps.resolve(ClasspathJar.FILE_NAME));
+        assertThat(classPathOf(jar))
+                .isEqualTo("lib-a-1.0.jar lib%20b%202.0.jar ../repo/org/lib-c-1.0.jar");
+    }
+
+    @Test
+    void testOnlyRewrittenWhenArtifactsChange() throws IOException {
+        Path deps = tempDir.resolve("deps");
+        List<Path> classpath = List.of(deps.resolve("lib-a-1.0.jar"));
+        Path jar = ClasspathJar.write(deps, classpath);
+        Object key = fileKey(jar);
+
+        ClasspathJar.write(deps, classpath);
+        assertThat(fileKey(jar)).isEqualTo(key);
+
+        ClasspathJar.write(deps, List.of(deps.resolve("lib-a-2.0.jar")));
+        assertThat(classPathOf(jar)).isEqualTo("lib-a-2.0.jar");
+    }
+
+    @Test
+    void testCorruptJarIsReplaced() throws IOException {
+        Path deps = tempDir.resolve("deps");
+        Files.createDirectories(deps);
+        Files.writeString(deps.resolve(ClasspathJar.FILE_NAME), "garbage");
+
+        Path jar = ClasspathJar.write(deps, List.of(deps.resolve("lib-a-1.0.jar")));
+        assertThat(classPathOf(jar)).isEqualTo("lib-a-1.0.jar");
+    }
+
+    private static String classPathOf(Path jar) throws IOException {
+        try (JarFile jf = new JarFile(jar.toFile())) {
+            return jf.getManifest().getMainAttributes().getValue(Attributes.Name.CLASS_PATH);
+        }
+    }
+
+    private static Object fileKey(Path file) throws IOException {
+        return Files.readAttributes(file, BasicFileAttributes.class).fileKey();
+    }
+}
@@ -0,0 +1,91 @@
+package org.codejive.jpm.util;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class CommandTemplateTest {
+
+    private final List<Path> classpath =
+            Arrays.asList(Paths.get("deps/lib1.jar"), Paths.get("deps/lib2.jar"));
+    private final String deps =
+            "deps/lib1.jar".replace('/', File.separatorChar)
+                    + File.pathSeparator
+                    + "deps/lib2.jar".replace('/', File.separatorChar);
+
+    @Test
+    void testRender() {
+        CommandTemplate t =
+                CommandTemplate.compile("java {{cds}} -cp {{depsjar}}{:}{{deps}} Main {{deps}}");
+        assertThat(t.isUsingSubstitutions()).isTrue();
+        assertThat(t.render(classpath, Paths.get("cp.jar"), "-Xshare:auto", null))
+                .isEqualTo(
+                        "java -Xshare:auto -cp cp.jar"
+                                + File.pathSeparator
+                                + deps
+                                + " Main "
+                                + deps);
+        // The same template can be rendered again with different values
+        assertThat(t.render(null, null, null, null))
+                .isEqualTo("java  -cp " + File.pathSeparator + " Main ");
+    }
+
+    @Test
+    void testUsingSubstitutions() {
+        assertThat(CommandTemplate.compile("java -cp {{deps}} Main").isUsingSubstitutions())
+                .isFalse();
+        assertThat(CommandTemplate.compile("echo {]} {x} @[ {./").isUsingSubstitutions()).isFalse();
+        assertThat(CommandTemplate.compile("echo {/}").isUsingSubstitutions()).isTrue();
+        assertThat(CommandTemplate.compile("echo {~/a}").isUsingSubstitutions()).isTrue();
+        assertThat(CommandTemplate.compile("echo @[a]").isUsingSubstitutions()).isTrue();
+    }
+
+    @Test
+    void testArgsFiles() {
+        List<String> contents = new ArrayList<>();
+        CommandTemplate t = CommandTemplate.compile("java @[ -cp {{deps}} {]} ] @[] Main");
+        String result =
+                t.render(
+                        classpath,
+                        null,
+                        null,
+                        c -> {
+                            contents.add(c);
+                            return Paths.get("args" + contents.size());
+                        });
+        assertThat(result).isEqualTo("java @args1 @args2 Main");
+        // An escaped bracket doesn't end the group and is left alone
+        assertThat(contents).containsExactly("-cp " + deps + " {]}", "");
+
+        assertThat(t.render(classpath, null, null, null))
+                .isEqualTo("java -cp " + deps + " {]}  Main");
+    }
+
+    @Test
+    void testUnterminatedGroupIsText() {
+        CommandTemplate t = CommandTemplate.compile("echo @[{/}x {]}");
+        assertThat(t.render(null, null, null, c -> Paths.get("never")))
+                .isEqualTo("echo @[" + File.separator + "x {]}");
+    }
+
+    @Test
+    void testLength() {
+        String[] commands = {
+            "java -cp {{deps}}{:}{./target/classes} Main",
+            "java @[-cp {{deps}}] {;} echo {~} {{depsjar}}",
+            "plain",
+            ""
+        };
+        for (String command : commands) {
+            CommandTemplate.Bound b =
+                    CommandTemplate.compile(command).bind(classpath, Paths.get("cp.jar"), null);
+            assertThat(b.length()).as(command).isEqualTo(b.render(null).length());
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package org.codejive.jpm.util;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import org.eclipse.aether.DefaultRepositorySystemSession;
+import org.eclipse.aether.DefaultSessionData;
+import org.eclipse.aether.RepositorySystemSession;
+import org.eclipse.aether.artifact.DefaultArtifact;
+import org.eclipse.aether.graph.Dependency;
+import org.eclipse.aether.graph.Exclusion;
+import org.eclipse.aether.impl.ArtifactDescriptorReader;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.eclipse.aether.resolution.ArtifactDescriptorRequest;
+import org.eclipse.aether.resolution.ArtifactDescriptorResult;
+import org.eclipse.aether.resolution.ArtifactResult;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/** Tests for the DescriptorCache class. */
+class DescriptorCacheTest {
+
+    @TempDir Path cacheDir;
+
+    private ResolverSession session;
+    private RepositorySystemSession rss;
+    private final AtomicInteger reads = new AtomicInteger();
+
+    private final ArtifactDescriptorReader reader =
+            (s, request) -> {
+                reads.incrementAndGet();
+                ArtifactDescriptorResult result = new ArtifactDescriptorResult(request);
+                result.setArtifact(request.getArtifact());
+                result.addDependency(
+                        new Dependency(
+                                new DefaultArtifact("com.example:dep:jar:tests:2.0"),
+                                "test",
+                                true,
+                                Collections.singletonList(
+                                        new Exclusion("com.example", "excluded", "*", "*"))));
+                result.addManagedDependency(
+                        new Dependency(new DefaultArtifact("com.example:managed:3.0"), "runtime"));
+                result.addRepository(
+                        new RemoteRepository.Builder("extra", "default", "https://example.com/m2")
+                                .build());
+                result.setProperties(Collections.singletonMap("license.count", 1));
+                return result;
+            };
+
+    private static final String POM =
+            "<project>\n"
+                    + "  <modelVersion>4.0.0</modelVersion>\n"
+                    + "  <groupId>com.example</groupId>\n"
+                    + "  <artifactId>lib</artifactId>\n"
+                    + "  <version>1.0</version>\n"
+                    + "</project>\n";
+
+    @BeforeEach
+    void setUp() throws IOException {
+        session = new ResolverSession();
+        rss = session.context(cacheDir, Collections.emptyList(), 0, true).repositorySystemSession();
+        writePom(POM);
+    }
+
+    @AfterEach
+    void tearDown() {
+        session.close();
+    }
+
+    @Test
+    void testStoresAndReadsDescriptor() throws Exception {
+        ArtifactDescriptorResult first =
+                new DescriptorCache(reader).readArtifactDescriptor(rss, request());
+        ArtifactDescriptorResult second =
+                new DescriptorCache(reader).readArtifactDescriptor(rss, request());
+
+        assertThat(reads).hasValue(1);
+        assertThat(entry(rss)).exists();
+        assertThat(second.getArtifact()).isEqualTo(first.getArtifact());
+        assertThat(second.getDependencies()).isEqualTo(first.getDependencies());
+        assertThat(second.getDependencies().get(0).getOptional()).isTrue();
+        assertThat(second.getDependencies().get(0).getExclusions())
+                .containsExactly(new Exclusion("com.example", "excluded", "*", "*"));
+        assertThat(second.getManagedDependencies()).isEqualTo(first.getManagedDependencies());
+        assertThat(second.getRepositories()).isEqualTo(first.getRepositories());
+        assertThat(second.getProperties()).containsEntry("license.count", "1");
+    }
+
+    @Test
+    void testChangedPomInvalidatesEntry() throws Exception {
+        DescriptorCache cache = new DescriptorCache(reader);
+        cache.readArtifactDescriptor(rss, request());
+        writePom(POM.replace("</project>", "  <name>Changed</name>\n</project>"));
+        cache.readArtifactDescriptor(rss, request());
+        cache.readArtifactDescriptor(rss, request());
+
+        assertThat(reads).hasValue(2);
+    }
+
+    @Test
+    void testEnvironmentIsPartOfKey() throws Exception {
+        DescriptorCache cache = new DescriptorCache(reader);
+        cache.readArtifactDescriptor(rss, request());
+        // Profiles can be activated by the JDK, the OS or properties like these
+        DefaultRepositorySystemSession other = new DefaultRepositorySystemSession(rss);
+        other.setUserProperty("env", "test");
+        other.setData(new DefaultSessionData());
+        cache.readArtifactDescriptor(other, request());
+        cache.readArtifactDescriptor(other, request());
+        // As well as the repositories
+        ArtifactDescriptorRequest withRepo = request();
+        withRepo.addRepository(
+                new RemoteRepository.Builder("extra", "default", "https://example.com/m2").build());
+        cache.readArtifactDescriptor(rss, withRepo);
+
+        assertThat(reads).hasValue(3);
+        assertThat(entry(other)).exists().isNotEqualTo(entry(rss));
+    }
+
+    @Test
+    void testCorruptEntryIsIgnored() throws Exception {
+        DescriptorCache cache = new DescriptorCache(reader);
+        cache.readArtifactDescriptor(rss, request());
+        Files.writeString(entry(rss), "not an entry");
+        ArtifactDescriptorResult result = cache.readArtifactDescriptor(rss, request());
+
+        assertThat(reads).hasValue(2);
+        assertThat(result.getDependencies()).hasSize(1);
+    }
+
+    @Test
+    void testSnapshotsAreNotCached() throws Exception {
+        DescriptorCache cache = new DescriptorCache(reader);
+        ArtifactDescriptorRequest request =
+                new ArtifactDescriptorRequest(
+                        new DefaultArtifact("com.example:lib:1.0-SNAPSHOT"), null, null);
+        cache.readArtifactDescriptor(rss, request);
+        cache.readArtifactDescriptor(rss, request);
+
+        assertThat(reads).hasValue(2);
+    }
+
+    @Test
+    void testResolverUsesCache() throws Exception {
+        List<ArtifactResult> results =
+                Resolver.create(
+                                new String[] {"com.example:lib:1.0"},
+                                Collections.emptyMap(),
+                                cacheDir,
+                                session)
+                        .offline(true)
+                        .resolve();
+
+        assertThat(results).hasSize(1);
+        // Named after the repositories of the request, which the resolver determines
+        try (Stream<Path> entries =
+                Files.list(cacheDir.resolve(".jpm/descriptors/com.example/lib"))) {
+            assertThat(entries.map(p -> p.getFileName().toString()))
+                    .singleElement(as(STRING))
+                    .matches("1\\.0-[0-9a-f]{16}\\.bin");
+        }
+    }
+
+    private static ArtifactDescriptorRequest request() {
+        return new ArtifactDescriptorRequest(
+                new DefaultArtifact("com.example:lib:1.0"), null, null);
+    }
+
+    private Path entry(RepositorySystemSession s) {
+        ArtifactDescriptorRequest request = request();
+        return DescriptorCache.entryPath(
+                cacheDir, request.getArtifact(), DescriptorCache.environment(s, request));
+    }
+
+    private void writePom(String pom) throws IOException {
+        Path dir = cacheDir.resolve("com/example/lib/1.0");
+        Files.createDirectories(dir);
+        Files.writeString(dir.resolve("lib-1.0.pom"), pom);
+        Files.writeString(dir.resolve("lib-1.0.jar"), "jar");
+    }
+}
@@ -0,0 +1,110 @@
+package org.codejive.jpm.util;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class FileLocksTest {
+
+    @TempDir Path tempDir;
+
+    private ExecutorService executor;
+
+    @BeforeEach
+    void setUp() {
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void testLockFileIsNextToPath() throws Exception {
+        Path deps = tempDir.resolve("deps");
+        assertThat(FileLocks.lockFileFor(deps))
+                .isEqualTo(tempDir.resolve(".jpm").resolve("locks").resolve("deps.lock"));
+        FileLocks.exclusive(deps).close();
+        // The lock files don't end up in version control
+        assertThat(tempDir.resolve(".jpm").resolve(".gitignore")).hasContent("*");
+        assertThat(tempDir.resolve(".jpm-deps.lock")).doesNotExist();
+    }
+
+    @Test
+    void testSharedLocksDontBlockEachOther() throws Exception {
+        Path deps = tempDir.resolve("deps");
+        CountDownLatch bothHeld = new CountDownLatch(2);
+        Future<?> f1 = executor.submit(() -> holdShared(deps, bothHeld));
+        Future<?> f2 = executor.submit(() -> holdShared(deps, bothHeld));
+        // Would time out if the second reader had to wait for the first one
+        f1.get(5, TimeUnit.SECONDS);
+        f2.get(5, TimeUnit.SECONDS);
+        assertThat(FileLocks.lockFileFor(deps)).exists();
+    }
+
+    @Test
+    @SuppressWarnings("try")
+    void testExclusiveLockBlocksOthers() throws Exception {
+        Path deps = tempDir.resolve("deps");
+        Future<?> reader;
+        Future<?> writer;
+        try (FileLocks.Handle lock = FileLocks.exclusive(deps)) {
+            reader = executor.submit(() -> lockAndRelease(deps, false));
+            writer = executor.submit(() -> lockAndRelease(deps, true));
+            assertThatThrownBy(() -> reader.get(200, TimeUnit.MILLISECONDS))
+                    .isInstanceOf(TimeoutException.class);
+            assertThatThrownBy(() -> writer.get(200, TimeUnit.MILLISECONDS))
+                    .isInstanceOf(TimeoutException.class);
+        }
+        reader.get(5, TimeUnit.SECONDS);
+        writer.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    @SuppressWarnings("try")
+    void testSharedLockBlocksExclusive() throws Exception {
+        Path app = tempDir.resolve("app.yml");
+        Future<?> writer;
+        try (FileLocks.Handle lock = FileLocks.shared(app)) {
+            writer = executor.submit(() -> lockAndRelease(app, true));
+            assertThatThrownBy(() -> writer.get(200, TimeUnit.MILLISECONDS))
+                    .isInstanceOf(TimeoutException.class);
+        }
+        writer.get(5, TimeUnit.SECONDS);
+        // Different paths don't interfere
+        try (FileLocks.Handle lock = FileLocks.exclusive(app)) {
+            executor.submit(() -> lockAndRelease(tempDir.resolve("deps"), true))
+                    .get(5, TimeUnit.SECONDS);
+        }
+    }
+
+    @SuppressWarnings("try")
+    private static Void lockAndRelease(Path path, boolean exclusive) throws Exception {
+        try (FileLocks.Handle lock =
+                exclusive ? FileLocks.exclusive(path) : FileLocks.shared(path)) {
+            return null;
+        }
+    }
+
+    @SuppressWarnings("try")
+    private static Void holdShared(Path path, CountDownLatch bothHeld) throws Exception {
+        try (FileLocks.Handle lock = FileLocks.shared(path)) {
+            bothHeld.countDown();
+            if (!bothHeld.await(5, TimeUnit.SECONDS)) {
+                throw new TimeoutException();
+            }
+        }
+        return null;
+    }
+}
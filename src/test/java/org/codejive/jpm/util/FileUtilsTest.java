@@ -0,0 +1,209 @@
+package org.codejive.jpm.util;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/** Tests for FileUtils class, focusing on syncing artifacts. */
+class FileUtilsTest {
+
+    @TempDir Path tempDir;
+
+    @Test
+    void testParallelSyncMatchesSerialSync() throws IOException {
+        List<Path> artifacts = createArtifacts(50);
+        Path serialDir = tempDir.resolve("serial");
+        Path parallelDir = tempDir.resolve("parallel");
+
+        SyncResult serial = FileUtils.syncArtifacts(artifacts, serialDir, true, false, 1);
+        SyncResult parallel = FileUtils.syncArtifacts(artifacts, parallelDir, true, false, 8);
+
+        assertThat(parallel.copied).isEqualTo(serial.copied).isEqualTo(50);
+        assertThat(parallel.files)
+                .containsExactlyElementsOf(
+                        serial.files.stream()
+                                .map(f -> parallelDir.resolve(f.getFileName()))
+                                .collect(Collectors.toList()));
+        assertThat(parallel.metrics.files().keySet()).containsExactlyElementsOf(parallel.files);
+    }
+
+    @Test
+    void testParallelSyncUpdatesAndDeletes() throws IOException {
+        List<Path> artifacts = createArtifacts(20);
+        Path dir = tempDir.resolve("deps");
+        FileUtils.syncArtifacts(artifacts, dir, true, false, 8);
+        Files.writeString(dir.resolve("stale-1.jar"), "stale");
+        Files.writeString(dir.resolve("stale-2.jar"), "stale");
+        Files.writeString(dir.resolve(artifacts.get(3).getFileName()), "changed");
+
+        SyncResult result = FileUtils.syncArtifacts(artifacts, dir, true, false, 8);
+
+        assertThat(result.copied).isZero();
+        assertThat(result.updated).isEqualTo(1);
+        assertThat(result.deleted).isEqualTo(2);
+        assertThat(dir.resolve("stale-1.jar")).doesNotExist();
+        assertThat(Files.readString(dir.resolve(artifacts.get(3).getFileName())))
+                .isEqualTo("artifact 3");
+    }
+
+    @Test
+    void testParallelSyncAggregatesErrors() throws IOException {
+        List<Path> artifacts = createArtifacts(10);
+        artifacts.add(tempDir.resolve("repo/missing-1.jar"));
+        artifacts.add(tempDir.resolve("repo/missing-2.jar"));
+        Path dir = tempDir.resolve("deps");
+
+        assertThatThrownBy(() -> FileUtils.syncArtifacts(artifacts, dir, true, false, 4))
+                .isInstanceOf(IOException.class)
+                .hasMessage("Failed to sync 2 files")
+                .satisfies(e -> assertThat(e.getSuppressed()).hasSize(2));
+        // All the other artifacts were still synced
+        assertThat(dir.resolve("artifact-9.jar")).exists();
+    }
+
+    @Test
+    void testHardLinkMode() throws IOException {
+        List<Path> artifacts = createArtifacts(5);
+        Path dir = tempDir.resolve("deps");
+        FileUtils.syncArtifacts(artifacts, dir, LinkMode.COPY, false);
+        Path target = dir.resolve(artifacts.get(0).getFileName());
+        assertThat(Files.isSameFile(target, artifacts.get(0))).isFalse();
+
+        // Switching modes replaces the copies with hard links
+        SyncResult result = FileUtils.syncArtifacts(artifacts, dir, LinkMode.HARD, false);
+        assertThat(result.updated).isEqualTo(5);
+        assertThat(Files.isSymbolicLink(target)).isFalse();
+        assertThat(Files.isSameFile(target, artifacts.get(0))).isTrue();
+
+        result = FileUtils.syncArtifacts(artifacts, dir, LinkMode.HARD, false);
+        assertThat(result.updated).isZero();
+
+        // And back to real copies
+        result = FileUtils.syncArtifacts(artifacts, dir, LinkMode.COPY, false);
+        assertThat(result.updated).isEqualTo(5);
+        assertThat(Files.isSameFile(target, artifacts.get(0))).isFalse();
+    }
+
+    @Test
+    void testAutoLinkModeAcceptsExistingFiles() throws IOException {
+        List<Path> artifacts = createArtifacts(5);
+        Path dir = tempDir.resolve("deps");
+        SyncResult result = FileUtils.syncArtifacts(artifacts, dir, LinkMode.AUTO, false);
+        assertThat(result.copied).isEqualTo(5);
+        Path target = dir.resolve(artifacts.get(0).getFileName());
+        // Cache and deps directory are on the same file system, so hard links are used
+        assertThat(Files.isSymbolicLink(target)).isFalse();
+        assertThat(Files.isSameFile(target, artifacts.get(0))).isTrue();
+
+        result = FileUtils.syncArtifacts(artifacts, dir, LinkMode.AUTO, false);
+        assertThat(result.copied + result.updated).isZero();
+    }
+
+    @Test
+    void testCopyFileReplacesTargetAtomically() throws IOException {
+        Path source = createArtifacts(1).get(0);
+        Path dir = tempDir.resolve("deps");
+        Files.createDirectories(dir);
+        Path target = dir.resolve(source.getFileName());
+        // A hard link must be replaced, not written through
+        Files.createLink(target, source);
+
+        FileUtils.copyFile(source, target);
+
+        assertThat(Files.isSameFile(source, target)).isFalse();
+        assertThat(Files.readString(target)).isEqualTo("artifact 0");
+        assertThat(Files.getLastModifiedTime(target).toMillis())
+                .isEqualTo(Files.getLastModifiedTime(source).toMillis());
+        try (Stream<Path> files = Files.list(dir)) {
+            assertThat(files).containsExactly(target);
+        }
+    }
+
+    @Test
+    void testCopyFileKeepsPermissions() throws IOException {
+        Path source = createArtifacts(1).get(0);
+        assumeTrue(Files.getFileAttributeView(source, PosixFileAttributeView.class) != null);
+        Set<PosixFilePermission> perms = PosixFilePermissions.fromString("rwxr-x---");
+        Files.setPosixFilePermissions(source, perms);
+        Path target = tempDir.resolve("copy.jar");
+
+        FileUtils.copyFile(source, target);
+
+        assertThat(Files.getPosixFilePermissions(target)).isEqualTo(perms);
+    }
+
+    @Test
+    void testSyncManifestSkipsUnchangedFiles() throws IOException {
+        List<Path> artifacts = createArtifacts(10);
+        Path dir = tempDir.resolve("deps");
+        FileUtils.syncArtifacts(artifacts, dir, LinkMode.COPY, false);
+        Path manifest = dir.resolve(SyncManifest.FILE_NAME);
+        assertThat(manifest).exists();
+        String content = Files.readString(manifest);
+
+        SyncResult result = FileUtils.syncArtifacts(artifacts, dir, LinkMode.COPY, false);
+        assertThat(result.copied + result.updated + result.deleted).isZero();
+        // The manifest is never considered a stale file
+        assertThat(manifest).exists();
+        assertThat(Files.readString(manifest)).isEqualTo(content);
+        assertThat(result.metrics.files().keySet()).containsExactlyElementsOf(result.files);
+    }
+
+    @Test
+    void testSyncManifestDetectsChanges() throws IOException {
+        List<Path> artifacts = createArtifacts(5);
+        Path dir = tempDir.resolve("deps");
+        FileUtils.syncArtifacts(artifacts, dir, LinkMode.COPY, false);
+        Path target = dir.resolve(artifacts.get(1).getFileName());
+        Files.writeString(target, "changed by someone else");
+        Files.delete(dir.resolve(artifacts.get(2).getFileName()));
+
+        SyncResult result = FileUtils.syncArtifacts(artifacts, dir, LinkMode.COPY, false);
+        assertThat(result.updated).isEqualTo(1);
+        assertThat(result.copied).isEqualTo(1);
+        assertThat(Files.readString(target)).isEqualTo("artifact 1");
+
+        // Switching link modes doesn't trust the manifest either
+        result = FileUtils.syncArtifacts(artifacts, dir, LinkMode.SYMLINK, false);
+        assertThat(result.updated).isEqualTo(5);
+        assertThat(Files.isSymbolicLink(target)).isTrue();
+    }
+
+    @Test
+    void testCorruptSyncManifestIsIgnored() throws IOException {
+        List<Path> artifacts = createArtifacts(5);
+        Path dir = tempDir.resolve("deps");
+        FileUtils.syncArtifacts(artifacts, dir, LinkMode.COPY, false);
+        Files.writeString(dir.resolve(SyncManifest.FILE_NAME), "garbage\tgarbage\n");
+
+        SyncResult result = FileUtils.syncArtifacts(artifacts, dir, LinkMode.COPY, false);
+        assertThat(result.copied + result.updated + result.deleted).isZero();
+        assertThat(Files.readString(dir.resolve(SyncManifest.FILE_NAME)))
+                .startsWith("# jpm sync manifest");
+    }
+
+    private List<Path> createArtifacts(int count) throws IOException {
+        Path repo = tempDir.resolve("repo");
+        Files.createDirectories(repo);
+        List<Path> artifacts = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Path artifact = repo.resolve("artifact-" + i + ".jar");
+            Files.writeString(artifact, "artifact " + i);
+            artifacts.add(artifact);
+        }
+        return artifacts;
+    }
+}
@@ -0,0 +1,127 @@
+package org.codejive.jpm.util;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/** Tests for the Generations class. */
+class GenerationsTest {
+
+    @TempDir Path tempDir;
+
+    @Test
+    void testSyncSwitchesLinkToNewGeneration() throws IOException {
+        List<Path> artifacts = createArtifacts(5);
+        Path deps = tempDir.resolve("deps");
+        Generations gens = new Generations(deps);
+
+        SyncResult result = gens.sync(artifacts, LinkMode.SYMLINK, 4, 2, null);
+
+        assertThat(result.copied).isEqualTo(5);
+        assertThat(result.files).allMatch(f -> f.getParent().equals(deps));
+        assertThat(Files.isSymbolicLink(deps)).isTrue();
+        String id = Generations.id(artifacts, LinkMode.SYMLINK);
+        assertThat(gens.current()).isEqualTo(id);
+        assertThat(Files.readSymbolicLink(deps)).isEqualTo(Paths.get(".deps.generations", id));
+        assertThat(deps.resolve("artifact-0.jar")).exists();
+    }
+
+    @Test
+    void testSyncReusesIdenticalGeneration() throws IOException {
+        List<Path> artifacts = createArtifacts(5);
+        Path deps = tempDir.resolve("deps");
+        Generations gens = new Generations(deps);
+        gens.sync(artifacts, LinkMode.SYMLINK, 4, 2, null);
+        String first = gens.current();
+
+        SyncResult result = gens.sync(artifacts.subList(0, 3), LinkMode.SYMLINK, 4, 2, null);
+        assertThat(result.copied).isEqualTo(3);
+        assertThat(gens.current()).isNotEqualTo(first);
+        assertThat(deps.resolve("artifact-4.jar")).doesNotExist();
+
+        // Going back to the original set of artifacts doesn't touch any files
+        result = gens.sync(artifacts, LinkMode.SYMLINK, 4, 2, null);
+        assertThat(result.copied + result.updated + result.deleted).isZero();
+        assertThat(gens.current()).isEqualTo(first);
+        assertThat(deps.resolve("artifact-4.jar")).exists();
+    }
+
+    @Test
+    void testPruneKeepsGivenNumberOfGenerations() throws IOException {
+        List<Path> artifacts = createArtifacts(5);
+        Path deps = tempDir.resolve("deps");
+        Generations gens = new Generations(deps);
+        for (int i = 1; i <= 5; i++) {
+            gens.sync(artifacts.subList(0, i), LinkMode.SYMLINK, 4, 2, null);
+        }
+
+        List<String> list = gens.list();
+        assertThat(list).hasSize(3);
+        assertThat(list.get(0)).isEqualTo(gens.current());
+        assertThat(list.get(1))
+                .isEqualTo(Generations.id(artifacts.subList(0, 4), LinkMode.SYMLINK));
+        try (Stream<Path> dirs = Files.list(gens.root())) {
+            assertThat(dirs.filter(Files::isDirectory)).hasSize(3);
+        }
+    }
+
+    @Test
+    void testRollbackTogglesBetweenGenerations() throws IOException {
+        List<Path> artifacts = createArtifacts(5);
+        Path deps = tempDir.resolve("deps");
+        Generations gens = new Generations(deps);
+        gens.sync(artifacts.subList(0, 2), LinkMode.SYMLINK, 4, 2, null);
+        String first = gens.current();
+        gens.sync(artifacts, LinkMode.SYMLINK, 4, 2, null);
+        String second = gens.current();
+
+        assertThat(gens.rollback(null)).isEqualTo(first);
+        assertThat(gens.current()).isEqualTo(first);
+        assertThat(deps.resolve("artifact-4.jar")).doesNotExist();
+        assertThat(gens.rollback(null)).isEqualTo(second);
+        assertThat(deps.resolve("artifact-4.jar")).exists();
+
+        assertThat(gens.rollback(first)).isEqualTo(first);
+        assertThatThrownBy(() -> gens.rollback("nosuchgeneration"))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("Unknown generation");
+    }
+
+    @Test
+    void testSyncReplacesExistingDirectory() throws IOException {
+        List<Path> artifacts = createArtifacts(5);
+        Path deps = tempDir.resolve("deps");
+        FileUtils.syncArtifacts(artifacts, deps, LinkMode.SYMLINK, false);
+        Files.writeString(deps.resolve("extra.jar"), "extra");
+        Generations gens = new Generations(deps);
+
+        gens.sync(artifacts, LinkMode.SYMLINK, 4, 2, null);
+
+        assertThat(Files.isSymbolicLink(deps)).isTrue();
+        assertThat(deps.resolve("artifact-0.jar")).exists();
+        assertThat(deps.resolve("extra.jar")).doesNotExist();
+        assertThatThrownBy(() -> gens.rollback(null))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("There is no previous generation");
+    }
+
+    private List<Path> createArtifacts(int count) throws IOException {
+        Path repo = tempDir.resolve("repo");
+        Files.createDirectories(repo);
+        List<Path> artifacts = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Path artifact = repo.resolve("artifact-" + i + ".jar");
+            Files.writeString(artifact, "artifact " + i);
+            artifacts.add(artifact);
+        }
+        return artifacts;
+    }
+}
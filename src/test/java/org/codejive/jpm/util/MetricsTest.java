@@ -0,0 +1,67 @@
+package org.codejive.jpm.util;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.nio.file.Paths;
+import org.junit.jupiter.api.Test;
+
+/** Tests for Metrics class. */
+class MetricsTest {
+
+    @Test
+    void testPhasesAreReportedInWellKnownOrder() {
+        Metrics metrics = new Metrics();
+        metrics.addPhase(Metrics.PHASE_SYNC, 1);
+        metrics.addPhase("custom", 2);
+        metrics.addPhase(Metrics.PHASE_COLLECT, 3);
+        metrics.addPhase(Metrics.PHASE_CONFIG, 4);
+
+        assertThat(metrics.phases().keySet())
+                .containsExactly(
+                        Metrics.PHASE_CONFIG, Metrics.PHASE_COLLECT, Metrics.PHASE_SYNC, "custom");
+    }
+
+    @Test
+    void testAdd() {
+        Metrics metrics = new Metrics();
+        metrics.addPhase(Metrics.PHASE_RESOLVE, 1_000_000);
+        metrics.increment("resolutionCacheHits");
+        Metrics other = new Metrics();
+        other.addPhase(Metrics.PHASE_RESOLVE, 2_000_000);
+        other.addPhase(Metrics.PHASE_SYNC, 500_000);
+        other.increment("resolutionCacheHits");
+        other.addFile(Paths.get("deps", "a.jar"), 250_000);
+
+        metrics.add(other);
+
+        assertThat(metrics.phases())
+                .containsEntry(Metrics.PHASE_RESOLVE, 3_000_000L)
+                .containsEntry(Metrics.PHASE_SYNC, 500_000L);
+        assertThat(metrics.counters()).containsEntry("resolutionCacheHits", 2L);
+        assertThat(metrics.files()).containsEntry(Paths.get("deps", "a.jar"), 250_000L);
+    }
+
+    @Test
+    void testToJson() {
+        Metrics metrics = new Metrics();
+        metrics.addPhase(Metrics.PHASE_CONFIG, 1_500_000);
+        metrics.increment("resolutionCacheHits");
+        metrics.addFile(Paths.get("a \"quoted\" name.jar"), 2_000_000);
+
+        assertThat(metrics.toJson())
+                .isEqualTo(
+                        "{\"phases\":{\"config\":1.500},\"bytesDownloaded\":0,"
+                                + "\"counters\":{\"resolutionCacheHits\":1},\"repositories\":{},"
+                                + "\"files\":{\"a \\\"quoted\\\" name.jar\":2.000}}");
+    }
+
+    @Test
+    void testSyncResultToJson() {
+        SyncResult result = new SyncResult();
+        result.copied = 2;
+        result.deleted = 1;
+
+        assertThat(result.toJson())
+                .startsWith("{\"copied\":2,\"updated\":0,\"deleted\":1,\"metrics\":{");
+    }
+}
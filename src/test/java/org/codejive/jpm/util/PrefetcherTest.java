@@ -0,0 +1,130 @@
+package org.codejive.jpm.util;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.eclipse.aether.artifact.DefaultArtifact;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.eclipse.aether.util.artifact.JavaScopes;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/** Tests for Prefetcher class. */
+class PrefetcherTest {
+
+    @TempDir Path tempDir;
+
+    @Test
+    void testFindAppFiles() throws IOException {
+        Path projects = tempDir.resolve("projects");
+        writeAppYml(projects.resolve("b"), "test:a:1.0");
+        writeAppYml(projects.resolve("a/nested"), "test:a:1.0");
+        writeAppYml(projects.resolve(".hidden"), "test:a:1.0");
+        Path single = writeAppYml(tempDir.resolve("single"), "test:a:1.0");
+
+        List<Path> found = Prefetcher.findAppFiles(Arrays.asList(projects, single));
+
+        assertThat(found)
+                .containsExactly(
+                        projects.resolve("a/nested/app.yml"),
+                        projects.resolve("b/app.yml"),
+                        single);
+    }
+
+    @Test
+    void testPrefetchSharesArtifactsBetweenProjects() throws Exception {
+        Path repo = tempDir.resolve("repo");
+        writeArtifact(repo, "a", "shared:1.0");
+        writeArtifact(repo, "b", "shared:1.0");
+        writeArtifact(repo, "shared");
+        Path cacheDir = tempDir.resolve("cache");
+        String repoUrl = repo.toUri().toString();
+        Path appA = writeAppYml(tempDir.resolve("pa"), "test:a:1.0", repoUrl);
+        Path appB = writeAppYml(tempDir.resolve("pb"), "test:b:1.0", repoUrl);
+        Path appC = writeAppYml(tempDir.resolve("pc"), "test:missing:1.0", repoUrl);
+
+        try (ResolverSession session = new ResolverSession()) {
+            Prefetcher prefetcher = new Prefetcher(cacheDir, session, 0, false, 2);
+            Prefetcher.PrefetchResult result =
+                    prefetcher.prefetch(Arrays.asList(appA, appB, appC), Collections.emptyMap());
+
+            assertThat(result.projects).isEqualTo(3);
+            assertThat(result.cached).isZero();
+            assertThat(result.artifacts).isEqualTo(4);
+            assertThat(result.references).isEqualTo(5);
+            assertThat(result.failures).containsOnlyKeys(appC);
+            assertThat(result.failures.get(appC)).contains("test:missing:jar:1.0");
+            assertThat(cacheDir.resolve("test/shared/1.0/shared-1.0.jar")).exists();
+            assertThat(
+                            ResolutionCache.forCacheDir(cacheDir)
+                                    .get(
+                                            Collections.singletonList(
+                                                    new DefaultArtifact("test:a:1.0")),
+                                            JavaScopes.RUNTIME,
+                                            Collections.singletonList(
+                                                    new RemoteRepository.Builder(
+                                                                    "test", "default", repoUrl)
+                                                            .build())))
+                    .hasSize(2);
+
+            // The second time around both projects come straight from the resolution cache
+            result = prefetcher.prefetch(Arrays.asList(appA, appB), Collections.emptyMap());
+            assertThat(result.cached).isEqualTo(2);
+            assertThat(result.artifacts).isZero();
+            assertThat(result.failures).isEmpty();
+        }
+    }
+
+    private static Path writeAppYml(Path dir, String dep) throws IOException {
+        return writeAppYml(dir, dep, null);
+    }
+
+    private static Path writeAppYml(Path dir, String dep, String repoUrl) throws IOException {
+        Files.createDirectories(dir);
+        Path appFile = dir.resolve("app.yml");
+        String yml = "dependencies:\n  - " + dep + "\n";
+        if (repoUrl != null) {
+            yml += "repositories:\n  test: " + repoUrl + "\n";
+        }
+        Files.writeString(appFile, yml);
+        return appFile;
+    }
+
+    private static void writeArtifact(Path repo, String artifactId, String... deps)
+            throws IOException {
+        Path dir = repo.resolve("test").resolve(artifactId).resolve("1.0");
+        Files.createDirectories(dir);
+        StringBuilder sb = new StringBuilder();
+        for (String dep : deps) {
+            String[] parts = dep.split(":");
+            sb.append("    <dependency>\n")
+                    .append("      <groupId>test</groupId>\n")
+                    .append("      <artifactId>")
+                    .append(parts[0])
+                    .append("</artifactId>\n")
+                    .append("      <version>")
+                    .append(parts[1])
+                    .append("</version>\n")
+                    .append("    </dependency>\n");
+        }
+        String pom =
+                "<project>\n"
+                        + "  <modelVersion>4.0.0</modelVersion>\n"
+                        + "  <groupId>test</groupId>\n"
+                        + "  <artifactId>"
+                        + artifactId
+                        + "</artifactId>\n"
+                        + "  <version>1.0</version>\n"
+                        + "  <dependencies>\n"
+                        + sb
+                        + "  </dependencies>\n"
+                        + "</project>\n";
+        Files.writeString(dir.resolve(artifactId + "-1.0.pom"), pom);
+        Files.writeString(dir.resolve(artifactId + "-1.0.jar"), artifactId);
+    }
+}
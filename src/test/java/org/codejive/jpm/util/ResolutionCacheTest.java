@@ -0,0 +1,163 @@
+package org.codejive.jpm.util;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.eclipse.aether.artifact.Artifact;
+import org.eclipse.aether.artifact.DefaultArtifact;
+import org.eclipse.aether.graph.DefaultDependencyNode;
+import org.eclipse.aether.graph.Dependency;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.eclipse.aether.resolution.ArtifactRequest;
+import org.eclipse.aether.resolution.ArtifactResult;
+import org.eclipse.aether.util.artifact.JavaScopes;
+import org.eclipse.aether.util.version.GenericVersionScheme;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/** Tests for ResolutionCache class, focusing on hits, misses, invalidation and eviction. */
+class ResolutionCacheTest {
+
+    @TempDir Path tempDir;
+
+    private static final List<RemoteRepository> REPOS =
+            Collections.singletonList(
+                    new RemoteRepository.Builder("central", "default", "https://repo/").build());
+
+    @Test
+    void testPutAndGet() throws IOException {
+        ResolutionCache cache = new ResolutionCache(tempDir.resolve("cache"), 10);
+        List<Artifact> roots = roots("com.example:lib1:1.0.0");
+        Path jar = createJar("lib1-1.0.0.jar");
+
+        assertThat(cache.get(roots, JavaScopes.RUNTIME, REPOS)).isNull();
+
+        cache.put(roots, JavaScopes.RUNTIME, REPOS, results("com.example:lib1:1.0.0", jar));
+
+        List<ArtifactResult> cached = cache.get(roots, JavaScopes.RUNTIME, REPOS);
+        assertThat(cached).hasSize(1);
+        assertThat(cached.get(0).getArtifact().toString()).isEqualTo("com.example:lib1:jar:1.0.0");
+        assertThat(cached.get(0).getArtifact().getFile().toPath()).isEqualTo(jar);
+        assertThat(cached.get(0).getRepository().getId()).isEqualTo("central");
+    }
+
+    @Test
+    void testKeyDependsOnRootsScopeAndRepositories() throws IOException {
+        ResolutionCache cache = new ResolutionCache(tempDir.resolve("cache"), 10);
+        List<Artifact> roots = roots("com.example:lib1:1.0.0");
+        Path jar = createJar("lib1-1.0.0.jar");
+        cache.put(roots, JavaScopes.RUNTIME, REPOS, results("com.example:lib1:1.0.0", jar));
+
+        assertThat(cache.get(roots("com.example:lib1:1.0.1"), JavaScopes.RUNTIME, REPOS)).isNull();
+        assertThat(cache.get(roots, JavaScopes.COMPILE, REPOS)).isNull();
+        assertThat(cache.get(roots, JavaScopes.RUNTIME, Collections.emptyList())).isNull();
+    }
+
+    @Test
+    void testEntryInvalidatedWhenFileDisappears() throws IOException {
+        ResolutionCache cache = new ResolutionCache(tempDir.resolve("cache"), 10);
+        List<Artifact> roots = roots("com.example:lib1:1.0.0");
+        Path jar = createJar("lib1-1.0.0.jar");
+        cache.put(roots, JavaScopes.RUNTIME, REPOS, results("com.example:lib1:1.0.0", jar));
+
+        Files.delete(jar);
+
+        assertThat(cache.get(roots, JavaScopes.RUNTIME, REPOS)).isNull();
+        assertThat(entries(tempDir.resolve("cache"))).isEmpty();
+    }
+
+    @Test
+    void testSnapshotsAreNotCached() throws IOException {
+        ResolutionCache cache = new ResolutionCache(tempDir.resolve("cache"), 10);
+        List<Artifact> roots = roots("com.example:lib1:1.0.0-SNAPSHOT");
+        Path jar = createJar("lib1-1.0.0-SNAPSHOT.jar");
+        cache.put(
+                roots, JavaScopes.RUNTIME, REPOS, results("com.example:lib1:1.0.0-SNAPSHOT", jar));
+
+        assertThat(cache.get(roots, JavaScopes.RUNTIME, REPOS)).isNull();
+    }
+
+    @Test
+    void testTransitiveSnapshotsAndRangesAreNotCached() throws Exception {
+        ResolutionCache cache = new ResolutionCache(tempDir.resolve("cache"), 10);
+        List<Artifact> roots = roots("com.example:app:1.0.0");
+        Path jar = createJar("lib.jar");
+
+        List<ArtifactResult> snapshot = new ArrayList<>(results("com.example:app:1.0.0", jar));
+        snapshot.addAll(results("com.example:lib:1.0.0-SNAPSHOT", jar));
+        cache.put(roots, JavaScopes.RUNTIME, REPOS, snapshot);
+        assertThat(cache.get(roots, JavaScopes.RUNTIME, REPOS)).isNull();
+
+        List<ArtifactResult> range = new ArrayList<>(results("com.example:app:1.0.0", jar));
+        Artifact lib = new DefaultArtifact("com.example:lib:1.1.0").setFile(jar.toFile());
+        DefaultDependencyNode node = new DefaultDependencyNode(new Dependency(lib, "runtime"));
+        node.setVersionConstraint(new GenericVersionScheme().parseVersionConstraint("[1.0,2.0)"));
+        ArtifactResult ar = new ArtifactResult(new ArtifactRequest(node));
+        ar.setArtifact(lib);
+        range.add(ar);
+        cache.put(roots, JavaScopes.RUNTIME, REPOS, range);
+        assertThat(cache.get(roots, JavaScopes.RUNTIME, REPOS)).isNull();
+    }
+
+    @Test
+    void testLeastRecentlyUsedEntriesAreEvicted() throws IOException {
+        Path dir = tempDir.resolve("cache");
+        ResolutionCache cache = new ResolutionCache(dir, 2);
+        Path jar = createJar("lib.jar");
+        List<Artifact> roots1 = roots("com.example:lib1:1.0.0");
+        List<Artifact> roots2 = roots("com.example:lib2:1.0.0");
+        List<Artifact> roots3 = roots("com.example:lib3:1.0.0");
+
+        cache.put(roots1, JavaScopes.RUNTIME, REPOS, results("com.example:lib1:1.0.0", jar));
+        cache.put(roots2, JavaScopes.RUNTIME, REPOS, results("com.example:lib2:1.0.0", jar));
+        // Make the first entry the oldest, then use it so the second one becomes the LRU
+        setAge(dir, roots1, 20000);
+        setAge(dir, roots2, 10000);
+        assertThat(cache.get(roots1, JavaScopes.RUNTIME, REPOS)).isNotNull();
+
+        cache.put(roots3, JavaScopes.RUNTIME, REPOS, results("com.example:lib3:1.0.0", jar));
+
+        assertThat(entries(dir)).hasSize(2);
+        assertThat(cache.get(roots1, JavaScopes.RUNTIME, REPOS)).isNotNull();
+        assertThat(cache.get(roots2, JavaScopes.RUNTIME, REPOS)).isNull();
+        assertThat(cache.get(roots3, JavaScopes.RUNTIME, REPOS)).isNotNull();
+    }
+
+    private void setAge(Path dir, List<Artifact> roots, long ageMillis) throws IOException {
+        Path entry = dir.resolve(ResolutionCache.key(roots, JavaScopes.RUNTIME, REPOS));
+        Files.setLastModifiedTime(
+                entry, FileTime.fromMillis(System.currentTimeMillis() - ageMillis));
+    }
+
+    private static List<Path> entries(Path dir) throws IOException {
+        try (Stream<Path> s = Files.list(dir)) {
+            return s.collect(Collectors.toList());
+        }
+    }
+
+    private static List<Artifact> roots(String gav) {
+        return Collections.singletonList(new DefaultArtifact(gav));
+    }
+
+    private static List<ArtifactResult> results(String gav, Path file) {
+        Artifact a = new DefaultArtifact(gav).setFile(file.toFile());
+        ArtifactResult ar = new ArtifactResult(new ArtifactRequest(a, null, null));
+        ar.setArtifact(a);
+        ar.setRepository(REPOS.get(0));
+        return Collections.singletonList(ar);
+    }
+
+    private Path createJar(String name) throws IOException {
+        Path jar = tempDir.resolve(name);
+        Files.writeString(jar, "content");
+        return jar;
+    }
+}
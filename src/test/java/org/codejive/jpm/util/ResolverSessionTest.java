@@ -0,0 +1,77 @@
+package org.codejive.jpm.util;
+
+import static org.assertj.core.api.Assertions.*;
+
+import eu.maveniverse.maven.mima.context.Context;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/** Tests for ResolverSession class, focusing on context reuse. */
+class ResolverSessionTest {
+
+    @TempDir Path cacheDir1;
+    @TempDir Path cacheDir2;
+
+    private static final List<RemoteRepository> REPOS =
+            Collections.singletonList(
+                    new RemoteRepository.Builder("myrepo", "default", "https://my.repo.com/")
+                            .build());
+
+    @Test
+    void testContextIsReusedForSameKey() {
+        try (ResolverSession session = new ResolverSession()) {
+            Context ctx1 = session.context(cacheDir1, REPOS);
+            Context ctx2 = session.context(cacheDir1, REPOS);
+            assertThat(ctx2).isSameAs(ctx1);
+            assertThat(ctx1.repositorySystemSession().getLocalRepository().getBasedir().toPath())
+                    .isEqualTo(cacheDir1);
+        }
+    }
+
+    @Test
+    void testDifferentContextsForDifferentKeys() {
+        try (ResolverSession session = new ResolverSession()) {
+            Context ctx1 = session.context(cacheDir1, REPOS);
+            assertThat(session.context(cacheDir2, REPOS)).isNotSameAs(ctx1);
+            assertThat(session.context(cacheDir1, Collections.emptyList())).isNotSameAs(ctx1);
+        }
+    }
+
+    @Test
+    void testOfflineContext() {
+        try (ResolverSession session = new ResolverSession()) {
+            Context online = session.context(cacheDir1, REPOS, 0, false);
+            Context offline = session.context(cacheDir1, REPOS, 0, true);
+            assertThat(offline).isNotSameAs(online);
+            assertThat(online.repositorySystemSession().isOffline()).isFalse();
+            assertThat(offline.repositorySystemSession().isOffline()).isTrue();
+        }
+    }
+
+    @Test
+    void testClosedSessionCannotBeUsed() {
+        ResolverSession session = new ResolverSession();
+        session.context(cacheDir1, REPOS);
+        session.close();
+        assertThatThrownBy(() -> session.context(cacheDir1, REPOS))
+                .isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void testLocalRepositoryMatchesContext() {
+        assertThat(ResolverSession.localRepository(cacheDir1)).isEqualTo(cacheDir1);
+        try (ResolverSession session = new ResolverSession()) {
+            Context ctx = session.context(null, REPOS);
+            assertThat(ResolverSession.localRepository(null))
+                    .isEqualTo(
+                            ctx.repositorySystemSession()
+                                    .getLocalRepository()
+                                    .getBasedir()
+                                    .toPath());
+        }
+    }
+}
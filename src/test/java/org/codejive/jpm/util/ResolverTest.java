@@ -0,0 +1,147 @@
+package org.codejive.jpm.util;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import org.eclipse.aether.resolution.ArtifactResult;
+import org.eclipse.aether.resolution.DependencyResolutionException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/** Tests for Resolver class, focusing on offline resolution. */
+class ResolverTest {
+
+    @TempDir Path cacheDir;
+
+    // A repository that can't be reached, offline mode must never try to contact it
+    private static final Map<String, String> REPOS =
+            Collections.singletonMap("unreachable", "https://unreachable.invalid/maven2");
+
+    @Test
+    void testOfflineResolvesFromCache() throws Exception {
+        writeArtifact("com.example", "lib", "1.0", "");
+
+        try (ResolverSession session = new ResolverSession()) {
+            List<ArtifactResult> results =
+                    Resolver.create(new String[] {"com.example:lib:1.0"}, REPOS, cacheDir, session)
+                            .offline(true)
+                            .resolve();
+            assertThat(results).hasSize(1);
+            assertThat(results.get(0).getArtifact().getFile().toPath())
+                    .isEqualTo(cacheDir.resolve("com/example/lib/1.0/lib-1.0.jar"));
+        }
+    }
+
+    @Test
+    void testOfflineListsMissingArtifacts() throws Exception {
+        writeArtifact("com.example", "app", "1.0", dependency("com.example", "missing", "2.0"));
+
+        try (ResolverSession session = new ResolverSession()) {
+            Resolver resolver =
+                    Resolver.create(
+                                    new String[] {"com.example:app:1.0", "com.example:gone:3.0"},
+                                    REPOS,
+                                    cacheDir,
+                                    session)
+                            .offline(true);
+            assertThatThrownBy(resolver::resolve)
+                    .isInstanceOf(DependencyResolutionException.class)
+                    .hasMessageStartingWith("Offline mode:")
+                    .hasMessageContaining("com.example:missing:jar:2.0")
+                    .hasMessageContaining("com.example:gone:jar:3.0")
+                    .hasMessageNotContaining("com.example:app:jar:1.0");
+        }
+    }
+
+    @Test
+    void testTransitiveRangesAreNotCached() throws Exception {
+        writeArtifact("com.example", "app", "1.0", dependency("com.example", "lib", "[1.0,2.0)"));
+        writeArtifact("com.example", "lib", "1.0", "");
+        writeMetadata("com.example", "lib", "1.0");
+        assertThat(resolveOffline("com.example:app:1.0"))
+                .contains(cacheDir.resolve("com/example/lib/1.0/lib-1.0.jar"));
+
+        // A newer release within the range must be picked up
+        writeArtifact("com.example", "lib", "1.1", "");
+        writeMetadata("com.example", "lib", "1.0", "1.1");
+        assertThat(resolveOffline("com.example:app:1.0"))
+                .contains(cacheDir.resolve("com/example/lib/1.1/lib-1.1.jar"))
+                .doesNotContain(cacheDir.resolve("com/example/lib/1.0/lib-1.0.jar"));
+    }
+
+    private List<Path> resolveOffline(String gav) throws DependencyResolutionException {
+        try (ResolverSession session = new ResolverSession()) {
+            return Resolver.create(new String[] {gav}, REPOS, cacheDir, session)
+                    .offline(true)
+                    .resolvePaths();
+        }
+    }
+
+    /** Writes the metadata the local repository uses to resolve version ranges. */
+    private void writeMetadata(String groupId, String artifactId, String... versions)
+            throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (String version : versions) {
+            sb.append("      <version>").append(version).append("</version>\n");
+        }
+        String metadata =
+                "<metadata>\n"
+                        + "  <groupId>"
+                        + groupId
+                        + "</groupId>\n"
+                        + "  <artifactId>"
+                        + artifactId
+                        + "</artifactId>\n"
+                        + "  <versioning>\n"
+                        + "    <versions>\n"
+                        + sb
+                        + "    </versions>\n"
+                        + "  </versioning>\n"
+                        + "</metadata>\n";
+        Path dir = cacheDir.resolve(groupId.replace('.', '/')).resolve(artifactId);
+        Files.writeString(dir.resolve("maven-metadata-local.xml"), metadata);
+    }
+
+    private void writeArtifact(String groupId, String artifactId, String version, String deps)
+            throws IOException {
+        Path dir = cacheDir.resolve(groupId.replace('.', '/')).resolve(artifactId).resolve(version);
+        Files.createDirectories(dir);
+        String pom =
+                "<project>\n"
+                        + "  <modelVersion>4.0.0</modelVersion>\n"
+                        + "  <groupId>"
+                        + groupId
+                        + "</groupId>\n"
+                        + "  <artifactId>"
+                        + artifactId
+                        + "</artifactId>\n"
+                        + "  <version>"
+                        + version
+                        + "</version>\n"
+                        + "  <dependencies>\n"
+                        + deps
+                        + "  </dependencies>\n"
+                        + "</project>\n";
+        Files.writeString(dir.resolve(artifactId + "-" + version + ".pom"), pom);
+        Files.writeString(dir.resolve(artifactId + "-" + version + ".jar"), "jar");
+    }
+
+    private static String dependency(String groupId, String artifactId, String version) {
+        return "    <dependency>\n"
+                + "      <groupId>"
+                + groupId
+                + "</groupId>\n"
+                + "      <artifactId>"
+                + artifactId
+                + "</artifactId>\n"
+                + "      <version>"
+                + version
+                + "</version>\n"
+                + "    </dependency>\n";
+    }
+}
@@ -34,6 +34,36 @@ class ScriptUtilsTest {
         assertThat(result).isEqualTo("java -cp " + expectedClasspath + " MainClass");
     }
 
+    @Test
+    void testProcessCommandWithDepsJarSubstitution() throws Exception {
+        List<Path> classpath = Arrays.asList(Paths.get("deps/lib1.jar"));
+        Path depsJar = Paths.get("deps", ".jpm-classpath.jar");
+
+        String command = "java -cp {{depsjar}}{:}classes MainClass {{deps}}";
+        String result = ScriptUtils.processCommand(command, classpath, depsJar, null);
+
+        assertThat(result)
+                .isEqualTo(
+                        "java -cp "
+                                + depsJar
+                                + File.pathSeparator
+                                + "classes MainClass "
+                                + classpath.get(0));
+    }
+
+    @Test
+    void testProcessCommandWithCdsSubstitution() throws Exception {
+        List<Path> classpath = Arrays.asList(Paths.get("deps/lib1.jar"));
+        String option = "-XX:SharedArchiveFile=/cache/.jpm/cds/abc.jsa";
+
+        String command = "java {{cds}} -cp {{deps}} MainClass";
+        assertThat(ScriptUtils.processCommand(command, classpath, null, option, null))
+                .isEqualTo("java " + option + " -cp " + classpath.get(0) + " MainClass");
+        // Nothing to substitute without an archive
+        assertThat(ScriptUtils.processCommand(command, classpath, null, null, null))
+                .isEqualTo("java  -cp " + classpath.get(0) + " MainClass");
+    }
+
     @Test
     void testProcessCommandWithoutDepsSubstitution() throws Exception {
         List<Path> classpath = Arrays.asList(Paths.get("deps/lib1.jar"));
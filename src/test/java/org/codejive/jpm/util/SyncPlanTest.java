@@ -0,0 +1,144 @@
+package org.codejive.jpm.util;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class SyncPlanTest {
+
+    @TempDir Path tempDir;
+
+    @Test
+    void testPlanDoesNotTouchDirectory() throws IOException {
+        List<Path> artifacts = createArtifacts(3);
+        Path dir = tempDir.resolve("deps");
+
+        SyncPlan plan = SyncPlan.create(artifacts, dir, LinkMode.COPY, false, null);
+
+        assertThat(dir).doesNotExist();
+        assertThat(plan.count(SyncPlan.Action.COPY)).isEqualTo(3);
+        assertThat(plan.bytesToCopy()).isEqualTo(3 * "artifact 0".length());
+        assertThat(plan.preview().copied).isEqualTo(3);
+    }
+
+    @Test
+    void testPlanListsEveryAction() throws IOException {
+        List<Path> artifacts = createArtifacts(4);
+        Path dir = tempDir.resolve("deps");
+        FileUtils.syncArtifacts(artifacts.subList(0, 3), dir, LinkMode.COPY, false);
+        Files.writeString(dir.resolve("stale.jar"), "stale");
+        Files.writeString(dir.resolve(artifacts.get(1).getFileName()), "changed");
+
+        SyncPlan plan = SyncPlan.create(artifacts, dir, LinkMode.COPY, false, null);
+
+        assertThat(plan.steps())
+                .extracting(s -> s.target.getFileName() + " " + s.action)
+                .containsExactly(
+                        "artifact-0.jar UNCHANGED",
+                        "artifact-1.jar UPDATE",
+                        "artifact-2.jar UNCHANGED",
+                        "artifact-3.jar COPY",
+                        "stale.jar DELETE");
+        assertThat(plan.steps().get(4).size).isEqualTo("stale".length());
+        assertThat(plan.bytesToCopy()).isEqualTo(2 * "artifact 0".length());
+
+        // Only symlinks would be created, no data copied
+        SyncPlan links = SyncPlan.create(artifacts, dir, LinkMode.SYMLINK, true, null);
+        assertThat(links.count(SyncPlan.Action.LINK)).isEqualTo(1);
+        assertThat(links.count(SyncPlan.Action.UPDATE)).isEqualTo(3);
+        assertThat(links.count(SyncPlan.Action.DELETE)).isZero();
+        assertThat(links.bytesToCopy()).isZero();
+    }
+
+    @Test
+    void testExecuteWithCustomExecutor() throws IOException {
+        List<Path> artifacts = createArtifacts(10);
+        Path serialDir = tempDir.resolve("serial");
+        Path parallelDir = tempDir.resolve("parallel");
+
+        SyncResult serial =
+                SyncPlan.create(artifacts, serialDir, LinkMode.COPY, false, null)
+                        .execute(Runnable::run);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        SyncResult parallel;
+        try {
+            parallel =
+                    SyncPlan.create(artifacts, parallelDir, LinkMode.COPY, false, null)
+                            .execute(executor);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertThat(serial.copied).isEqualTo(parallel.copied).isEqualTo(10);
+        assertThat(parallel.files)
+                .containsExactlyElementsOf(
+                        serial.files.stream()
+                                .map(f -> parallelDir.resolve(f.getFileName()))
+                                .collect(Collectors.toList()));
+        assertThat(SyncPlan.create(artifacts, parallelDir, LinkMode.COPY, false, null).isEmpty())
+                .isTrue();
+    }
+
+    @Test
+    void testExtraDeletesAndSingleExecution() throws IOException {
+        List<Path> artifacts = createArtifacts(2);
+        Path dir = tempDir.resolve("deps");
+        FileUtils.syncArtifacts(artifacts, dir, LinkMode.COPY, false);
+
+        SyncPlan plan = SyncPlan.create(artifacts.subList(0, 1), dir, LinkMode.COPY, true, null);
+        assertThat(plan.isEmpty()).isTrue();
+        plan.delete(artifacts.get(1).getFileName().toString());
+        plan.delete("does-not-exist.jar");
+        // Files that are part of the sync are never deleted
+        plan.delete(artifacts.get(0).getFileName().toString());
+
+        SyncResult result = plan.execute(1);
+        assertThat(result.deleted).isEqualTo(1);
+        assertThat(dir.resolve(artifacts.get(0).getFileName())).exists();
+        assertThat(dir.resolve(artifacts.get(1).getFileName())).doesNotExist();
+        assertThatThrownBy(() -> plan.execute(1)).isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void testBrokenLinksGetRepaired() throws IOException {
+        List<Path> artifacts = createArtifacts(3);
+        for (LinkMode linkMode : List.of(LinkMode.SYMLINK, LinkMode.AUTO)) {
+            Path dir = tempDir.resolve("deps-" + linkMode);
+            FileUtils.syncArtifacts(artifacts, dir, LinkMode.SYMLINK, false);
+            Path dangling = dir.resolve(artifacts.get(0).getFileName());
+            Path wrong = dir.resolve(artifacts.get(1).getFileName());
+            Files.delete(dangling);
+            Files.createSymbolicLink(dangling, tempDir.resolve("gone.jar"));
+            Files.delete(wrong);
+            Files.createSymbolicLink(wrong, artifacts.get(2));
+
+            SyncResult result = SyncPlan.create(artifacts, dir, linkMode, false, null).execute(1);
+
+            // In AUTO mode the intact link may get replaced by a hard link as well
+            assertThat(result.updated).as(linkMode.toString()).isGreaterThanOrEqualTo(2);
+            assertThat(dangling).hasContent("artifact 0");
+            assertThat(wrong).hasContent("artifact 1");
+        }
+    }
+
+    private List<Path> createArtifacts(int count) throws IOException {
+        Path repo = tempDir.resolve("repo");
+        Files.createDirectories(repo);
+        List<Path> artifacts = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Path artifact = repo.resolve("artifact-" + i + ".jar");
+            Files.writeString(artifact, "artifact " + i);
+            artifacts.add(artifact);
+        }
+        return artifacts;
+    }
+}